@@ -9,7 +9,8 @@ function parse_yaml {
 }
 eval $(parse_yaml /atrc_data/parameters.yaml)
 
-VERSION=0.0.1a1
+# version of the jar, set by the image (build argument VERSION)
+VERSION=${VERSION:-0.0.1a1}
 OUTPUT="/atrc_data/outputs"
 
 INPUT=$inputs_INPUT_path
@@ -35,6 +36,11 @@ PARAMS=""
 [ ! -z "$RMMODE" ] && PARAMS="${PARAMS} --RMMODE ${RMMODE}"
 [ ! -z "$ADDMODE" ] && PARAMS="${PARAMS} --ADDMODE ${ADDMODE}"
 
-CALL_STR="java -jar /app/jar/planit-aurin-parser-${VERSION}.jar ${PARAMS}"
+# use the AppCDS archive created at image build time when present to reduce startup time
+JAVA_OPTS=""
+CDS_ARCHIVE="/app/jar/planit-aurin-parser.jsa"
+[ -f "$CDS_ARCHIVE" ] && JAVA_OPTS="-XX:SharedArchiveFile=${CDS_ARCHIVE} -Xshare:auto"
+
+CALL_STR="java ${JAVA_OPTS} -jar /app/jar/planit-aurin-parser-${VERSION}.jar ${PARAMS}"
 echo $CALL_STR
 eval $CALL_STR
\ No newline at end of file
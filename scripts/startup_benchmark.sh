@@ -0,0 +1,57 @@
+#!/bin/bash
+
+# Benchmarks cold start latency of the wrapper on the small training fixture in each available launch mode:
+#  - jar     : java -jar (no class data sharing archive)
+#  - appcds  : java -XX:SharedArchiveFile=<archive> -jar (requires mvn package -Pappcds)
+#  - native  : GraalVM native executable (requires mvn package -Pnative)
+#
+# For each run the time until the parsed network is available (as logged by the wrapper relative to process start) and
+# the total wall clock time are reported, followed by the median per mode.
+#
+# Usage: scripts/startup_benchmark.sh [number of runs per mode, default 5]
+
+RUNS=${1:-5}
+TARGET_DIR="$(dirname "$0")/../target"
+JAR=$(ls ${TARGET_DIR}/planit-aurin-parser-*.jar 2>/dev/null | grep -v javadoc | head -n 1)
+ARCHIVE="${TARGET_DIR}/planit-aurin-parser.jsa"
+NATIVE="${TARGET_DIR}/planit-aurin-parser"
+FIXTURE="$(dirname "$0")/../src/test/resources/osm/training.osm"
+OUTPUT=$(mktemp -d)
+
+if [ -z "$JAR" ]; then
+  echo "No jar found in ${TARGET_DIR}, build first (mvn package [-Pappcds] [-Pnative])"
+  exit 1
+fi
+
+# run the given command RUNS times and report time to parsed network and total time (ms)
+function benchmark {
+  local mode=$1; shift
+  local first_network=()
+  local total=()
+  for ((i = 0; i < RUNS; i++)); do
+    rm -rf "${OUTPUT:?}"/*
+    local start=$(date +%s%N)
+    local log=$("$@" --input "$FIXTURE" --output "$OUTPUT" --clean no 2>&1)
+    local end=$(date +%s%N)
+    first_network+=($(echo "$log" | sed -n 's/.*Parsed network available \([0-9]*\) ms after process start.*/\1/p' | head -n 1))
+    total+=($(( (end - start) / 1000000 )))
+  done
+  local median_first=$(printf '%s\n' "${first_network[@]}" | sort -n | awk '{a[NR]=$1} END {print a[int((NR+1)/2)]}')
+  local median_total=$(printf '%s\n' "${total[@]}" | sort -n | awk '{a[NR]=$1} END {print a[int((NR+1)/2)]}')
+  printf "%-8s parsed network (ms): %-30s median %-6s total (ms): %-30s median %s\n" \
+    "$mode" "${first_network[*]}" "$median_first" "${total[*]}" "$median_total"
+}
+
+benchmark jar java -Xshare:off -jar "$JAR"
+if [ -f "$ARCHIVE" ]; then
+  benchmark appcds java -XX:SharedArchiveFile="$ARCHIVE" -Xshare:on -jar "$JAR"
+else
+  echo "appcds   skipped, no archive at ${ARCHIVE} (mvn package -Pappcds)"
+fi
+if [ -x "$NATIVE" ]; then
+  benchmark native "$NATIVE"
+else
+  echo "native   skipped, no executable at ${NATIVE} (mvn package -Pnative)"
+fi
+
+rm -rf "$OUTPUT"
@@ -0,0 +1,443 @@
+package org.goplanit.aurin.parser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Logging handler that decouples the threads that log from the (synchronous) handlers that format and write the records, e.g., the console and file
+ * handlers configured in logging.properties. Records are placed in a bounded ring buffer and dispatched to the wrapped handlers by a single background
+ * thread, so formatting and flushing no longer happen on the parse loop. Further, warnings are rate limited per message template (the message with all
+ * numbers replaced, since messages arrive preformatted): per template only the first records within each interval are passed on, the remainder is
+ * counted and summarised as "N similar suppressed" once the interval ends.
+ * <p>
+ * When the buffer is full, records below info are dropped (and counted, reported once space is available) rather than blocking the logging thread,
+ * while for info and above the logging thread waits for space, so these are never lost. Severe records are never suppressed. Flushing dispatches
+ * the buffered records as well as the summaries of records suppressed so far. Configuration is read from the logging properties, i.e.,
+ * {@code org.goplanit.aurin.parser.AsyncRateLimitedLogHandler.capacity|burst|interval} (interval in seconds).
+ *
+ * @author markr
+ *
+ */
+public class AsyncRateLimitedLogHandler extends Handler {
+
+  /** prefix of the configuration properties of this handler */
+  private static final String PROPERTY_PREFIX = AsyncRateLimitedLogHandler.class.getName();
+
+  /** default capacity of the ring buffer */
+  private static final int DEFAULT_CAPACITY = 8192;
+
+  /** default number of warnings per template passed on within each interval */
+  private static final int DEFAULT_BURST = 10;
+
+  /** default rate limiting interval in seconds */
+  private static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+  /** maximum number of templates tracked, warnings of further templates are passed on without rate limiting */
+  private static final int MAX_TEMPLATES = 10_000;
+
+  /** maximum length of a template, longer messages are truncated */
+  private static final int MAX_TEMPLATE_LENGTH = 256;
+
+  /** maximum time to wait for the buffer to be drained when flushing or closing */
+  private static final long DRAIN_TIMEOUT_MILLIS = 5_000;
+
+  /**
+   * Rate limiting state of a single message template
+   */
+  private static class TemplateWindow {
+
+    /** the template */
+    private final String template;
+
+    /** logger name of the last record of this template */
+    private String loggerName;
+
+    /** start of current interval */
+    private long windowStartNanos;
+
+    /** records passed on within the current interval */
+    private int passed;
+
+    /** records suppressed within the current interval */
+    private long suppressed;
+
+    /**
+     * Constructor
+     *
+     * @param template of the window
+     * @param nowNanos start of the first interval
+     */
+    private TemplateWindow(String template, long nowNanos) {
+      this.template = template;
+      this.windowStartNanos = nowNanos;
+    }
+
+    /** Create the summary of the records suppressed so far and reset the count
+     *
+     * @param period description of the period the records were suppressed in
+     * @return summary, null if none suppressed
+     */
+    private LogRecord takeSummary(String period) {
+      if(suppressed == 0) {
+        return null;
+      }
+      var summary = new LogRecord(Level.WARNING, String.format("%d similar suppressed %s: %s", suppressed, period, template));
+      summary.setLoggerName(loggerName);
+      summary.setSourceClassName(loggerName);
+      summary.setSourceMethodName(null);
+      suppressed = 0;
+      return summary;
+    }
+
+    /** Close the current interval when it has expired
+     *
+     * @param nowNanos current time
+     * @param intervalNanos length of interval
+     * @param intervalSeconds length of interval, for reporting
+     * @return summary of suppressed records of the closed interval, null if none or not expired
+     */
+    private synchronized LogRecord closeExpired(long nowNanos, long intervalNanos, long intervalSeconds) {
+      if(nowNanos - windowStartNanos < intervalNanos) {
+        return null;
+      }
+      LogRecord summary = takeSummary(String.format("in the last %d s", intervalSeconds));
+      windowStartNanos = nowNanos;
+      passed = 0;
+      return summary;
+    }
+
+    /** Summarise the records suppressed so far within the current interval without closing it, so the interval's burst remains used up
+     *
+     * @return summary of suppressed records, null if none
+     */
+    private synchronized LogRecord takePending() {
+      return takeSummary("so far");
+    }
+
+    /** Admit a record to the current interval
+     *
+     * @param record to admit
+     * @param burst number of records passed on per interval
+     * @return true when to be passed on, false when suppressed
+     */
+    private synchronized boolean admit(LogRecord record, int burst) {
+      loggerName = record.getLoggerName();
+      if(passed < burst) {
+        ++passed;
+        return true;
+      }
+      ++suppressed;
+      return false;
+    }
+
+    /** Verify if idle, i.e., nothing passed on or suppressed in the current interval
+     *
+     * @return true when idle
+     */
+    private synchronized boolean isIdle() {
+      return passed == 0 && suppressed == 0;
+    }
+  }
+
+  /** handlers to dispatch to */
+  private final List<Handler> handlers;
+
+  /** the ring buffer */
+  private final BlockingQueue<LogRecord> buffer;
+
+  /** number of warnings per template passed on within each interval */
+  private final int burst;
+
+  /** rate limiting interval */
+  private final long intervalNanos;
+
+  /** rate limiting state per template */
+  private final Map<String, TemplateWindow> templateWindows = new ConcurrentHashMap<>();
+
+  /** records dropped because the buffer was full, not yet reported */
+  private final AtomicLong droppedRecords = new AtomicLong();
+
+  /** records placed in the buffer */
+  private final AtomicLong enqueuedRecords = new AtomicLong();
+
+  /** records dispatched to the handlers */
+  private final AtomicLong dispatchedRecords = new AtomicLong();
+
+  /** background thread dispatching records */
+  private final Thread dispatcher;
+
+  /** flag indicating handler is closed */
+  private volatile boolean closed = false;
+
+  /** Read an integer logging property of this handler
+   *
+   * @param name of property
+   * @param defaultValue when absent or invalid
+   * @return value
+   */
+  private static int getIntProperty(String name, int defaultValue) {
+    String value = LogManager.getLogManager().getProperty(PROPERTY_PREFIX + "." + name);
+    try {
+      return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }catch(NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /** Create the template of a (preformatted) message by replacing each number with a placeholder
+   *
+   * @param message to create template for
+   * @return template
+   */
+  private static String createTemplate(String message) {
+    if(message == null) {
+      return "";
+    }
+    StringBuilder template = new StringBuilder(Math.min(message.length(), MAX_TEMPLATE_LENGTH));
+    boolean inNumber = false;
+    for(int index = 0; index < message.length() && template.length() < MAX_TEMPLATE_LENGTH; ++index) {
+      char c = message.charAt(index);
+      boolean digit = Character.isDigit(c) || (inNumber && c == '.');
+      if(digit && !inNumber) {
+        template.append('#');
+      }else if(!digit) {
+        template.append(c);
+      }
+      inNumber = digit;
+    }
+    return template.toString();
+  }
+
+  /** Place a record in the buffer. When full, records below info are dropped, for others the caller waits until space is available. Records
+   * logged by the dispatcher itself (i.e., by a wrapped handler) are dispatched directly as it cannot wait for itself
+   *
+   * @param record to place
+   */
+  private void enqueue(LogRecord record) {
+    if(buffer.offer(record)) {
+      enqueuedRecords.incrementAndGet();
+      return;
+    }
+    if(record.getLevel().intValue() < Level.INFO.intValue()) {
+      droppedRecords.incrementAndGet();
+      return;
+    }
+    if(Thread.currentThread() == dispatcher) {
+      dispatch(record);
+      return;
+    }
+    try {
+      buffer.put(record);
+      enqueuedRecords.incrementAndGet();
+    }catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      dispatch(record);
+    }
+  }
+
+  /** Pass a record on to the wrapped handlers
+   *
+   * @param record to dispatch
+   */
+  private void dispatch(LogRecord record) {
+    for(Handler handler : handlers) {
+      try {
+        if(handler.isLoggable(record)) {
+          handler.publish(record);
+        }
+      }catch(RuntimeException e) {
+        reportError("Unable to dispatch log record", e, ErrorManager.WRITE_FAILURE);
+      }
+    }
+  }
+
+  /** Dispatch summaries of expired intervals and of dropped records, removing idle templates
+   *
+   * @param nowNanos current time
+   * @param closeAll when true all intervals are considered expired
+   */
+  private void dispatchSummaries(long nowNanos, boolean closeAll) {
+    long intervalSeconds = TimeUnit.NANOSECONDS.toSeconds(intervalNanos);
+    for(Iterator<TemplateWindow> iter = templateWindows.values().iterator(); iter.hasNext();) {
+      TemplateWindow window = iter.next();
+      LogRecord summary = window.closeExpired(closeAll ? Long.MAX_VALUE : nowNanos, closeAll ? 0 : intervalNanos, intervalSeconds);
+      if(summary != null) {
+        dispatch(summary);
+      }else if(window.isIdle()) {
+        iter.remove();
+      }
+    }
+
+    dispatchDroppedSummary();
+  }
+
+  /** Dispatch the summaries of all records suppressed and dropped so far, without closing the current intervals
+   */
+  private void dispatchPendingSummaries() {
+    for(TemplateWindow window : templateWindows.values()) {
+      LogRecord summary = window.takePending();
+      if(summary != null) {
+        dispatch(summary);
+      }
+    }
+    dispatchDroppedSummary();
+  }
+
+  /** Dispatch the summary of records dropped because the buffer was full, if any
+   */
+  private void dispatchDroppedSummary() {
+    long dropped = droppedRecords.getAndSet(0);
+    if(dropped > 0) {
+      LogRecord summary = new LogRecord(Level.WARNING, String.format("%d log records dropped, logging buffer was full", dropped));
+      summary.setLoggerName(AsyncRateLimitedLogHandler.class.getCanonicalName());
+      summary.setSourceClassName(AsyncRateLimitedLogHandler.class.getCanonicalName());
+      summary.setSourceMethodName(null);
+      dispatch(summary);
+    }
+  }
+
+  /** Dispatch records until closed and the buffer is drained
+   */
+  private void runDispatcher() {
+    long summaryIntervalNanos = Math.min(intervalNanos, TimeUnit.SECONDS.toNanos(1));
+    long nextSummaryNanos = System.nanoTime() + summaryIntervalNanos;
+    while(!closed || !buffer.isEmpty()) {
+      try {
+        LogRecord record = buffer.poll(Math.max(1, nextSummaryNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if(record != null) {
+          dispatch(record);
+          dispatchedRecords.incrementAndGet();
+        }
+      }catch(InterruptedException e) {
+        /* closing, drain remaining records */
+      }
+      long nowNanos = System.nanoTime();
+      if(nowNanos >= nextSummaryNanos) {
+        dispatchSummaries(nowNanos, false);
+        nextSummaryNanos = nowNanos + summaryIntervalNanos;
+      }
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param handlers to dispatch to
+   * @param capacity of the ring buffer
+   * @param burst number of warnings per template passed on within each interval
+   * @param intervalSeconds rate limiting interval
+   */
+  public AsyncRateLimitedLogHandler(final List<Handler> handlers, int capacity, int burst, int intervalSeconds) {
+    this.handlers = new ArrayList<>(handlers);
+    this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    this.burst = burst;
+    this.intervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, intervalSeconds));
+    setLevel(Level.ALL);
+
+    this.dispatcher = new Thread(this::runDispatcher, "planit-logging");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /** Wrap the handlers of the root logger in an asynchronous rate limited handler configured via the logging properties. Has no effect when already
+   * installed or when the root logger has no handlers
+   *
+   * @return installed handler, null when none
+   */
+  public static AsyncRateLimitedLogHandler install() {
+    Logger rootLogger = LogManager.getLogManager().getLogger("");
+    Handler[] rootHandlers = rootLogger.getHandlers();
+    for(Handler handler : rootHandlers) {
+      if(handler instanceof AsyncRateLimitedLogHandler) {
+        return (AsyncRateLimitedLogHandler) handler;
+      }
+    }
+    if(rootHandlers.length == 0) {
+      return null;
+    }
+
+    var asyncHandler = new AsyncRateLimitedLogHandler(
+        List.of(rootHandlers),
+        getIntProperty("capacity", DEFAULT_CAPACITY),
+        getIntProperty("burst", DEFAULT_BURST),
+        getIntProperty("interval", DEFAULT_INTERVAL_SECONDS));
+    for(Handler handler : rootHandlers) {
+      rootLogger.removeHandler(handler);
+    }
+    rootLogger.addHandler(asyncHandler);
+    return asyncHandler;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void publish(LogRecord record) {
+    if(closed || record == null || !isLoggable(record)) {
+      return;
+    }
+
+    if(record.getLevel() == Level.WARNING && burst >= 0) {
+      String template = createTemplate(record.getMessage());
+      TemplateWindow window = templateWindows.get(template);
+      if(window == null && templateWindows.size() < MAX_TEMPLATES) {
+        window = templateWindows.computeIfAbsent(template, t -> new TemplateWindow(t, System.nanoTime()));
+      }
+      if(window != null && !window.admit(record, burst)) {
+        return;
+      }
+    }
+
+    /* the caller can only be inferred on the logging thread */
+    record.getSourceClassName();
+    enqueue(record);
+  }
+
+  /**
+   * Wait (bounded) until all records buffered so far are dispatched, dispatch the summaries of the records suppressed (or dropped) so far, then
+   * flush the wrapped handlers
+   */
+  @Override
+  public void flush() {
+    long target = enqueuedRecords.get();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+    while(dispatchedRecords.get() < target && dispatcher.isAlive() && System.nanoTime() < deadline) {
+      Thread.onSpinWait();
+      Thread.yield();
+    }
+    dispatchPendingSummaries();
+    handlers.forEach(Handler::flush);
+  }
+
+  /**
+   * Dispatch all buffered records and outstanding summaries, then close the wrapped handlers
+   */
+  @Override
+  public void close() {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    dispatcher.interrupt();
+    try {
+      dispatcher.join(DRAIN_TIMEOUT_MILLIS);
+    }catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    dispatchSummaries(System.nanoTime(), true);
+    handlers.forEach(Handler::close);
+  }
+}
@@ -0,0 +1,163 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffered writer of the binary sidecar files (routing graph, spatial index) in the layout read by {@link MappedFile}, i.e., little endian
+ * primitives in sections that each start at a multiple of 8 bytes.
+ *
+ * @author markr
+ *
+ */
+class BinaryFileWriter implements AutoCloseable {
+
+  /** size of the buffer used to write the file */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** channel to write to */
+  private final FileChannel channel;
+
+  /** buffer to write via */
+  private final ByteBuffer buffer;
+
+  /** number of bytes written so far (including buffered) */
+  private long position;
+
+  /** Flush the buffer to the channel
+   *
+   * @throws IOException thrown if error
+   */
+  private void flush() throws IOException {
+    buffer.flip();
+    while(buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** Ensure the buffer has room
+   *
+   * @param numberOfBytes required
+   * @throws IOException thrown if error
+   */
+  private void ensureRemaining(int numberOfBytes) throws IOException {
+    if(buffer.remaining() < numberOfBytes) {
+      flush();
+    }
+  }
+
+  /**
+   * Constructor, creates or truncates the file
+   *
+   * @param file to write to
+   * @throws IOException thrown if error
+   */
+  BinaryFileWriter(final Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(MappedFile.BYTE_ORDER);
+  }
+
+  /** Write int
+   *
+   * @param value to write
+   * @throws IOException thrown if error
+   */
+  void writeInt(int value) throws IOException {
+    ensureRemaining(Integer.BYTES);
+    buffer.putInt(value);
+    position += Integer.BYTES;
+  }
+
+  /** Write long
+   *
+   * @param value to write
+   * @throws IOException thrown if error
+   */
+  void writeLong(long value) throws IOException {
+    ensureRemaining(Long.BYTES);
+    buffer.putLong(value);
+    position += Long.BYTES;
+  }
+
+  /** Write double
+   *
+   * @param value to write
+   * @throws IOException thrown if error
+   */
+  void writeDouble(double value) throws IOException {
+    ensureRemaining(Double.BYTES);
+    buffer.putDouble(value);
+    position += Double.BYTES;
+  }
+
+  /** Write bytes
+   *
+   * @param value to write
+   * @throws IOException thrown if error
+   */
+  void writeBytes(byte[] value) throws IOException {
+    for(int offset = 0; offset < value.length;) {
+      if(!buffer.hasRemaining()) {
+        flush();
+      }
+      int length = Math.min(buffer.remaining(), value.length - offset);
+      buffer.put(value, offset, length);
+      offset += length;
+    }
+    position += value.length;
+  }
+
+  /** End the current section, i.e., pad with zeros up to the next multiple of 8 bytes
+   *
+   * @throws IOException thrown if error
+   */
+  void endSection() throws IOException {
+    while(position != MappedFile.align(position)) {
+      ensureRemaining(1);
+      buffer.put((byte) 0);
+      ++position;
+    }
+  }
+
+  /** Write string table section, i.e., the byte offsets of the strings followed by their UTF-8 bytes, see {@link MappedStringTable}
+   *
+   * @param strings to write
+   * @throws IOException thrown if error
+   */
+  void writeStringTable(List<String> strings) throws IOException {
+    List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+    int offset = 0;
+    writeInt(offset);
+    for(String string : strings) {
+      byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+      encodedStrings.add(encoded);
+      offset = Math.addExact(offset, encoded.length);
+      writeInt(offset);
+    }
+    for(byte[] encoded : encodedStrings) {
+      writeBytes(encoded);
+    }
+    endSection();
+  }
+
+  /**
+   * Flush and close the file
+   *
+   * @throws IOException thrown if error
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    }finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package org.goplanit.aurin.parser;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+/**
+ * Thrown when a conversion observes that it has been cancelled, either explicitly or because its deadline has passed.
+ *
+ * @author markr
+ *
+ */
+public class ConversionCancelledException extends PlanItException {
+
+  /** generated UID */
+  private static final long serialVersionUID = -4625315328760573174L;
+
+  /**
+   * Constructor
+   *
+   * @param reason of the cancellation
+   */
+  public ConversionCancelledException(final String reason) {
+    super(String.format("Conversion cancelled: %s", reason));
+  }
+}
@@ -0,0 +1,378 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.misc.StringUtils;
+
+/**
+ * Checkpoint of a conversion persisted in the output directory after each major stage, such that a subsequent run with --resume can skip the
+ * stages that have already been completed. A checkpoint is only considered valid when:
+ *
+ * <ul>
+ * <li>it was created with the same settings, i.e., the hash of the command line configuration (and the size/modification time of local
+ * input files) matches</li>
+ * <li>all files written by the completed stage still exist with the size and modification time they had when the stage completed</li>
+ * </ul>
+ *
+ * When not resuming, or when the checkpoint does not match the settings, the outputs recorded by the existing checkpoint are removed before
+ * starting from scratch, such that outputs of stages that are no longer requested do not linger. Likewise, outputs of stages invalidated by
+ * completing an earlier stage are removed.
+ *
+ * The parsed PLANit network itself is not persisted, instead the raw MATSim network written from it serves as checkpoint of both the read
+ * and write stage.
+ *
+ * @author markr
+ *
+ */
+public class ConversionCheckpoint {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(ConversionCheckpoint.class.getCanonicalName());
+
+  /** Key reflecting whether or not to resume from a valid checkpoint */
+  public static final String RESUME_KEY = "resume";
+
+  /** Value to activate resuming */
+  private static final String RESUME_ACTIVATE = "yes";
+
+  /** Value to deactivate resuming */
+  private static final String RESUME_DEACTIVATE = "no";
+
+  /** File name of the checkpoint in the output directory */
+  public static final String CHECKPOINT_FILE_NAME = ".planit_checkpoint.properties";
+
+  /** Stage: OSM read and raw MATSim network (and pt infrastructure) written */
+  public static final String STAGE_WRITTEN = "written";
+
+  /** Stage: detailed geometry of the raw network simplified */
+  public static final String STAGE_SIMPLIFIED = "simplified";
+
+  /** Stage: raw MATSim network (and its geometry) rewritten in Hilbert order */
+  public static final String STAGE_ORDERED = "ordered";
+
+  /** Stage: cleaned MATSim network (and cleaned geometry) written */
+  public static final String STAGE_CLEANED = "cleaned";
+
+  /** Stage: change sets of the (cleaned) MATSim network against the baseline written */
+  public static final String STAGE_DELTA = "delta";
+
+  /** Stage: routing graphs of the (cleaned) MATSim network written */
+  public static final String STAGE_GRAPH_EXPORTED = "graphexported";
+
+  /** Stage: spatial indices of the (cleaned) MATSim network written */
+  public static final String STAGE_SPATIAL_INDEXED = "spatialindexed";
+
+  /** Stages in order of execution, completing a stage invalidates all stages that follow */
+  private static final List<String> STAGES = List.of(STAGE_WRITTEN, STAGE_SIMPLIFIED, STAGE_ORDERED, STAGE_CLEANED, STAGE_DELTA, STAGE_GRAPH_EXPORTED, STAGE_SPATIAL_INDEXED);
+
+  /** Keys that do not affect the outputs and are therefore not part of the settings hash */
+  private static final Set<String> NON_OUTPUT_AFFECTING_KEYS = Set.of(
+      RESUME_KEY, "profile", "validate", ExecutionConfigurationHelper.DEADLINE_KEY, ExecutionConfigurationHelper.PROGRESS_INTERVAL_KEY);
+
+  /** property holding the settings hash */
+  private static final String SETTINGS_HASH_PROPERTY = "settings.hash";
+
+  /** property prefix of the files produced by a stage */
+  private static final String STAGE_FILES_PROPERTY_PREFIX = "stage.";
+
+  /** separator between files of a stage */
+  private static final String FILE_SEPARATOR = "|";
+
+  /** separator between file name and its fingerprint */
+  private static final String FINGERPRINT_SEPARATOR = "=";
+
+  /** separator between size and modification time within a fingerprint */
+  private static final String MODIFIED_SEPARATOR = ":";
+
+  /** output directory the checkpoint resides in */
+  private final Path outputDirectory;
+
+  /** hash of the settings of this run */
+  private final String settingsHash;
+
+  /** checkpoint properties */
+  private final Properties properties = new Properties();
+
+  /** Create hash of all settings affecting the output. Local input files contribute their size and modification time
+   *
+   * @param keyValueMap to hash
+   * @return hash as hex string
+   * @throws PlanItException thrown if error
+   */
+  private static String createSettingsHash(Map<String, String> keyValueMap) throws PlanItException {
+    StringBuilder settings = new StringBuilder();
+    new TreeMap<>(keyValueMap).forEach((key, value) -> {
+      if(!NON_OUTPUT_AFFECTING_KEYS.contains(key)) {
+        settings.append(key).append('=').append(value).append('\n');
+      }
+    });
+    for(String inputSource : OsmReaderConfigurationHelper.parseInputsources(keyValueMap)) {
+      Path inputPath = Path.of(inputSource);
+      try {
+        if(Files.isRegularFile(inputPath)) {
+          settings.append(inputSource).append(':').append(Files.size(inputPath)).append(':').append(Files.getLastModifiedTime(inputPath).toMillis()).append('\n');
+        }
+      }catch(IOException | RuntimeException e) {
+        /* not a local file, only its location contributes */
+      }
+    }
+
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(settings.toString().getBytes(StandardCharsets.UTF_8));
+      StringBuilder hash = new StringBuilder();
+      for(byte b : digest) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    }catch(NoSuchAlgorithmException e) {
+      throw new PlanItException("Unable to hash settings for checkpoint", e);
+    }
+  }
+
+  /** Create the fingerprint of an output file, i.e., its size and modification time. Outputs are promoted by atomic moves which retain the
+   * modification time, so any later change to the file is detected without having to read it
+   *
+   * @param file to fingerprint
+   * @return fingerprint
+   * @throws IOException thrown if error
+   */
+  private static String createFingerprint(Path file) throws IOException {
+    return Files.size(file) + MODIFIED_SEPARATOR + Files.getLastModifiedTime(file).toMillis();
+  }
+
+  /** Collect the files of a stage with their fingerprints
+   *
+   * @param stageProperties to collect from
+   * @param stage to collect files for
+   * @return fingerprint by file name, empty when the stage was not completed
+   */
+  private static Map<String, String> collectStageFiles(Properties stageProperties, String stage) {
+    Map<String, String> stageFiles = new TreeMap<>();
+    String stageFilesProperty = stageProperties.getProperty(STAGE_FILES_PROPERTY_PREFIX + stage);
+    if(stageFilesProperty == null) {
+      return stageFiles;
+    }
+    for(String stageFile : stageFilesProperty.split("\\" + FILE_SEPARATOR)) {
+      int fingerprintIndex = stageFile.lastIndexOf(FINGERPRINT_SEPARATOR);
+      if(fingerprintIndex > 0) {
+        stageFiles.put(stageFile.substring(0, fingerprintIndex), stageFile.substring(fingerprintIndex + 1));
+      }
+    }
+    return stageFiles;
+  }
+
+  /** Record the files of a stage with their fingerprints
+   *
+   * @param stage to record files for
+   * @param stageFiles fingerprint by file name
+   */
+  private void recordStageFiles(String stage, Map<String, String> stageFiles) {
+    properties.setProperty(STAGE_FILES_PROPERTY_PREFIX + stage, stageFiles.entrySet().stream()
+        .map(entry -> entry.getKey() + FINGERPRINT_SEPARATOR + entry.getValue()).collect(Collectors.joining(FILE_SEPARATOR)));
+  }
+
+  /** Remove the outputs of stages from the output directory, except for outputs that are retained by other stages
+   *
+   * @param outputDirectory to remove outputs from
+   * @param stageProperties holding the files of each stage
+   * @param stagesToRemove stages to remove the outputs of
+   * @param retainedFileNames file names not to remove
+   * @throws PlanItException thrown if error
+   */
+  private static void removeStageOutputs(
+      Path outputDirectory, Properties stageProperties, List<String> stagesToRemove, Set<String> retainedFileNames) throws PlanItException {
+    for(String stage : stagesToRemove) {
+      for(String fileName : collectStageFiles(stageProperties, stage).keySet()) {
+        if(retainedFileNames.contains(fileName)) {
+          continue;
+        }
+        Path file = outputDirectory.resolve(fileName);
+        try {
+          if(Files.deleteIfExists(file)) {
+            LOGGER.info(String.format("Removed outdated output %s of stage %s", file, stage));
+          }
+        }catch(IOException e) {
+          throw new PlanItException(String.format("Unable to remove outdated output %s of stage %s", file, stage), e);
+        }
+      }
+    }
+  }
+
+  /** Persist the checkpoint via a temporary file that atomically replaces the existing checkpoint
+   *
+   * @throws PlanItException thrown if error
+   */
+  private void persist() throws PlanItException {
+    Path checkpointFile = outputDirectory.resolve(CHECKPOINT_FILE_NAME);
+    Path temporaryFile = outputDirectory.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+    try {
+      Files.createDirectories(outputDirectory);
+      try(Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)){
+        properties.store(writer, "PLANit Aurin parser conversion checkpoint");
+      }
+      Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to persist checkpoint %s", checkpointFile), e);
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param outputDirectory of the checkpoint
+   * @param settingsHash of the current run
+   */
+  private ConversionCheckpoint(Path outputDirectory, String settingsHash) {
+    this.outputDirectory = outputDirectory;
+    this.settingsHash = settingsHash;
+    this.properties.setProperty(SETTINGS_HASH_PROPERTY, settingsHash);
+  }
+
+  /** Verify if we are to resume from a valid checkpoint, a key without value is considered an activation
+   *
+   * @param keyValueMap to extract information from
+   * @return true when resuming, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isResume(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    if(!keyValueMap.containsKey(RESUME_KEY)) {
+      return false;
+    }
+    String resumeValue = keyValueMap.get(RESUME_KEY);
+    if(StringUtils.isNullOrBlank(resumeValue)) {
+      resumeValue = RESUME_ACTIVATE;
+    }
+    switch (resumeValue) {
+      case RESUME_ACTIVATE:
+        return true;
+      case RESUME_DEACTIVATE:
+        return false;
+      default:
+        throw new PlanItException(
+            "Unkown resume value chosen %s, choose from %s, %s", resumeValue, RESUME_ACTIVATE, RESUME_DEACTIVATE);
+    }
+  }
+
+  /** Open the checkpoint for the run. When resuming and a checkpoint with matching settings exists in the output directory, its completed stages
+   * are adopted, otherwise an empty checkpoint is created
+   *
+   * @param outputDirectory to locate checkpoint in
+   * @param keyValueMap command line configuration of the run
+   * @return checkpoint
+   * @throws PlanItException thrown if error
+   */
+  public static ConversionCheckpoint open(Path outputDirectory, Map<String, String> keyValueMap) throws PlanItException {
+    var checkpoint = new ConversionCheckpoint(outputDirectory, createSettingsHash(keyValueMap));
+
+    Path checkpointFile = outputDirectory.resolve(CHECKPOINT_FILE_NAME);
+    if(!Files.exists(checkpointFile)) {
+      return checkpoint;
+    }
+
+    Properties persisted = new Properties();
+    try(Reader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)){
+      persisted.load(reader);
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to read checkpoint %s, starting from scratch", checkpointFile));
+      return checkpoint;
+    }
+
+    if(isResume(keyValueMap)) {
+      if(checkpoint.settingsHash.equals(persisted.getProperty(SETTINGS_HASH_PROPERTY))) {
+        checkpoint.properties.putAll(persisted);
+        return checkpoint;
+      }
+      LOGGER.warning(String.format("Checkpoint %s was created with different settings, starting from scratch", checkpointFile));
+    }
+
+    /* outputs are about to be replaced, the existing checkpoint and the outputs it recorded no longer apply */
+    removeStageOutputs(outputDirectory, persisted, STAGES, Set.of());
+    try {
+      Files.delete(checkpointFile);
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to remove outdated checkpoint %s", checkpointFile), e);
+    }
+    return checkpoint;
+  }
+
+  /** Verify if the stage has been completed and its outputs are still valid
+   *
+   * @param stage to verify
+   * @return true when completed and valid, false otherwise
+   */
+  public boolean isCompleted(String stage) {
+    if(!properties.containsKey(STAGE_FILES_PROPERTY_PREFIX + stage)) {
+      return false;
+    }
+
+    for(var stageFile : collectStageFiles(properties, stage).entrySet()) {
+      Path file = outputDirectory.resolve(stageFile.getKey());
+      try {
+        if(!Files.isRegularFile(file) || !createFingerprint(file).equals(stageFile.getValue())) {
+          LOGGER.warning(String.format("Checkpoint of stage %s invalid, output %s missing or modified", stage, file));
+          return false;
+        }
+      }catch(IOException e) {
+        return false;
+      }
+    }
+    LOGGER.info(String.format("Resuming from checkpoint, stage %s already completed", stage));
+    return true;
+  }
+
+  /** Mark the stage as completed with the files it wrote (and promoted into the output directory) as its outputs. Files of earlier stages that
+   * this stage rewrote are updated accordingly, later stages are invalidated and their outputs removed
+   *
+   * @param stage completed
+   * @param stageFileNames names of the files written by the stage in the output directory
+   * @throws PlanItException thrown if error
+   */
+  public void complete(String stage, List<String> stageFileNames) throws PlanItException {
+    Map<String, String> stageFiles = new TreeMap<>();
+    try {
+      for(String fileName : stageFileNames) {
+        stageFiles.put(fileName, createFingerprint(outputDirectory.resolve(fileName)));
+      }
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to collect outputs of stage %s in %s", stage, outputDirectory), e);
+    }
+    recordStageFiles(stage, stageFiles);
+
+    /* outputs of earlier stages may have been rewritten by this stage, e.g., simplified geometry */
+    Set<String> retainedFileNames = new HashSet<>(stageFiles.keySet());
+    for(String earlierStage : STAGES.subList(0, STAGES.indexOf(stage))) {
+      if(!properties.containsKey(STAGE_FILES_PROPERTY_PREFIX + earlierStage)) {
+        continue;
+      }
+      Map<String, String> earlierStageFiles = collectStageFiles(properties, earlierStage);
+      earlierStageFiles.replaceAll((fileName, fingerprint) -> stageFiles.getOrDefault(fileName, fingerprint));
+      recordStageFiles(earlierStage, earlierStageFiles);
+      retainedFileNames.addAll(earlierStageFiles.keySet());
+    }
+
+    List<String> laterStages = STAGES.subList(STAGES.indexOf(stage) + 1, STAGES.size());
+    removeStageOutputs(outputDirectory, properties, laterStages, retainedFileNames);
+    for(String laterStage : laterStages) {
+      properties.remove(STAGE_FILES_PROPERTY_PREFIX + laterStage);
+    }
+    persist();
+  }
+}
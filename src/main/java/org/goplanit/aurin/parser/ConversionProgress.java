@@ -0,0 +1,391 @@
+package org.goplanit.aurin.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+/**
+ * Progress of a conversion: the current stage, the input consumed (bytes and, for validated local PBF files, fileblocks), the number of entities
+ * processed within the current stage and the elapsed time. Progress is logged periodically via {@link #report()} and forwarded to an
+ * optional {@link ConversionProgressListener}.
+ * <p>
+ * Cancellation is cooperative: once {@link #cancel(String)} is called, the next stage transition as well as the next read from any tracked input
+ * fails, which unwinds the reader (and writer) threads through their regular error handling.
+ *
+ * @author markr
+ *
+ */
+public class ConversionProgress {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(ConversionProgress.class.getCanonicalName());
+
+  /** stage prior to the first conversion stage */
+  public static final String STAGE_INITIALISING = "initialising";
+
+  /**
+   * Input tracked for consumption
+   */
+  private static class TrackedInput {
+
+    /** bytes read so far */
+    private final AtomicLong bytesConsumed = new AtomicLong();
+
+    /** total size in bytes, -1 when not (yet) known */
+    private volatile long totalBytes;
+
+    /** scanner of the input's fileblocks, null when not a scanned local PBF file */
+    private final MappedPbfFileScanner scanner;
+
+    /**
+     * Constructor
+     *
+     * @param totalBytes of input, -1 when unknown
+     * @param scanner of input, may be null
+     */
+    private TrackedInput(long totalBytes, MappedPbfFileScanner scanner) {
+      this.totalBytes = totalBytes;
+      this.scanner = scanner;
+    }
+  }
+
+  /**
+   * Input stream counting the bytes consumed, failing once the conversion is cancelled
+   */
+  private class TrackedInputStream extends FilterInputStream {
+
+    /** input to update */
+    private final TrackedInput trackedInput;
+
+    /** Fail when cancelled
+     *
+     * @throws InterruptedIOException thrown if cancelled
+     */
+    private void throwIfCancelled() throws InterruptedIOException {
+      if(isCancelled()) {
+        throw new InterruptedIOException(String.format("Conversion cancelled: %s", cancellationReason));
+      }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param inputStream to track
+     * @param trackedInput to update
+     */
+    private TrackedInputStream(InputStream inputStream, TrackedInput trackedInput) {
+      super(inputStream);
+      this.trackedInput = trackedInput;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+      throwIfCancelled();
+      int value = super.read();
+      if(value >= 0) {
+        trackedInput.bytesConsumed.incrementAndGet();
+      }
+      return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      throwIfCancelled();
+      int numberOfBytes = super.read(buffer, offset, length);
+      if(numberOfBytes > 0) {
+        trackedInput.bytesConsumed.addAndGet(numberOfBytes);
+      }
+      return numberOfBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+      throwIfCancelled();
+      long skipped = super.skip(n);
+      trackedInput.bytesConsumed.addAndGet(skipped);
+      return skipped;
+    }
+  }
+
+  /** listener to notify, may be null */
+  private final ConversionProgressListener listener;
+
+  /** start of the conversion */
+  private final long startTimeNanos = System.nanoTime();
+
+  /** tracked inputs */
+  private final List<TrackedInput> trackedInputs = new CopyOnWriteArrayList<>();
+
+  /** current stage */
+  private volatile String stage = STAGE_INITIALISING;
+
+  /** entities processed in the current stage */
+  private volatile LongSupplier stageEntities = () -> 0;
+
+  /** last known number of entities processed in the current stage */
+  private volatile long lastStageEntities = 0;
+
+  /** reason of cancellation, null when not cancelled */
+  private volatile String cancellationReason = null;
+
+  /**
+   * Constructor
+   *
+   * @param listener to notify, may be null
+   */
+  public ConversionProgress(final ConversionProgressListener listener) {
+    this.listener = listener;
+  }
+
+  /** Track consumption of the given input source. Consumption is only tracked when the reader opens the input source as a stream via the
+   * returned URL, which is otherwise identical to the given one
+   *
+   * @param inputSource to track
+   * @param scanner of the input fileblocks when it is a scanned local PBF file, may be null
+   * @return URL to provide to the reader
+   * @throws PlanItException thrown if error
+   */
+  public URL trackInput(final URL inputSource, final MappedPbfFileScanner scanner) throws PlanItException {
+    PlanItException.throwIfNull(inputSource, "Input source to track null");
+
+    long totalBytes = -1;
+    if(scanner != null) {
+      totalBytes = scanner.getFileSize();
+    }else if("file".equals(inputSource.getProtocol())) {
+      try {
+        totalBytes = Files.size(Path.of(inputSource.toURI()));
+      }catch(Exception e) {
+        /* size unknown */
+      }
+    }
+    var trackedInput = new TrackedInput(totalBytes, scanner);
+    trackedInputs.add(trackedInput);
+
+    try {
+      return new URL(null, inputSource.toExternalForm(), new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+          URLConnection connection = inputSource.openConnection();
+          return new URLConnection(url) {
+            @Override
+            public void connect() throws IOException {
+              connection.connect();
+            }
+            @Override
+            public InputStream getInputStream() throws IOException {
+              if(trackedInput.totalBytes < 0) {
+                trackedInput.totalBytes = connection.getContentLengthLong();
+              }
+              return new TrackedInputStream(connection.getInputStream(), trackedInput);
+            }
+            @Override
+            public long getContentLengthLong() {
+              return connection.getContentLengthLong();
+            }
+            @Override
+            public String getContentType() {
+              return connection.getContentType();
+            }
+            @Override
+            public String getHeaderField(String name) {
+              return connection.getHeaderField(name);
+            }
+            @Override
+            public Map<String, List<String>> getHeaderFields() {
+              return connection.getHeaderFields();
+            }
+            @Override
+            public long getLastModified() {
+              return connection.getLastModified();
+            }
+          };
+        }
+      });
+    }catch(MalformedURLException e) {
+      throw new PlanItException(String.format("Unable to track input source %s", inputSource), e);
+    }
+  }
+
+  /** Transition to the next stage, notifying the listener
+   *
+   * @param stage started
+   * @param entitiesProcessed supplier of the number of entities processed so far within this stage, may be polled concurrently, may be null
+   * @throws ConversionCancelledException thrown if the conversion has been cancelled
+   */
+  public void startStage(final String stage, final LongSupplier entitiesProcessed) throws ConversionCancelledException {
+    throwIfCancelled();
+    this.stageEntities = entitiesProcessed != null ? entitiesProcessed : () -> 0;
+    this.lastStageEntities = 0;
+    this.stage = stage;
+    if(listener != null) {
+      listener.onProgress(this);
+    }
+  }
+
+  /** Cancel the conversion, the reason is reported in the resulting exception
+   *
+   * @param reason of cancellation
+   */
+  public void cancel(final String reason) {
+    if(cancellationReason == null) {
+      cancellationReason = reason;
+      LOGGER.warning(String.format("Cancelling conversion during stage %s: %s", stage, reason));
+    }
+  }
+
+  /** Verify if cancelled
+   *
+   * @return true when cancelled, false otherwise
+   */
+  public boolean isCancelled() {
+    return cancellationReason != null;
+  }
+
+  /** Reason of cancellation
+   *
+   * @return reason, null when not cancelled
+   */
+  public String getCancellationReason() {
+    return cancellationReason;
+  }
+
+  /** Fail when cancelled
+   *
+   * @throws ConversionCancelledException thrown if cancelled
+   */
+  public void throwIfCancelled() throws ConversionCancelledException {
+    if(isCancelled()) {
+      throw new ConversionCancelledException(cancellationReason);
+    }
+  }
+
+  /** Current stage
+   *
+   * @return stage
+   */
+  public String getStage() {
+    return stage;
+  }
+
+  /** Bytes of input consumed so far across all tracked inputs
+   *
+   * @return bytes consumed
+   */
+  public long getBytesConsumed() {
+    long bytesConsumed = 0;
+    for(var trackedInput : trackedInputs) {
+      bytesConsumed += trackedInput.bytesConsumed.get();
+    }
+    return bytesConsumed;
+  }
+
+  /** Total bytes of input across all tracked inputs
+   *
+   * @return total bytes, -1 when unknown for any input
+   */
+  public long getTotalBytes() {
+    long totalBytes = 0;
+    for(var trackedInput : trackedInputs) {
+      if(trackedInput.totalBytes < 0) {
+        return -1;
+      }
+      totalBytes += trackedInput.totalBytes;
+    }
+    return totalBytes;
+  }
+
+  /** Fileblocks of input consumed so far across all tracked inputs, only available when all inputs are scanned local PBF files
+   *
+   * @return fileblocks consumed, -1 when unknown
+   */
+  public long getFileBlocksConsumed() {
+    long fileBlocksConsumed = 0;
+    for(var trackedInput : trackedInputs) {
+      if(trackedInput.scanner == null) {
+        return -1;
+      }
+      fileBlocksConsumed += trackedInput.scanner.getNumberOfFileBlocks(trackedInput.bytesConsumed.get());
+    }
+    return fileBlocksConsumed;
+  }
+
+  /** Total fileblocks across all tracked inputs, only available when all inputs are scanned local PBF files
+   *
+   * @return total fileblocks, -1 when unknown
+   */
+  public long getTotalFileBlocks() {
+    long totalFileBlocks = 0;
+    for(var trackedInput : trackedInputs) {
+      if(trackedInput.scanner == null) {
+        return -1;
+      }
+      totalFileBlocks += trackedInput.scanner.getNumberOfFileBlocks();
+    }
+    return totalFileBlocks;
+  }
+
+  /** Entities (nodes and links) processed so far within the current stage. Counts of stages that run inside the PLANit reader are polled from the
+   * network under construction and are therefore approximate
+   *
+   * @return entities processed
+   */
+  public long getEntitiesProcessed() {
+    try {
+      lastStageEntities = stageEntities.getAsLong();
+    }catch(RuntimeException e) {
+      /* polled concurrently with the stage modifying the underlying containers, retain last known count */
+    }
+    return lastStageEntities;
+  }
+
+  /** Time elapsed since the start of the conversion
+   *
+   * @return elapsed time in milliseconds
+   */
+  public long getElapsedMillis() {
+    return (System.nanoTime() - startTimeNanos) / 1_000_000;
+  }
+
+  /** Log the current progress and notify the listener
+   */
+  public void report() {
+    StringBuilder input = new StringBuilder();
+    if(!trackedInputs.isEmpty()) {
+      long totalBytes = getTotalBytes();
+      input.append(String.format(", input %.1f", getBytesConsumed() / 1e6));
+      input.append(totalBytes >= 0 ? String.format("/%.1f MB", totalBytes / 1e6) : " MB");
+      long totalFileBlocks = getTotalFileBlocks();
+      if(totalFileBlocks >= 0) {
+        input.append(String.format(" (%d/%d fileblocks)", getFileBlocksConsumed(), totalFileBlocks));
+      }
+    }
+    LOGGER.info(String.format("Progress: stage %s%s, %d entities, %d s elapsed", stage, input, getEntitiesProcessed(), getElapsedMillis() / 1000));
+    if(listener != null) {
+      listener.onProgress(this);
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package org.goplanit.aurin.parser;
+
+/**
+ * Listener to receive progress of a conversion when using the programmatic API, see {@link PlanitAurinParserMain#execute(String[], ConversionProgressListener)}.
+ * It is notified at the start of each stage and periodically in between. Notifications are issued from a thread other than the caller's, so
+ * implementations should return quickly. The conversion can be cancelled via {@link ConversionProgress#cancel(String)}.
+ *
+ * @author markr
+ *
+ */
+@FunctionalInterface
+public interface ConversionProgressListener {
+
+  /** Notify of progress
+   *
+   * @param progress current progress of the conversion
+   */
+  public abstract void onProgress(ConversionProgress progress);
+}
@@ -0,0 +1,129 @@
+package org.goplanit.aurin.parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event marking the beginning and end of a stage of the conversion (read, write, clean, etc.), such that allocations,
+ * lock contention and GC pauses in a recording can be attributed to a stage. Only recorded when a flight recording is active with this
+ * event enabled (which is the case when --profile is used), otherwise the overhead is negligible.
+ * <p>
+ * The event is committed when closed, so stages that fail or are cancelled are recorded as well, flagged as failed.
+ *
+ * @author markr
+ *
+ */
+@Name(ConversionStageEvent.NAME)
+@Label("Conversion Stage")
+@Category({"PLANit", "Aurin Parser"})
+@Description("Stage of an OSM to MATSim conversion performed by the PLANit Aurin parser wrapper")
+@StackTrace(false)
+public class ConversionStageEvent extends Event implements AutoCloseable {
+
+  /** Name of the event type */
+  public static final String NAME = "org.goplanit.aurin.parser.ConversionStage";
+
+  /** Stage reading OSM input and converting it to a PLANit network */
+  public static final String STAGE_READ = "read";
+
+  /** Stage reading OSM input and converting it to a PLANit network and zoning, including matching PT infrastructure to the network */
+  public static final String STAGE_READ_INTERMODAL = "read (incl. pt matching)";
+
+  /** Stage interning strings of the parsed network */
+  public static final String STAGE_INTERN = "intern";
+
+  /** Stage writing the PLANit network (and zoning) in MATSim format */
+  public static final String STAGE_WRITE = "write";
+
+  /** Stage persisting the MATSim network in Hilbert order */
+  public static final String STAGE_ORDER = "order";
+
+  /** Stage cleaning the MATSim network */
+  public static final String STAGE_CLEAN = "clean";
+
+  /** Stage simplifying/filtering the detailed geometry */
+  public static final String STAGE_GEOMETRY = "geometry";
+
+  /** Stage creating the change set of a MATSim network against its baseline */
+  public static final String STAGE_DELTA = "delta";
+
+  /** Stage exporting the routing graph of a MATSim network */
+  public static final String STAGE_GRAPH_EXPORT = "graph export";
+
+  /** Stage writing the spatial index of a MATSim network */
+  public static final String STAGE_SPATIAL_INDEX = "spatial index";
+
+  /** Stage streaming the input to the MATSim network with bounded memory */
+  public static final String STAGE_STREAM = "stream";
+
+  /** the stage */
+  @Label("Stage")
+  String stage;
+
+  /** input source(s) */
+  @Label("Input")
+  String inputSource;
+
+  /** bounding box, if any */
+  @Label("Bounding Box")
+  String boundingBox;
+
+  /** network fidelity */
+  @Label("Fidelity")
+  String fidelity;
+
+  /** number of nodes known at the end of the stage */
+  @Label("Nodes")
+  long numberOfNodes;
+
+  /** number of links known at the end of the stage */
+  @Label("Links")
+  long numberOfLinks;
+
+  /** whether the stage ended without completing, i.e., failed or was cancelled */
+  @Label("Failed")
+  boolean failed = true;
+
+  /** Create and begin a new event
+   *
+   * @param stage of the conversion
+   * @param inputSource of the conversion
+   * @param boundingBox of the conversion, may be null
+   * @param fidelity of the conversion
+   * @return event, already begun
+   */
+  public static ConversionStageEvent start(String stage, String inputSource, String boundingBox, String fidelity) {
+    var event = new ConversionStageEvent();
+    event.stage = stage;
+    event.inputSource = inputSource;
+    event.boundingBox = boundingBox;
+    event.fidelity = fidelity;
+    event.begin();
+    return event;
+  }
+
+  /** Mark the stage as completed, the event is committed once closed
+   *
+   * @param numberOfNodes present at end of stage, negative when unknown
+   * @param numberOfLinks present at end of stage, negative when unknown
+   */
+  public void complete(long numberOfNodes, long numberOfLinks) {
+    this.numberOfNodes = numberOfNodes;
+    this.numberOfLinks = numberOfLinks;
+    this.failed = false;
+  }
+
+  /** End and commit the event, flagged as failed unless completed
+   */
+  @Override
+  public void close() {
+    end();
+    if(shouldCommit()) {
+      commit();
+    }
+  }
+}
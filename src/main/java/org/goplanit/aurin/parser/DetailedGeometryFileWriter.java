@@ -0,0 +1,210 @@
+package org.goplanit.aurin.parser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.locationtech.jts.io.WKTWriter;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * Streams the detailed link geometry file generated by the MATSim writer (one link per line, link id followed by its WKT geometry) into a new
+ * geometry file in a single pass. Each link id is passed through a mapping function which allows links to be dropped (for example
+ * when they are no longer present in the cleaned network) or renamed. Optionally the geometry is simplified using Douglas-Peucker with a given
+ * tolerance (in units of the output coordinate reference system).
+ *
+ * @author markr
+ *
+ */
+public class DetailedGeometryFileWriter {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(DetailedGeometryFileWriter.class.getCanonicalName());
+
+  /** quote character used when geometry contains the separator */
+  private static final char QUOTE = '"';
+
+  /** tolerance for Douglas-Peucker simplification, non-positive means no simplification */
+  private final double simplificationTolerance;
+
+  /** WKT reader, only used when simplifying */
+  private final WKTReader wktReader = new WKTReader();
+
+  /** WKT writer, only used when simplifying */
+  private final WKTWriter wktWriter = new WKTWriter();
+
+  /** Locate the separator between link id and geometry on a line
+   *
+   * @param line to search
+   * @return index of separator, -1 if absent
+   */
+  private static int findSeparator(final String line) {
+    for(int index = 0; index < line.length(); ++index) {
+      char c = line.charAt(index);
+      if(c == '\t' || c == ',' || c == ';') {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /** Simplify the WKT geometry
+   *
+   * @param wkt to simplify (unquoted)
+   * @return simplified wkt
+   * @throws ParseException thrown if not valid WKT
+   */
+  private String simplify(final String wkt) throws ParseException {
+    Geometry geometry = wktReader.read(wkt);
+    return wktWriter.write(DouglasPeuckerSimplifier.simplify(geometry, simplificationTolerance));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param simplificationTolerance to apply, non-positive to not simplify
+   */
+  public DetailedGeometryFileWriter(double simplificationTolerance) {
+    this.simplificationTolerance = simplificationTolerance;
+  }
+
+  /** Verify if geometry is simplified
+   *
+   * @return true when simplifying, false otherwise
+   */
+  public boolean isSimplify() {
+    return simplificationTolerance > 0;
+  }
+
+  /** Stream the source geometry file into an already opened target geometry file
+   *
+   * @param sourceFile to read
+   * @param writer of the target file to append to
+   * @param linkIdMapping maps each source link id to the id to write, or null when the link is to be dropped
+   * @param copyHeader when true the first line of the source file is copied as is, otherwise it is skipped
+   * @return number of links written
+   * @throws PlanItException thrown if error
+   */
+  public long append(final Path sourceFile, final BufferedWriter writer, final Function<String, String> linkIdMapping, boolean copyHeader) throws PlanItException {
+    PlanItException.throwIfNull(sourceFile, "Source geometry file null");
+    PlanItException.throwIfNull(writer, "Target geometry writer null");
+    PlanItException.throwIfNull(linkIdMapping, "Link id mapping null");
+
+    long numberOfLinksRead = 0;
+    long numberOfLinksWritten = 0;
+    try(BufferedReader reader = Files.newBufferedReader(sourceFile, StandardCharsets.UTF_8)){
+
+      String line = reader.readLine();
+      if(line == null) {
+        return 0;
+      }
+      /* header */
+      if(copyHeader) {
+        writer.write(line);
+        writer.newLine();
+      }
+
+      while((line = reader.readLine()) != null) {
+        int separatorIndex = findSeparator(line);
+        if(separatorIndex < 0) {
+          continue;
+        }
+        ++numberOfLinksRead;
+
+        String linkId = linkIdMapping.apply(line.substring(0, separatorIndex));
+        if(linkId == null) {
+          continue;
+        }
+
+        String geometry = line.substring(separatorIndex + 1);
+        if(isSimplify()) {
+          boolean quoted = geometry.length() > 1 && geometry.charAt(0) == QUOTE && geometry.charAt(geometry.length()-1) == QUOTE;
+          geometry = simplify(quoted ? geometry.substring(1, geometry.length()-1) : geometry);
+          if(quoted) {
+            geometry = QUOTE + geometry + QUOTE;
+          }
+        }
+
+        writer.write(linkId);
+        writer.write(line.charAt(separatorIndex));
+        writer.write(geometry);
+        writer.newLine();
+        ++numberOfLinksWritten;
+      }
+    }catch(IOException | ParseException e) {
+      throw new PlanItException(String.format("Unable to stream detailed geometry file %s", sourceFile), e);
+    }
+
+    LOGGER.info(String.format("Streamed detailed geometry of %d out of %d links from %s", numberOfLinksWritten, numberOfLinksRead, sourceFile));
+    return numberOfLinksWritten;
+  }
+
+  /** Read the coordinates of the link geometries of a geometry file
+   *
+   * @param sourceFile to read
+   * @param linkFilter to select the links to read the geometry of
+   * @return coordinates by link id
+   * @throws PlanItException thrown if error
+   */
+  public Map<String, Coordinate[]> readCoordinates(final Path sourceFile, final Predicate<String> linkFilter) throws PlanItException {
+    PlanItException.throwIfNull(sourceFile, "Source geometry file null");
+    PlanItException.throwIfNull(linkFilter, "Link filter null");
+
+    Map<String, Coordinate[]> coordinatesByLinkId = new HashMap<>();
+    try(BufferedReader reader = Files.newBufferedReader(sourceFile, StandardCharsets.UTF_8)){
+      /* skip header */
+      String line = reader.readLine();
+      while(line != null && (line = reader.readLine()) != null) {
+        int separatorIndex = findSeparator(line);
+        if(separatorIndex < 0) {
+          continue;
+        }
+        String linkId = line.substring(0, separatorIndex);
+        if(!linkFilter.test(linkId)) {
+          continue;
+        }
+        String geometry = line.substring(separatorIndex + 1);
+        boolean quoted = geometry.length() > 1 && geometry.charAt(0) == QUOTE && geometry.charAt(geometry.length()-1) == QUOTE;
+        coordinatesByLinkId.put(linkId, wktReader.read(quoted ? geometry.substring(1, geometry.length()-1) : geometry).getCoordinates());
+      }
+    }catch(IOException | ParseException e) {
+      throw new PlanItException(String.format("Unable to read detailed geometry file %s", sourceFile), e);
+    }
+
+    LOGGER.info(String.format("Read detailed geometry of %d links from %s", coordinatesByLinkId.size(), sourceFile));
+    return coordinatesByLinkId;
+  }
+
+  /** Stream the source geometry file into the target geometry file. The first line is treated as header and copied as is.
+   *
+   * @param sourceFile to read
+   * @param targetFile to write
+   * @param linkIdMapping maps each source link id to the id to write, or null when the link is to be dropped
+   * @return number of links written
+   * @throws PlanItException thrown if error
+   */
+  public long write(final Path sourceFile, final Path targetFile, final Function<String, String> linkIdMapping) throws PlanItException {
+    PlanItException.throwIfNull(targetFile, "Target geometry file null");
+
+    try(BufferedWriter writer = Files.newBufferedWriter(targetFile, StandardCharsets.UTF_8)){
+      long numberOfLinksWritten = append(sourceFile, writer, linkIdMapping, true);
+      LOGGER.info(String.format("Persisted detailed geometry to %s", targetFile));
+      return numberOfLinksWritten;
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to write detailed geometry file %s", targetFile), e);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package org.goplanit.aurin.parser;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.misc.StringUtils;
+
+/**
+ * Helper methods to configure the execution of a run (deadline, progress reporting) based on user arguments provided for this wrapper.
+ *
+ * @author markr
+ *
+ */
+public class ExecutionConfigurationHelper {
+
+  //----------------------------------------------------
+  //--------DEADLINE -----------------------------------
+  //----------------------------------------------------
+
+  /** Key reflecting the maximum duration of a run after which it is cancelled */
+  public static final String DEADLINE_KEY = "deadline";
+
+  //----------------------------------------------------
+  //--------PROGRESS -----------------------------------
+  //----------------------------------------------------
+
+  /** Key reflecting the interval at which progress is reported */
+  public static final String PROGRESS_INTERVAL_KEY = "progressinterval";
+
+  /** Default progress interval */
+  public static final Duration DEFAULT_PROGRESS_INTERVAL = Duration.ofSeconds(10);
+
+  /** Duration in short form, e.g., 90s, 30m, 1h30m, 500ms */
+  private static final Pattern SHORT_DURATION_PATTERN = Pattern.compile("(\\d+)(ms|s|m|h)");
+
+  /** Parse a duration either in short form (e.g. 90s, 30m, 1h30m, 500ms) or in ISO-8601 form (e.g. PT1H30M)
+   *
+   * @param key the duration belongs to, for error reporting
+   * @param durationValue to parse
+   * @return parsed duration
+   * @throws PlanItException thrown if not a valid positive duration
+   */
+  private static Duration parseDuration(final String key, final String durationValue) throws PlanItException {
+    String value = durationValue.trim().toLowerCase();
+    Duration duration = Duration.ZERO;
+    Matcher matcher = SHORT_DURATION_PATTERN.matcher(value);
+    int end = 0;
+    while(matcher.find() && matcher.start() == end) {
+      long amount = Long.parseLong(matcher.group(1));
+      switch (matcher.group(2)) {
+        case "ms": duration = duration.plusMillis(amount); break;
+        case "s": duration = duration.plusSeconds(amount); break;
+        case "m": duration = duration.plusMinutes(amount); break;
+        default: duration = duration.plusHours(amount);
+      }
+      end = matcher.end();
+    }
+
+    if(end != value.length()) {
+      try {
+        duration = Duration.parse(durationValue.trim());
+      }catch(DateTimeParseException e) {
+        throw new PlanItException("--%s expects a duration such as 90s, 30m, 1h30m or PT1H30M but found %s", key, durationValue);
+      }
+    }
+    if(duration.isNegative() || duration.isZero()) {
+      throw new PlanItException("--%s expects a positive duration but found %s", key, durationValue);
+    }
+    return duration;
+  }
+
+  /** The deadline of the run, after which it is cancelled
+   *
+   * @param keyValueMap to extract information from
+   * @return deadline as duration since the start of the run, null when absent
+   * @throws PlanItException thrown if error
+   */
+  public static Duration parseDeadline(final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+
+    String deadlineValue = keyValueMap.get(DEADLINE_KEY);
+    if(StringUtils.isNullOrBlank(deadlineValue)) {
+      if(keyValueMap.containsKey(DEADLINE_KEY)) {
+        throw new PlanItException("--%s requires a duration, e.g., 30m", DEADLINE_KEY);
+      }
+      return null;
+    }
+    return parseDuration(DEADLINE_KEY, deadlineValue);
+  }
+
+  /** The interval at which progress is logged and reported to the listener (if any)
+   *
+   * @param keyValueMap to extract information from
+   * @return progress interval
+   * @throws PlanItException thrown if error
+   */
+  public static Duration parseProgressInterval(final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+
+    String intervalValue = keyValueMap.get(PROGRESS_INTERVAL_KEY);
+    if(StringUtils.isNullOrBlank(intervalValue)) {
+      return DEFAULT_PROGRESS_INTERVAL;
+    }
+    return parseDuration(PROGRESS_INTERVAL_KEY, intervalValue);
+  }
+}
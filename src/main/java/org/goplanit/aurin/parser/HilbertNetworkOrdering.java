@@ -0,0 +1,196 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Orders the nodes of a MATSim network along a Hilbert space-filling curve over their coordinates, and the links grouped by their from node in
+ * that same order. Persisting a network in this order improves locality when it is loaded downstream (nearby entities end up near each other in
+ * the file and in memory), improves its compression ratio and makes the output stable across reruns. Optionally ids are compacted to dense
+ * integers in that order as well.
+ *
+ * @author markr
+ *
+ */
+public class HilbertNetworkOrdering {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(HilbertNetworkOrdering.class.getCanonicalName());
+
+  /** number of cells per dimension of the grid the coordinates are mapped onto (2^16) */
+  private static final long GRID_SIZE = 1L << 16;
+
+  /** network to order */
+  private final Network network;
+
+  /** nodes in Hilbert order */
+  private final Node[] orderedNodes;
+
+  /** rank of each node in the Hilbert order */
+  private final Map<Node, Integer> nodeRanks;
+
+  /** Map coordinate onto the grid
+   *
+   * @param value to map
+   * @param min of range
+   * @param extent of range
+   * @return grid cell
+   */
+  static long toGrid(double value, double min, double extent) {
+    if(extent <= 0) {
+      return 0;
+    }
+    return Math.min(GRID_SIZE - 1, (long) (((value - min) / extent) * GRID_SIZE));
+  }
+
+  /** Order nodes along the Hilbert curve, ties are broken by id to keep the order deterministic
+   *
+   * @return ordered nodes
+   */
+  private Node[] orderNodes() {
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for(Node node : network.getNodes().values()) {
+      minX = Math.min(minX, node.getCoord().getX());
+      minY = Math.min(minY, node.getCoord().getY());
+      maxX = Math.max(maxX, node.getCoord().getX());
+      maxY = Math.max(maxY, node.getCoord().getY());
+    }
+
+    Node[] nodes = network.getNodes().values().toArray(new Node[0]);
+    Map<Node, Long> hilbertIndices = new IdentityHashMap<>(nodes.length);
+    for(Node node : nodes) {
+      hilbertIndices.put(node, hilbertIndex(
+          toGrid(node.getCoord().getX(), minX, maxX - minX),
+          toGrid(node.getCoord().getY(), minY, maxY - minY)));
+    }
+    Arrays.sort(nodes, Comparator.<Node>comparingLong(hilbertIndices::get).thenComparing(node -> node.getId().toString()));
+    return nodes;
+  }
+
+  /** Compute the index of a grid cell along the Hilbert curve covering the grid
+   *
+   * @param x cell on x axis
+   * @param y cell on y axis
+   * @return position along curve
+   */
+  public static long hilbertIndex(long x, long y) {
+    long index = 0;
+    for(long s = GRID_SIZE / 2; s > 0; s /= 2) {
+      long rx = (x & s) > 0 ? 1 : 0;
+      long ry = (y & s) > 0 ? 1 : 0;
+      index += s * s * ((3 * rx) ^ ry);
+      /* rotate quadrant */
+      if(ry == 0) {
+        if(rx == 1) {
+          x = GRID_SIZE - 1 - x;
+          y = GRID_SIZE - 1 - y;
+        }
+        long swap = x;
+        x = y;
+        y = swap;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param network to order
+   */
+  public HilbertNetworkOrdering(final Network network) {
+    this.network = network;
+    this.orderedNodes = orderNodes();
+    this.nodeRanks = new IdentityHashMap<>(orderedNodes.length);
+    for(int rank = 0; rank < orderedNodes.length; ++rank) {
+      nodeRanks.put(orderedNodes[rank], rank);
+    }
+  }
+
+  /** Nodes in Hilbert order
+   *
+   * @return ordered nodes
+   */
+  public List<Node> getOrderedNodes() {
+    return Arrays.asList(orderedNodes);
+  }
+
+  /** Links grouped by from node in Hilbert order, within each group ordered by the rank of their to node
+   *
+   * @return ordered links
+   */
+  public List<Link> getOrderedLinks() {
+    List<Link> orderedLinks = new ArrayList<>(network.getLinks().size());
+    for(Node node : orderedNodes) {
+      List<Link> outLinks = new ArrayList<>(node.getOutLinks().values());
+      outLinks.sort(Comparator.<Link>comparingInt(link -> nodeRanks.get(link.getToNode())).thenComparing(link -> link.getId().toString()));
+      orderedLinks.addAll(outLinks);
+    }
+    return orderedLinks;
+  }
+
+  /** Persist the network in Hilbert order, replacing the given file atomically. The network name and network attributes (e.g. its coordinate
+   * reference system) are retained
+   *
+   * @param networkFile to write to
+   * @param compactIds when true, node and link ids are replaced by dense integers in the written order
+   * @return mapping from original link id to written link id
+   * @throws PlanItException thrown if error
+   */
+  public Map<String, String> write(final Path networkFile, boolean compactIds) throws PlanItException {
+    Path temporaryFile = networkFile.resolveSibling(networkFile.getFileName().toString() + ".tmp");
+    Map<Node, String> nodeIds = new IdentityHashMap<>(orderedNodes.length);
+    Map<String, String> linkIdMapping = new HashMap<>(network.getLinks().size());
+
+    try(var writer = new MatsimNetworkXmlWriter(temporaryFile, network.getName(), network.getAttributes().getAsMap())){
+      writer.startNodes();
+      for(int rank = 0; rank < orderedNodes.length; ++rank) {
+        Node node = orderedNodes[rank];
+        String nodeId = compactIds ? String.valueOf(rank) : node.getId().toString();
+        nodeIds.put(node, nodeId);
+        writer.writeNode(nodeId, node.getCoord().getX(), node.getCoord().getY(), node.getAttributes().getAsMap());
+      }
+      writer.endNodes();
+
+      writer.startLinks(network.getCapacityPeriod(), network.getEffectiveCellSize(), network.getEffectiveLaneWidth());
+      int linkIndex = 0;
+      for(Link link : getOrderedLinks()) {
+        String linkId = compactIds ? String.valueOf(linkIndex++) : link.getId().toString();
+        linkIdMapping.put(link.getId().toString(), linkId);
+        writer.writeLink(linkId, nodeIds.get(link.getFromNode()), nodeIds.get(link.getToNode()),
+            link.getLength(), link.getFreespeed(), link.getCapacity(), link.getNumberOfLanes(), link.getAllowedModes(), link.getAttributes().getAsMap());
+      }
+      writer.endLinks();
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to write Hilbert ordered network to %s", networkFile), e);
+    }
+
+    try {
+      Files.move(temporaryFile, networkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to replace network %s", networkFile), e);
+    }
+
+    LOGGER.info(String.format("Persisted %d nodes and %d links in Hilbert order%s to %s",
+        orderedNodes.length, linkIdMapping.size(), compactIds ? " with compacted ids" : "", networkFile));
+    return linkIdMapping;
+  }
+}
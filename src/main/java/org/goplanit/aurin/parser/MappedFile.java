@@ -0,0 +1,111 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps the consecutive sections of a binary sidecar file written by {@link BinaryFileWriter} read only into memory. Each section is mapped
+ * separately, so files may exceed the 2GB limit of a single mapping as long as each section does not. Mappings remain valid after the file
+ * is closed.
+ *
+ * @author markr
+ *
+ */
+class MappedFile implements AutoCloseable {
+
+  /** byte order of the sidecar files */
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /** channel to map from */
+  private final FileChannel channel;
+
+  /** start of the next section */
+  private long position;
+
+  /**
+   * Constructor
+   *
+   * @param file to map
+   * @throws IOException thrown if error
+   */
+  MappedFile(final Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+  }
+
+  /** Round up to multiple of 8 bytes
+   *
+   * @param position to align
+   * @return aligned position
+   */
+  static long align(long position) {
+    return (position + 7) & ~7L;
+  }
+
+  /** Map the next section
+   *
+   * @param size of section in bytes
+   * @return mapped section
+   * @throws IOException thrown if error, or when the section extends beyond the end of the file
+   */
+  ByteBuffer map(long size) throws IOException {
+    if(size < 0 || position + size > channel.size()) {
+      throw new IOException(String.format("Section [%d, %d) beyond end of file (%d bytes)", position, position + size, channel.size()));
+    }
+    ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(BYTE_ORDER);
+    position = align(position + size);
+    return section;
+  }
+
+  /** Map the next section as ints
+   *
+   * @param count number of ints
+   * @return mapped section
+   * @throws IOException thrown if error
+   */
+  IntBuffer mapInts(long count) throws IOException {
+    return map(count * Integer.BYTES).asIntBuffer();
+  }
+
+  /** Map the next section as doubles
+   *
+   * @param count number of doubles
+   * @return mapped section
+   * @throws IOException thrown if error
+   */
+  DoubleBuffer mapDoubles(long count) throws IOException {
+    return map(count * Double.BYTES).asDoubleBuffer();
+  }
+
+  /** Map the next section as string table
+   *
+   * @param count number of strings
+   * @return mapped string table
+   * @throws IOException thrown if error
+   */
+  MappedStringTable mapStringTable(int count) throws IOException {
+    long offsetsSize = (count + 1L) * Integer.BYTES;
+    if(count < 0 || position + offsetsSize > channel.size()) {
+      throw new IOException(String.format("String table of %d strings beyond end of file (%d bytes)", count, channel.size()));
+    }
+    /* offsets and bytes form a single section */
+    IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, offsetsSize).order(BYTE_ORDER).asIntBuffer();
+    position += offsetsSize;
+    return new MappedStringTable(offsets, map(offsets.get(count)));
+  }
+
+  /**
+   * Close the file, mapped sections remain valid
+   *
+   * @throws IOException thrown if error
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,398 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+/**
+ * Memory mapped access to a local OSM PBF file. The reader is provided the file via {@link #createInputSource()}, whose stream serves the
+ * fileblocks straight from memory mapped windows ({@link FileChannel#map}) of the file, so the reader decodes each fileblock from the mapped
+ * pages rather than via read calls on a file stream and an intermediate buffer.
+ * <p>
+ * Optionally, the structure of the file is validated before the (much more expensive) parse starts, such that corrupt or truncated files are
+ * rejected up front, see {@link #scan()}. The scan walks the fileblock headers only (each fileblock is a 4 byte length, a BlobHeader and the
+ * blob itself), so only the pages holding the headers are read. The fileblock offsets found are used to report parsing progress in fileblocks.
+ *
+ * @author markr
+ *
+ */
+public class MappedPbfFileScanner {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(MappedPbfFileScanner.class.getCanonicalName());
+
+  /** Maximum size of a single mapped window */
+  private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+  /** Maximum size of a BlobHeader as per the PBF specification */
+  private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+
+  /** Maximum size of a Blob as per the PBF specification */
+  private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+  /** type of the first fileblock in each PBF file */
+  private static final String OSM_HEADER_TYPE = "OSMHeader";
+
+  /** type of all subsequent fileblocks */
+  private static final String OSM_DATA_TYPE = "OSMData";
+
+  /** protobuf field (1, length delimited) holding the fileblock type in the BlobHeader */
+  private static final int BLOB_HEADER_TYPE_TAG = (1 << 3) | 2;
+
+  /** protobuf field (3, varint) holding the datasize in the BlobHeader */
+  private static final int BLOB_HEADER_DATASIZE_TAG = (3 << 3);
+
+  /** file to scan */
+  private final Path pbfFile;
+
+  /**
+   * Stream of a file served from consecutive memory mapped windows of the file
+   */
+  private static class MappedInputStream extends InputStream {
+
+    /** channel to map from */
+    private final FileChannel channel;
+
+    /** size of the file */
+    private final long size;
+
+    /** offset of the current window in the file */
+    private long windowStart = 0;
+
+    /** current window, null when the next window is to be mapped at windowStart */
+    private MappedByteBuffer window = null;
+
+    /** Offset of the next byte to serve
+     *
+     * @return offset in the file
+     */
+    private long position() {
+      return windowStart + (window != null ? window.position() : 0);
+    }
+
+    /** Map the next window when the current window is consumed
+     *
+     * @return true when bytes remain, false at the end of the file
+     * @throws IOException thrown if error
+     */
+    private boolean ensureWindow() throws IOException {
+      if(window != null && window.hasRemaining()) {
+        return true;
+      }
+      long position = position();
+      if(position >= size) {
+        return false;
+      }
+      windowStart = position;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAX_WINDOW_SIZE, size - windowStart));
+      return true;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file to serve
+     * @throws IOException thrown if error
+     */
+    MappedInputStream(final Path file) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      this.size = channel.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+      return ensureWindow() ? window.get() & 0xFF : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if(length == 0) {
+        return 0;
+      }
+      /* continue in the next window, such that reads are not cut short at window boundaries */
+      int numberOfBytes = 0;
+      while(numberOfBytes < length && ensureWindow()) {
+        int windowBytes = Math.min(length - numberOfBytes, window.remaining());
+        window.get(bytes, offset + numberOfBytes, windowBytes);
+        numberOfBytes += windowBytes;
+      }
+      return numberOfBytes > 0 ? numberOfBytes : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long numberOfBytes) throws IOException {
+      long position = position();
+      long skipped = Math.max(0, Math.min(numberOfBytes, size - position));
+      if(window != null && skipped <= window.remaining()) {
+        window.position(window.position() + (int) skipped);
+      }else {
+        windowStart = position + skipped;
+        window = null;
+      }
+      return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(Integer.MAX_VALUE, size - position());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+      window = null;
+      channel.close();
+    }
+  }
+
+  /** number of fileblocks found */
+  private long numberOfFileBlocks = 0;
+
+  /** size of the file in bytes */
+  private long fileSize = 0;
+
+  /** end offset of each fileblock found, in file order (only the first numberOfFileBlocks entries are used) */
+  private long[] fileBlockEndOffsets = new long[1024];
+
+  /** Read a protobuf varint from the buffer
+   *
+   * @param buffer to read from at its current position
+   * @param limit position the varint must end before
+   * @param blockStart offset of the fileblock in the file, for error reporting
+   * @return value
+   * @throws PlanItException thrown if the varint is not terminated before the limit, or longer than 10 bytes
+   */
+  private long readVarint(MappedByteBuffer buffer, int limit, long blockStart) throws PlanItException {
+    long value = 0;
+    for(int shift = 0; shift < Long.SIZE + 7; shift += 7) {
+      if(buffer.position() >= limit) {
+        throw new PlanItException("Truncated PBF BlobHeader at offset %d of %s", blockStart, pbfFile);
+      }
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new PlanItException("Invalid varint in PBF BlobHeader at offset %d of %s", blockStart, pbfFile);
+  }
+
+  /** Read the length of a length delimited field, verifying it ends within the BlobHeader
+   *
+   * @param buffer to read from at its current position
+   * @param headerEnd position of the end of the BlobHeader
+   * @param blockStart offset of the fileblock in the file, for error reporting
+   * @return length
+   * @throws PlanItException thrown if the field exceeds the BlobHeader
+   */
+  private int readFieldLength(MappedByteBuffer buffer, int headerEnd, long blockStart) throws PlanItException {
+    long length = readVarint(buffer, headerEnd, blockStart);
+    if(length < 0 || length > headerEnd - buffer.position()) {
+      throw new PlanItException("Invalid field length %d in PBF BlobHeader at offset %d of %s", length, blockStart, pbfFile);
+    }
+    return (int) length;
+  }
+
+  /** Parse the BlobHeader at the current position of the buffer
+   *
+   * @param buffer to parse from
+   * @param headerSize of the BlobHeader
+   * @param blockStart offset of the fileblock in the file, for error reporting
+   * @return data size of the blob that follows
+   * @throws PlanItException thrown if header is not valid
+   */
+  private long parseBlobHeader(MappedByteBuffer buffer, int headerSize, long blockStart) throws PlanItException {
+    int headerEnd = buffer.position() + headerSize;
+    String type = null;
+    long dataSize = -1;
+    while(buffer.position() < headerEnd) {
+      long tag = readVarint(buffer, headerEnd, blockStart);
+      if(tag == BLOB_HEADER_TYPE_TAG) {
+        byte[] typeBytes = new byte[readFieldLength(buffer, headerEnd, blockStart)];
+        buffer.get(typeBytes);
+        type = new String(typeBytes, StandardCharsets.UTF_8);
+      }else if(tag == BLOB_HEADER_DATASIZE_TAG) {
+        dataSize = readVarint(buffer, headerEnd, blockStart);
+      }else if((tag & 0x7) == 2) {
+        /* other length delimited field, e.g. indexdata, skip */
+        int length = readFieldLength(buffer, headerEnd, blockStart);
+        buffer.position(buffer.position() + length);
+      }else if((tag & 0x7) == 0) {
+        readVarint(buffer, headerEnd, blockStart);
+      }else {
+        throw new PlanItException("Unexpected field in PBF BlobHeader at offset %d of %s", blockStart, pbfFile);
+      }
+    }
+
+    String expectedType = numberOfFileBlocks == 0 ? OSM_HEADER_TYPE : OSM_DATA_TYPE;
+    if(!expectedType.equals(type)) {
+      throw new PlanItException("Expected PBF fileblock of type %s but found %s at offset %d of %s", expectedType, type, blockStart, pbfFile);
+    }
+    if(dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+      throw new PlanItException("Invalid PBF blob size %d at offset %d of %s", dataSize, blockStart, pbfFile);
+    }
+    return dataSize;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pbfFile to scan
+   */
+  public MappedPbfFileScanner(final Path pbfFile) {
+    this.pbfFile = pbfFile;
+  }
+
+  /** Scan all fileblock headers of the file, validating its structure along the way
+   *
+   * @throws PlanItException thrown if file cannot be read or is not a valid PBF file
+   */
+  public void scan() throws PlanItException {
+    long startTime = System.currentTimeMillis();
+    numberOfFileBlocks = 0;
+    try(FileChannel channel = FileChannel.open(pbfFile, StandardOpenOption.READ)){
+      fileSize = channel.size();
+
+      long windowStart = 0;
+      long position = 0;
+      MappedByteBuffer window = null;
+      while(position < fileSize) {
+        /* (re)map when the next fileblock (header) may not fit in the current window */
+        if(window == null || position + Integer.BYTES + MAX_BLOB_HEADER_SIZE > windowStart + window.capacity()) {
+          windowStart = position;
+          window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAX_WINDOW_SIZE, fileSize - windowStart));
+          window.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        window.position((int) (position - windowStart));
+        if(window.remaining() < Integer.BYTES) {
+          throw new PlanItException("Truncated PBF fileblock at offset %d of %s", position, pbfFile);
+        }
+        int headerSize = window.getInt();
+        if(headerSize <= 0 || headerSize > MAX_BLOB_HEADER_SIZE || headerSize > window.remaining()) {
+          throw new PlanItException("Invalid PBF BlobHeader size %d at offset %d of %s", headerSize, position, pbfFile);
+        }
+        long dataSize = parseBlobHeader(window, headerSize, position);
+
+        position += Integer.BYTES + headerSize + dataSize;
+        if(position > fileSize) {
+          throw new PlanItException("Truncated PBF blob at offset %d of %s", position - dataSize, pbfFile);
+        }
+        if(numberOfFileBlocks == fileBlockEndOffsets.length) {
+          fileBlockEndOffsets = Arrays.copyOf(fileBlockEndOffsets, fileBlockEndOffsets.length * 2);
+        }
+        fileBlockEndOffsets[(int) numberOfFileBlocks++] = position;
+      }
+    }catch(BufferUnderflowException | IllegalArgumentException e) {
+      throw new PlanItException(String.format("Truncated or corrupt PBF file %s", pbfFile), e);
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to memory map PBF file %s", pbfFile), e);
+    }
+
+    LOGGER.info(String.format("Validated %s: %d bytes in %d fileblocks (%d ms)",
+        pbfFile, fileSize, numberOfFileBlocks, System.currentTimeMillis() - startTime));
+  }
+
+  /** Location of the file to provide to the reader, opening it serves the file from memory mapped windows rather than a file stream. It can be
+   * opened more than once, e.g., by readers that parse their input more than once
+   *
+   * @return URL of the file
+   * @throws PlanItException thrown if error
+   */
+  public URL createInputSource() throws PlanItException {
+    try {
+      return new URL(null, pbfFile.toUri().toString(), new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+          return new URLConnection(url) {
+            @Override
+            public void connect() throws IOException {
+              /* mapped when the input is opened */
+            }
+            @Override
+            public InputStream getInputStream() throws IOException {
+              return new MappedInputStream(pbfFile);
+            }
+            @Override
+            public long getContentLengthLong() {
+              return pbfFile.toFile().length();
+            }
+          };
+        }
+      });
+    }catch(MalformedURLException e) {
+      throw new PlanItException(String.format("Unable to create input source for %s", pbfFile), e);
+    }
+  }
+
+  /** Number of fileblocks found during scan
+   *
+   * @return number of fileblocks
+   */
+  public long getNumberOfFileBlocks() {
+    return numberOfFileBlocks;
+  }
+
+  /** Number of fileblocks that are fully contained in the first bytes of the file, e.g., to express how many fileblocks have been consumed by
+   * a reader that has read the given number of bytes
+   *
+   * @param numberOfBytes from the start of the file
+   * @return number of fileblocks
+   */
+  public long getNumberOfFileBlocks(long numberOfBytes) {
+    int index = Arrays.binarySearch(fileBlockEndOffsets, 0, (int) numberOfFileBlocks, numberOfBytes);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  /** Size of the scanned file
+   *
+   * @return file size in bytes
+   */
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  /** Verify if input source is a local PBF file
+   *
+   * @param inputSource to verify
+   * @return true when local PBF file, false otherwise
+   */
+  public static boolean isLocalPbfFile(final String inputSource) {
+    if(inputSource == null || !inputSource.toLowerCase().endsWith(".pbf")) {
+      return false;
+    }
+    try {
+      return Path.of(inputSource).toFile().isFile();
+    }catch(Exception e) {
+      return false;
+    }
+  }
+}
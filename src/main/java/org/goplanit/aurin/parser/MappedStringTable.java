@@ -0,0 +1,65 @@
+package org.goplanit.aurin.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory mapped table of UTF-8 strings, i.e., int[count + 1] byte offsets followed by the bytes of all strings, decoded on access.
+ *
+ * @author markr
+ *
+ */
+class MappedStringTable {
+
+  /** byte offset of each string */
+  private final IntBuffer offsets;
+
+  /** bytes of all strings */
+  private final ByteBuffer bytes;
+
+  /**
+   * Constructor
+   *
+   * @param offsets of the strings
+   * @param bytes of the strings
+   */
+  MappedStringTable(IntBuffer offsets, ByteBuffer bytes) {
+    this.offsets = offsets;
+    this.bytes = bytes;
+  }
+
+  /** Number of strings
+   *
+   * @return number of strings
+   */
+  int size() {
+    return offsets.limit() - 1;
+  }
+
+  /** Decode string
+   *
+   * @param index of string
+   * @return string
+   */
+  String get(int index) {
+    int start = offsets.get(index);
+    byte[] value = new byte[offsets.get(index + 1) - start];
+    bytes.duplicate().position(start).get(value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  /** Index all strings by their value
+   *
+   * @return index by string
+   */
+  Map<String, Integer> createIndex() {
+    Map<String, Integer> indices = new HashMap<>((int) (size() / 0.75) + 1);
+    for(int index = 0; index < size(); ++index) {
+      indices.put(get(index), index);
+    }
+    return indices;
+  }
+}
@@ -0,0 +1,698 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+
+/**
+ * Change set between a baseline MATSim network (e.g., last week's conversion of the same region) and a newly converted one. Entities are matched
+ * on keys derived from OSM rather than on their (run dependent) ids: nodes by their <i>origid</i> attribute (the OSM node) when present and their
+ * coordinate otherwise, links by the keys of their end nodes combined with their <i>origid</i> attribute (the OSM way) when present. Entities
+ * sharing a key are disambiguated in id order.
+ * <p>
+ * The change set lists the ids of baseline links and nodes to remove, the id changes of matched entities (ids are assigned sequentially, so a
+ * single added way renumbers every entity after it), followed by the complete state of every node and link that is added or modified. Matched
+ * entities whose only difference is their id are recorded by a rename only. It is applied to the baseline (identified by its SHA-256 digest) by
+ * removing, renaming, then putting, which yields a network with the same entities, ids and attributes as the new network, see
+ * {@link #apply(Network, Path, String)} and {@link MatsimNetworkPatchMain}.
+ *
+ * @author markr
+ *
+ */
+public class MatsimNetworkDelta {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(MatsimNetworkDelta.class.getCanonicalName());
+
+  /** Name of the directory (within the output directory) holding baselines that would otherwise be overwritten by the outputs */
+  public static final String PRESERVED_BASELINE_DIRECTORY_NAME = ".planit_baseline";
+
+  /** attribute of a node or link holding the OSM node or OSM way it originates from */
+  private static final String ORIGID_ATTRIBUTE = "origid";
+
+  /* elements and attributes of the change set */
+  private static final String DELTA_ELEMENT = "networkDelta";
+  private static final String REMOVE_NODE_ELEMENT = "removeNode";
+  private static final String REMOVE_LINK_ELEMENT = "removeLink";
+  private static final String RENAME_NODE_ELEMENT = "renameNode";
+  private static final String RENAME_LINK_ELEMENT = "renameLink";
+  private static final String NODE_ELEMENT = "node";
+  private static final String LINK_ELEMENT = "link";
+  private static final String ATTRIBUTE_ELEMENT = "attribute";
+  private static final String FROM_ID_ATTRIBUTE = "from";
+  private static final String TO_ID_ATTRIBUTE = "to";
+  private static final String BASELINE_ATTRIBUTE = "baseline";
+  private static final String BASELINE_DIGEST_ATTRIBUTE = "baselineDigest";
+  private static final String NUMBER_OF_NODES_ATTRIBUTE = "nodes";
+  private static final String NUMBER_OF_LINKS_ATTRIBUTE = "links";
+  private static final String CAPACITY_PERIOD_ATTRIBUTE = "capacityPeriod";
+  private static final String EFFECTIVE_CELL_SIZE_ATTRIBUTE = "effectiveCellSize";
+  private static final String EFFECTIVE_LANE_WIDTH_ATTRIBUTE = "effectiveLaneWidth";
+
+  /** baseline network */
+  private final Network baseline;
+
+  /** new network */
+  private final Network network;
+
+  /** Key entities, entities sharing a key are disambiguated by a sequence number in id order
+   *
+   * @param <T> type of entity
+   * @param entities to key
+   * @param id of an entity
+   * @param key of an entity
+   * @return entities by unique key
+   */
+  private static <T> Map<String, T> keyEntities(final Iterable<? extends T> entities, final Function<T, String> id, final Function<T, String> key) {
+    List<T> sorted = new ArrayList<>();
+    entities.forEach(sorted::add);
+    sorted.sort(Comparator.comparing(id));
+    Map<String, T> keyed = new HashMap<>((int) (sorted.size() / 0.75) + 1);
+    for(T entity : sorted) {
+      String entityKey = key.apply(entity);
+      String uniqueKey = entityKey;
+      for(int sequence = 1; keyed.containsKey(uniqueKey); ++sequence) {
+        uniqueKey = entityKey + "#" + sequence;
+      }
+      keyed.put(uniqueKey, entity);
+    }
+    return keyed;
+  }
+
+  /** Key of a node, its OSM node when known, its coordinate otherwise
+   *
+   * @param node to key
+   * @return key
+   */
+  private static String nodeKey(final Node node) {
+    Object origId = node.getAttributes().getAttribute(ORIGID_ATTRIBUTE);
+    return origId != null ? "osm:" + origId : node.getCoord().getX() + "," + node.getCoord().getY();
+  }
+
+  /** Key of a link, the keys of its end nodes and its OSM way when known
+   *
+   * @param link to key
+   * @return key
+   */
+  private static String linkKey(final Link link) {
+    Object origId = link.getAttributes().getAttribute(ORIGID_ATTRIBUTE);
+    return nodeKey(link.getFromNode()) + ">" + nodeKey(link.getToNode()) + (origId != null ? "|" + origId : "");
+  }
+
+  /** Verify if the state of a node, i.e., everything but its id, is unchanged
+   *
+   * @param baselineNode to compare
+   * @param node to compare
+   * @return true when identical
+   */
+  private static boolean isSameState(final Node baselineNode, final Node node) {
+    return baselineNode.getCoord().equals(node.getCoord())
+        && baselineNode.getAttributes().getAsMap().equals(node.getAttributes().getAsMap());
+  }
+
+  /** Verify if node is unchanged, including its id
+   *
+   * @param baselineNode to compare
+   * @param node to compare
+   * @return true when identical
+   */
+  private static boolean isEqual(final Node baselineNode, final Node node) {
+    return baselineNode.getId().equals(node.getId()) && isSameState(baselineNode, node);
+  }
+
+  /** Verify if the state of a link, i.e., everything but its id, is unchanged, where its end nodes are compared by their ids after renaming
+   *
+   * @param baselineLink to compare
+   * @param link to compare
+   * @param renamedNodeIds new ids of renamed baseline nodes
+   * @return true when identical
+   */
+  private static boolean isSameState(final Link baselineLink, final Link link, final Map<Id<Node>, Id<Node>> renamedNodeIds) {
+    return renamedNodeIds.getOrDefault(baselineLink.getFromNode().getId(), baselineLink.getFromNode().getId()).equals(link.getFromNode().getId())
+        && renamedNodeIds.getOrDefault(baselineLink.getToNode().getId(), baselineLink.getToNode().getId()).equals(link.getToNode().getId())
+        && baselineLink.getLength() == link.getLength()
+        && baselineLink.getFreespeed() == link.getFreespeed()
+        && baselineLink.getCapacity() == link.getCapacity()
+        && baselineLink.getNumberOfLanes() == link.getNumberOfLanes()
+        && baselineLink.getAllowedModes().equals(link.getAllowedModes())
+        && baselineLink.getAttributes().getAsMap().equals(link.getAttributes().getAsMap());
+  }
+
+  /** Verify if link is unchanged, including its id and the ids of its end nodes
+   *
+   * @param baselineLink to compare
+   * @param link to compare
+   * @return true when identical
+   */
+  private static boolean isEqual(final Link baselineLink, final Link link) {
+    return baselineLink.getId().equals(link.getId()) && isSameState(baselineLink, link, Map.of());
+  }
+
+  /** Copy the properties and attributes of a link onto another
+   *
+   * @param source to copy from
+   * @param target to copy to
+   */
+  private static void copyLink(final Link source, final Link target) {
+    target.setLength(source.getLength());
+    target.setFreespeed(source.getFreespeed());
+    target.setCapacity(source.getCapacity());
+    target.setNumberOfLanes(source.getNumberOfLanes());
+    target.setAllowedModes(source.getAllowedModes());
+    source.getAttributes().getAsMap().forEach((name, value) -> target.getAttributes().putAttribute(name, value));
+  }
+
+  /** Rename nodes and links of the network. All affected entities are removed before they are added under their new id, so renames may form chains
+   * or cycles. Links attached to a renamed node are recreated as well, since MATSim removes the links of a node along with it
+   *
+   * @param network to rename in
+   * @param renamedNodeIds new node id by current node id
+   * @param renamedLinkIds new link id by current link id
+   * @throws PlanItException thrown if an entity to rename is not present
+   */
+  private static void rename(final Network network, final Map<Id<Node>, Id<Node>> renamedNodeIds, final Map<Id<Link>, Id<Link>> renamedLinkIds)
+      throws PlanItException {
+    Map<Id<Link>, Link> affectedLinks = new LinkedHashMap<>();
+    for(Id<Link> linkId : renamedLinkIds.keySet()) {
+      Link link = network.getLinks().get(linkId);
+      if(link == null) {
+        throw new PlanItException("Link %s to rename is not present", linkId);
+      }
+      affectedLinks.put(linkId, link);
+    }
+    List<Node> renamedNodes = new ArrayList<>(renamedNodeIds.size());
+    for(Id<Node> nodeId : renamedNodeIds.keySet()) {
+      Node node = network.getNodes().get(nodeId);
+      if(node == null) {
+        throw new PlanItException("Node %s to rename is not present", nodeId);
+      }
+      renamedNodes.add(node);
+      node.getInLinks().values().forEach(link -> affectedLinks.put(link.getId(), link));
+      node.getOutLinks().values().forEach(link -> affectedLinks.put(link.getId(), link));
+    }
+
+    affectedLinks.keySet().forEach(network::removeLink);
+    renamedNodes.forEach(node -> network.removeNode(node.getId()));
+    for(Node node : renamedNodes) {
+      Node renamedNode = network.getFactory().createNode(renamedNodeIds.get(node.getId()), node.getCoord());
+      node.getAttributes().getAsMap().forEach((name, value) -> renamedNode.getAttributes().putAttribute(name, value));
+      network.addNode(renamedNode);
+    }
+    for(Link link : affectedLinks.values()) {
+      Link renamedLink = network.getFactory().createLink(
+          renamedLinkIds.getOrDefault(link.getId(), link.getId()),
+          network.getNodes().get(renamedNodeIds.getOrDefault(link.getFromNode().getId(), link.getFromNode().getId())),
+          network.getNodes().get(renamedNodeIds.getOrDefault(link.getToNode().getId(), link.getToNode().getId())));
+      copyLink(link, renamedLink);
+      network.addLink(renamedLink);
+    }
+  }
+
+  /** Write a rename record
+   *
+   * @param element name of the record
+   * @param fromId current id
+   * @param toId new id
+   * @param xmlWriter to use
+   * @throws XMLStreamException thrown if error
+   */
+  private static void writeRename(final String element, final Id<?> fromId, final Id<?> toId, final XMLStreamWriter xmlWriter) throws XMLStreamException {
+    xmlWriter.writeEmptyElement(element);
+    xmlWriter.writeAttribute(FROM_ID_ATTRIBUTE, fromId.toString());
+    xmlWriter.writeAttribute(TO_ID_ATTRIBUTE, toId.toString());
+    xmlWriter.writeCharacters("\n");
+  }
+
+  /** Write the attributes of an entity (if any)
+   *
+   * @param attributes to write
+   * @param xmlWriter to use
+   * @throws XMLStreamException thrown if error
+   */
+  private static void writeAttributes(final Attributes attributes, final XMLStreamWriter xmlWriter) throws XMLStreamException {
+    for(var attribute : attributes.getAsMap().entrySet()) {
+      xmlWriter.writeStartElement(ATTRIBUTE_ELEMENT);
+      xmlWriter.writeAttribute("name", attribute.getKey());
+      xmlWriter.writeAttribute("class", attribute.getValue().getClass().getName());
+      xmlWriter.writeCharacters(attribute.getValue().toString());
+      xmlWriter.writeEndElement();
+    }
+  }
+
+  /** Parse a persisted attribute value, values of unsupported classes are retained as string
+   *
+   * @param className of the value
+   * @param value to parse
+   * @return parsed value
+   */
+  private static Object parseAttributeValue(final String className, final String value) {
+    switch (className) {
+      case "java.lang.Double":
+        return Double.valueOf(value);
+      case "java.lang.Float":
+        return Float.valueOf(value);
+      case "java.lang.Integer":
+        return Integer.valueOf(value);
+      case "java.lang.Long":
+        return Long.valueOf(value);
+      case "java.lang.Boolean":
+        return Boolean.valueOf(value);
+      default:
+        return value;
+    }
+  }
+
+  /** Read the attribute children of the current element of the reader into the given attributes, the reader is positioned at its end element
+   * afterwards
+   *
+   * @param xmlReader to read from
+   * @param attributes to populate
+   * @throws XMLStreamException thrown if error
+   */
+  private static void readAttributes(final XMLStreamReader xmlReader, final Attributes attributes) throws XMLStreamException {
+    while(xmlReader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String name = xmlReader.getAttributeValue(null, "name");
+      String className = xmlReader.getAttributeValue(null, "class");
+      attributes.putAttribute(name, parseAttributeValue(className, xmlReader.getElementText()));
+    }
+  }
+
+  /** Required attribute of the current element
+   *
+   * @param xmlReader positioned at element
+   * @param name of the attribute
+   * @return value
+   * @throws PlanItException thrown if absent
+   */
+  private static String getRequiredAttribute(final XMLStreamReader xmlReader, final String name) throws PlanItException {
+    String value = xmlReader.getAttributeValue(null, name);
+    if(value == null) {
+      throw new PlanItException("Element %s of change set misses attribute %s", xmlReader.getLocalName(), name);
+    }
+    return value;
+  }
+
+  /** Number of keyed entities without a counterpart
+   *
+   * @param <T> type of entity
+   * @param keyed entities to verify
+   * @param counterparts to verify against
+   * @return number of entities without counterpart
+   */
+  private static <T> long countUnmatched(final Map<String, T> keyed, final Map<String, T> counterparts) {
+    long numberOfUnmatched = 0;
+    for(String key : keyed.keySet()) {
+      numberOfUnmatched += counterparts.containsKey(key) ? 0 : 1;
+    }
+    return numberOfUnmatched;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param baseline network to compare against
+   * @param network newly converted network
+   */
+  public MatsimNetworkDelta(final Network baseline, final Network network) {
+    this.baseline = baseline;
+    this.network = network;
+  }
+
+  /** SHA-256 digest of a file, identifying the baseline a change set applies to
+   *
+   * @param file to digest
+   * @return digest as hex string
+   * @throws PlanItException thrown if error
+   */
+  public static String digest(final Path file) throws PlanItException {
+    try(var inputStream = new DigestInputStream(Files.newInputStream(file), MessageDigest.getInstance("SHA-256"))){
+      inputStream.transferTo(OutputStream.nullOutputStream());
+      StringBuilder digest = new StringBuilder();
+      for(byte b : inputStream.getMessageDigest().digest()) {
+        digest.append(String.format("%02x", b));
+      }
+      return digest.toString();
+    }catch(IOException | NoSuchAlgorithmException e) {
+      throw new PlanItException(String.format("Unable to digest %s", file), e);
+    }
+  }
+
+  /** Preserve a baseline that resides in the output directory, where it would be replaced by the outputs of this run. Such baselines are hard linked
+   * (copied when links are not supported) into a hidden directory within the output directory first. When resuming, the baseline preserved by the
+   * earlier run is used
+   *
+   * @param baseline file or directory
+   * @param outputDirectory of the run
+   * @return baseline to use, either the given one or its preserved counterpart
+   * @throws PlanItException thrown if error
+   */
+  public static Path preserveBaseline(final Path baseline, final Path outputDirectory) throws PlanItException {
+    Path absoluteBaseline = baseline.toAbsolutePath().normalize();
+    Path absoluteOutputDirectory = outputDirectory.toAbsolutePath().normalize();
+    boolean isDirectory = Files.isDirectory(absoluteBaseline);
+    if(!(isDirectory ? absoluteBaseline : absoluteBaseline.getParent()).equals(absoluteOutputDirectory)) {
+      return baseline;
+    }
+
+    Path preservedDirectory = absoluteOutputDirectory.resolve(PRESERVED_BASELINE_DIRECTORY_NAME);
+    Path preserved = isDirectory ? preservedDirectory : preservedDirectory.resolve(absoluteBaseline.getFileName());
+    if(Files.exists(preserved)) {
+      LOGGER.info(String.format("Using baseline preserved by an earlier run in %s", preserved));
+      return preserved;
+    }
+
+    try {
+      List<Path> baselineFiles;
+      if(isDirectory) {
+        try(var files = Files.list(absoluteBaseline)){
+          baselineFiles = files.filter(file -> Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")).collect(Collectors.toList());
+        }
+      }else {
+        baselineFiles = List.of(absoluteBaseline);
+      }
+      Files.createDirectories(preservedDirectory);
+      for(Path baselineFile : baselineFiles) {
+        Path preservedFile = preservedDirectory.resolve(baselineFile.getFileName());
+        try {
+          Files.createLink(preservedFile, baselineFile);
+        }catch(UnsupportedOperationException | IOException e) {
+          Files.copy(baselineFile, preservedFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to preserve baseline %s in %s", baseline, preservedDirectory), e);
+    }
+    LOGGER.info(String.format("Preserved baseline %s in %s", baseline, preservedDirectory));
+    return preserved;
+  }
+
+  /** Remove the preserved baseline (if any) once all change sets have been created
+   *
+   * @param outputDirectory of the run
+   */
+  public static void discardPreservedBaseline(final Path outputDirectory) {
+    Path preservedDirectory = outputDirectory.resolve(PRESERVED_BASELINE_DIRECTORY_NAME);
+    if(!Files.exists(preservedDirectory)) {
+      return;
+    }
+    try(var files = Files.walk(preservedDirectory)){
+      for(Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to remove preserved baseline %s: %s", preservedDirectory, e.getMessage()));
+    }
+  }
+
+  /** Compare the networks and write the change set, compressed when the file name ends with ".gz"
+   *
+   * @param deltaFile to write to
+   * @param baselineName name of the baseline, for reference only
+   * @param baselineDigest digest of the baseline file the change set applies to
+   * @return number of changes, i.e., removed, added and modified entities, renamed entities are not counted as changes
+   * @throws PlanItException thrown if error
+   */
+  public long write(final Path deltaFile, final String baselineName, final String baselineDigest) throws PlanItException {
+    PlanItException.throwIfNull(deltaFile, "Change set file null");
+
+    Map<String, Node> baselineNodes = keyEntities(baseline.getNodes().values(), node -> node.getId().toString(), MatsimNetworkDelta::nodeKey);
+    Map<String, Node> nodes = keyEntities(network.getNodes().values(), node -> node.getId().toString(), MatsimNetworkDelta::nodeKey);
+    Map<String, Link> baselineLinks = keyEntities(baseline.getLinks().values(), link -> link.getId().toString(), MatsimNetworkDelta::linkKey);
+    Map<String, Link> links = keyEntities(network.getLinks().values(), link -> link.getId().toString(), MatsimNetworkDelta::linkKey);
+
+    /* baseline ids to remove: unmatched, baseline ids to rename: matched under a different id */
+    List<Id<Node>> removedNodeIds = new ArrayList<>();
+    Map<Id<Node>, Id<Node>> renamedNodeIds = new LinkedHashMap<>();
+    for(var entry : baselineNodes.entrySet()) {
+      Node node = nodes.get(entry.getKey());
+      if(node == null) {
+        removedNodeIds.add(entry.getValue().getId());
+      }else if(!node.getId().equals(entry.getValue().getId())) {
+        renamedNodeIds.put(entry.getValue().getId(), node.getId());
+      }
+    }
+    List<Id<Link>> removedLinkIds = new ArrayList<>();
+    Map<Id<Link>, Id<Link>> renamedLinkIds = new LinkedHashMap<>();
+    for(var entry : baselineLinks.entrySet()) {
+      Link link = links.get(entry.getKey());
+      if(link == null) {
+        removedLinkIds.add(entry.getValue().getId());
+      }else if(!link.getId().equals(entry.getValue().getId())) {
+        renamedLinkIds.put(entry.getValue().getId(), link.getId());
+      }
+    }
+
+    /* entities to put: unmatched (added), or matched but with a different state (modified) */
+    List<Node> putNodes = new ArrayList<>();
+    for(var entry : nodes.entrySet()) {
+      Node baselineNode = baselineNodes.get(entry.getKey());
+      if(baselineNode == null || !isSameState(baselineNode, entry.getValue())) {
+        putNodes.add(entry.getValue());
+      }
+    }
+    List<Link> putLinks = new ArrayList<>();
+    for(var entry : links.entrySet()) {
+      Link baselineLink = baselineLinks.get(entry.getKey());
+      if(baselineLink == null || !isSameState(baselineLink, entry.getValue(), renamedNodeIds)) {
+        putLinks.add(entry.getValue());
+      }
+    }
+    long numberOfAdded = countUnmatched(nodes, baselineNodes) + countUnmatched(links, baselineLinks);
+    long numberOfRemoved = countUnmatched(baselineNodes, nodes) + countUnmatched(baselineLinks, links);
+    long numberOfModified = putNodes.size() + putLinks.size() - numberOfAdded;
+    long numberOfRenamed = renamedNodeIds.size() + renamedLinkIds.size();
+
+    try(OutputStream outputStream = deltaFile.toString().endsWith(".gz") ? new GZIPOutputStream(Files.newOutputStream(deltaFile)) : Files.newOutputStream(deltaFile)){
+      XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+      xmlWriter.writeStartDocument("UTF-8", "1.0");
+      xmlWriter.writeCharacters("\n");
+      xmlWriter.writeStartElement(DELTA_ELEMENT);
+      xmlWriter.writeAttribute(BASELINE_ATTRIBUTE, baselineName);
+      xmlWriter.writeAttribute(BASELINE_DIGEST_ATTRIBUTE, baselineDigest);
+      xmlWriter.writeAttribute(NUMBER_OF_NODES_ATTRIBUTE, String.valueOf(network.getNodes().size()));
+      xmlWriter.writeAttribute(NUMBER_OF_LINKS_ATTRIBUTE, String.valueOf(network.getLinks().size()));
+      xmlWriter.writeAttribute(CAPACITY_PERIOD_ATTRIBUTE, String.valueOf(network.getCapacityPeriod()));
+      xmlWriter.writeAttribute(EFFECTIVE_CELL_SIZE_ATTRIBUTE, String.valueOf(network.getEffectiveCellSize()));
+      xmlWriter.writeAttribute(EFFECTIVE_LANE_WIDTH_ATTRIBUTE, String.valueOf(network.getEffectiveLaneWidth()));
+      xmlWriter.writeCharacters("\n");
+
+      for(Id<Link> linkId : removedLinkIds) {
+        xmlWriter.writeEmptyElement(REMOVE_LINK_ELEMENT);
+        xmlWriter.writeAttribute("id", linkId.toString());
+        xmlWriter.writeCharacters("\n");
+      }
+      for(Id<Node> nodeId : removedNodeIds) {
+        xmlWriter.writeEmptyElement(REMOVE_NODE_ELEMENT);
+        xmlWriter.writeAttribute("id", nodeId.toString());
+        xmlWriter.writeCharacters("\n");
+      }
+      for(var rename : renamedNodeIds.entrySet()) {
+        writeRename(RENAME_NODE_ELEMENT, rename.getKey(), rename.getValue(), xmlWriter);
+      }
+      for(var rename : renamedLinkIds.entrySet()) {
+        writeRename(RENAME_LINK_ELEMENT, rename.getKey(), rename.getValue(), xmlWriter);
+      }
+      for(Node node : putNodes) {
+        xmlWriter.writeStartElement(NODE_ELEMENT);
+        xmlWriter.writeAttribute("id", node.getId().toString());
+        xmlWriter.writeAttribute("x", String.valueOf(node.getCoord().getX()));
+        xmlWriter.writeAttribute("y", String.valueOf(node.getCoord().getY()));
+        writeAttributes(node.getAttributes(), xmlWriter);
+        xmlWriter.writeEndElement();
+        xmlWriter.writeCharacters("\n");
+      }
+      for(Link link : putLinks) {
+        xmlWriter.writeStartElement(LINK_ELEMENT);
+        xmlWriter.writeAttribute("id", link.getId().toString());
+        xmlWriter.writeAttribute("from", link.getFromNode().getId().toString());
+        xmlWriter.writeAttribute("to", link.getToNode().getId().toString());
+        xmlWriter.writeAttribute("length", String.valueOf(link.getLength()));
+        xmlWriter.writeAttribute("freespeed", String.valueOf(link.getFreespeed()));
+        xmlWriter.writeAttribute("capacity", String.valueOf(link.getCapacity()));
+        xmlWriter.writeAttribute("permlanes", String.valueOf(link.getNumberOfLanes()));
+        xmlWriter.writeAttribute("modes", String.join(",", link.getAllowedModes()));
+        writeAttributes(link.getAttributes(), xmlWriter);
+        xmlWriter.writeEndElement();
+        xmlWriter.writeCharacters("\n");
+      }
+
+      xmlWriter.writeEndElement();
+      xmlWriter.writeEndDocument();
+      xmlWriter.close();
+    }catch(IOException | XMLStreamException e) {
+      throw new PlanItException(String.format("Unable to write change set %s", deltaFile), e);
+    }
+
+    LOGGER.info(String.format("Change set against baseline %s: %d added, %d removed, %d modified, %d renamed entities, persisted to %s",
+        baselineName, numberOfAdded, numberOfRemoved, numberOfModified, numberOfRenamed, deltaFile));
+    return numberOfAdded + numberOfRemoved + numberOfModified;
+  }
+
+  /** Apply a change set to its baseline (in place)
+   *
+   * @param baseline network to patch, read from the file the change set was created for
+   * @param deltaFile change set to apply
+   * @param baselineDigest digest of the baseline file, verified against the change set, may be null to skip verification
+   * @throws PlanItException thrown if error, or when change set does not apply to the baseline
+   */
+  public static void apply(final Network baseline, final Path deltaFile, final String baselineDigest) throws PlanItException {
+    PlanItException.throwIfNull(baseline, "Baseline network null");
+    PlanItException.throwIfNull(deltaFile, "Change set file null");
+
+    long expectedNodes = -1;
+    long expectedLinks = -1;
+    long numberOfPutEntities = 0;
+    Map<Id<Node>, Id<Node>> renamedNodeIds = new LinkedHashMap<>();
+    Map<Id<Link>, Id<Link>> renamedLinkIds = new LinkedHashMap<>();
+    boolean renamed = false;
+    try(InputStream inputStream = deltaFile.toString().endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(deltaFile)) : Files.newInputStream(deltaFile)){
+      XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+      while(xmlReader.hasNext()) {
+        if(xmlReader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        /* renames are applied together, after the removals and before the first put */
+        boolean isPut = xmlReader.getLocalName().equals(NODE_ELEMENT) || xmlReader.getLocalName().equals(LINK_ELEMENT);
+        if(isPut && !renamed) {
+          rename(baseline, renamedNodeIds, renamedLinkIds);
+          renamed = true;
+        }
+        switch (xmlReader.getLocalName()) {
+          case DELTA_ELEMENT:
+            String expectedDigest = getRequiredAttribute(xmlReader, BASELINE_DIGEST_ATTRIBUTE);
+            if(baselineDigest != null && !baselineDigest.equals(expectedDigest)) {
+              throw new PlanItException("Change set %s applies to baseline %s with a different digest", deltaFile, xmlReader.getAttributeValue(null, BASELINE_ATTRIBUTE));
+            }
+            expectedNodes = Long.parseLong(getRequiredAttribute(xmlReader, NUMBER_OF_NODES_ATTRIBUTE));
+            expectedLinks = Long.parseLong(getRequiredAttribute(xmlReader, NUMBER_OF_LINKS_ATTRIBUTE));
+            baseline.setCapacityPeriod(Double.parseDouble(getRequiredAttribute(xmlReader, CAPACITY_PERIOD_ATTRIBUTE)));
+            baseline.setEffectiveCellSize(Double.parseDouble(getRequiredAttribute(xmlReader, EFFECTIVE_CELL_SIZE_ATTRIBUTE)));
+            baseline.setEffectiveLaneWidth(Double.parseDouble(getRequiredAttribute(xmlReader, EFFECTIVE_LANE_WIDTH_ATTRIBUTE)));
+            break;
+          case REMOVE_LINK_ELEMENT:
+            baseline.removeLink(Id.createLinkId(getRequiredAttribute(xmlReader, "id")));
+            break;
+          case REMOVE_NODE_ELEMENT:
+            baseline.removeNode(Id.createNodeId(getRequiredAttribute(xmlReader, "id")));
+            break;
+          case RENAME_NODE_ELEMENT:
+            renamedNodeIds.put(
+                Id.createNodeId(getRequiredAttribute(xmlReader, FROM_ID_ATTRIBUTE)), Id.createNodeId(getRequiredAttribute(xmlReader, TO_ID_ATTRIBUTE)));
+            break;
+          case RENAME_LINK_ELEMENT:
+            renamedLinkIds.put(
+                Id.createLinkId(getRequiredAttribute(xmlReader, FROM_ID_ATTRIBUTE)), Id.createLinkId(getRequiredAttribute(xmlReader, TO_ID_ATTRIBUTE)));
+            break;
+          case NODE_ELEMENT: {
+            Id<Node> nodeId = Id.createNodeId(getRequiredAttribute(xmlReader, "id"));
+            Coord coord = new Coord(Double.parseDouble(getRequiredAttribute(xmlReader, "x")), Double.parseDouble(getRequiredAttribute(xmlReader, "y")));
+            Node node = baseline.getNodes().get(nodeId);
+            if(node == null) {
+              node = baseline.getFactory().createNode(nodeId, coord);
+              baseline.addNode(node);
+            }else {
+              node.setCoord(coord);
+              node.getAttributes().clear();
+            }
+            readAttributes(xmlReader, node.getAttributes());
+            ++numberOfPutEntities;
+            break;
+          }
+          case LINK_ELEMENT: {
+            Id<Link> linkId = Id.createLinkId(getRequiredAttribute(xmlReader, "id"));
+            Node fromNode = baseline.getNodes().get(Id.createNodeId(getRequiredAttribute(xmlReader, "from")));
+            Node toNode = baseline.getNodes().get(Id.createNodeId(getRequiredAttribute(xmlReader, "to")));
+            if(fromNode == null || toNode == null) {
+              throw new PlanItException("Link %s of change set %s refers to a node that is not present", linkId, deltaFile);
+            }
+            baseline.removeLink(linkId);
+            Link link = baseline.getFactory().createLink(linkId, fromNode, toNode);
+            link.setLength(Double.parseDouble(getRequiredAttribute(xmlReader, "length")));
+            link.setFreespeed(Double.parseDouble(getRequiredAttribute(xmlReader, "freespeed")));
+            link.setCapacity(Double.parseDouble(getRequiredAttribute(xmlReader, "capacity")));
+            link.setNumberOfLanes(Double.parseDouble(getRequiredAttribute(xmlReader, "permlanes")));
+            String modes = getRequiredAttribute(xmlReader, "modes");
+            link.setAllowedModes(modes.isEmpty() ? Set.of() : Set.of(modes.split(",")));
+            readAttributes(xmlReader, link.getAttributes());
+            baseline.addLink(link);
+            ++numberOfPutEntities;
+            break;
+          }
+          default:
+            throw new PlanItException("Unknown element %s in change set %s", xmlReader.getLocalName(), deltaFile);
+        }
+      }
+      xmlReader.close();
+      if(!renamed) {
+        rename(baseline, renamedNodeIds, renamedLinkIds);
+      }
+    }catch(IOException | XMLStreamException | NumberFormatException e) {
+      throw new PlanItException(String.format("Unable to apply change set %s", deltaFile), e);
+    }
+
+    if(baseline.getNodes().size() != expectedNodes || baseline.getLinks().size() != expectedLinks) {
+      throw new PlanItException("Patched network has %d nodes and %d links, expected %d and %d, change set %s does not match its baseline",
+          baseline.getNodes().size(), baseline.getLinks().size(), expectedNodes, expectedLinks, deltaFile);
+    }
+    LOGGER.info(String.format("Applied change set %s (%d nodes and links renamed, %d put), network has %d nodes and %d links",
+        deltaFile, renamedNodeIds.size() + renamedLinkIds.size(), numberOfPutEntities, expectedNodes, expectedLinks));
+  }
+
+  /** Verify that two networks hold identical entities (ids, coordinates, attributes, link properties), e.g., to verify a patched network
+   *
+   * @param network to compare
+   * @param other to compare
+   * @return true when identical
+   */
+  public static boolean isEquivalent(final Network network, final Network other) {
+    if(network.getNodes().size() != other.getNodes().size() || network.getLinks().size() != other.getLinks().size()) {
+      return false;
+    }
+    for(Node node : network.getNodes().values()) {
+      Node otherNode = other.getNodes().get(node.getId());
+      if(otherNode == null || !isEqual(node, otherNode)) {
+        return false;
+      }
+    }
+    for(Link link : network.getLinks().values()) {
+      Link otherLink = other.getLinks().get(link.getId());
+      if(otherLink == null || !isEqual(link, otherLink)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,127 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import org.goplanit.logging.Logging;
+import org.goplanit.utils.args.ArgumentParser;
+import org.goplanit.utils.args.ArgumentStyle;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.misc.StringUtils;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.NetworkWriter;
+import org.matsim.core.network.io.MatsimNetworkReader;
+
+/**
+ * Access point for applying a change set created with {@code --baseline} (see {@link MatsimNetworkDelta}) to the baseline network it was created
+ * against, such that downstream systems only need to transfer the change set to bring their copy of the network up to date. Run via
+ * {@code java -cp planit-aurin-parser-<version>.jar org.goplanit.aurin.parser.MatsimNetworkPatchMain --<key> <value>}:
+ * <ul>
+ * <li>--baseline Format: {@code path-to/network.xml}. The baseline network the change set was created against, verified by its digest</li>
+ * <li>--delta    Format: {@code path-to/network_delta.xml.gz}. The change set to apply</li>
+ * <li>--output   Format: {@code path-to/network.xml}. Location of the patched network, may be the baseline itself in which case it is replaced atomically</li>
+ * <li>--verify   Format: {@code path-to/network.xml}. Default: N/A. Verify the patched network is equivalent to the given (newly converted) network</li>
+ * </ul>
+ *
+ * The patched network holds the same nodes and links (ids, coordinates, properties and attributes) as the network the change set was created for,
+ * but is persisted in the order of the MATSim network writer.
+ *
+ * @author markr
+ *
+ */
+public class MatsimNetworkPatchMain {
+
+  /** the logger to use */
+  private static final Logger LOGGER = Logger.getLogger(MatsimNetworkPatchMain.class.getCanonicalName());
+
+  /** key of the baseline network */
+  private static final String BASELINE_KEY = "baseline";
+
+  /** key of the change set */
+  private static final String DELTA_KEY = "delta";
+
+  /** key of the patched network */
+  private static final String OUTPUT_KEY = "output";
+
+  /** key of the network to verify the patched network against */
+  private static final String VERIFY_KEY = "verify";
+
+  /** Collect required path argument
+   *
+   * @param keyValueMap to collect from
+   * @param key of argument
+   * @return path
+   * @throws PlanItException thrown if absent
+   */
+  private static Path getRequiredPath(Map<String, String> keyValueMap, String key) throws PlanItException {
+    String value = keyValueMap.get(key);
+    if(StringUtils.isNullOrBlank(value)) {
+      throw new PlanItException("--%s is required", key);
+    }
+    return Path.of(value);
+  }
+
+  /** Apply the change set configured by the provided arguments
+   *
+   * @param args arguments provided
+   * @throws PlanItException thrown if error
+   */
+  public static void patch(String[] args) throws PlanItException {
+    Map<String, String> keyValueMap = new HashMap<>();
+    for(Entry<String, String> entry : ArgumentParser.convertArgsToMap(args, ArgumentStyle.DOUBLEHYPHEN).entrySet()) {
+      keyValueMap.put(entry.getKey().toLowerCase(), entry.getValue());
+    }
+    Path baselineFile = getRequiredPath(keyValueMap, BASELINE_KEY);
+    Path deltaFile = getRequiredPath(keyValueMap, DELTA_KEY);
+    Path outputFile = getRequiredPath(keyValueMap, OUTPUT_KEY);
+
+    Network network = NetworkUtils.createNetwork();
+    new MatsimNetworkReader(network).readFile(baselineFile.toString());
+    MatsimNetworkDelta.apply(network, deltaFile, MatsimNetworkDelta.digest(baselineFile));
+
+    if(keyValueMap.containsKey(VERIFY_KEY)) {
+      Network expected = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(expected).readFile(getRequiredPath(keyValueMap, VERIFY_KEY).toString());
+      if(!MatsimNetworkDelta.isEquivalent(network, expected)) {
+        throw new PlanItException("Patched network is not equivalent to %s", keyValueMap.get(VERIFY_KEY));
+      }
+      LOGGER.info(String.format("Patched network verified against %s", keyValueMap.get(VERIFY_KEY)));
+    }
+
+    /* persist via temporary file so the baseline itself can be the output */
+    String fileName = outputFile.getFileName().toString();
+    Path temporaryFile = outputFile.resolveSibling(".tmp_" + fileName);
+    try {
+      new NetworkWriter(network).write(temporaryFile.toString());
+      Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(IOException | RuntimeException e) {
+      throw new PlanItException(String.format("Unable to persist patched network %s", outputFile), e);
+    }
+    LOGGER.info(String.format("Persisted patched network to %s", outputFile));
+  }
+
+  /**
+   * Access point
+   *
+   * @param args arguments provided
+   */
+  public static void main(String[] args) {
+    try {
+      /* default Logging properties based on logging.properties file */
+      Logging.createLogger(MatsimNetworkPatchMain.class);
+      patch(args);
+    } catch (Exception e) {
+      LOGGER.severe(e.getMessage());
+      e.printStackTrace();
+      LOGGER.severe("Unable to apply change set, terminating");
+      System.exit(PlanitAurinParserMain.EXIT_CODE_FAILURE);
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package org.goplanit.aurin.parser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Incremental writer of MATSim networks in the network_v2 XML format. Unlike the MATSim NetworkWriter, which writes an in-memory network in
+ * the order dictated by its id maps, this writer emits nodes and links one at a time in whatever order they are provided. This allows
+ * callers to control the order of the output (and its ids), or to stream entities to file without holding the entire network in memory.
+ * <p>
+ * Entities must be written in the order prescribed by the format, i.e., all nodes ({@link #startNodes()}, {@link #writeNode}, {@link #endNodes()})
+ * before all links ({@link #startLinks}, {@link #writeLink}, {@link #endLinks()}). Files ending with ".gz" are compressed. The network is only
+ * completed when closed after the links section has ended, such that a failed write leaves an incomplete (and therefore unreadable) file rather
+ * than a well-formed but truncated network.
+ *
+ * @author markr
+ *
+ */
+public class MatsimNetworkXmlWriter implements AutoCloseable {
+
+  /** DOCTYPE of the network_v2 format */
+  private static final String DOCTYPE = "<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v2.dtd\">";
+
+  /** indentation used */
+  private static final String INDENT = "\t";
+
+  /** writer to use */
+  private final BufferedWriter writer;
+
+  /** flag indicating the links section has ended, i.e., all entities have been written */
+  private boolean linksEnded = false;
+
+  /** Escape a value for use in XML attributes and text
+   *
+   * @param value to escape
+   * @return escaped value
+   */
+  private static String escape(final String value) {
+    StringBuilder escaped = null;
+    for(int index = 0; index < value.length(); ++index) {
+      char c = value.charAt(index);
+      String replacement = null;
+      switch (c) {
+        case '&': replacement = "&amp;"; break;
+        case '<': replacement = "&lt;"; break;
+        case '>': replacement = "&gt;"; break;
+        case '"': replacement = "&quot;"; break;
+        default:
+      }
+      if(replacement != null && escaped == null) {
+        escaped = new StringBuilder(value.length() + 16).append(value, 0, index);
+      }
+      if(escaped != null) {
+        if(replacement != null) {
+          escaped.append(replacement);
+        }else {
+          escaped.append(c);
+        }
+      }
+    }
+    return escaped == null ? value : escaped.toString();
+  }
+
+  /** Format seconds as hh:mm:ss
+   *
+   * @param seconds to format
+   * @return formatted time
+   */
+  private static String formatTime(double seconds) {
+    long totalSeconds = (long) seconds;
+    return String.format("%02d:%02d:%02d", totalSeconds / 3600, (totalSeconds % 3600) / 60, totalSeconds % 60);
+  }
+
+  /** Write attributes element (if any attributes)
+   *
+   * @param attributes to write
+   * @param indentation to use
+   * @throws IOException thrown if error
+   */
+  private void writeAttributes(final Map<String, Object> attributes, final String indentation) throws IOException {
+    if(attributes == null || attributes.isEmpty()) {
+      return;
+    }
+    writer.write(indentation);
+    writer.write("<attributes>\n");
+    for(var attribute : attributes.entrySet()) {
+      if(attribute.getValue() == null) {
+        continue;
+      }
+      writer.write(indentation);
+      writer.write(INDENT);
+      writer.write("<attribute name=\"");
+      writer.write(escape(attribute.getKey()));
+      writer.write("\" class=\"");
+      writer.write(attribute.getValue().getClass().getName());
+      writer.write("\">");
+      writer.write(escape(attribute.getValue().toString()));
+      writer.write("</attribute>\n");
+    }
+    writer.write(indentation);
+    writer.write("</attributes>\n");
+  }
+
+  /**
+   * Constructor, writes the XML header of an unnamed network without network attributes
+   *
+   * @param networkFile to write to
+   * @throws IOException thrown if error
+   */
+  public MatsimNetworkXmlWriter(final Path networkFile) throws IOException {
+    this(networkFile, null, null);
+  }
+
+  /**
+   * Constructor, writes the XML header including the network name and network attributes, e.g., its coordinate reference system
+   *
+   * @param networkFile to write to
+   * @param name of the network, may be null
+   * @param attributes of the network, may be null
+   * @throws IOException thrown if error
+   */
+  public MatsimNetworkXmlWriter(final Path networkFile, final String name, final Map<String, Object> attributes) throws IOException {
+    OutputStream outputStream = Files.newOutputStream(networkFile);
+    if(networkFile.getFileName().toString().endsWith(".gz")) {
+      outputStream = new GZIPOutputStream(outputStream, 1 << 16);
+    }
+    this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16);
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    writer.write(DOCTYPE);
+    writer.write("\n\n<network");
+    if(name != null) {
+      writer.write(" name=\"");
+      writer.write(escape(name));
+      writer.write("\"");
+    }
+    writer.write(">\n\n");
+    if(attributes != null && !attributes.isEmpty()) {
+      writeAttributes(attributes, INDENT);
+      writer.write("\n");
+    }
+  }
+
+  /** Start the nodes section
+   *
+   * @throws IOException thrown if error
+   */
+  public void startNodes() throws IOException {
+    writer.write("<!-- ====================================================================== -->\n\n");
+    writer.write(INDENT + "<nodes>\n");
+  }
+
+  /** Write a node
+   *
+   * @param id of the node
+   * @param x coordinate
+   * @param y coordinate
+   * @param attributes of the node, may be null
+   * @throws IOException thrown if error
+   */
+  public void writeNode(final String id, double x, double y, final Map<String, Object> attributes) throws IOException {
+    writer.write(INDENT + INDENT + "<node id=\"");
+    writer.write(escape(id));
+    writer.write("\" x=\"");
+    writer.write(Double.toString(x));
+    writer.write("\" y=\"");
+    writer.write(Double.toString(y));
+    if(attributes == null || attributes.isEmpty()) {
+      writer.write("\" />\n");
+      return;
+    }
+    writer.write("\" >\n");
+    writeAttributes(attributes, INDENT + INDENT + INDENT);
+    writer.write(INDENT + INDENT + "</node>\n");
+  }
+
+  /** End the nodes section
+   *
+   * @throws IOException thrown if error
+   */
+  public void endNodes() throws IOException {
+    writer.write(INDENT + "</nodes>\n\n");
+  }
+
+  /** Start the links section
+   *
+   * @param capacityPeriod in seconds
+   * @param effectiveCellSize in meters
+   * @param effectiveLaneWidth in meters
+   * @throws IOException thrown if error
+   */
+  public void startLinks(double capacityPeriod, double effectiveCellSize, double effectiveLaneWidth) throws IOException {
+    writer.write("<!-- ====================================================================== -->\n\n");
+    writer.write(INDENT + "<links capperiod=\"");
+    writer.write(formatTime(capacityPeriod));
+    writer.write("\" effectivecellsize=\"");
+    writer.write(Double.toString(effectiveCellSize));
+    writer.write("\" effectivelanewidth=\"");
+    writer.write(Double.toString(effectiveLaneWidth));
+    writer.write("\">\n");
+  }
+
+  /** Write a link
+   *
+   * @param id of the link
+   * @param fromNodeId id of the from node
+   * @param toNodeId id of the to node
+   * @param length in meters
+   * @param freespeed in meters per second
+   * @param capacity per capacity period
+   * @param numberOfLanes permitted lanes
+   * @param modes allowed modes
+   * @param attributes of the link, may be null
+   * @throws IOException thrown if error
+   */
+  public void writeLink(final String id, final String fromNodeId, final String toNodeId, double length, double freespeed, double capacity,
+      double numberOfLanes, final Set<String> modes, final Map<String, Object> attributes) throws IOException {
+    writer.write(INDENT + INDENT + "<link id=\"");
+    writer.write(escape(id));
+    writer.write("\" from=\"");
+    writer.write(escape(fromNodeId));
+    writer.write("\" to=\"");
+    writer.write(escape(toNodeId));
+    writer.write("\" length=\"");
+    writer.write(Double.toString(length));
+    writer.write("\" freespeed=\"");
+    writer.write(Double.toString(freespeed));
+    writer.write("\" capacity=\"");
+    writer.write(Double.toString(capacity));
+    writer.write("\" permlanes=\"");
+    writer.write(Double.toString(numberOfLanes));
+    writer.write("\" oneway=\"1\" modes=\"");
+    writer.write(escape(String.join(",", modes)));
+    if(attributes == null || attributes.isEmpty()) {
+      writer.write("\" />\n");
+      return;
+    }
+    writer.write("\" >\n");
+    writeAttributes(attributes, INDENT + INDENT + INDENT);
+    writer.write(INDENT + INDENT + "</link>\n");
+  }
+
+  /** End the links section
+   *
+   * @throws IOException thrown if error
+   */
+  public void endLinks() throws IOException {
+    writer.write(INDENT + "</links>\n\n");
+    linksEnded = true;
+  }
+
+  /** Write the network closing tag, only when the links section has ended, and close the underlying file
+   *
+   * @throws IOException thrown if error
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if(linksEnded) {
+        writer.write("<!-- ====================================================================== -->\n\n");
+        writer.write("</network>\n");
+      }
+    }finally {
+      writer.close();
+    }
+  }
+}
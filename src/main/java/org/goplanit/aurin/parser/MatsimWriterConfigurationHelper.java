@@ -1,9 +1,11 @@
 package org.goplanit.aurin.parser;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 
 import org.goplanit.matsim.converter.MatsimNetworkWriterSettings;
+import org.goplanit.matsim.converter.MatsimWriter;
 import org.goplanit.utils.exceptions.PlanItException;
 import org.goplanit.utils.misc.StringUtils;
 
@@ -24,6 +26,171 @@ public class MatsimWriterConfigurationHelper {
   
   /** Output path defaults to directory where this application was run from */
   public static final Path MATSIM_OUTPUT_PATH = PlanitAurinParserMain.CURRENT_PATH;  
+  
+  //----------------------------------------------------
+  //--------DETAILED GEOMETRY --------------------------
+  //----------------------------------------------------
+  
+  /** Douglas-Peucker tolerance (in units of the output coordinate reference system) to simplify the detailed geometry with */
+  private static final String GEOMETRY_TOLERANCE_KEY = "geometrytolerance";
+  
+  /** Default tolerance, i.e., no simplification */
+  private static final double DEFAULT_GEOMETRY_TOLERANCE = 0;
+  
+  /** Postfix of the detailed geometry file name relative to the network file name */
+  public static final String DETAILED_GEOMETRY_FILE_NAME_POSTFIX = "_geometry";
+  
+  /** Extension of the detailed geometry file */
+  public static final String DETAILED_GEOMETRY_FILE_NAME_EXTENSION = ".txt";
+  
+  /** Postfix of the cleaned network file name relative to the network file name */
+  public static final String CLEANED_FILE_NAME_POSTFIX = "_cleaned";
+  
+  //----------------------------------------------------
+  //--------ORDERING -----------------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting the order in which nodes and links are persisted */
+  private static final String ORDER_KEY = "order";
+  
+  /** Order value to persist in the order of the MATSim writer (default) */
+  private static final String ORDER_NONE = "none";
+  
+  /** Order value to persist nodes along a Hilbert curve and links grouped by their from node */
+  private static final String ORDER_HILBERT = "hilbert";
+  
+  /** Key reflecting whether node and link ids are replaced by dense integers in the persisted order */
+  private static final String COMPACT_IDS_KEY = "compactids";
+  
+  /** Activation value to compact ids */
+  private static final String COMPACT_IDS_ACTIVATE = "yes";
+  
+  /** Deactivation value to not compact ids */
+  private static final String COMPACT_IDS_DEACTIVATE = "no";
+  
+  //----------------------------------------------------
+  //--------BASELINE -----------------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting the previous MATSim network (file) or previous output directory (snapshot) to create a change set against */
+  public static final String BASELINE_KEY = "baseline";
+  
+  /** Postfix of the change set file name relative to the network file name */
+  public static final String DELTA_FILE_NAME_POSTFIX = "_delta";
+  
+  /** Extension of the change set file */
+  public static final String DELTA_FILE_NAME_EXTENSION = ".xml.gz";
+  
+  //----------------------------------------------------
+  //--------GRAPH EXPORT -------------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting whether a binary routing graph (compressed sparse row) accompanies each MATSim network */
+  private static final String GRAPH_EXPORT_KEY = "graphexport";
+  
+  /** Activation value to export the routing graph */
+  private static final String GRAPH_EXPORT_ACTIVATE = "yes";
+  
+  /** Deactivation value to not export the routing graph */
+  private static final String GRAPH_EXPORT_DEACTIVATE = "no";
+  
+  /** Extension of the routing graph file, which otherwise carries the network file name */
+  public static final String GRAPH_FILE_NAME_EXTENSION = ".csr";
+  
+  //----------------------------------------------------
+  //--------SPATIAL INDEX ------------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting whether a packed spatial index (R-tree) over nodes and link geometries accompanies each MATSim network */
+  private static final String SPATIAL_INDEX_KEY = "spatialindex";
+  
+  /** Activation value to write the spatial index */
+  private static final String SPATIAL_INDEX_ACTIVATE = "yes";
+  
+  /** Deactivation value to not write the spatial index */
+  private static final String SPATIAL_INDEX_DEACTIVATE = "no";
+  
+  /** Extension of the spatial index file, which otherwise carries the network file name */
+  public static final String SPATIAL_INDEX_FILE_NAME_EXTENSION = ".rtree";
+  
+  /** Collect the path of the MATSim network file
+   * 
+   * @param settings to extract output directory and file name from
+   * @param cleaned when true the path to the cleaned network is provided, otherwise the original network
+   * @return path to network file
+   */
+  public static Path getNetworkFilePath(final MatsimNetworkWriterSettings settings, boolean cleaned) {
+    return Path.of(
+        settings.getOutputDirectory(), 
+        settings.getFileName() + (cleaned ? CLEANED_FILE_NAME_POSTFIX : "") + MatsimWriter.DEFAULT_FILE_NAME_EXTENSION);
+  }
+  
+  /** Collect the path of the detailed geometry file that accompanies the MATSim network file
+   * 
+   * @param settings to extract output directory and file name from
+   * @param cleaned when true the path to the cleaned network's geometry is provided, otherwise the original network's geometry
+   * @return path to detailed geometry file
+   */
+  public static Path getDetailedGeometryFilePath(final MatsimNetworkWriterSettings settings, boolean cleaned) {
+    return Path.of(
+        settings.getOutputDirectory(), 
+        settings.getFileName() + (cleaned ? CLEANED_FILE_NAME_POSTFIX : "") + DETAILED_GEOMETRY_FILE_NAME_POSTFIX + DETAILED_GEOMETRY_FILE_NAME_EXTENSION);
+  }  
+
+  /** Collect the path of the change set that accompanies the MATSim network file when a baseline is provided
+   * 
+   * @param settings to extract output directory and file name from
+   * @param cleaned when true the path to the cleaned network's change set is provided, otherwise the original network's change set
+   * @return path to change set file
+   */
+  public static Path getDeltaFilePath(final MatsimNetworkWriterSettings settings, boolean cleaned) {
+    return Path.of(
+        settings.getOutputDirectory(), 
+        settings.getFileName() + (cleaned ? CLEANED_FILE_NAME_POSTFIX : "") + DELTA_FILE_NAME_POSTFIX + DELTA_FILE_NAME_EXTENSION);
+  }
+  
+  /** Collect the path of the routing graph file that accompanies the MATSim network file when graph export is activated
+   * 
+   * @param settings to extract output directory and file name from
+   * @param cleaned when true the path to the cleaned network's routing graph is provided, otherwise the original network's routing graph
+   * @return path to routing graph file
+   */
+  public static Path getGraphFilePath(final MatsimNetworkWriterSettings settings, boolean cleaned) {
+    return Path.of(
+        settings.getOutputDirectory(), 
+        settings.getFileName() + (cleaned ? CLEANED_FILE_NAME_POSTFIX : "") + GRAPH_FILE_NAME_EXTENSION);
+  }
+  
+  /** Collect the path of the spatial index file that accompanies the MATSim network file when the spatial index is activated
+   * 
+   * @param settings to extract output directory and file name from
+   * @param cleaned when true the path to the cleaned network's spatial index is provided, otherwise the original network's spatial index
+   * @return path to spatial index file
+   */
+  public static Path getSpatialIndexFilePath(final MatsimNetworkWriterSettings settings, boolean cleaned) {
+    return Path.of(
+        settings.getOutputDirectory(), 
+        settings.getFileName() + (cleaned ? CLEANED_FILE_NAME_POSTFIX : "") + SPATIAL_INDEX_FILE_NAME_EXTENSION);
+  }
+  
+  /** Collect the baseline network file to compare the (original or cleaned) network file against. When the baseline is a directory (snapshot of an 
+   * earlier output directory), the network file with the same name within it is used (if present). When the baseline is a file, it is compared 
+   * against the cleaned network when it carries the cleaned network's file name, and against the original network otherwise
+   * 
+   * @param baseline file or directory as provided
+   * @param settings to extract file names from
+   * @param cleaned when true the baseline of the cleaned network is provided, otherwise the baseline of the original network
+   * @return baseline network file, null when there is none for this network
+   */
+  public static Path getBaselineNetworkFilePath(final Path baseline, final MatsimNetworkWriterSettings settings, boolean cleaned) {
+    Path networkFileName = getNetworkFilePath(settings, cleaned).getFileName();
+    if(Files.isDirectory(baseline)) {
+      Path baselineFile = baseline.resolve(networkFileName);
+      return Files.isRegularFile(baselineFile) ? baselineFile : null;
+    }
+    boolean isCleanedBaseline = baseline.getFileName().equals(getNetworkFilePath(settings, true).getFileName());
+    return isCleanedBaseline == cleaned ? baseline : null;
+  }
 
   /** The output directory to use. If absent nothing is set and it is assumed the output directory is set upon creation of the writer
    * 
@@ -40,5 +207,149 @@ public class MatsimWriterConfigurationHelper {
     }    
     
   }
+  
+  /** The Douglas-Peucker tolerance to simplify the detailed geometry with. If absent no simplification is applied
+   * 
+   * @param keyValueMap to extract information from
+   * @return tolerance, zero when no simplification is to be applied
+   * @throws PlanItException thrown if error, or when the tolerance is negative
+   */
+  public static double parseDetailedGeometryTolerance(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String toleranceValue = keyValueMap.get(GEOMETRY_TOLERANCE_KEY);
+    if(StringUtils.isNullOrBlank(toleranceValue)) {
+      return DEFAULT_GEOMETRY_TOLERANCE;
+    }
+    double tolerance;
+    try {
+      tolerance = Double.parseDouble(toleranceValue);
+    }catch(NumberFormatException e) {
+      throw new PlanItException("Geometry tolerance is expected to be a number but found %s", toleranceValue);
+    }
+    if(!(tolerance >= 0) || Double.isInfinite(tolerance)) {
+      throw new PlanItException("Geometry tolerance is expected to be a non-negative finite number but found %s", toleranceValue);
+    }
+    return tolerance;
+  }
+  
+  /** Verify if the network is to be persisted in Hilbert order. If absent the order of the MATSim writer is retained
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when ordering along the Hilbert curve, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isHilbertOrder(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String orderValue = keyValueMap.get(ORDER_KEY);
+    if(StringUtils.isNullOrBlank(orderValue)) {
+      orderValue = ORDER_NONE;
+    }
+    switch (orderValue) {
+      case ORDER_HILBERT:
+        return true;
+      case ORDER_NONE:
+        return false;
+      default:
+        throw new PlanItException("Unkown order value chosen %s, choose from %s, %s", orderValue, ORDER_NONE, ORDER_HILBERT);
+    }
+  }
+  
+  /** Verify if node and link ids are to be compacted to dense integers. Only applicable in combination with Hilbert order
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when compacting, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isCompactIds(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String compactValue = keyValueMap.get(COMPACT_IDS_KEY);
+    if(StringUtils.isNullOrBlank(compactValue)) {
+      compactValue = COMPACT_IDS_DEACTIVATE;
+    }
+    switch (compactValue) {
+      case COMPACT_IDS_ACTIVATE:
+        if(!isHilbertOrder(keyValueMap)) {
+          throw new PlanItException("--%s %s requires --%s %s", COMPACT_IDS_KEY, COMPACT_IDS_ACTIVATE, ORDER_KEY, ORDER_HILBERT);
+        }
+        return true;
+      case COMPACT_IDS_DEACTIVATE:
+        return false;
+      default:
+        throw new PlanItException(
+            "Unkown compactids value chosen %s, choose from %s, %s", compactValue, COMPACT_IDS_ACTIVATE, COMPACT_IDS_DEACTIVATE);
+    }
+  }
+  
+  /** Verify if a binary routing graph is to be exported alongside each MATSim network. If absent no routing graph is exported
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when exporting, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isGraphExport(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String graphExportValue = keyValueMap.get(GRAPH_EXPORT_KEY);
+    if(StringUtils.isNullOrBlank(graphExportValue)) {
+      graphExportValue = GRAPH_EXPORT_DEACTIVATE;
+    }
+    switch (graphExportValue) {
+      case GRAPH_EXPORT_ACTIVATE:
+        return true;
+      case GRAPH_EXPORT_DEACTIVATE:
+        return false;
+      default:
+        throw new PlanItException(
+            "Unkown graphexport value chosen %s, choose from %s, %s", graphExportValue, GRAPH_EXPORT_ACTIVATE, GRAPH_EXPORT_DEACTIVATE);
+    }
+  }
+  
+  /** Verify if a packed spatial index is to be written alongside each MATSim network. If absent no spatial index is written
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when writing the spatial index, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isSpatialIndex(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String spatialIndexValue = keyValueMap.get(SPATIAL_INDEX_KEY);
+    if(StringUtils.isNullOrBlank(spatialIndexValue)) {
+      spatialIndexValue = SPATIAL_INDEX_DEACTIVATE;
+    }
+    switch (spatialIndexValue) {
+      case SPATIAL_INDEX_ACTIVATE:
+        return true;
+      case SPATIAL_INDEX_DEACTIVATE:
+        return false;
+      default:
+        throw new PlanItException(
+            "Unkown spatialindex value chosen %s, choose from %s, %s", spatialIndexValue, SPATIAL_INDEX_ACTIVATE, SPATIAL_INDEX_DEACTIVATE);
+    }
+  }
+  
+  /** The baseline to create a change set against, either a previous MATSim network file or a previous output directory. If absent no change
+   * set is created
+   * 
+   * @param keyValueMap to extract information from
+   * @return baseline, null when absent
+   * @throws PlanItException thrown if error, or when the baseline does not exist
+   */
+  public static Path parseBaseline(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String baselineValue = keyValueMap.get(BASELINE_KEY);
+    if(StringUtils.isNullOrBlank(baselineValue)) {
+      return null;
+    }
+    Path baseline = Path.of(baselineValue);
+    if(!Files.exists(baseline)) {
+      throw new PlanItException("Baseline %s does not exist", baselineValue);
+    }
+    return baseline;
+  }
 
 }
@@ -0,0 +1,87 @@
+package org.goplanit.aurin.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream of an OSM document merged on another thread, which reports a failure of the merge rather than an incomplete input
+ *
+ * @author markr
+ *
+ */
+class MergedOsmInputStream extends FilterInputStream {
+
+  /** description of what is merged, used in the reported failure */
+  private final String description;
+
+  /** failure of the merge, null when none */
+  private volatile Exception failure;
+
+  /** Throw when the merge failed
+   *
+   * @param cause of ending the input, may be null
+   * @throws IOException thrown when the merge failed
+   */
+  private void throwIfFailed(IOException cause) throws IOException {
+    if(failure != null) {
+      throw new IOException(String.format("Unable to merge %s", description), failure);
+    }
+    if(cause != null) {
+      throw cause;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param mergedInput to read
+   * @param description of what is merged
+   */
+  MergedOsmInputStream(InputStream mergedInput, String description) {
+    super(mergedInput);
+    this.description = description;
+  }
+
+  /** Register the failure of the merge, reported to the reader instead of the end of the input
+   *
+   * @param failure of the merge
+   */
+  void setFailure(Exception failure) {
+    this.failure = failure;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read() throws IOException {
+    try {
+      int value = super.read();
+      if(value < 0) {
+        throwIfFailed(null);
+      }
+      return value;
+    }catch(IOException e) {
+      throwIfFailed(e);
+      throw e;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    try {
+      int read = super.read(buffer, offset, length);
+      if(read < 0) {
+        throwIfFailed(null);
+      }
+      return read;
+    }catch(IOException e) {
+      throwIfFailed(e);
+      throw e;
+    }
+  }
+}
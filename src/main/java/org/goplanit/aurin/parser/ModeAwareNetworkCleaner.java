@@ -0,0 +1,129 @@
+package org.goplanit.aurin.parser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.NetworkCleaner;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+
+/**
+ * Clean a MATSim network per MATSim mode rather than once over the combined network. For each mode the mode specific subnetwork is
+ * extracted and the MATSim {@link NetworkCleaner} is applied to it to find the largest strongly connected component. Subnetworks are
+ * cleaned in parallel. Afterwards the per-mode reachable link sets are merged back into the original network such that:
+ *
+ * <ul>
+ * <li>a mode is only retained on a link when that link is reachable for that mode</li>
+ * <li>a link is removed when it is not reachable for any of its modes</li>
+ * <li>a node is removed when it no longer has any links attached</li>
+ * </ul>
+ *
+ * This avoids rail only links keeping car unreachable islands alive (or vice versa) which happens when cleaning the combined network.
+ *
+ * @author markr
+ *
+ */
+public class ModeAwareNetworkCleaner {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(ModeAwareNetworkCleaner.class.getCanonicalName());
+
+  /** network to clean */
+  private final Network network;
+
+  /** Extract the mode specific subnetwork and clean it, returning the ids of the links that remain reachable
+   *
+   * @param mode to clean subnetwork for
+   * @return reachable link ids for this mode
+   */
+  private Set<Id<Link>> collectReachableLinks(final String mode) {
+    Network modeSubNetwork = NetworkUtils.createNetwork();
+    new TransportModeNetworkFilter(network).filter(modeSubNetwork, Set.of(mode));
+    int numberOfModeLinks = modeSubNetwork.getLinks().size();
+
+    new NetworkCleaner().run(modeSubNetwork);
+
+    LOGGER.info(String.format("Mode %s: %d of %d links reachable", mode, modeSubNetwork.getLinks().size(), numberOfModeLinks));
+    return new HashSet<>(modeSubNetwork.getLinks().keySet());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param network to clean (in place)
+   */
+  public ModeAwareNetworkCleaner(final Network network) {
+    this.network = network;
+  }
+
+  /** Collect all modes that are allowed on at least one link of the network
+   *
+   * @param network to collect from
+   * @return found modes (sorted)
+   */
+  public static Set<String> collectModes(final Network network) {
+    Set<String> modes = new TreeSet<>();
+    for(Link link : network.getLinks().values()) {
+      modes.addAll(link.getAllowedModes());
+    }
+    return modes;
+  }
+
+  /** Clean the network for all modes present on the network
+   */
+  public void run() {
+    run(collectModes(network));
+  }
+
+  /** Clean the network for the given modes. Modes not listed are left untouched on each link. Subnetworks are cleaned in parallel
+   *
+   * @param modes to clean
+   */
+  public void run(final Set<String> modes) {
+    LOGGER.info(String.format("Cleaning network per mode in parallel for modes [%s]", String.join(",", modes)));
+
+    /* per mode reachable link sets, each computed on a separate subnetwork */
+    Map<String, Set<Id<Link>>> reachableLinksByMode = modes.parallelStream().collect(
+        Collectors.toConcurrentMap(mode -> mode, mode -> collectReachableLinks(mode)));
+
+    /* merge: restrict modes to reachable ones and mark links without any remaining mode */
+    List<Id<Link>> linksToRemove = new ArrayList<>();
+    for(Link link : network.getLinks().values()) {
+      Set<String> retainedModes = new TreeSet<>();
+      for(String mode : link.getAllowedModes()) {
+        Set<Id<Link>> reachableLinks = reachableLinksByMode.get(mode);
+        if(reachableLinks == null || reachableLinks.contains(link.getId())) {
+          retainedModes.add(mode);
+        }
+      }
+
+      if(retainedModes.isEmpty()) {
+        linksToRemove.add(link.getId());
+      }else if(retainedModes.size() != link.getAllowedModes().size()) {
+        link.setAllowedModes(retainedModes);
+      }
+    }
+    linksToRemove.forEach(linkId -> network.removeLink(linkId));
+
+    /* remove dangling nodes */
+    List<Id<Node>> nodesToRemove = new ArrayList<>();
+    for(Node node : network.getNodes().values()) {
+      if(node.getInLinks().isEmpty() && node.getOutLinks().isEmpty()) {
+        nodesToRemove.add(node.getId());
+      }
+    }
+    nodesToRemove.forEach(nodeId -> network.removeNode(nodeId));
+
+    LOGGER.info(String.format("Removed %d unreachable links and %d dangling nodes", linksToRemove.size(), nodesToRemove.size()));
+  }
+}
@@ -0,0 +1,143 @@
+package org.goplanit.aurin.parser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.goplanit.network.MacroscopicNetwork;
+
+/**
+ * Deduplicates the link names and the external ids of links and link segments that repeat across the entities of a parsed PLANit network
+ * (street names, external ids shared between the links that originate from the same OSM way, etc.) through a bounded canonicalisation table. 
+ * Once the table is full, strings that are not yet present are left as is, so the memory used by the table itself remains bounded regardless 
+ * of the size of the network. External ids of nodes are unique OSM node ids, they would only grow the table and are therefore not interned.
+ * <p>
+ * Interning takes place once the network has been parsed, since the PLANit reader creates these strings internally. It therefore reduces the heap
+ * retained by the network while it is written, not the peak heap while parsing. Other strings (e.g. tags held by the reader) are not interned.
+ * No garbage collection is forced: the heap freed is estimated from the deduplicated strings and logged along with the heap in use after the
+ * most recent collection, as reported by the garbage collector.
+ *
+ * @author markr
+ *
+ */
+public class NetworkStringInterner {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(NetworkStringInterner.class.getCanonicalName());
+
+  /** Default maximum number of canonical strings to track */
+  public static final int DEFAULT_MAX_TABLE_SIZE = 1 << 20;
+
+  /** canonical string per value */
+  private final Map<String, String> canonicalisationTable;
+
+  /** maximum size of the table */
+  private final int maxTableSize;
+
+  /** estimated size of a string instance excluding its characters, i.e., object header, fields and array header, assuming compressed oops */
+  private static final int STRING_OVERHEAD_BYTES = 24 + 16;
+
+  /** number of string instances replaced by a canonical instance */
+  private long numberOfDeduplicatedStrings = 0;
+
+  /** estimated number of bytes held by the string instances replaced by a canonical instance */
+  private long numberOfDeduplicatedBytes = 0;
+
+  /** Heap in use after the most recent garbage collection, as reported by the collector for each heap memory pool, without collecting
+   *
+   * @return used heap in bytes, -1 when not reported
+   */
+  private static long collectUsedHeapAfterLastCollection() {
+    long usedHeap = -1;
+    for(MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(memoryPool.getType() == MemoryType.HEAP && memoryPool.getCollectionUsage() != null) {
+        usedHeap = Math.max(usedHeap, 0) + memoryPool.getCollectionUsage().getUsed();
+      }
+    }
+    return usedHeap;
+  }
+
+  /**
+   * Constructor with default maximum table size
+   */
+  public NetworkStringInterner() {
+    this(DEFAULT_MAX_TABLE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxTableSize maximum number of canonical strings to track
+   */
+  public NetworkStringInterner(int maxTableSize) {
+    this.maxTableSize = maxTableSize;
+    this.canonicalisationTable = new HashMap<>(Math.min(maxTableSize, 1 << 16));
+  }
+
+  /** Provide the canonical instance for the given value
+   *
+   * @param value to canonicalise
+   * @return canonical instance, value itself when it is the first of its kind or the table is full
+   */
+  public String canonicalise(final String value) {
+    if(value == null) {
+      return null;
+    }
+
+    String canonical = canonicalisationTable.get(value);
+    if(canonical == null) {
+      if(canonicalisationTable.size() < maxTableSize) {
+        canonicalisationTable.put(value, value);
+      }
+      return value;
+    }
+
+    if(canonical != value) {
+      ++numberOfDeduplicatedStrings;
+      /* latin-1 strings hold one byte per character, arrays are aligned to 8 bytes */
+      numberOfDeduplicatedBytes += STRING_OVERHEAD_BYTES + ((value.length() + 7) & ~7);
+    }
+    return canonical;
+  }
+
+  /** Canonicalise the external ids of all links and link segments as well as the link names of the network in place, logging the estimated heap
+   * freed. The canonicalisation table is released afterwards
+   *
+   * @param network to intern strings of
+   */
+  public void intern(final MacroscopicNetwork network) {
+    for(var layer : network.getTransportLayers()) {
+      for(var link : layer.getLinks()) {
+        link.setName(canonicalise(link.getName()));
+        link.setExternalId(canonicalise(link.getExternalId()));
+      }
+      for(var linkSegment : layer.getLinkSegments()) {
+        linkSegment.setExternalId(canonicalise(linkSegment.getExternalId()));
+      }
+    }
+
+    canonicalisationTable.clear();
+
+    LOGGER.info(String.format("Interned network strings: %d duplicates removed, approximately %.1f MB freed, heap in use after last collection %.1f MB",
+        numberOfDeduplicatedStrings, numberOfDeduplicatedBytes / (1024.0 * 1024.0), collectUsedHeapAfterLastCollection() / (1024.0 * 1024.0)));
+  }
+
+  /** Number of string instances replaced by their canonical instance so far
+   *
+   * @return number of deduplicated strings
+   */
+  public long getNumberOfDeduplicatedStrings() {
+    return numberOfDeduplicatedStrings;
+  }
+
+  /** Estimated number of bytes held by the string instances replaced by their canonical instance so far, i.e., freed once unreferenced
+   *
+   * @return estimated number of bytes
+   */
+  public long getNumberOfDeduplicatedBytes() {
+    return numberOfDeduplicatedBytes;
+  }
+}
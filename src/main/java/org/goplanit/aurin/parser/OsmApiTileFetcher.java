@@ -0,0 +1,637 @@
+package org.goplanit.aurin.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Fetch the area of an OSM API bounding box URL, e.g., {@code https://api.openstreetmap.org/api/0.6/map?bbox=minlon,minlat,maxlon,maxlat}, as tiles
+ * rather than in a single request. The API rejects areas beyond 0.25 square degrees or 50000 nodes and is slow for anything but small areas.
+ * Tiles are fetched concurrently with bounded parallelism, failed requests are retried with exponential back off and tiles rejected by the API as
+ * too large (HTTP 400 reporting too many nodes or too large an area) are split into quadrants, any other HTTP 400 fails the fetch. Tile responses are stored in a temporary directory and merged into a single OSM XML stream
+ * (nodes, ways, then relations) in which entities present in more than one tile are only included once, based on their id.
+ * <p>
+ * The merged stream is provided to the reader via {@link #createInputSource()}. Tiles are fetched on access and removed (including their directory)
+ * as soon as the merge has finished or failed, accesses that overlap share the fetched tiles. Readers that parse their input more than once
+ * (e.g. the intermodal reader) therefore fetch it again, trading requests for not retaining the tiles on disk for the duration of the run.
+ *
+ * @author markr
+ *
+ */
+public class OsmApiTileFetcher {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(OsmApiTileFetcher.class.getCanonicalName());
+
+  /** default edge length of a tile in degrees */
+  public static final double DEFAULT_TILE_SIZE = 0.05;
+
+  /** largest supported edge length of a tile in degrees, beyond this a tile exceeds the area limit of the OSM API */
+  public static final double MAX_TILE_SIZE = 0.5;
+
+  /** default maximum number of concurrent requests, kept low in line with the usage policy of the public OSM API */
+  public static final int DEFAULT_PARALLELISM = 2;
+
+  /** default maximum number of attempts per tile */
+  public static final int DEFAULT_MAX_ATTEMPTS = 4;
+
+  /** default delay before the first retry, doubled for every subsequent retry */
+  public static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(2);
+
+  /** tiles rejected as too large are not split beyond this edge length in degrees */
+  private static final double MIN_TILE_SIZE = 0.0005;
+
+  /** phrases (lower case) in the body of an HTTP 400 response of the OSM API reporting the node limit or area limit was exceeded */
+  private static final List<String> TOO_LARGE_RESPONSE_PHRASES = List.of("too many nodes", "bbox size", "smaller area");
+
+  /** at most this many bytes of the body of an error response are reported */
+  private static final int MAX_ERROR_MESSAGE_LENGTH = 512;
+
+  /** timeout of a single tile request */
+  private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+  /** path of OSM API map requests ends with this */
+  private static final String MAP_PATH_SUFFIX = "/map";
+
+  /** query parameter carrying the bounding box */
+  private static final String BOUNDING_BOX_PARAMETER = "bbox=";
+
+  /** user agent to identify with, as required by the OSM API usage policy */
+  private static final String USER_AGENT = "PLANitOsmParserWrapper";
+
+  /** top level OSM entity types, in the order they are merged */
+  private static final String[] ENTITY_TYPES = {"node", "way", "relation"};
+
+  /** size of the buffers between the merge and the reader */
+  private static final int PIPE_SIZE = 1 << 16;
+
+  /** API URL to fetch */
+  private final URI apiUri;
+
+  /** requested bounding box */
+  private final Envelope boundingBox;
+
+  /** tiles covering the bounding box */
+  private final List<Envelope> tiles;
+
+  /** maximum number of concurrent requests */
+  private final int parallelism;
+
+  /** maximum number of attempts per tile */
+  private final int maxAttempts;
+
+  /** delay before the first retry */
+  private final Duration retryDelay;
+
+  /** client used for all requests */
+  private final HttpClient client;
+
+  /** directory tile responses are stored in, created on first fetch */
+  private Path tileDirectory;
+
+  /** files of each tile (more than one when split), in tile order, null while not fetched */
+  private List<Future<List<Path>>> tileFetches;
+
+  /** executor fetching the tiles, null while not fetched */
+  private ExecutorService tileExecutor;
+
+  /** number of merges in progress using the fetched tiles */
+  private int numberOfActiveMerges = 0;
+
+  /** Parse the bounding box of an OSM API map request
+   *
+   * @param inputSource to parse
+   * @return bounding box (x is longitude, y is latitude), null when the input source is not an OSM API map request with a valid bounding box
+   */
+  private static Envelope parseApiBoundingBox(String inputSource) {
+    try {
+      URI uri = new URI(inputSource);
+      if(uri.getScheme() == null || !uri.getScheme().toLowerCase().startsWith("http") ||
+          uri.getPath() == null || !uri.getPath().endsWith(MAP_PATH_SUFFIX) || uri.getRawQuery() == null) {
+        return null;
+      }
+      for(String parameter : uri.getRawQuery().split("&")) {
+        if(parameter.startsWith(BOUNDING_BOX_PARAMETER)) {
+          String[] ordinates = parameter.substring(BOUNDING_BOX_PARAMETER.length()).split(",");
+          if(ordinates.length != 4) {
+            return null;
+          }
+          double minLongitude = Double.parseDouble(ordinates[0]);
+          double minLatitude = Double.parseDouble(ordinates[1]);
+          double maxLongitude = Double.parseDouble(ordinates[2]);
+          double maxLatitude = Double.parseDouble(ordinates[3]);
+          if(!(minLongitude < maxLongitude && minLatitude < maxLatitude)) {
+            return null;
+          }
+          return new Envelope(minLongitude, maxLongitude, minLatitude, maxLatitude);
+        }
+      }
+    }catch(URISyntaxException | NumberFormatException e) {
+      /* not an API request */
+    }
+    return null;
+  }
+
+  /** Split the bounding box into a grid of equally sized tiles with edges no longer than the tile size
+   *
+   * @param boundingBox to split
+   * @param tileSize maximum edge length in degrees
+   * @return tiles, row by row
+   */
+  private static List<Envelope> createTiles(Envelope boundingBox, double tileSize) {
+    int columns = Math.max(1, (int) Math.ceil(boundingBox.getWidth() / tileSize - 1e-9));
+    int rows = Math.max(1, (int) Math.ceil(boundingBox.getHeight() / tileSize - 1e-9));
+    double tileWidth = boundingBox.getWidth() / columns;
+    double tileHeight = boundingBox.getHeight() / rows;
+    List<Envelope> tiles = new ArrayList<>(columns * rows);
+    for(int row = 0; row < rows; ++row) {
+      double minLatitude = boundingBox.getMinY() + row * tileHeight;
+      double maxLatitude = row == rows - 1 ? boundingBox.getMaxY() : minLatitude + tileHeight;
+      for(int column = 0; column < columns; ++column) {
+        double minLongitude = boundingBox.getMinX() + column * tileWidth;
+        double maxLongitude = column == columns - 1 ? boundingBox.getMaxX() : minLongitude + tileWidth;
+        tiles.add(new Envelope(minLongitude, maxLongitude, minLatitude, maxLatitude));
+      }
+    }
+    return tiles;
+  }
+
+  /** Split a tile into its quadrants
+   *
+   * @param tile to split
+   * @return quadrants
+   */
+  private static List<Envelope> createQuadrants(Envelope tile) {
+    double centreLongitude = tile.centre().x;
+    double centreLatitude = tile.centre().y;
+    return List.of(
+        new Envelope(tile.getMinX(), centreLongitude, tile.getMinY(), centreLatitude),
+        new Envelope(centreLongitude, tile.getMaxX(), tile.getMinY(), centreLatitude),
+        new Envelope(tile.getMinX(), centreLongitude, centreLatitude, tile.getMaxY()),
+        new Envelope(centreLongitude, tile.getMaxX(), centreLatitude, tile.getMaxY()));
+  }
+
+  /** Collect the message in the body of an error response stored in a tile file, truncated
+   *
+   * @param tileFile containing the response body
+   * @return message, empty when there is none
+   */
+  private static String collectErrorMessage(Path tileFile) {
+    try(InputStream input = Files.newInputStream(tileFile)){
+      return new String(input.readNBytes(MAX_ERROR_MESSAGE_LENGTH), StandardCharsets.UTF_8).trim();
+    }catch(IOException e) {
+      return "";
+    }
+  }
+
+  /** Verify if an error message of the OSM API reports that the requested tile exceeds its node limit or area limit
+   *
+   * @param errorMessage to verify
+   * @return true when too many nodes or too large an area was requested, false otherwise
+   */
+  private static boolean isTooLargeMessage(String errorMessage) {
+    String message = errorMessage.toLowerCase(Locale.ROOT);
+    return TOO_LARGE_RESPONSE_PHRASES.stream().anyMatch(message::contains);
+  }
+
+  /** Copy the element the reader is positioned at, including its children, leaving the reader at its end
+   *
+   * @param reader to copy from
+   * @param writer to copy to
+   * @throws XMLStreamException thrown if error
+   */
+  private static void copyElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+    int depth = 0;
+    while(true) {
+      if(reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+        writer.writeStartElement(reader.getLocalName());
+        for(int index = 0; index < reader.getAttributeCount(); ++index) {
+          writer.writeAttribute(reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+        }
+        ++depth;
+      }else if(reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+        writer.writeEndElement();
+        if(--depth == 0) {
+          return;
+        }
+      }
+      reader.next();
+    }
+  }
+
+  /** Skip the element the reader is positioned at, including its children, leaving the reader at its end
+   *
+   * @param reader to skip in
+   * @throws XMLStreamException thrown if error
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while(depth > 0) {
+      int event = reader.next();
+      if(event == XMLStreamConstants.START_ELEMENT) {
+        ++depth;
+      }else if(event == XMLStreamConstants.END_ELEMENT) {
+        --depth;
+      }
+    }
+  }
+
+  /** Verify if the input source is an OSM API map request with a bounding box, e.g.,
+   * {@code https://api.openstreetmap.org/api/0.6/map?bbox=minlon,minlat,maxlon,maxlat}
+   *
+   * @param inputSource to verify
+   * @return true when it is, false otherwise
+   */
+  public static boolean isOsmApiBoundingBoxUrl(String inputSource) {
+    return inputSource != null && parseApiBoundingBox(inputSource) != null;
+  }
+
+  /**
+   * Constructor using default attempts and retry delay
+   *
+   * @param inputSource OSM API map request with bounding box
+   * @param tileSize maximum edge length of a tile in degrees
+   * @param parallelism maximum number of concurrent requests
+   * @throws PlanItException thrown if error
+   */
+  public OsmApiTileFetcher(String inputSource, double tileSize, int parallelism) throws PlanItException {
+    this(inputSource, tileSize, parallelism, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param inputSource OSM API map request with bounding box
+   * @param tileSize maximum edge length of a tile in degrees
+   * @param parallelism maximum number of concurrent requests
+   * @param maxAttempts maximum number of attempts per tile
+   * @param retryDelay delay before the first retry, doubled for every subsequent retry
+   * @throws PlanItException thrown if error
+   */
+  public OsmApiTileFetcher(String inputSource, double tileSize, int parallelism, int maxAttempts, Duration retryDelay) throws PlanItException {
+    PlanItException.throwIfNull(retryDelay, "Retry delay null");
+    this.boundingBox = parseApiBoundingBox(inputSource);
+    if(boundingBox == null) {
+      throw new PlanItException("%s is not an OSM API map request with a bounding box", inputSource);
+    }
+    if(!(tileSize > 0 && tileSize <= MAX_TILE_SIZE)) {
+      throw new PlanItException("Tile size is expected to be larger than 0 and at most %s degrees but found %s", MAX_TILE_SIZE, tileSize);
+    }
+    if(parallelism < 1 || maxAttempts < 1) {
+      throw new PlanItException("Parallelism and attempts are expected to be at least 1 but found %d, %d", parallelism, maxAttempts);
+    }
+    this.apiUri = URI.create(inputSource);
+    this.tiles = createTiles(boundingBox, tileSize);
+    this.parallelism = parallelism;
+    this.maxAttempts = maxAttempts;
+    this.retryDelay = retryDelay;
+    this.client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(Duration.ofSeconds(30)).build();
+  }
+
+  /** Tiles covering the requested bounding box (x is longitude, y is latitude), tiles rejected by the API are split further when fetched
+   *
+   * @return tiles
+   */
+  public List<Envelope> getTiles() {
+    return List.copyOf(tiles);
+  }
+
+  /** Request URI of a tile, i.e., the API request with its bounding box replaced by that of the tile
+   *
+   * @param tile to request
+   * @return request URI
+   */
+  public URI createTileUri(Envelope tile) {
+    StringBuilder query = new StringBuilder();
+    for(String parameter : apiUri.getRawQuery().split("&")) {
+      if(query.length() > 0) {
+        query.append('&');
+      }
+      if(parameter.startsWith(BOUNDING_BOX_PARAMETER)) {
+        query.append(BOUNDING_BOX_PARAMETER).append(String.format(Locale.ROOT, "%.7f,%.7f,%.7f,%.7f",
+            tile.getMinX(), tile.getMinY(), tile.getMaxX(), tile.getMaxY()));
+      }else {
+        query.append(parameter);
+      }
+    }
+    return URI.create(apiUri.getScheme() + "://" + apiUri.getRawAuthority() + apiUri.getRawPath() + "?" + query);
+  }
+
+  /** Fetch a tile, retrying when the request fails and splitting the tile when the API rejects it as too large
+   *
+   * @param tile to fetch
+   * @param directory to store its response in
+   * @param tileName to store its response under
+   * @return files containing the tile (more than one when split)
+   * @throws IOException thrown when the tile could not be fetched
+   * @throws InterruptedException thrown when interrupted
+   */
+  private List<Path> fetchTile(Envelope tile, Path directory, String tileName) throws IOException, InterruptedException {
+    URI tileUri = createTileUri(tile);
+    Path tileFile = directory.resolve(tileName + ".osm");
+    tileFile.toFile().deleteOnExit();
+    HttpRequest request = HttpRequest.newBuilder(tileUri).timeout(REQUEST_TIMEOUT).header("User-Agent", USER_AGENT).GET().build();
+    for(int attempt = 1;; ++attempt) {
+      long delay = retryDelay.toMillis() << Math.min(attempt - 1, 16);
+      HttpResponse<Path> response = null;
+      IOException failure = null;
+      try {
+        response = client.send(request, HttpResponse.BodyHandlers.ofFile(tileFile));
+      }catch(IOException e) {
+        failure = e;
+      }
+      if(response != null) {
+        int status = response.statusCode();
+        if(status == 200) {
+          return List.of(tileFile);
+        }
+        String errorMessage = collectErrorMessage(tileFile);
+        if(status == 400 && isTooLargeMessage(errorMessage) && tile.getWidth() / 2 >= MIN_TILE_SIZE && tile.getHeight() / 2 >= MIN_TILE_SIZE) {
+          LOGGER.info(String.format("OSM API rejected tile %s as too large (%s), splitting it into quadrants", tileUri, errorMessage));
+          Files.deleteIfExists(tileFile);
+          List<Path> quadrantFiles = new ArrayList<>();
+          List<Envelope> quadrants = createQuadrants(tile);
+          for(int quadrant = 0; quadrant < quadrants.size(); ++quadrant) {
+            quadrantFiles.addAll(fetchTile(quadrants.get(quadrant), directory, tileName + "_" + quadrant));
+          }
+          return quadrantFiles;
+        }
+        failure = new IOException(String.format("OSM API responded with HTTP %d to %s: %s", status, tileUri, errorMessage));
+        if(status != 429 && status < 500) {
+          /* not transient */
+          throw failure;
+        }
+        var retryAfter = response.headers().firstValue("Retry-After");
+        if(retryAfter.isPresent() && retryAfter.get().trim().matches("\\d+")) {
+          delay = Math.max(delay, Long.parseLong(retryAfter.get().trim()) * 1000);
+        }
+      }
+      if(attempt >= maxAttempts) {
+        throw new IOException(String.format("Unable to fetch %s after %d attempts", tileUri, attempt), failure);
+      }
+      LOGGER.warning(String.format("Fetching %s failed (%s), retrying in %d ms", tileUri, failure.getMessage(), delay));
+      Thread.sleep(delay);
+    }
+  }
+
+  /** Start fetching all tiles concurrently, unless already started by a merge in progress. Each call must be followed by {@link #releaseTiles()}
+   *
+   * @return files of each tile, in tile order
+   * @throws PlanItException thrown if error
+   */
+  private synchronized List<Future<List<Path>>> fetchTiles() throws PlanItException {
+    if(tileFetches == null) {
+      Path directory;
+      try {
+        directory = Files.createTempDirectory("planit_osm_tiles_");
+        directory.toFile().deleteOnExit();
+      }catch(IOException e) {
+        throw new PlanItException("Unable to create temporary directory for OSM API tiles", e);
+      }
+      LOGGER.info(String.format("Fetching %s as %d tiles with at most %d concurrent requests", apiUri, tiles.size(), parallelism));
+      tileDirectory = directory;
+      tileExecutor = Executors.newFixedThreadPool(Math.min(parallelism, tiles.size()), runnable -> {
+        Thread thread = new Thread(runnable, "planit-tile-fetch");
+        thread.setDaemon(true);
+        return thread;
+      });
+      tileFetches = new ArrayList<>(tiles.size());
+      for(int index = 0; index < tiles.size(); ++index) {
+        Envelope tile = tiles.get(index);
+        String tileName = "tile_" + index;
+        tileFetches.add(tileExecutor.submit(() -> fetchTile(tile, directory, tileName)));
+      }
+      tileExecutor.shutdown();
+    }
+    ++numberOfActiveMerges;
+    return tileFetches;
+  }
+
+  /** Release the tiles once a merge has finished or failed. When no other merge uses them, fetches still in progress are cancelled and the tile
+   * files and their directory are removed, such that a subsequent merge fetches them anew. Failures to remove are logged only, so that removing
+   * never masks the error that ended the merge
+   */
+  private synchronized void releaseTiles() {
+    if(--numberOfActiveMerges > 0) {
+      return;
+    }
+    tileExecutor.shutdownNow();
+    try {
+      if(!tileExecutor.awaitTermination(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+        LOGGER.warning(String.format("OSM API tile fetches of %s did not end, tiles in %s may remain", apiUri, tileDirectory));
+      }
+    }catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      try(var tileFiles = Files.list(tileDirectory)){
+        for(Path tileFile : (Iterable<Path>) tileFiles::iterator) {
+          Files.deleteIfExists(tileFile);
+        }
+      }
+      Files.deleteIfExists(tileDirectory);
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to remove OSM API tiles in %s: %s", tileDirectory, e.getMessage()));
+    }
+    tileFetches = null;
+    tileExecutor = null;
+    tileDirectory = null;
+  }
+
+  /** Copy all entities of the given type not copied before from a tile to the merged output
+   *
+   * @param inputFactory to parse the tile with
+   * @param tileFile to copy from
+   * @param entityType to copy
+   * @param copiedIds ids of entities of this type copied so far, updated
+   * @param writer to copy to
+   * @return number of entities copied
+   * @throws IOException thrown if error
+   * @throws XMLStreamException thrown if error
+   */
+  private static long copyEntities(
+      XMLInputFactory inputFactory, Path tileFile, String entityType, OsmEntityIdSet copiedIds, XMLStreamWriter writer) throws IOException, XMLStreamException {
+    long copied = 0;
+    try(InputStream tileInput = new BufferedInputStream(Files.newInputStream(tileFile), PIPE_SIZE)){
+      XMLStreamReader reader = inputFactory.createXMLStreamReader(tileInput);
+      try {
+        boolean insideRoot = false;
+        while(reader.hasNext()) {
+          int event = reader.next();
+          if(event == XMLStreamConstants.START_ELEMENT) {
+            if(!insideRoot) {
+              if(!"osm".equals(reader.getLocalName())) {
+                throw new IOException(String.format("OSM API tile %s is not an OSM XML document", tileFile));
+              }
+              insideRoot = true;
+            }else if(entityType.equals(reader.getLocalName()) && copiedIds.add(Long.parseLong(reader.getAttributeValue(null, "id")))) {
+              copyElement(reader, writer);
+              ++copied;
+            }else {
+              skipElement(reader);
+            }
+          }else if(event == XMLStreamConstants.END_ELEMENT) {
+            insideRoot = false;
+          }
+        }
+      }catch(NumberFormatException e) {
+        throw new IOException(String.format("OSM API tile %s contains a %s without valid id", tileFile, entityType), e);
+      }finally {
+        reader.close();
+      }
+    }
+    return copied;
+  }
+
+  /** Fetch the tiles (unless fetched by a merge in progress) and merge them into a single OSM XML document, nodes first, then ways, then
+   * relations. Entities present in more than one tile are written once. The merge proceeds as tiles arrive, the tiles are removed once it has
+   * finished or failed
+   *
+   * @param output to write the merged document to, flushed but not closed
+   * @throws PlanItException thrown if error
+   */
+  public void merge(OutputStream output) throws PlanItException {
+    PlanItException.throwIfNull(output, "Output to merge OSM API tiles to null");
+    XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    long[] entityCounts = new long[ENTITY_TYPES.length];
+    int numberOfTileResponses = 0;
+    List<Future<List<Path>>> fetches = fetchTiles();
+    try {
+      XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeStartElement("osm");
+      writer.writeAttribute("version", "0.6");
+      writer.writeAttribute("generator", USER_AGENT);
+      writer.writeEmptyElement("bounds");
+      writer.writeAttribute("minlat", String.valueOf(boundingBox.getMinY()));
+      writer.writeAttribute("minlon", String.valueOf(boundingBox.getMinX()));
+      writer.writeAttribute("maxlat", String.valueOf(boundingBox.getMaxY()));
+      writer.writeAttribute("maxlon", String.valueOf(boundingBox.getMaxX()));
+
+      /* one pass over all tiles per entity type, since nodes must precede ways and ways must precede relations */
+      for(int typeIndex = 0; typeIndex < ENTITY_TYPES.length; ++typeIndex) {
+        OsmEntityIdSet copiedIds = new OsmEntityIdSet();
+        for(Future<List<Path>> fetch : fetches) {
+          List<Path> tileFiles = fetch.get();
+          numberOfTileResponses += typeIndex == 0 ? tileFiles.size() : 0;
+          for(Path tileFile : tileFiles) {
+            entityCounts[typeIndex] += copyEntities(inputFactory, tileFile, ENTITY_TYPES[typeIndex], copiedIds, writer);
+          }
+        }
+      }
+
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.flush();
+      writer.close();
+      output.flush();
+    }catch(ExecutionException e) {
+      throw new PlanItException(String.format("Unable to fetch %s", apiUri), e.getCause());
+    }catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PlanItException(String.format("Interrupted while fetching %s", apiUri), e);
+    }catch(IOException | XMLStreamException e) {
+      throw new PlanItException(String.format("Unable to merge OSM API tiles of %s", apiUri), e);
+    }finally {
+      releaseTiles();
+    }
+    LOGGER.info(String.format("Merged %d OSM API tile responses into %d nodes, %d ways and %d relations",
+        numberOfTileResponses, entityCounts[0], entityCounts[1], entityCounts[2]));
+  }
+
+  /** Open the merged tiles as stream, merged on a separate thread as it is read
+   *
+   * @return merged input stream
+   * @throws IOException thrown if error
+   */
+  private InputStream openMergedInput() throws IOException {
+    var pipeInput = new PipedInputStream(PIPE_SIZE);
+    var pipeOutput = new PipedOutputStream(pipeInput);
+    var mergedInput = new MergedOsmInputStream(pipeInput, "OSM API tiles");
+    Thread mergeThread = new Thread(() -> {
+      try {
+        merge(new BufferedOutputStream(pipeOutput, PIPE_SIZE));
+      }catch(Exception e) {
+        mergedInput.setFailure(e);
+      }finally {
+        try {
+          pipeOutput.close();
+        }catch(IOException e) {
+          /* reader closed the input early */
+        }
+      }
+    }, "planit-tile-merge");
+    mergeThread.setDaemon(true);
+    mergeThread.start();
+    return mergedInput;
+  }
+
+  /** Create an input source for the reader. Its external form equals the API request, while opening it streams the merged tiles
+   *
+   * @return URL to provide to the reader
+   * @throws PlanItException thrown if error
+   */
+  public URL createInputSource() throws PlanItException {
+    try {
+      return new URL(null, apiUri.toString(), new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+          return new URLConnection(url) {
+            @Override
+            public void connect() throws IOException {
+              /* tiles are fetched when the input is opened */
+            }
+            @Override
+            public InputStream getInputStream() throws IOException {
+              return openMergedInput();
+            }
+            @Override
+            public String getContentType() {
+              return "application/xml";
+            }
+          };
+        }
+      });
+    }catch(MalformedURLException e) {
+      throw new PlanItException(String.format("Unable to create input source for %s", apiUri), e);
+    }
+  }
+}
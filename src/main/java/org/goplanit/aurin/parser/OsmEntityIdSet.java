@@ -0,0 +1,88 @@
+package org.goplanit.aurin.parser;
+
+/**
+ * Set of OSM entity ids, open addressing without boxing since a merge may see millions of them
+ *
+ * @author markr
+ *
+ */
+class OsmEntityIdSet {
+
+  /** ids, 0 marks an empty slot */
+  private long[] ids = new long[1 << 10];
+
+  /** number of non zero ids */
+  private int size = 0;
+
+  /** whether id 0 is present */
+  private boolean containsZero = false;
+
+  /** Slot of an id
+   *
+   * @param id to hash
+   * @param mask of the table
+   * @return first slot to probe
+   */
+  private static int slot(long id, int mask) {
+    long hash = id * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  /** Add an id
+   *
+   * @param id to add
+   * @return true when added, false when already present
+   */
+  boolean add(long id) {
+    if(id == 0) {
+      boolean added = !containsZero;
+      containsZero = true;
+      return added;
+    }
+    if(2 * (size + 1) > ids.length) {
+      long[] previousIds = ids;
+      ids = new long[previousIds.length * 2];
+      for(long previousId : previousIds) {
+        if(previousId != 0) {
+          int mask = ids.length - 1;
+          int slot = slot(previousId, mask);
+          while(ids[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          ids[slot] = previousId;
+        }
+      }
+    }
+    int mask = ids.length - 1;
+    for(int slot = slot(id, mask);; slot = (slot + 1) & mask) {
+      if(ids[slot] == 0) {
+        ids[slot] = id;
+        ++size;
+        return true;
+      }
+      if(ids[slot] == id) {
+        return false;
+      }
+    }
+  }
+
+  /** Verify if an id is present
+   *
+   * @param id to verify
+   * @return true when present, false otherwise
+   */
+  boolean contains(long id) {
+    if(id == 0) {
+      return containsZero;
+    }
+    int mask = ids.length - 1;
+    for(int slot = slot(id, mask);; slot = (slot + 1) & mask) {
+      if(ids[slot] == 0) {
+        return false;
+      }
+      if(ids[slot] == id) {
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,630 @@
+package org.goplanit.aurin.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+import de.topobyte.osm4j.core.access.OsmHandler;
+import de.topobyte.osm4j.core.access.OsmInputException;
+import de.topobyte.osm4j.core.access.OsmReader;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmRelationMember;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+
+/**
+ * Merge multiple (possibly overlapping) OSM inputs, e.g., adjacent state extracts, into a single OSM XML stream that is parsed by the reader as
+ * if it were a single input, so no merged file is written and no network is converted more than once. The inputs are decoded concurrently, one
+ * thread per input, and entities present in more than one input are deduplicated by their OSM id while decoding:
+ *
+ * <ul>
+ * <li>nodes are written once, the first decoded instance is kept</li>
+ * <li>ways of which all nodes are present and originate from a single input are written once as they are decoded. Other ways, i.e., ways that
+ * cross the border of an input (and may be clipped by it) or that lie in the overlap of inputs, are held until all inputs have been decoded,
+ * merging the node sequences of instances with the same id (e.g. both halves of a way clipped at the border of two extracts)</li>
+ * <li>relations are written once, the first decoded instance is kept</li>
+ * </ul>
+ *
+ * Since the merged stream contains all nodes before all ways before all relations, the decoding of each input waits for the other inputs at
+ * the transition from nodes to ways and from ways to relations. Memory used by the merge is bounded by the ids of the nodes, ways and relations
+ * (sets without boxing) and the ways held, not by the size of the inputs.
+ * <p>
+ * The merged stream is provided to the reader via {@link #createInputSource()}, each access of which merges the inputs anew, so readers that parse
+ * their input more than once (e.g. the intermodal reader) are supported.
+ *
+ * @author markr
+ *
+ */
+public class OsmInputMerger {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(OsmInputMerger.class.getCanonicalName());
+
+  /** location of the merged input, its name identifies it as OSM XML */
+  private static final String MERGED_INPUT_LOCATION = "osm-merge:/merged.osm";
+
+  /** generator attribute of the merged document */
+  private static final String GENERATOR = "PLANitOsmParserWrapper";
+
+  /** phase in which nodes are decoded */
+  private static final int NODE_PHASE = 0;
+
+  /** phase in which ways are decoded */
+  private static final int WAY_PHASE = 1;
+
+  /** phase in which relations are decoded */
+  private static final int RELATION_PHASE = 2;
+
+  /** size of the buffers of the inputs and between the merge and the reader */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** inputs to merge, in order of precedence */
+  private final List<URL> inputSources;
+
+  /**
+   * Way held until all inputs are decoded
+   */
+  private static final class HeldWay {
+
+    /** nodes of the way, merged across its instances */
+    private long[] nodeIds;
+
+    /** tags of the first instance as key, value pairs */
+    private final String[] tags;
+
+    /**
+     * Constructor
+     *
+     * @param nodeIds of the way
+     * @param tags of the way as key, value pairs
+     */
+    private HeldWay(long[] nodeIds, String[] tags) {
+      this.nodeIds = nodeIds;
+      this.tags = tags;
+    }
+  }
+
+  /**
+   * State of a single merge, shared by the threads decoding the inputs and guarded by itself
+   */
+  private static final class Merge {
+
+    /** to write the merged document with */
+    private final XMLStreamWriter writer;
+
+    /** synchronises the decoding of the inputs at the transition from nodes to ways and from ways to relations */
+    private final Phaser phaser;
+
+    /** ids of the nodes written */
+    private final OsmEntityIdSet writtenNodeIds = new OsmEntityIdSet();
+
+    /** ids of the nodes present in more than one input */
+    private final OsmEntityIdSet sharedNodeIds = new OsmEntityIdSet();
+
+    /** ids of the ways written */
+    private final OsmEntityIdSet writtenWayIds = new OsmEntityIdSet();
+
+    /** ways held until all inputs are decoded, in the order they were first decoded */
+    private final Map<Long, HeldWay> heldWays = new LinkedHashMap<>();
+
+    /** ids of the relations written */
+    private final OsmEntityIdSet writtenRelationIds = new OsmEntityIdSet();
+
+    /** number of nodes, ways and relations written */
+    private final long[] entityCounts = new long[3];
+
+    /** number of ways of which the instances were merged */
+    private long numberOfMergedWays = 0;
+
+    /** number of ways of which the instances could not be merged, the longest instance is kept */
+    private long numberOfUnmergeableWays = 0;
+
+    /** failure of the decoding of any input or of the writing, null when none */
+    private volatile Exception failure;
+
+    /**
+     * Constructor
+     *
+     * @param writer to write the merged document with
+     * @param numberOfInputs to decode
+     */
+    private Merge(XMLStreamWriter writer, int numberOfInputs) {
+      this.writer = writer;
+      this.phaser = new Phaser(numberOfInputs) {
+        @Override
+        protected boolean onAdvance(int phase, int registeredParties) {
+          if(phase == WAY_PHASE) {
+            try {
+              writeHeldWays();
+            }catch(XMLStreamException e) {
+              fail(e);
+              return true;
+            }
+          }
+          return registeredParties == 0;
+        }
+      };
+    }
+
+    /** Register the failure of the merge, releasing the decoding of all inputs
+     *
+     * @param cause of the failure
+     */
+    private void fail(Exception cause) {
+      if(failure == null) {
+        failure = cause;
+      }
+      phaser.forceTermination();
+    }
+
+    /** Throw when the merge failed, in which case the decoding of each input should end
+     *
+     * @throws IOException thrown when failed
+     */
+    private void throwIfFailed() throws IOException {
+      if(failure != null) {
+        throw new IOException("Merge of OSM inputs aborted", failure);
+      }
+    }
+
+    /** Write the tags of an entity
+     *
+     * @param entity to write tags of
+     * @throws XMLStreamException thrown if error
+     */
+    private void writeTags(OsmEntity entity) throws XMLStreamException {
+      for(int index = 0; index < entity.getNumberOfTags(); ++index) {
+        writer.writeEmptyElement("tag");
+        writer.writeAttribute("k", entity.getTag(index).getKey());
+        writer.writeAttribute("v", entity.getTag(index).getValue());
+      }
+    }
+
+    /** Collect the tags of an entity
+     *
+     * @param entity to collect tags of
+     * @return tags as key, value pairs
+     */
+    private static String[] collectTags(OsmEntity entity) {
+      String[] tags = new String[2 * entity.getNumberOfTags()];
+      for(int index = 0; index < entity.getNumberOfTags(); ++index) {
+        tags[2 * index] = entity.getTag(index).getKey();
+        tags[2 * index + 1] = entity.getTag(index).getValue();
+      }
+      return tags;
+    }
+
+    /** Write a way
+     *
+     * @param id of the way
+     * @param nodeIds of the way
+     * @param tags of the way as key, value pairs
+     * @throws XMLStreamException thrown if error
+     */
+    private void writeWay(long id, long[] nodeIds, String[] tags) throws XMLStreamException {
+      writer.writeStartElement("way");
+      writer.writeAttribute("id", Long.toString(id));
+      for(long nodeId : nodeIds) {
+        writer.writeEmptyElement("nd");
+        writer.writeAttribute("ref", Long.toString(nodeId));
+      }
+      for(int index = 0; index < tags.length; index += 2) {
+        writer.writeEmptyElement("tag");
+        writer.writeAttribute("k", tags[index]);
+        writer.writeAttribute("v", tags[index + 1]);
+      }
+      writer.writeEndElement();
+      ++entityCounts[WAY_PHASE];
+    }
+
+    /** Write the held ways, once all inputs completed decoding their ways
+     *
+     * @throws XMLStreamException thrown if error
+     */
+    private synchronized void writeHeldWays() throws XMLStreamException {
+      for(var heldWay : heldWays.entrySet()) {
+        if(writtenWayIds.add(heldWay.getKey())) {
+          writeWay(heldWay.getKey(), heldWay.getValue().nodeIds, heldWay.getValue().tags);
+        }
+      }
+      heldWays.clear();
+    }
+
+    /** Add a decoded node, written unless written before
+     *
+     * @param node to add
+     * @throws XMLStreamException thrown if error
+     */
+    private synchronized void addNode(OsmNode node) throws XMLStreamException {
+      if(!writtenNodeIds.add(node.getId())) {
+        sharedNodeIds.add(node.getId());
+        return;
+      }
+      writer.writeStartElement("node");
+      writer.writeAttribute("id", Long.toString(node.getId()));
+      writer.writeAttribute("lat", Double.toString(node.getLatitude()));
+      writer.writeAttribute("lon", Double.toString(node.getLongitude()));
+      writeTags(node);
+      writer.writeEndElement();
+      ++entityCounts[NODE_PHASE];
+    }
+
+    /** Add a decoded way. Ways of which all nodes are present and none is shared with another input are only present in this input and are
+     * written unless written before, others are held and merged with other instances
+     *
+     * @param way to add
+     * @throws XMLStreamException thrown if error
+     */
+    private synchronized void addWay(OsmWay way) throws XMLStreamException {
+      long[] nodeIds = new long[way.getNumberOfNodes()];
+      boolean withinSingleInput = true;
+      for(int index = 0; index < nodeIds.length; ++index) {
+        nodeIds[index] = way.getNodeId(index);
+        withinSingleInput &= writtenNodeIds.contains(nodeIds[index]) && !sharedNodeIds.contains(nodeIds[index]);
+      }
+
+      HeldWay heldWay = heldWays.get(way.getId());
+      if(heldWay != null) {
+        long[] mergedNodeIds = mergeWayNodes(heldWay.nodeIds, nodeIds);
+        if(mergedNodeIds == null) {
+          ++numberOfUnmergeableWays;
+          LOGGER.fine(String.format("Instances of OSM way %d in different inputs share no sequence of nodes, longest instance kept", way.getId()));
+          mergedNodeIds = heldWay.nodeIds.length >= nodeIds.length ? heldWay.nodeIds : nodeIds;
+        }else if(mergedNodeIds.length > heldWay.nodeIds.length) {
+          ++numberOfMergedWays;
+        }
+        heldWay.nodeIds = mergedNodeIds;
+      }else if(writtenWayIds.contains(way.getId())) {
+        return;
+      }else if(withinSingleInput) {
+        writtenWayIds.add(way.getId());
+        writeWay(way.getId(), nodeIds, collectTags(way));
+      }else {
+        heldWays.put(way.getId(), new HeldWay(nodeIds, collectTags(way)));
+      }
+    }
+
+    /** Add a decoded relation, written unless written before
+     *
+     * @param relation to add
+     * @throws XMLStreamException thrown if error
+     */
+    private synchronized void addRelation(OsmRelation relation) throws XMLStreamException {
+      if(!writtenRelationIds.add(relation.getId())) {
+        return;
+      }
+      writer.writeStartElement("relation");
+      writer.writeAttribute("id", Long.toString(relation.getId()));
+      for(int index = 0; index < relation.getNumberOfMembers(); ++index) {
+        OsmRelationMember member = relation.getMember(index);
+        writer.writeEmptyElement("member");
+        writer.writeAttribute("type", member.getType().name().toLowerCase(Locale.ROOT));
+        writer.writeAttribute("ref", Long.toString(member.getId()));
+        writer.writeAttribute("role", member.getRole() != null ? member.getRole() : "");
+      }
+      writeTags(relation);
+      writer.writeEndElement();
+      ++entityCounts[RELATION_PHASE];
+    }
+  }
+
+  /**
+   * Decodes a single input into the merge
+   */
+  private static final class InputHandler implements OsmHandler {
+
+    /** merge to decode into */
+    private final Merge merge;
+
+    /** input decoded, for reporting */
+    private final URL inputSource;
+
+    /** phase of the entities decoded last */
+    private int phase = NODE_PHASE;
+
+    /** Wait for all other inputs to complete the current phase(s) until the given phase is reached
+     *
+     * @param targetPhase to reach
+     * @throws IOException thrown when the merge failed or the input is not ordered by entity type
+     */
+    private void advanceTo(int targetPhase) throws IOException {
+      merge.throwIfFailed();
+      if(targetPhase < phase) {
+        throw new IOException(String.format("Input %s does not list all nodes before all ways before all relations", inputSource));
+      }
+      while(phase < targetPhase) {
+        try {
+          if(merge.phaser.awaitAdvanceInterruptibly(merge.phaser.arrive()) < 0) {
+            merge.throwIfFailed();
+          }
+        }catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Merge of OSM inputs interrupted", e);
+        }
+        ++phase;
+      }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param merge to decode into
+     * @param inputSource decoded
+     */
+    private InputHandler(Merge merge, URL inputSource) {
+      this.merge = merge;
+      this.inputSource = inputSource;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmBounds bounds) throws IOException {
+      /* bounds of the individual inputs are not retained */
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmNode node) throws IOException {
+      advanceTo(NODE_PHASE);
+      try {
+        merge.addNode(node);
+      }catch(XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmWay way) throws IOException {
+      advanceTo(WAY_PHASE);
+      try {
+        merge.addWay(way);
+      }catch(XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmRelation relation) throws IOException {
+      advanceTo(RELATION_PHASE);
+      try {
+        merge.addRelation(relation);
+      }catch(XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void complete() throws IOException {
+      advanceTo(RELATION_PHASE);
+      merge.phaser.arriveAndDeregister();
+    }
+  }
+
+  /** Merge the node sequences of two instances of the same way, e.g., the parts of a way clipped at the border of two extracts. Instances that
+   * contain the other are merged into the containing instance, instances of which the end of one overlaps with the start of the other are
+   * concatenated across their overlap
+   *
+   * @param first node sequence
+   * @param second node sequence
+   * @return merged node sequence, null when the instances share no start or end
+   */
+  static long[] mergeWayNodes(long[] first, long[] second) {
+    if(indexOf(first, second) >= 0) {
+      return first;
+    }
+    if(indexOf(second, first) >= 0) {
+      return second;
+    }
+    for(int overlap = Math.min(first.length, second.length) - 1; overlap > 0; --overlap) {
+      if(Arrays.equals(first, first.length - overlap, first.length, second, 0, overlap)) {
+        return concatenate(first, second, overlap);
+      }
+      if(Arrays.equals(second, second.length - overlap, second.length, first, 0, overlap)) {
+        return concatenate(second, first, overlap);
+      }
+    }
+    return null;
+  }
+
+  /** Index at which a sequence contains another sequence
+   *
+   * @param sequence to search in
+   * @param subsequence to search for
+   * @return index, -1 when not contained
+   */
+  private static int indexOf(long[] sequence, long[] subsequence) {
+    for(int start = 0; start + subsequence.length <= sequence.length; ++start) {
+      if(Arrays.equals(sequence, start, start + subsequence.length, subsequence, 0, subsequence.length)) {
+        return start;
+      }
+    }
+    return -1;
+  }
+
+  /** Concatenate two sequences that overlap
+   *
+   * @param head sequence ending with the overlap
+   * @param tail sequence starting with the overlap
+   * @param overlap length of the overlap
+   * @return concatenation
+   */
+  private static long[] concatenate(long[] head, long[] tail, int overlap) {
+    long[] concatenation = Arrays.copyOf(head, head.length + tail.length - overlap);
+    System.arraycopy(tail, overlap, concatenation, head.length, tail.length - overlap);
+    return concatenation;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param inputSources to merge, entities present in more than one are taken from the first (except for the nodes of clipped ways)
+   * @throws PlanItException thrown if error
+   */
+  public OsmInputMerger(List<URL> inputSources) throws PlanItException {
+    PlanItException.throwIfNull(inputSources, "Input sources to merge null");
+    if(inputSources.isEmpty() || inputSources.stream().anyMatch(Objects::isNull)) {
+      throw new PlanItException("Input sources to merge are expected to be present but found %s", inputSources);
+    }
+    this.inputSources = List.copyOf(inputSources);
+  }
+
+  /** Decode all inputs concurrently and merge them into a single OSM XML document, nodes first, then ways, then relations
+   *
+   * @param output to write the merged document to, flushed but not closed
+   * @throws PlanItException thrown if error
+   */
+  public void merge(OutputStream output) throws PlanItException {
+    PlanItException.throwIfNull(output, "Output to merge OSM inputs to null");
+    ExecutorService executor = Executors.newFixedThreadPool(inputSources.size(), runnable -> {
+      Thread thread = new Thread(runnable, "planit-input-decode");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Merge merge;
+    try {
+      XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeStartElement("osm");
+      writer.writeAttribute("version", "0.6");
+      writer.writeAttribute("generator", GENERATOR);
+
+      /* all inputs are decoded at the same time, since each waits for the others to complete their nodes and ways */
+      merge = new Merge(writer, inputSources.size());
+      List<Future<?>> decodings = new ArrayList<>(inputSources.size());
+      for(URL inputSource : inputSources) {
+        decodings.add(executor.submit(() -> {
+          try(InputStream input = new BufferedInputStream(inputSource.openStream(), BUFFER_SIZE)){
+            OsmReader reader = StreamingNetworkConverter.createReader(inputSource, input);
+            reader.setHandler(new InputHandler(merge, inputSource));
+            reader.read();
+          }catch(IOException | OsmInputException | RuntimeException e) {
+            merge.fail(new IOException(String.format("Unable to decode %s", inputSource), e));
+          }
+          return null;
+        }));
+      }
+      for(Future<?> decoding : decodings) {
+        decoding.get();
+      }
+      merge.throwIfFailed();
+
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.flush();
+      writer.close();
+      output.flush();
+    }catch(ExecutionException e) {
+      throw new PlanItException("Unable to merge OSM inputs", e.getCause());
+    }catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PlanItException("Interrupted while merging OSM inputs", e);
+    }catch(IOException | XMLStreamException e) {
+      throw new PlanItException(String.format("Unable to merge OSM inputs %s", inputSources), e);
+    }finally {
+      executor.shutdownNow();
+    }
+    LOGGER.info(String.format("Merged %d OSM inputs into %d nodes, %d ways (%d merged across inputs, %d not mergeable) and %d relations",
+        inputSources.size(), merge.entityCounts[NODE_PHASE], merge.entityCounts[WAY_PHASE], merge.numberOfMergedWays, merge.numberOfUnmergeableWays,
+        merge.entityCounts[RELATION_PHASE]));
+  }
+
+  /** Open the merged inputs as stream, merged on a separate thread as it is read
+   *
+   * @return merged input stream
+   * @throws IOException thrown if error
+   */
+  private InputStream openMergedInput() throws IOException {
+    var pipeInput = new PipedInputStream(BUFFER_SIZE);
+    var pipeOutput = new PipedOutputStream(pipeInput);
+    var mergedInput = new MergedOsmInputStream(pipeInput, String.format("OSM inputs %s", inputSources));
+    Thread mergeThread = new Thread(() -> {
+      try {
+        merge(new BufferedOutputStream(pipeOutput, BUFFER_SIZE));
+      }catch(Exception e) {
+        mergedInput.setFailure(e);
+      }finally {
+        try {
+          pipeOutput.close();
+        }catch(IOException e) {
+          /* reader closed the input early */
+        }
+      }
+    }, "planit-input-merge");
+    mergeThread.setDaemon(true);
+    mergeThread.start();
+    return mergedInput;
+  }
+
+  /** Create an input source for the reader, opening it streams the merged inputs
+   *
+   * @return URL to provide to the reader
+   * @throws PlanItException thrown if error
+   */
+  public URL createInputSource() throws PlanItException {
+    try {
+      return new URL(null, MERGED_INPUT_LOCATION, new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+          return new URLConnection(url) {
+            @Override
+            public void connect() throws IOException {
+              /* inputs are decoded when the input is opened */
+            }
+            @Override
+            public InputStream getInputStream() throws IOException {
+              return openMergedInput();
+            }
+            @Override
+            public String getContentType() {
+              return "application/xml";
+            }
+          };
+        }
+      });
+    }catch(MalformedURLException e) {
+      throw new PlanItException(String.format("Unable to create input source for %s", inputSources), e);
+    }
+  }
+}
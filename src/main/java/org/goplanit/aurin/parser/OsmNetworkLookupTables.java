@@ -0,0 +1,404 @@
+package org.goplanit.aurin.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.goplanit.osm.converter.network.OsmNetworkReaderSettings;
+import org.goplanit.osm.tags.OsmHighwayTags;
+import org.goplanit.osm.tags.OsmRailModeTags;
+import org.goplanit.osm.tags.OsmRoadModeTags;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.misc.StringUtils;
+
+/**
+ * Resolved highway type and mode configuration of a run compiled into dense tables indexed by small integer codes. Highway types and modes are
+ * assigned a code once (in order of the supported highway types and of the configured modes respectively), after which activation is a bit test,
+ * the modes allowed on a highway type a bitmask, and the country specific defaults (speed limit, lanes, capacity) array entries. Resolving the code
+ * of a tag value is a probe into an open addressing table on the (cached) string hash.
+ * <p>
+ * Classification and default assignment per way therefore require no allocation nor list or map lookups. Tables are populated once per run via
+ * {@link #compile(OsmNetworkReaderSettings, Map)} and only read afterwards, so they can be shared across the reading threads.
+ * <p>
+ * The tables serve the reading paths the wrapper owns, i.e., the {@link StreamingNetworkConverter}. The regular conversion classifies ways inside
+ * the PLANit OSM reader, which consults its own settings and is not affected by these tables.
+ *
+ * @author markr
+ *
+ */
+public class OsmNetworkLookupTables {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(OsmNetworkLookupTables.class.getCanonicalName());
+
+  /** code of a highway type or mode that is not known to the tables */
+  public static final int UNKNOWN = -1;
+
+  /** maximum number of highway types or modes, such that each set fits in a single bitmask */
+  public static final int MAX_CODES = Long.SIZE;
+
+  /** default capacity per lane (pcu/h) for highway types without a more specific default, see {@link #CAPACITY_PER_LANE_BY_HIGHWAY_TYPE} */
+  public static final double DEFAULT_CAPACITY_PER_LANE = 1200;
+
+  /**
+   * Capacity per lane (pcu/h) by highway type used by the wrapper when writing links itself (streaming conversion only), highway types not listed
+   * use {@link #DEFAULT_CAPACITY_PER_LANE}. These are wrapper defaults, not PLANit's: the PLANit reader does not expose the capacities it derives
+   * per highway type, so the values are rounded planning figures per road class, documented in the README. They are not country specific
+   */
+  public static final Map<String, Double> CAPACITY_PER_LANE_BY_HIGHWAY_TYPE = Map.of(
+      OsmHighwayTags.MOTORWAY, 2000.0,
+      OsmHighwayTags.MOTORWAY_LINK, 1500.0,
+      OsmHighwayTags.TRUNK, 2000.0,
+      OsmHighwayTags.TRUNK_LINK, 1500.0,
+      OsmHighwayTags.PRIMARY, 1800.0,
+      OsmHighwayTags.PRIMARY_LINK, 1200.0,
+      OsmHighwayTags.SECONDARY, 1500.0,
+      OsmHighwayTags.SECONDARY_LINK, 1000.0,
+      OsmHighwayTags.RESIDENTIAL, 600.0,
+      OsmHighwayTags.LIVING_STREET, 300.0);
+
+  /** highway types by code */
+  private final String[] highwayTypes;
+
+  /** modes by code */
+  private final String[] modes;
+
+  /** open addressing table of highway types, null when slot is empty */
+  private final String[] highwayTypeSlotKeys;
+
+  /** codes of {@link #highwayTypeSlotKeys} + 1 */
+  private final int[] highwayTypeSlotCodes;
+
+  /** open addressing table of modes, null when slot is empty */
+  private final String[] modeSlotKeys;
+
+  /** codes of {@link #modeSlotKeys} + 1 */
+  private final int[] modeSlotCodes;
+
+  /** bit per activated highway type code */
+  private long activatedHighwayTypes = 0;
+
+  /** bit per activated mode code */
+  private long activatedModes = 0;
+
+  /** activated modes allowed by highway type code */
+  private final long[] allowedModesByHighwayType;
+
+  /** default speed limit (km/h) by highway type code */
+  private final double[] defaultSpeedLimitsKmh;
+
+  /** default number of lanes per direction by highway type code */
+  private final int[] defaultDirectionalLanes;
+
+  /** default capacity per lane (pcu/h) by highway type code */
+  private final double[] defaultCapacitiesPerLane;
+
+  /** Create open addressing table for the given keys, at most half full
+   *
+   * @param keys to place, code is index of key
+   * @param slotKeys to populate
+   * @param slotCodes to populate
+   */
+  private static void populateSlots(final String[] keys, final String[] slotKeys, final int[] slotCodes) {
+    int mask = slotKeys.length - 1;
+    for(int code = 0; code < keys.length; ++code) {
+      int slot = keys[code].hashCode() & mask;
+      while(slotKeys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      slotKeys[slot] = keys[code];
+      slotCodes[slot] = code + 1;
+    }
+  }
+
+  /** Number of slots of open addressing table for given number of keys
+   *
+   * @param numberOfKeys to place
+   * @return number of slots (power of two)
+   */
+  private static int numberOfSlots(int numberOfKeys) {
+    return Integer.highestOneBit(Math.max(1, numberOfKeys) * 2) << 1;
+  }
+
+  /** Probe open addressing table
+   *
+   * @param value to find
+   * @param slotKeys to probe
+   * @param slotCodes to probe
+   * @return code, {@link #UNKNOWN} when absent
+   */
+  private static int probe(final String value, final String[] slotKeys, final int[] slotCodes) {
+    if(value == null) {
+      return UNKNOWN;
+    }
+    int mask = slotKeys.length - 1;
+    int slot = value.hashCode() & mask;
+    String key;
+    while((key = slotKeys[slot]) != null) {
+      if(key.equals(value)) {
+        return slotCodes[slot] - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return UNKNOWN;
+  }
+
+  /** Collect the (road and rail) modes the run may activate, i.e., the default modes and the explicitly activated ones
+   *
+   * @param keyValueMap to extract explicitly activated modes from
+   * @return modes in order of code assignment
+   */
+  private static List<String> collectConfiguredModes(final Map<String, String> keyValueMap) {
+    Set<String> modes = new LinkedHashSet<>(OsmNetworkReaderConfigurationHelper.DEFAULT_OSM_ROAD_MODES);
+    modes.addAll(OsmNetworkReaderConfigurationHelper.DEFAULT_OSM_RAIL_MODES);
+    String activatedModes = keyValueMap.get(OsmNetworkReaderConfigurationHelper.ACTIVATE_MODE_KEY);
+    if(!StringUtils.isNullOrBlank(activatedModes)) {
+      for(String mode : activatedModes.split(",")) {
+        if(OsmRoadModeTags.isRoadModeTag(mode) || OsmRailModeTags.isRailModeTag(mode)) {
+          modes.add(mode);
+        }
+      }
+    }
+    return new ArrayList<>(modes);
+  }
+
+  /**
+   * Constructor, all highway types and modes are initially deactivated
+   *
+   * @param highwayTypes highway types to assign codes to (in order)
+   * @param modes modes to assign codes to (in order)
+   * @throws PlanItException thrown if more than {@link #MAX_CODES} highway types or modes
+   */
+  public OsmNetworkLookupTables(final List<String> highwayTypes, final List<String> modes) throws PlanItException {
+    if(highwayTypes.size() > MAX_CODES || modes.size() > MAX_CODES) {
+      throw new PlanItException("At most %d highway types and %d modes supported, found %d and %d", MAX_CODES, MAX_CODES, highwayTypes.size(), modes.size());
+    }
+    this.highwayTypes = highwayTypes.toArray(String[]::new);
+    this.modes = modes.toArray(String[]::new);
+
+    this.highwayTypeSlotKeys = new String[numberOfSlots(this.highwayTypes.length)];
+    this.highwayTypeSlotCodes = new int[highwayTypeSlotKeys.length];
+    populateSlots(this.highwayTypes, highwayTypeSlotKeys, highwayTypeSlotCodes);
+    this.modeSlotKeys = new String[numberOfSlots(this.modes.length)];
+    this.modeSlotCodes = new int[modeSlotKeys.length];
+    populateSlots(this.modes, modeSlotKeys, modeSlotCodes);
+
+    this.allowedModesByHighwayType = new long[this.highwayTypes.length];
+    this.defaultSpeedLimitsKmh = new double[this.highwayTypes.length];
+    this.defaultDirectionalLanes = new int[this.highwayTypes.length];
+    this.defaultCapacitiesPerLane = new double[this.highwayTypes.length];
+  }
+
+  /** Compile the tables for the configured reader settings of this run, i.e., after the country, fidelity, rail activation and modes have been
+   * applied to the settings
+   *
+   * @param settings resolved reader settings
+   * @param keyValueMap arguments of the run
+   * @return compiled tables
+   * @throws PlanItException thrown if error
+   */
+  public static OsmNetworkLookupTables compile(final OsmNetworkReaderSettings settings, final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(settings, "OSM network reader settings null");
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+
+    var tables = new OsmNetworkLookupTables(OsmNetworkReaderConfigurationHelper.FINE_OSM_HIGHWAY_TYPES, collectConfiguredModes(keyValueMap));
+    for(String mode : tables.modes) {
+      boolean activated = OsmRoadModeTags.isRoadModeTag(mode) ?
+          settings.getHighwaySettings().hasMappedPlanitMode(mode) :
+            settings.isRailwayParserActive() && settings.getRailwaySettings().hasMappedPlanitMode(mode);
+      if(activated) {
+        tables.activateMode(mode);
+      }
+    }
+    for(String highwayType : tables.highwayTypes) {
+      if(!settings.getHighwaySettings().isOsmHighwayTypeActivated(highwayType)) {
+        continue;
+      }
+      tables.activateHighwayType(
+          highwayType,
+          settings.getHighwaySettings().getDefaultSpeedLimitByOsmHighwayType(highwayType),
+          settings.getDefaultDirectionalLanesByHighwayType(highwayType),
+          CAPACITY_PER_LANE_BY_HIGHWAY_TYPE.getOrDefault(highwayType, DEFAULT_CAPACITY_PER_LANE),
+          settings.getHighwaySettings().collectAllowedOsmHighwayModes(highwayType));
+    }
+
+    LOGGER.info(String.format("Compiled lookup tables for %d of %d highway types and %d of %d modes",
+        Long.bitCount(tables.activatedHighwayTypes), tables.highwayTypes.length, Long.bitCount(tables.activatedModes), tables.modes.length));
+    return tables;
+  }
+
+  /** Activate a mode, to be invoked before activating the highway types that allow it
+   *
+   * @param mode to activate
+   * @throws PlanItException thrown if unknown mode
+   */
+  public void activateMode(final String mode) throws PlanItException {
+    int modeCode = getModeCode(mode);
+    if(modeCode == UNKNOWN) {
+      throw new PlanItException("Unknown mode %s, choose from %s", mode, Arrays.toString(modes));
+    }
+    activatedModes |= 1L << modeCode;
+  }
+
+  /** Activate a highway type with its defaults
+   *
+   * @param highwayType to activate
+   * @param speedLimitKmh default speed limit
+   * @param directionalLanes default number of lanes per direction
+   * @param capacityPerLane default capacity per lane (pcu/h)
+   * @param allowedModes modes allowed on the highway type, only activated modes are retained
+   * @throws PlanItException thrown if unknown highway type
+   */
+  public void activateHighwayType(final String highwayType, double speedLimitKmh, int directionalLanes, double capacityPerLane,
+      final Collection<String> allowedModes) throws PlanItException {
+    int code = getHighwayTypeCode(highwayType);
+    if(code == UNKNOWN) {
+      throw new PlanItException("Unknown highway type %s, choose from %s", highwayType, Arrays.toString(highwayTypes));
+    }
+    long modeMask = 0;
+    if(allowedModes != null) {
+      for(String mode : allowedModes) {
+        int modeCode = getModeCode(mode);
+        if(modeCode != UNKNOWN) {
+          modeMask |= 1L << modeCode;
+        }
+      }
+    }
+    activatedHighwayTypes |= 1L << code;
+    allowedModesByHighwayType[code] = modeMask & activatedModes;
+    defaultSpeedLimitsKmh[code] = speedLimitKmh;
+    defaultDirectionalLanes[code] = directionalLanes;
+    defaultCapacitiesPerLane[code] = capacityPerLane;
+  }
+
+  /** Code of a highway type
+   *
+   * @param highwayType value of the highway tag
+   * @return code, {@link #UNKNOWN} when not known
+   */
+  public int getHighwayTypeCode(final String highwayType) {
+    return probe(highwayType, highwayTypeSlotKeys, highwayTypeSlotCodes);
+  }
+
+  /** Classify a way by its highway tag value
+   *
+   * @param highwayType value of the highway tag, may be null
+   * @return code of the highway type when activated, {@link #UNKNOWN} otherwise
+   */
+  public int classifyHighwayType(final String highwayType) {
+    int code = getHighwayTypeCode(highwayType);
+    return code != UNKNOWN && isHighwayTypeActivated(code) ? code : UNKNOWN;
+  }
+
+  /** Verify if highway type is activated
+   *
+   * @param highwayTypeCode to verify
+   * @return true when activated
+   */
+  public boolean isHighwayTypeActivated(int highwayTypeCode) {
+    return (activatedHighwayTypes & (1L << highwayTypeCode)) != 0;
+  }
+
+  /** Highway type of a code
+   *
+   * @param highwayTypeCode of highway type
+   * @return highway type
+   */
+  public String getHighwayType(int highwayTypeCode) {
+    return highwayTypes[highwayTypeCode];
+  }
+
+  /** Number of highway types known to the tables
+   *
+   * @return number of highway types
+   */
+  public int getNumberOfHighwayTypes() {
+    return highwayTypes.length;
+  }
+
+  /** Code of a mode
+   *
+   * @param mode OSM mode
+   * @return code, {@link #UNKNOWN} when not known
+   */
+  public int getModeCode(final String mode) {
+    return probe(mode, modeSlotKeys, modeSlotCodes);
+  }
+
+  /** Verify if mode is activated
+   *
+   * @param modeCode to verify
+   * @return true when activated
+   */
+  public boolean isModeActivated(int modeCode) {
+    return (activatedModes & (1L << modeCode)) != 0;
+  }
+
+  /** Mode of a code
+   *
+   * @param modeCode of mode
+   * @return mode
+   */
+  public String getMode(int modeCode) {
+    return modes[modeCode];
+  }
+
+  /** Number of modes known to the tables
+   *
+   * @return number of modes
+   */
+  public int getNumberOfModes() {
+    return modes.length;
+  }
+
+  /** Activated modes allowed on a highway type by default
+   *
+   * @param highwayTypeCode of activated highway type
+   * @return bitmask with a bit per mode code
+   */
+  public long getAllowedModes(int highwayTypeCode) {
+    return allowedModesByHighwayType[highwayTypeCode];
+  }
+
+  /** Verify if an activated mode is allowed on a highway type by default
+   *
+   * @param highwayTypeCode of activated highway type
+   * @param modeCode of mode
+   * @return true when allowed
+   */
+  public boolean isModeAllowed(int highwayTypeCode, int modeCode) {
+    return (allowedModesByHighwayType[highwayTypeCode] & (1L << modeCode)) != 0;
+  }
+
+  /** Default speed limit of a highway type
+   *
+   * @param highwayTypeCode of activated highway type
+   * @return speed limit in km/h
+   */
+  public double getDefaultSpeedLimitKmh(int highwayTypeCode) {
+    return defaultSpeedLimitsKmh[highwayTypeCode];
+  }
+
+  /** Default number of lanes per direction of a highway type
+   *
+   * @param highwayTypeCode of activated highway type
+   * @return number of lanes
+   */
+  public int getDefaultDirectionalLanes(int highwayTypeCode) {
+    return defaultDirectionalLanes[highwayTypeCode];
+  }
+
+  /** Default capacity per lane of a highway type
+   *
+   * @param highwayTypeCode of activated highway type
+   * @return capacity in pcu/h
+   */
+  public double getDefaultCapacityPerLane(int highwayTypeCode) {
+    return defaultCapacitiesPerLane[highwayTypeCode];
+  }
+}
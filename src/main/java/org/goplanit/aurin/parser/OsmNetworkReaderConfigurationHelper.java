@@ -1,5 +1,11 @@
 package org.goplanit.aurin.parser;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -31,7 +37,7 @@ public class OsmNetworkReaderConfigurationHelper {
   //----------------------------------------------------
   
   /** Key to signify explicit activation of (additional) OSM modes */
-  private static final String ACTIVATE_MODE_KEY = "addmode";
+  public static final String ACTIVATE_MODE_KEY = "addmode";
   
   /** Key to signify explicit deactivation of OSM modes */
   private static final String DEACTIVATE_MODE_KEY = "rmmode";  
@@ -113,7 +119,7 @@ public class OsmNetworkReaderConfigurationHelper {
    * <li>road</li>
    * </ul>
    */
-  private static final List<String> FINE_OSM_HIGHWAY_TYPES =
+  public static final List<String> FINE_OSM_HIGHWAY_TYPES =
       Stream.concat(MEDIUM_OSM_HIGHWAY_TYPES.stream(), 
           Arrays.asList(
             OsmHighwayTags.TERTIARY,
@@ -226,6 +232,19 @@ public class OsmNetworkReaderConfigurationHelper {
     settings.setBoundingBox(boundingBox);
   }  
 
+  /** Collect the chosen fidelity, if no fidelity if provided, we assume medium level of detail. 
+   * 
+   * @param keyValueMap to extract fidelity configuration from
+   * @return chosen fidelity (unvalidated)
+   */
+  public static String getFidelity(final Map<String, String> keyValueMap) {
+    String fidelityValue = keyValueMap.get(FIDELITY_KEY);
+    if(StringUtils.isNullOrBlank(fidelityValue)) {
+      fidelityValue = FIDELITY_MEDIUM;
+    }
+    return fidelityValue;
+  }
+
   /** Based on the fidelity choice configure the readers level of detail. If no fidelity if provided, we assume medium
    * level of detail.
    * 
@@ -237,10 +256,7 @@ public class OsmNetworkReaderConfigurationHelper {
     PlanItException.throwIfNull(settings, "OSM network reader null");
     PlanItException.throwIfNull(keyValueMap, "Configuration information null");
     
-    String fidelityValue = keyValueMap.get(FIDELITY_KEY);
-    if(StringUtils.isNullOrBlank(fidelityValue)) {
-      fidelityValue = FIDELITY_MEDIUM;
-    }
+    String fidelityValue = getFidelity(keyValueMap);
     switch (fidelityValue) {
       case FIDELITY_FINE:
         configureFineOsmNetworkFidelity(settings);
@@ -288,15 +304,82 @@ public class OsmNetworkReaderConfigurationHelper {
   }
  
   /** Parse the input source and set it on the network reader as its input source. 
-   * This must be present, if not an exception is thrown 
+   * This must be present, if not an exception is thrown. Local PBF files are provided to the reader from memory mapped windows of the file. When
+   * validation is requested, they are scanned via their memory mapped fileblock headers first, such that corrupt or truncated files are detected
+   * before parsing starts.
+   * OSM API bounding box requests are fetched as concurrent tiles that are merged into a single input, see {@link OsmApiTileFetcher}.
+   * Multiple input sources are decoded concurrently and merged into a single input while deduplicating their entities by OSM id, see 
+   * {@link OsmInputMerger}
    * 
    * @param settings to configure
    * @param keyValueMap to extract input source from
+   * @return scanner of the input source when it is a single validated local PBF file, null otherwise
    * @throws PlanItException thrown if error
    */
-  public static void parseInputsource(OsmNetworkReaderSettings settings, Map<String, String> keyValueMap) throws PlanItException {
+  public static MappedPbfFileScanner parseInputsource(OsmNetworkReaderSettings settings, Map<String, String> keyValueMap) throws PlanItException {
     PlanItException.throwIfNull(settings, "OSM network reader settings null");   
-    settings.setInputSource(OsmReaderConfigurationHelper.parseInputsource(keyValueMap));
+    List<String> inputSources = OsmReaderConfigurationHelper.parseInputsources(keyValueMap);
+    if(inputSources.size() > 1) {
+      List<URL> mergedInputSources = new ArrayList<>(inputSources.size());
+      for(String inputSource : inputSources) {
+        mergedInputSources.add(createInputSource(inputSource, keyValueMap));
+      }
+      settings.setInputSource(new OsmInputMerger(mergedInputSources).createInputSource());
+      return null;
+    }
+    
+    String inputSource = inputSources.get(0);
+    MappedPbfFileScanner scanner = null;
+    if(MappedPbfFileScanner.isLocalPbfFile(inputSource)) {
+      var mappedFile = new MappedPbfFileScanner(Path.of(inputSource));
+      if(OsmReaderConfigurationHelper.isValidateInput(keyValueMap)) {
+        mappedFile.scan();
+        scanner = mappedFile;
+      }
+      settings.setInputSource(mappedFile.createInputSource());
+      return scanner;
+    }else if(OsmApiTileFetcher.isOsmApiBoundingBoxUrl(inputSource)) {
+      settings.setInputSource(createInputSource(inputSource, keyValueMap));
+      return scanner;
+    }
+    settings.setInputSource(inputSource);
+    return scanner;
+  }
+  
+  /** Create the location of a single input source to read from: local PBF files from memory mapped windows of the file (scanned first when
+   * validation is requested), OSM API bounding box requests as merged tiles, other local files and URLs as is
+   * 
+   * @param inputSource to create location for
+   * @param keyValueMap to extract input options from
+   * @return location of the input
+   * @throws PlanItException thrown if error
+   */
+  private static URL createInputSource(String inputSource, Map<String, String> keyValueMap) throws PlanItException {
+    if(MappedPbfFileScanner.isLocalPbfFile(inputSource)) {
+      var mappedFile = new MappedPbfFileScanner(Path.of(inputSource));
+      if(OsmReaderConfigurationHelper.isValidateInput(keyValueMap)) {
+        mappedFile.scan();
+      }
+      return mappedFile.createInputSource();
+    }else if(OsmApiTileFetcher.isOsmApiBoundingBoxUrl(inputSource)) {
+      var tileFetcher = new OsmApiTileFetcher(
+          inputSource, OsmReaderConfigurationHelper.parseTileSize(keyValueMap), OsmReaderConfigurationHelper.parseFetchThreads(keyValueMap));
+      return tileFetcher.createInputSource();
+    }
+    
+    try {
+      try {
+        Path inputPath = Path.of(inputSource);
+        if(Files.isRegularFile(inputPath)) {
+          return inputPath.toUri().toURL();
+        }
+      }catch(InvalidPathException e) {
+        /* not a local file */
+      }
+      return new URL(inputSource);
+    }catch(MalformedURLException e) {
+      throw new PlanItException(String.format("Input source %s is neither a local file nor a URL", inputSource), e);
+    }
   }
 
   /** Parse which modes are explicitly (de-)activated and modify the settings accordingly. Deactivation takes precedence (as in is
@@ -349,10 +432,11 @@ public class OsmNetworkReaderConfigurationHelper {
   /** set flag indicating whether or not the newly created MATSim network should be passed through the MATSim NetworkCleaner
    * to ensure all links are reachable, e.g. ends of one way motorways at the edge of the network. Can be useful since MATSim
    * assigns trips to the nearest node and if this is a one way link near the edge it is otherwise possible no route into the
-   * rest of the network can be created, causing MATSim to crash.
+   * rest of the network can be created, causing MATSim to crash. Cleaning reads the entire network back into memory, hence it is not applied
+   * by default when streaming, see {@link OsmReaderConfigurationHelper#isStreaming(Map)}.
    * 
    * @param keyValueMap to extract from
-   * @return parsed value or default (true)
+   * @return parsed value or default (true, false when streaming)
    * @throws PlanItException thrown if error
    */
   public static boolean parseCleanNetwork(Map<String, String> keyValueMap) throws PlanItException {
@@ -366,7 +450,7 @@ public class OsmNetworkReaderConfigurationHelper {
     }      
     
     /* default */
-    return true;
+    return !OsmReaderConfigurationHelper.isStreaming(keyValueMap);
   }
 
   /** Restrict allowed modes to car only, so roads that do not have car access will not be parsed even when activated
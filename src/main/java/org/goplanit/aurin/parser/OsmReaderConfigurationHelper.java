@@ -1,6 +1,8 @@
 package org.goplanit.aurin.parser;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -30,6 +32,54 @@ public class OsmReaderConfigurationHelper {
   /** Key reflecting the location of the input file or URL */
   public static final String INPUT_SOURCE_KEY = "input";  
   
+  /** Separator between multiple input sources, e.g., two adjacent extracts to merge */
+  public static final String INPUT_SOURCE_SEPARATOR = ";";
+  
+  /** Key reflecting whether the structure of a local PBF input file is to be validated before parsing */
+  private static final String VALIDATE_INPUT_KEY = "validate";
+  
+  /** Activation value to validate local PBF input */
+  private static final String VALIDATE_INPUT_ACTIVATE = "yes";
+  
+  /** Deactivation value to not validate local PBF input */
+  private static final String VALIDATE_INPUT_DEACTIVATE = "no";
+  
+  //----------------------------------------------------
+  //--------OSM API TILES-------------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting the maximum edge length (in degrees) of the tiles an OSM API bounding box input is fetched in */
+  private static final String TILE_SIZE_KEY = "tilesize";
+  
+  /** Key reflecting the maximum number of OSM API tiles fetched concurrently */
+  private static final String FETCH_THREADS_KEY = "fetchthreads";
+  
+  //----------------------------------------------------
+  //--------STRING INTERNING----------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting whether strings of the parsed network are to be deduplicated before writing */
+  private static final String INTERN_KEY = "intern";
+  
+  /** Activation value to intern strings */
+  private static final String INTERN_ACTIVATE = "yes";
+  
+  /** Deactivation value to not intern strings */
+  private static final String INTERN_DEACTIVATE = "no";
+  
+  //----------------------------------------------------
+  //--------STREAMING-----------------------------------
+  //----------------------------------------------------
+  
+  /** Key reflecting whether a network-only conversion is to stream the input to the MATSim network with bounded memory */
+  private static final String STREAMING_KEY = "streaming";
+  
+  /** Activation value to stream the conversion, explicitly opting into WGS84 coordinates rather than the projected CRS of the country */
+  private static final String STREAMING_ACTIVATE = "wgs84";
+  
+  /** Deactivation value to not stream the conversion */
+  private static final String STREAMING_DEACTIVATE = "no";
+  
   //----------------------------------------------------
   //--------COUNTRY -----------------------------------
   //----------------------------------------------------
@@ -134,27 +184,185 @@ public class OsmReaderConfigurationHelper {
     return boundingBox;
   }
   
-  /** Parse the input source, this must be present, if not an exception is thrown 
+  /** Resolve a single input source
+   * 
+   * @param inputSource to resolve
+   * @return inputsource as either an absolute local path or an streamable external location in string form
+   */
+  private static String resolveInputsource(String inputSource) {
+    URL inputSourceAsResource = ResourceUtils.getResourceUrl(inputSource);
+    if(inputSourceAsResource!=null) {      
+      /* is local resource, use its absolute path instead of (possibly) relative path to avoid issues in OSM reader */
+      inputSource = UrlUtils.asLocalPath(inputSourceAsResource).toString();
+    }
+    return inputSource;
+  }
+  
+  /** Parse the input source, this must be present, if not an exception is thrown. When multiple input sources are present, the
+   * first is returned 
    * 
    * @param keyValueMap to extract input source from
    * @return inputsource as either an absolute local path or an streamable external location in string form
    * @throws PlanItException throws when error
    */
   public static String parseInputsource(Map<String, String> keyValueMap) throws PlanItException {
+    return parseInputsources(keyValueMap).get(0);
+  }
+  
+  /** Parse the input source(s), at least one must be present, if not an exception is thrown. Multiple input sources are separated
+   * by {@link #INPUT_SOURCE_SEPARATOR}
+   * 
+   * @param keyValueMap to extract input sources from
+   * @return inputsources as either an absolute local path or an streamable external location in string form
+   * @throws PlanItException throws when error
+   */
+  public static List<String> parseInputsources(Map<String, String> keyValueMap) throws PlanItException {
     PlanItException.throwIfNull(keyValueMap, "Configuration information null");
     
-    if(!keyValueMap.containsKey(INPUT_SOURCE_KEY)) {
+    if(!keyValueMap.containsKey(INPUT_SOURCE_KEY) || StringUtils.isNullOrBlank(keyValueMap.get(INPUT_SOURCE_KEY))) {
       throw new PlanItException("--input option missing, this is required");
     }  
     
-    String inputSource = keyValueMap.get(INPUT_SOURCE_KEY);
-    URL inputSourceAsResource = ResourceUtils.getResourceUrl(inputSource);
-    if(inputSourceAsResource!=null) {      
-      /* is local resource, use its absolute path instead of (possibly) relative path to avoid issues in OSM reader */
-      inputSource = UrlUtils.asLocalPath(inputSourceAsResource).toString();
+    List<String> inputSources = new ArrayList<>();
+    for(String inputSource : keyValueMap.get(INPUT_SOURCE_KEY).split(INPUT_SOURCE_SEPARATOR)) {
+      if(!StringUtils.isNullOrBlank(inputSource)) {
+        inputSources.add(resolveInputsource(inputSource.trim()));
+      }
+    }
+    if(inputSources.isEmpty()) {
+      throw new PlanItException("--input option without input source, this is required");
+    }
+    return inputSources;
+  }
+  
+  /** Parse the maximum edge length (in degrees) of the tiles an OSM API bounding box input is fetched in, see {@link OsmApiTileFetcher}
+   * 
+   * @param keyValueMap to extract tile size from
+   * @return tile size, {@link OsmApiTileFetcher#DEFAULT_TILE_SIZE} when not present
+   * @throws PlanItException thrown if error
+   */
+  public static double parseTileSize(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String tileSizeValue = keyValueMap.get(TILE_SIZE_KEY);
+    if(StringUtils.isNullOrBlank(tileSizeValue)) {
+      return OsmApiTileFetcher.DEFAULT_TILE_SIZE;
+    }
+    try {
+      double tileSize = Double.parseDouble(tileSizeValue);
+      if(tileSize > 0 && tileSize <= OsmApiTileFetcher.MAX_TILE_SIZE) {
+        return tileSize;
+      }
+    }catch(NumberFormatException e) {
+      /* reported below */
     }
+    throw new PlanItException("Tile size is expected to be a number larger than 0 and at most %s but found %s", OsmApiTileFetcher.MAX_TILE_SIZE, tileSizeValue);
+  }
+  
+  /** Parse the maximum number of OSM API tiles fetched concurrently, see {@link OsmApiTileFetcher}
+   * 
+   * @param keyValueMap to extract number of fetch threads from
+   * @return number of fetch threads, {@link OsmApiTileFetcher#DEFAULT_PARALLELISM} when not present
+   * @throws PlanItException thrown if error
+   */
+  public static int parseFetchThreads(Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
     
-    return inputSource;
+    String fetchThreadsValue = keyValueMap.get(FETCH_THREADS_KEY);
+    if(StringUtils.isNullOrBlank(fetchThreadsValue)) {
+      return OsmApiTileFetcher.DEFAULT_PARALLELISM;
+    }
+    try {
+      int fetchThreads = Integer.parseInt(fetchThreadsValue);
+      if(fetchThreads > 0) {
+        return fetchThreads;
+      }
+    }catch(NumberFormatException e) {
+      /* reported below */
+    }
+    throw new PlanItException("Fetch threads is expected to be a positive integer but found %s", fetchThreadsValue);
+  }
+  
+  /** Verify if strings of the parsed network are to be interned (deduplicated) to reduce the heap footprint. Defaults to no, 
+   * a key without value is considered an activation
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when interning, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isInternStrings(final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    if(!keyValueMap.containsKey(INTERN_KEY)) {
+      return false;
+    }
+    
+    String internValue = keyValueMap.get(INTERN_KEY);
+    if(StringUtils.isNullOrBlank(internValue)) {
+      internValue = INTERN_ACTIVATE;
+    }
+    switch (internValue) {
+      case INTERN_ACTIVATE:
+        return true;
+      case INTERN_DEACTIVATE:
+        return false;
+      default:
+        throw new PlanItException(
+            "Unkown intern value chosen %s, choose from %s, %s", internValue, INTERN_ACTIVATE, INTERN_DEACTIVATE);
+    }
+  }
+  
+  /** Verify if the structure of a local PBF input file is to be validated (scan of its fileblock headers) before parsing. Defaults to no
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when validating, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isValidateInput(final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String validateValue = keyValueMap.get(VALIDATE_INPUT_KEY);
+    if(StringUtils.isNullOrBlank(validateValue)) {
+      validateValue = VALIDATE_INPUT_DEACTIVATE;
+    }
+    switch (validateValue) {
+      case VALIDATE_INPUT_ACTIVATE:
+        return true;
+      case VALIDATE_INPUT_DEACTIVATE:
+        return false;
+      default:
+        throw new PlanItException(
+            "Unkown validate value chosen %s, choose from %s, %s", validateValue, VALIDATE_INPUT_ACTIVATE, VALIDATE_INPUT_DEACTIVATE);
+    }
+  }  
+  
+  /** Verify if the network is to be streamed from the input to the MATSim network, such that peak memory does not depend on the size of the
+   * region. Defaults to no, only supported for network-only conversions of a single input. Streaming writes WGS84 coordinates rather than the
+   * projected CRS of the country used by the regular conversion, so it must be activated with value wgs84 to explicitly opt into this
+   * 
+   * @param keyValueMap to extract information from
+   * @return true when streaming, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  public static boolean isStreaming(final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+    
+    String streamingValue = keyValueMap.get(STREAMING_KEY);
+    if(StringUtils.isNullOrBlank(streamingValue)) {
+      streamingValue = STREAMING_DEACTIVATE;
+    }
+    switch (streamingValue) {
+      case STREAMING_ACTIVATE:
+        return true;
+      case STREAMING_DEACTIVATE:
+        return false;
+      case "yes":
+        throw new PlanItException(
+            "Streaming writes WGS84 coordinates instead of the projected CRS of the country, choose streaming value %s to opt into this", STREAMING_ACTIVATE);
+      default:
+        throw new PlanItException(
+            "Unkown streaming value chosen %s, choose from %s, %s", streamingValue, STREAMING_ACTIVATE, STREAMING_DEACTIVATE);
+    }
   }
 
  
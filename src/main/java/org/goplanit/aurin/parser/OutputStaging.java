@@ -0,0 +1,160 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+/**
+ * Staging directory (hidden, inside the output directory) into which each stage writes its outputs. Once a stage completes, its outputs are
+ * promoted into the output directory by atomic moves, such that the output directory never contains partially written files. When a run is
+ * cancelled or fails, the staging directory is discarded as a whole: it is first atomically renamed, and only then removed.
+ *
+ * @author markr
+ *
+ */
+public class OutputStaging {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(OutputStaging.class.getCanonicalName());
+
+  /** Name of the staging directory within the output directory */
+  public static final String STAGING_DIRECTORY_NAME = ".planit_staging";
+
+  /** output directory to promote into */
+  private final Path outputDirectory;
+
+  /** staging directory */
+  private final Path stagingDirectory;
+
+  /** Remove directory including its contents
+   *
+   * @param directory to remove
+   * @throws IOException thrown if error
+   */
+  private static void removeDirectory(Path directory) throws IOException {
+    try(var paths = Files.walk(directory)){
+      for(Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param outputDirectory to stage outputs for
+   */
+  private OutputStaging(final Path outputDirectory) {
+    this.outputDirectory = outputDirectory;
+    this.stagingDirectory = outputDirectory.resolve(STAGING_DIRECTORY_NAME);
+  }
+
+  /** Open an empty staging directory for the output directory, discarding any partial outputs left behind by an earlier run that was terminated
+   *
+   * @param outputDirectory to stage outputs for
+   * @return staging
+   * @throws PlanItException thrown if error
+   */
+  public static OutputStaging open(final Path outputDirectory) throws PlanItException {
+    var staging = new OutputStaging(outputDirectory);
+    if(Files.exists(staging.stagingDirectory)) {
+      LOGGER.warning(String.format("Discarding partial outputs of an earlier run in %s", staging.stagingDirectory));
+      staging.discard();
+    }
+    try {
+      Files.createDirectories(staging.stagingDirectory);
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to create staging directory %s", staging.stagingDirectory), e);
+    }
+    return staging;
+  }
+
+  /** The staging directory
+   *
+   * @return staging directory
+   */
+  public Path getDirectory() {
+    return stagingDirectory;
+  }
+
+  /** Location to stage the given output file at
+   *
+   * @param outputFile (final) location in the output directory
+   * @return staged location of the file
+   */
+  public Path stage(final Path outputFile) {
+    return stagingDirectory.resolve(outputFile.getFileName());
+  }
+
+  /** Promote all staged files into the output directory, replacing existing files. Staged sub directories (temporary outputs) are not promoted
+   * but removed
+   *
+   * @return names of the promoted files
+   * @throws PlanItException thrown if error
+   */
+  public List<String> promote() throws PlanItException {
+    try {
+      List<Path> stagedFiles;
+      try(var paths = Files.list(stagingDirectory)){
+        stagedFiles = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+      }
+      for(Path stagedFile : stagedFiles) {
+        Files.move(stagedFile, outputDirectory.resolve(stagedFile.getFileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      try(var paths = Files.list(stagingDirectory)){
+        for(Path remaining : paths.collect(Collectors.toList())) {
+          removeDirectory(remaining);
+        }
+      }
+      return stagedFiles.stream().map(stagedFile -> stagedFile.getFileName().toString()).collect(Collectors.toList());
+    }catch(IOException e) {
+      throw new PlanItException(String.format("Unable to promote staged outputs from %s", stagingDirectory), e);
+    }
+  }
+
+  /** Remove a temporary sub directory of the staging directory (if present). Failures are logged only so that removing never masks the error that
+   * caused it
+   *
+   * @param stagedDirectory to remove
+   */
+  public void remove(final Path stagedDirectory) {
+    if(!Files.exists(stagedDirectory)) {
+      return;
+    }
+    try {
+      removeDirectory(stagedDirectory);
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to remove temporary outputs in %s: %s", stagedDirectory, e.getMessage()));
+    }
+  }
+
+  /** Discard all staged outputs (if any) and the staging directory itself, the staging directory is atomically renamed before its contents are
+   * removed. Failures are logged only so that discarding never masks the error that caused it
+   */
+  public void discard() {
+    if(!Files.exists(stagingDirectory)) {
+      return;
+    }
+    Path discardedDirectory = stagingDirectory.resolveSibling(STAGING_DIRECTORY_NAME + ".discarded." + System.nanoTime());
+    try {
+      boolean partialOutputs;
+      try(var paths = Files.list(stagingDirectory)){
+        partialOutputs = paths.findAny().isPresent();
+      }
+      Files.move(stagingDirectory, discardedDirectory, StandardCopyOption.ATOMIC_MOVE);
+      removeDirectory(discardedDirectory);
+      if(partialOutputs) {
+        LOGGER.info(String.format("Discarded partial outputs in %s", stagingDirectory));
+      }
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to discard partial outputs in %s: %s", stagingDirectory, e.getMessage()));
+    }
+  }
+}
@@ -0,0 +1,376 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Static R-tree packed bottom up from items sorted along a Hilbert curve over the centres of their bounding boxes, stored as flat arrays such
+ * that it can be persisted and memory mapped as is. Tree entries are stored level by level starting with the items (leaf level) in Hilbert order,
+ * followed by their parents up to the root (last entry). Each entry has a bounding box and an index: the item for leaf entries, the position
+ * of the first child for all others. Each parent has up to {@code nodeSize} consecutive children.
+ *
+ * @author markr
+ *
+ */
+class PackedRTree {
+
+  /** bounding boxes of all entries (minX, minY, maxX, maxY) */
+  private final DoubleBuffer boxes;
+
+  /** item (leaf entries) or first child (other entries) of all entries */
+  private final IntBuffer indices;
+
+  /** end (exclusive) of each level */
+  private final int[] levelBounds;
+
+  /** maximum number of children per entry */
+  private final int nodeSize;
+
+  /**
+   * Exact distance of an item to a location, at least the distance of its bounding box
+   */
+  @FunctionalInterface
+  interface ItemDistance {
+
+    /** Distance of item to location
+     *
+     * @param item to compute distance for
+     * @param x of location
+     * @param y of location
+     * @return distance
+     */
+    double distance(int item, double x, double y);
+  }
+
+  /**
+   * Min heap of int values by double key, used for best first search
+   */
+  private static final class DistanceQueue {
+
+    /** keys */
+    private double[] keys = new double[64];
+
+    /** values */
+    private int[] values = new int[64];
+
+    /** number of entries */
+    private int size;
+
+    /** Add entry
+     *
+     * @param key of entry
+     * @param value of entry
+     */
+    void push(double key, int value) {
+      if(size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      int position = size++;
+      while(position > 0) {
+        int parent = (position - 1) >>> 1;
+        if(keys[parent] <= key) {
+          break;
+        }
+        keys[position] = keys[parent];
+        values[position] = values[parent];
+        position = parent;
+      }
+      keys[position] = key;
+      values[position] = value;
+    }
+
+    /** Smallest key
+     *
+     * @return key
+     */
+    double peekKey() {
+      return keys[0];
+    }
+
+    /** Remove entry with smallest key
+     *
+     * @return its value
+     */
+    int pop() {
+      int top = values[0];
+      double key = keys[--size];
+      int value = values[size];
+      int position = 0;
+      while(true) {
+        int child = 2 * position + 1;
+        if(child >= size) {
+          break;
+        }
+        if(child + 1 < size && keys[child + 1] < keys[child]) {
+          ++child;
+        }
+        if(keys[child] >= key) {
+          break;
+        }
+        keys[position] = keys[child];
+        values[position] = values[child];
+        position = child;
+      }
+      keys[position] = key;
+      values[position] = value;
+      return top;
+    }
+
+    /** Verify if empty
+     *
+     * @return true when empty
+     */
+    boolean isEmpty() {
+      return size == 0;
+    }
+  }
+
+  /** Distance from location to box
+   *
+   * @param position of box entry
+   * @param x of location
+   * @param y of location
+   * @return distance, zero when inside
+   */
+  private double boxDistance(int position, double x, double y) {
+    int offset = 4 * position;
+    double dx = Math.max(Math.max(boxes.get(offset) - x, 0), x - boxes.get(offset + 2));
+    double dy = Math.max(Math.max(boxes.get(offset + 1) - y, 0), y - boxes.get(offset + 3));
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** End (exclusive) of the children of an entry, i.e., the end of the group starting at its first child within the child level
+   *
+   * @param firstChild of the entry
+   * @return end of its children
+   */
+  private int getEndOfChildren(int firstChild) {
+    int level = 0;
+    while(levelBounds[level] <= firstChild) {
+      ++level;
+    }
+    return Math.min(firstChild + nodeSize, levelBounds[level]);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param boxes of all entries
+   * @param indices of all entries
+   * @param levelBounds end of each level
+   * @param nodeSize maximum number of children per entry
+   */
+  private PackedRTree(DoubleBuffer boxes, IntBuffer indices, int[] levelBounds, int nodeSize) {
+    this.boxes = boxes;
+    this.indices = indices;
+    this.levelBounds = levelBounds;
+    this.nodeSize = nodeSize;
+  }
+
+  /** Pack the items into a tree
+   *
+   * @param itemBoxes bounding box of each item (minX, minY, maxX, maxY)
+   * @param nodeSize maximum number of children per entry
+   * @return packed tree
+   */
+  static PackedRTree pack(double[] itemBoxes, int nodeSize) {
+    int numberOfItems = itemBoxes.length / 4;
+
+    /* levels */
+    int[] levelBounds = new int[0];
+    int numberOfEntries = numberOfItems;
+    if(numberOfItems > 0) {
+      int levelSize = numberOfItems;
+      levelBounds = new int[] {numberOfEntries};
+      while(levelSize > 1) {
+        levelSize = (levelSize + nodeSize - 1) / nodeSize;
+        numberOfEntries += levelSize;
+        levelBounds = Arrays.copyOf(levelBounds, levelBounds.length + 1);
+        levelBounds[levelBounds.length - 1] = numberOfEntries;
+      }
+    }
+
+    /* sort items by Hilbert index of their centre, ties by item */
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for(int item = 0; item < numberOfItems; ++item) {
+      minX = Math.min(minX, itemBoxes[4 * item]);
+      minY = Math.min(minY, itemBoxes[4 * item + 1]);
+      maxX = Math.max(maxX, itemBoxes[4 * item + 2]);
+      maxY = Math.max(maxY, itemBoxes[4 * item + 3]);
+    }
+    long[] sortKeys = new long[numberOfItems];
+    for(int item = 0; item < numberOfItems; ++item) {
+      double centreX = (itemBoxes[4 * item] + itemBoxes[4 * item + 2]) / 2;
+      double centreY = (itemBoxes[4 * item + 1] + itemBoxes[4 * item + 3]) / 2;
+      long hilbertIndex = HilbertNetworkOrdering.hilbertIndex(
+          HilbertNetworkOrdering.toGrid(centreX, minX, maxX - minX), HilbertNetworkOrdering.toGrid(centreY, minY, maxY - minY));
+      sortKeys[item] = (hilbertIndex << (Integer.SIZE - 1)) | item;
+    }
+    Arrays.sort(sortKeys);
+
+    double[] boxes = new double[4 * numberOfEntries];
+    int[] indices = new int[numberOfEntries];
+    for(int position = 0; position < numberOfItems; ++position) {
+      int item = (int) (sortKeys[position] & Integer.MAX_VALUE);
+      System.arraycopy(itemBoxes, 4 * item, boxes, 4 * position, 4);
+      indices[position] = item;
+    }
+
+    /* parents of each level */
+    int position = numberOfItems;
+    for(int level = 0; level < levelBounds.length - 1; ++level) {
+      int levelStart = level == 0 ? 0 : levelBounds[level - 1];
+      for(int firstChild = levelStart; firstChild < levelBounds[level]; firstChild += nodeSize) {
+        double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for(int child = firstChild; child < Math.min(firstChild + nodeSize, levelBounds[level]); ++child) {
+          box[0] = Math.min(box[0], boxes[4 * child]);
+          box[1] = Math.min(box[1], boxes[4 * child + 1]);
+          box[2] = Math.max(box[2], boxes[4 * child + 2]);
+          box[3] = Math.max(box[3], boxes[4 * child + 3]);
+        }
+        System.arraycopy(box, 0, boxes, 4 * position, 4);
+        indices[position++] = firstChild;
+      }
+    }
+    return new PackedRTree(DoubleBuffer.wrap(boxes), IntBuffer.wrap(indices), levelBounds, nodeSize);
+  }
+
+  /** Persist the tree as sections: number of levels and node size, level bounds, boxes, indices
+   *
+   * @param writer to persist with
+   * @throws IOException thrown if error
+   */
+  void write(BinaryFileWriter writer) throws IOException {
+    writer.writeInt(levelBounds.length);
+    writer.writeInt(nodeSize);
+    for(int levelBound : levelBounds) {
+      writer.writeInt(levelBound);
+    }
+    writer.endSection();
+    for(int index = 0; index < boxes.limit(); ++index) {
+      writer.writeDouble(boxes.get(index));
+    }
+    for(int index = 0; index < indices.limit(); ++index) {
+      writer.writeInt(indices.get(index));
+    }
+    writer.endSection();
+  }
+
+  /** Map a persisted tree
+   *
+   * @param file to map from, positioned at the tree
+   * @return mapped tree
+   * @throws IOException thrown if error
+   */
+  static PackedRTree map(MappedFile file) throws IOException {
+    IntBuffer header = file.mapInts(2);
+    int numberOfLevels = header.get(0);
+    int nodeSize = header.get(1);
+    if(numberOfLevels < 0 || nodeSize < 2) {
+      throw new IOException(String.format("Invalid R-tree with %d levels and node size %d", numberOfLevels, nodeSize));
+    }
+    int[] levelBounds = new int[numberOfLevels];
+    file.mapInts(numberOfLevels).get(levelBounds);
+    int numberOfEntries = numberOfLevels > 0 ? levelBounds[numberOfLevels - 1] : 0;
+    return new PackedRTree(file.mapDoubles(4L * numberOfEntries), file.mapInts(numberOfEntries), levelBounds, nodeSize);
+  }
+
+  /** Number of items
+   *
+   * @return number of items
+   */
+  int getNumberOfItems() {
+    return levelBounds.length > 0 ? levelBounds[0] : 0;
+  }
+
+  /** Visit all items whose bounding box intersects the given box
+   *
+   * @param minX of box
+   * @param minY of box
+   * @param maxX of box
+   * @param maxY of box
+   * @param consumer of the items
+   */
+  void search(double minX, double minY, double maxX, double maxY, IntConsumer consumer) {
+    if(levelBounds.length == 0) {
+      return;
+    }
+    int numberOfItems = getNumberOfItems();
+    int[] stack = new int[Math.max(16, levelBounds.length * nodeSize)];
+    int stackSize = 0;
+    stack[stackSize++] = levelBounds[levelBounds.length - 1] - 1;
+    while(stackSize > 0) {
+      int position = stack[--stackSize];
+      int offset = 4 * position;
+      if(boxes.get(offset) > maxX || boxes.get(offset + 1) > maxY || boxes.get(offset + 2) < minX || boxes.get(offset + 3) < minY) {
+        continue;
+      }
+      if(position < numberOfItems) {
+        consumer.accept(indices.get(position));
+        continue;
+      }
+      int firstChild = indices.get(position);
+      for(int child = firstChild, end = getEndOfChildren(firstChild); child < end; ++child) {
+        if(stackSize == stack.length) {
+          stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = child;
+      }
+    }
+  }
+
+  /** Find the nearest items (best first search) in order of increasing exact distance
+   *
+   * @param x of location
+   * @param y of location
+   * @param k maximum number of items to find
+   * @param maxDistance beyond which items are not considered
+   * @param itemDistance exact distance of an item
+   * @return nearest items, at most k
+   */
+  int[] nearest(double x, double y, int k, double maxDistance, ItemDistance itemDistance) {
+    if(levelBounds.length == 0 || k <= 0) {
+      return new int[0];
+    }
+    int numberOfItems = getNumberOfItems();
+    int[] result = new int[Math.min(k, numberOfItems)];
+    int resultSize = 0;
+
+    /* entries are pushed as their position, items (exact distance) as -(item + 1) */
+    var queue = new DistanceQueue();
+    queue.push(0, levelBounds[levelBounds.length - 1] - 1);
+    while(!queue.isEmpty() && queue.peekKey() <= maxDistance) {
+      int value = queue.pop();
+      if(value < 0) {
+        result[resultSize++] = -value - 1;
+        if(resultSize == result.length) {
+          break;
+        }
+        continue;
+      }
+      if(value < numberOfItems) {
+        /* single item tree */
+        int item = indices.get(value);
+        queue.push(itemDistance.distance(item, x, y), -item - 1);
+        continue;
+      }
+      int firstChild = indices.get(value);
+      for(int child = firstChild, end = getEndOfChildren(firstChild); child < end; ++child) {
+        if(child < numberOfItems) {
+          int item = indices.get(child);
+          queue.push(itemDistance.distance(item, x, y), -item - 1);
+        }else {
+          queue.push(boxDistance(child, x, y), child);
+        }
+      }
+    }
+    return resultSize == result.length ? result : Arrays.copyOf(result, resultSize);
+  }
+}
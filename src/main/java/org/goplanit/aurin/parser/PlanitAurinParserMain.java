@@ -1,24 +1,52 @@
 package org.goplanit.aurin.parser;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
 import java.util.logging.Logger;
 
-import org.goplanit.converter.intermodal.IntermodalConverterFactory;
-import org.goplanit.converter.network.NetworkConverterFactory;
 import org.goplanit.logging.Logging;
 import org.goplanit.matsim.converter.MatsimIntermodalWriterFactory;
+import org.goplanit.matsim.converter.MatsimNetworkWriter;
 import org.goplanit.matsim.converter.MatsimNetworkWriterFactory;
 import org.goplanit.matsim.converter.MatsimNetworkWriterSettings;
-import org.goplanit.matsim.converter.MatsimWriter;
+import org.goplanit.network.MacroscopicNetwork;
 import org.goplanit.osm.converter.intermodal.OsmIntermodalReaderFactory;
+import org.goplanit.osm.converter.network.OsmNetworkReader;
 import org.goplanit.osm.converter.network.OsmNetworkReaderFactory;
 import org.goplanit.osm.converter.network.OsmNetworkReaderSettings;
 import org.goplanit.utils.args.ArgumentParser;
 import org.goplanit.utils.args.ArgumentStyle;
 import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.id.IdGroupingToken;
+import org.goplanit.utils.misc.Pair;
+import org.goplanit.zoning.Zoning;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.NetworkWriter;
+import org.matsim.core.network.io.MatsimNetworkReader;
+
+import jdk.jfr.Recording;
 
 /**
  * Access point for running a PLANit network parser that converts an OSM file to a MATSim compatible network. for now
@@ -28,12 +56,27 @@ import org.goplanit.utils.exceptions.PlanItException;
  * The following command line options are available which should be provided such that the key is preceded with a double hyphen and the value follows directly (if any) with any number of 
  * spaces in between (no hyphens), e.g., {@code --<key> <value>}:
  * <ul>
- * <li>--input    Format: {@code path-to/file}. Either a local file or a URL that we can stream</li>
+ * <li>--input    Format: {@code path-to/file}. Either a local file or a URL that we can stream. Multiple sources separated by ";" are decoded concurrently and merged into a single input by OSM id, see {@link OsmInputMerger}</li>
+ * <li>--tilesize Format: decimal number. Default: 0.05. Maximum edge length (in degrees) of the tiles an OSM API bounding box URL input is fetched in, see {@link OsmApiTileFetcher}</li>
+ * <li>--fetchthreads Format: integer. Default: 2. Maximum number of OSM API tiles fetched concurrently</li>
+ * <li>--validate Options: [yes, no]. Default: no. Validate the structure of a local PBF input file (memory mapped scan of its fileblock headers) before parsing, and report parsing progress in fileblocks</li>
+ * <li>--intern   Options: [yes, no]. Default: no. Once parsed, deduplicate repeated link names and external ids of the network to reduce the heap it retains while being written (not the peak while parsing), node external ids are unique and not interned</li>
+ * <li>--streaming Options: [wgs84, no]. Default: no. Stream a network-only conversion of a single input to the MATSim network with memory independent of region size, see {@link StreamingNetworkConverter}. Coordinates are written in WGS84 rather than the projected CRS of the country, hence the explicit value. Only modes motorcar and bus are supported, the network is not cleaned and cannot be ordered, compared to a baseline, exported as graph or spatially indexed</li>
  * <li>--country  Format: Name of the country. Default: Global. Used to initialise defaults (speed limits, projection etc.)</li> 
  * <li>--bbox     Format: long1 long2 lat1 lat2. Bounding box that restrict the input further (if at all)</li>
  * <li>--fidelity Options: [coarse, medium, fine]. Default: medium. Indicates fidelity of generated MATSim network based on predefined settings</li>
  * <li>--output   Format {@code <path>}. Default: "." the directory this application was invoked from</li>
- * <li>--clean    Options: [yes, no]. Default yes. Result is persisted as separate network with postfix "_cleaned" where potentially unreachable links and vertices are removed</li>
+ * <li>--profile  Format: {@code path-to/file.jfr}. Default: N/A. Record a Java Flight Recording with allocation and lock profiling for the duration of the run, including custom conversion stage events</li>
+ * <li>--deadline Format: duration, e.g., 90s, 30m, 1h30m or PT1H30M. Default: N/A. Cancel the conversion when it does not complete in time, partial outputs are discarded and the exit code is 124</li>
+ * <li>--progressinterval Format: duration. Default: 10s. Interval at which progress (stage, input consumed, entities processed) is logged</li>
+ * <li>--resume   Options: [yes, no]. Default: no. Skip stages (read/write, geometry simplification, ordering, cleaning) for which a valid checkpoint with matching settings exists in the output directory</li>
+ * <li>--clean    Options: [yes, no]. Default yes (no when streaming). Result is persisted as separate network with postfix "_cleaned" where potentially unreachable links and vertices are removed</li>
+ * <li>--geometrytolerance Format: non-negative decimal number. Default: 0 (none). Douglas-Peucker tolerance (in output CRS units) used to simplify the detailed link geometry</li>
+ * <li>--order    Options: [none, hilbert]. Default: none. Persist nodes ordered along a Hilbert curve over their coordinates and links grouped by from node in that order (raw and cleaned network)</li>
+ * <li>--compactids Options: [yes, no]. Default: no. In combination with {@code --order hilbert}, replace node and link ids by dense integers in the persisted order</li>
+ * <li>--baseline Format: {@code path-to/network.xml} or {@code path-to/previous-output}. Default: N/A. Write a change set (added, removed, modified nodes and links) of the (cleaned) network against the baseline alongside the full file, see {@link MatsimNetworkPatchMain}</li>
+ * <li>--graphexport Options: [yes, no]. Default: no. Write a binary routing graph (compressed sparse row) of the (cleaned) network alongside it, e.g., network.csr, to be memory mapped via {@link RoutingGraph}</li>
+ * <li>--spatialindex Options: [yes, no]. Default: no. Write a packed Hilbert R-tree over the nodes and link geometries of the (cleaned) network alongside it, e.g., network.rtree, to be memory mapped via {@link SpatialIndex}</li>
  * <li>--rail     Options: [yes, no]. Default: no. Parse rail tracks when set to <i>yes</i>, in which case modes <i>train, tram, light_rail</i> are automatically activated </li>
  * <li>--ptinfra  Options: [yes, no]. Default: no. Parse pt infrastructure when set to <i>yes</i>, i.e., bus stops, (train) stations, and platforms. By default activates <i>bus, train, tram, light_rail</i> as well as setting --rail to yes</li>
  * <li>--rmmode   Format: Comma separated list of names of the OSM modes. Default: N/A. Explicitly exclude mode(s) from being parsed</li>
@@ -47,7 +90,12 @@ import org.goplanit.utils.exceptions.PlanItException;
  * <p>
  * To better support visualisation for the MATSim output we by default activate the detailed geometry in case the user would like to visualise the results using VIA
  * where it can be used to prettify the link shapes (instead of being restricted to start/end nodes only). Further, road modes are mapped to MATSim mode "car" whereas
- * all public transport modes are mapped to MATSim mode "pt".
+ * all public transport modes are mapped to MATSim mode "pt". When cleaning, each MATSim mode is cleaned on its own subnetwork so that links only reachable by
+ * one mode do not keep unreachable parts of another mode's network alive.
+ * <p>
+ * Outputs of each stage are written to a hidden staging directory within the output directory and only moved into the output directory once the stage 
+ * completes, so that a cancelled (deadline, JVM shutdown, or via the listener of {@link #execute(String[], ConversionProgressListener)}) or failed run 
+ * never leaves partial files behind.
  * 
  * 
  * @author markr
@@ -89,11 +137,14 @@ public class PlanitAurinParserMain {
     PlanItException.throwIfNull(keyValueMap, "Configuration information null");    
     
     /* user configuration options */
-    OsmNetworkReaderConfigurationHelper.parseInputsource(settings, keyValueMap);
+    MappedPbfFileScanner scanner = OsmNetworkReaderConfigurationHelper.parseInputsource(settings, keyValueMap);
     OsmNetworkReaderConfigurationHelper.parseBoundingBox(settings, keyValueMap);    
     OsmNetworkReaderConfigurationHelper.parseRailActivation(settings, keyValueMap);
     OsmNetworkReaderConfigurationHelper.parseNetworkFidelity(settings, keyValueMap);
     OsmNetworkReaderConfigurationHelper.parseModes(settings, keyValueMap);
+    
+    /* track consumption of the input for progress reporting and cancellation */
+    settings.setInputSource(progress.trackInput(settings.getInputSource(), scanner));
   }
 
   /**
@@ -112,32 +163,422 @@ public class PlanitAurinParserMain {
 
     /* user configuration options */
     MatsimWriterConfigurationHelper.parseOutputDirectory(settings, keyValueMap);
+    
+    /* post-processing options are validated upfront, rather than once the network has been converted */
+    MatsimWriterConfigurationHelper.isCompactIds(keyValueMap);
   }
   
   /**
-   * Let MATSim clean the created network and persist it under a separate name with "_cleaned" added to the file name
+   * Clean the created network per MATSim mode and persist it under a separate name with "_cleaned" added to the file name. Each mode
+   * (car, pt, and any other activated mode) is cleaned on its own subnetwork in parallel, see {@link ModeAwareNetworkCleaner}. When a detailed
+   * geometry file is generated, a cleaned counterpart is streamed from it containing only the links that remain after cleaning. The original geometry
+   * has already been simplified (when requested) at this point, so it is copied without simplifying it again. When Hilbert order
+   * is requested the cleaned network is persisted in that order, retaining the (compacted) ids of the raw network, see {@link HilbertNetworkOrdering}
    * 
    * @param settings to extract location of current (uncleaned) MATSim network from
+   * @param keyValueMap command line configuration information
+   * @param staging to write the cleaned outputs to
+   * @throws PlanItException thrown if error
    */
-  private static void createCleanedNetwork(MatsimNetworkWriterSettings settings) {
-    Path originalNetworkFilePath = 
-        Path.of(
-            settings.getOutputDirectory(),
-            settings.getFileName()+MatsimWriter.DEFAULT_FILE_NAME_EXTENSION);
-    Path cleanedNetworkFilePath = 
-        Path.of(
-            settings.getOutputDirectory(),
-            settings.getFileName()+"_cleaned"+MatsimWriter.DEFAULT_FILE_NAME_EXTENSION);
-    LOGGER.info(String.format("Cleaning MATSim network %s", originalNetworkFilePath));
-    org.matsim.run.NetworkCleaner.main(new String[] {originalNetworkFilePath.toString(), cleanedNetworkFilePath.toString()});
-    LOGGER.info(String.format("Persisted cleaned MATSim network to %s",cleanedNetworkFilePath));
-    
-    /* do the same for detailed geometry, although it is not a problem we do not because cleaning only removes (potentially) unreachable links */
+  private static void createCleanedNetwork(
+      MatsimNetworkWriterSettings settings, Map<String, String> keyValueMap, OutputStaging staging) throws PlanItException {
+    /* links that remain after cleaning, mapped to the id they are persisted under */
+    Map<String, String> linkIdMapping;
+    try(var cleanStage = startStage(ConversionStageEvent.STAGE_CLEAN, keyValueMap)){
+      Path originalNetworkFilePath = MatsimWriterConfigurationHelper.getNetworkFilePath(settings, false);
+      Path cleanedNetworkFilePath = staging.stage(MatsimWriterConfigurationHelper.getNetworkFilePath(settings, true));
+      LOGGER.info(String.format("Cleaning MATSim network %s", originalNetworkFilePath));
+      Network network = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(network).readFile(originalNetworkFilePath.toString());
+      new ModeAwareNetworkCleaner(network).run();
+      
+      /* ids were compacted (if requested) when ordering the raw network, so they are retained as is to keep the cleaned network joinable with 
+       * the raw network */
+      if(MatsimWriterConfigurationHelper.isHilbertOrder(keyValueMap)) {
+        linkIdMapping = new HilbertNetworkOrdering(network).write(cleanedNetworkFilePath, false);
+      }else {
+        new NetworkWriter(network).write(cleanedNetworkFilePath.toString());
+        linkIdMapping = new HashMap<>(network.getLinks().size());
+        for(Id<Link> linkId : network.getLinks().keySet()) {
+          linkIdMapping.put(linkId.toString(), linkId.toString());
+        }
+      }
+      LOGGER.info(String.format("Persisted cleaned MATSim network to %s",cleanedNetworkFilePath));
+      cleanStage.complete(network.getNodes().size(), network.getLinks().size());
+    }
+    
+    /* detailed geometry restricted to the links that remain after cleaning */
     if(settings.isGenerateDetailedLinkGeometryFile()) {
-      LOGGER.fine(String.format("Generated detailed geometry based on uncleaned MATSim network (contains more links than available) ",cleanedNetworkFilePath));
+      Path originalGeometryFilePath = MatsimWriterConfigurationHelper.getDetailedGeometryFilePath(settings, false);
+      if(!Files.exists(originalGeometryFilePath)) {
+        LOGGER.warning(String.format("Detailed geometry file %s not found, unable to create cleaned detailed geometry", originalGeometryFilePath));
+        return;
+      }
+      
+      try(var geometryStage = startStage(ConversionStageEvent.STAGE_GEOMETRY, keyValueMap)){
+        long numberOfLinks = new DetailedGeometryFileWriter(0).write(
+            originalGeometryFilePath, 
+            staging.stage(MatsimWriterConfigurationHelper.getDetailedGeometryFilePath(settings, true)),
+            linkIdMapping::get);
+        geometryStage.complete(-1, numberOfLinks);
+      }
+    }
+  }
+  
+  /** Rewrite the raw MATSim network with its nodes in Hilbert order and links grouped by from node, see {@link HilbertNetworkOrdering}. When ids
+   * are compacted, the links of the detailed geometry file are renamed accordingly
+   * 
+   * @param settings to extract location of current MATSim network from
+   * @param keyValueMap command line configuration information
+   * @param staging to write the ordered outputs to
+   * @throws PlanItException thrown if error
+   */
+  private static void orderNetwork(MatsimNetworkWriterSettings settings, Map<String, String> keyValueMap, OutputStaging staging) throws PlanItException {
+    boolean compactIds = MatsimWriterConfigurationHelper.isCompactIds(keyValueMap);
+    Map<String, String> linkIdMapping;
+    try(var orderStage = startStage(ConversionStageEvent.STAGE_ORDER, keyValueMap)){
+      Path networkFilePath = MatsimWriterConfigurationHelper.getNetworkFilePath(settings, false);
+      Network network = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(network).readFile(networkFilePath.toString());
+      linkIdMapping = new HilbertNetworkOrdering(network).write(staging.stage(networkFilePath), compactIds);
+      orderStage.complete(network.getNodes().size(), network.getLinks().size());
+    }
+    
+    Path geometryFilePath = MatsimWriterConfigurationHelper.getDetailedGeometryFilePath(settings, false);
+    if(compactIds && settings.isGenerateDetailedLinkGeometryFile() && Files.exists(geometryFilePath)) {
+      try(var geometryStage = startStage(ConversionStageEvent.STAGE_GEOMETRY, keyValueMap)){
+        geometryStage.complete(-1, new DetailedGeometryFileWriter(0).write(geometryFilePath, staging.stage(geometryFilePath), linkIdMapping::get));
+      }
+    }
+  }
+  
+  /** Perform the steps that follow the (raw) MATSim network having been written, i.e., simplifying the geometry, ordering, cleaning, creating change sets 
+   * against the baseline, exporting routing graphs and writing spatial indices when requested. Steps already completed according to the checkpoint are skipped, and the checkpoint is updated after each completed step
+   * 
+   * @param settings used by the MATSim writer
+   * @param keyValueMap command line configuration information
+   * @param baseline to create change sets against, null if none
+   * @param checkpoint to resume from and update
+   * @param staging to write the outputs of each step to, promoted once the step completes
+   * @throws PlanItException thrown if error
+   */
+  private static void postProcessNetwork(
+      MatsimNetworkWriterSettings settings, Map<String, String> keyValueMap, Path baseline, ConversionCheckpoint checkpoint, OutputStaging staging) throws PlanItException {
+    var geometryWriter = new DetailedGeometryFileWriter(MatsimWriterConfigurationHelper.parseDetailedGeometryTolerance(keyValueMap));
+    
+    /* simplify original geometry when requested */
+    Path originalGeometryFilePath = MatsimWriterConfigurationHelper.getDetailedGeometryFilePath(settings, false);
+    if(geometryWriter.isSimplify() && settings.isGenerateDetailedLinkGeometryFile() && Files.exists(originalGeometryFilePath) 
+        && !checkpoint.isCompleted(ConversionCheckpoint.STAGE_SIMPLIFIED)) {
+      try(var geometryStage = startStage(ConversionStageEvent.STAGE_GEOMETRY, keyValueMap)){
+        geometryStage.complete(-1, geometryWriter.write(originalGeometryFilePath, staging.stage(originalGeometryFilePath), linkId -> linkId));
+      }
+      checkpoint.complete(ConversionCheckpoint.STAGE_SIMPLIFIED, staging.promote());
+    }
+    
+    /* persist raw network in Hilbert order when requested, renaming the links in its detailed geometry when ids are compacted */
+    if(MatsimWriterConfigurationHelper.isHilbertOrder(keyValueMap) && !checkpoint.isCompleted(ConversionCheckpoint.STAGE_ORDERED)) {
+      orderNetwork(settings, keyValueMap, staging);
+      checkpoint.complete(ConversionCheckpoint.STAGE_ORDERED, staging.promote());
+    }
+    
+    /* when cleaned network is requested an additional cleaned network file is created */
+    if(OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap) && !checkpoint.isCompleted(ConversionCheckpoint.STAGE_CLEANED)) {
+      createCleanedNetwork(settings, keyValueMap, staging);
+      checkpoint.complete(ConversionCheckpoint.STAGE_CLEANED, staging.promote());
+    }
+    
+    /* when a baseline is provided, change sets of the (cleaned) network against it accompany the full files */
+    if(baseline != null && !checkpoint.isCompleted(ConversionCheckpoint.STAGE_DELTA)) {
+      createDelta(settings, baseline, false, keyValueMap, staging);
+      if(OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap)) {
+        createDelta(settings, baseline, true, keyValueMap, staging);
+      }
+      checkpoint.complete(ConversionCheckpoint.STAGE_DELTA, staging.promote());
+      MatsimNetworkDelta.discardPreservedBaseline(Path.of(settings.getOutputDirectory()));
+    }
+    
+    /* when graph export is requested, a routing graph accompanies each (cleaned) network */
+    if(MatsimWriterConfigurationHelper.isGraphExport(keyValueMap) && !checkpoint.isCompleted(ConversionCheckpoint.STAGE_GRAPH_EXPORTED)) {
+      exportGraph(settings, false, keyValueMap, staging);
+      if(OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap)) {
+        exportGraph(settings, true, keyValueMap, staging);
+      }
+      checkpoint.complete(ConversionCheckpoint.STAGE_GRAPH_EXPORTED, staging.promote());
+    }
+    
+    /* when a spatial index is requested, one accompanies each (cleaned) network, indexing the (cleaned) detailed geometry when available */
+    if(MatsimWriterConfigurationHelper.isSpatialIndex(keyValueMap) && !checkpoint.isCompleted(ConversionCheckpoint.STAGE_SPATIAL_INDEXED)) {
+      writeSpatialIndex(settings, false, keyValueMap, staging);
+      if(OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap)) {
+        writeSpatialIndex(settings, true, keyValueMap, staging);
+      }
+      checkpoint.complete(ConversionCheckpoint.STAGE_SPATIAL_INDEXED, staging.promote());
+    }
+  }
+  
+  /** Preserve the baseline (when provided) in case it resides in the output directory, before the outputs of this run replace it, 
+   * see {@link MatsimNetworkDelta#preserveBaseline(Path, Path)}
+   * 
+   * @param outputDirectory of the run
+   * @param keyValueMap command line configuration information
+   * @return baseline to use, null when none is provided
+   * @throws PlanItException thrown if error
+   */
+  private static Path preserveBaseline(Path outputDirectory, Map<String, String> keyValueMap) throws PlanItException {
+    Path baseline = MatsimWriterConfigurationHelper.parseBaseline(keyValueMap);
+    return baseline != null ? MatsimNetworkDelta.preserveBaseline(baseline, outputDirectory) : null;
+  }
+  
+  /** Create the change set of the (original or cleaned) MATSim network against its baseline network file, if there is one, see {@link MatsimNetworkDelta}
+   * 
+   * @param settings to extract location of the MATSim network from
+   * @param baseline file or directory provided as baseline
+   * @param cleaned when true the change set of the cleaned network is created, otherwise of the original network
+   * @param keyValueMap command line configuration information
+   * @param staging to write the change set to
+   * @throws PlanItException thrown if error
+   */
+  private static void createDelta(
+      MatsimNetworkWriterSettings settings, Path baseline, boolean cleaned, Map<String, String> keyValueMap, OutputStaging staging) throws PlanItException {
+    Path baselineNetworkFilePath = MatsimWriterConfigurationHelper.getBaselineNetworkFilePath(baseline, settings, cleaned);
+    if(baselineNetworkFilePath == null) {
+      LOGGER.info(String.format("No baseline for %s in %s, no change set created", MatsimWriterConfigurationHelper.getNetworkFilePath(settings, cleaned).getFileName(), baseline));
+      return;
+    }
+    
+    try(var deltaStage = startStage(ConversionStageEvent.STAGE_DELTA, keyValueMap)){
+      Network baselineNetwork = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(baselineNetwork).readFile(baselineNetworkFilePath.toString());
+      Network network = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(network).readFile(MatsimWriterConfigurationHelper.getNetworkFilePath(settings, cleaned).toString());
+      
+      long numberOfChanges = new MatsimNetworkDelta(baselineNetwork, network).write(
+          staging.stage(MatsimWriterConfigurationHelper.getDeltaFilePath(settings, cleaned)),
+          baselineNetworkFilePath.getFileName().toString(),
+          MatsimNetworkDelta.digest(baselineNetworkFilePath));
+      deltaStage.complete(-1, numberOfChanges);
+    }
+  }
+
+  /** Export the routing graph of the (original or cleaned) MATSim network as persisted, such that its node order and ids match the network file, 
+   * see {@link RoutingGraphFileWriter}
+   * 
+   * @param settings to extract location of the MATSim network from
+   * @param cleaned when true the routing graph of the cleaned network is exported, otherwise of the original network
+   * @param keyValueMap command line configuration information
+   * @param staging to write the routing graph to
+   * @throws PlanItException thrown if error
+   */
+  private static void exportGraph(MatsimNetworkWriterSettings settings, boolean cleaned, Map<String, String> keyValueMap, OutputStaging staging) throws PlanItException {
+    try(var graphStage = startStage(ConversionStageEvent.STAGE_GRAPH_EXPORT, keyValueMap)){
+      Network network = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(network).readFile(MatsimWriterConfigurationHelper.getNetworkFilePath(settings, cleaned).toString());
+      long numberOfLinks = new RoutingGraphFileWriter().write(network, staging.stage(MatsimWriterConfigurationHelper.getGraphFilePath(settings, cleaned)));
+      graphStage.complete(network.getNodes().size(), numberOfLinks);
+    }
+  }
+
+  /** Write the spatial index of the (original or cleaned) MATSim network as persisted, over its nodes and the links of its detailed geometry file
+   * when present (straight lines otherwise), see {@link SpatialIndexFileWriter}
+   * 
+   * @param settings to extract location of the MATSim network and its detailed geometry from
+   * @param cleaned when true the spatial index of the cleaned network is written, otherwise of the original network
+   * @param keyValueMap command line configuration information
+   * @param staging to write the spatial index to
+   * @throws PlanItException thrown if error
+   */
+  private static void writeSpatialIndex(MatsimNetworkWriterSettings settings, boolean cleaned, Map<String, String> keyValueMap, OutputStaging staging) throws PlanItException {
+    try(var indexStage = startStage(ConversionStageEvent.STAGE_SPATIAL_INDEX, keyValueMap)){
+      Network network = NetworkUtils.createNetwork();
+      new MatsimNetworkReader(network).readFile(MatsimWriterConfigurationHelper.getNetworkFilePath(settings, cleaned).toString());
+      
+      Map<String, Coordinate[]> linkGeometries = null;
+      Path geometryFilePath = MatsimWriterConfigurationHelper.getDetailedGeometryFilePath(settings, cleaned);
+      if(settings.isGenerateDetailedLinkGeometryFile() && Files.exists(geometryFilePath)) {
+        Set<String> linkIds = new HashSet<>(network.getLinks().size());
+        network.getLinks().keySet().forEach(linkId -> linkIds.add(linkId.toString()));
+        linkGeometries = new DetailedGeometryFileWriter(0).readCoordinates(geometryFilePath, linkIds::contains);
+      }
+      long numberOfEntities = new SpatialIndexFileWriter().write(
+          network, linkGeometries, staging.stage(MatsimWriterConfigurationHelper.getSpatialIndexFilePath(settings, cleaned)));
+      indexStage.complete(network.getNodes().size(), numberOfEntities - network.getNodes().size());
     }
   }
 
+  /** Begin a conversion stage, i.e., report it as progress and begin a flight recorder event for it, committed (as failed unless completed) once
+   * closed
+   * 
+   * @param stage to begin
+   * @param keyValueMap command line configuration information
+   * @return begun event
+   * @throws PlanItException thrown if error, or when the conversion has been cancelled
+   */
+  private static ConversionStageEvent startStage(String stage, Map<String, String> keyValueMap) throws PlanItException {
+    return startStage(stage, keyValueMap, null);
+  }
+  
+  /** Begin a conversion stage, i.e., report it as progress and begin a flight recorder event for it, committed (as failed unless completed) once
+   * closed
+   * 
+   * @param stage to begin
+   * @param keyValueMap command line configuration information
+   * @param entitiesProcessed supplier of the number of entities processed so far within the stage, may be null
+   * @return begun event
+   * @throws PlanItException thrown if error, or when the conversion has been cancelled
+   */
+  private static ConversionStageEvent startStage(String stage, Map<String, String> keyValueMap, LongSupplier entitiesProcessed) throws PlanItException {
+    progress.startStage(stage, entitiesProcessed);
+    Envelope boundingBox = OsmReaderConfigurationHelper.parseBoundingBox(keyValueMap);
+    return ConversionStageEvent.start(
+        stage, 
+        keyValueMap.get(OsmReaderConfigurationHelper.INPUT_SOURCE_KEY), 
+        boundingBox != null ? boundingBox.toString() : null, 
+        OsmNetworkReaderConfigurationHelper.getFidelity(keyValueMap));
+  }
+  
+  /** Log the wall clock time elapsed since the start of this process, e.g., to benchmark cold start latency (JVM, AppCDS, native)
+   * 
+   * @param milestone description of what has been reached
+   */
+  private static void logTimeSinceStart(String milestone) {
+    ProcessHandle.current().info().startInstant().ifPresent(
+        startInstant -> LOGGER.info(String.format("%s %d ms after process start", milestone, Duration.between(startInstant, Instant.now()).toMillis())));
+  }
+  
+  /** Number of nodes across all layers of the network
+   * 
+   * @param network to collect from
+   * @return number of nodes
+   */
+  private static long getNumberOfNodes(MacroscopicNetwork network) {
+    long numberOfNodes = 0;
+    for(var layer : network.getTransportLayers()) {
+      numberOfNodes += layer.getNodes().size();
+    }
+    return numberOfNodes;
+  }
+  
+  /** Number of links across all layers of the network
+   * 
+   * @param network to collect from
+   * @return number of links
+   */
+  private static long getNumberOfLinks(MacroscopicNetwork network) {
+    long numberOfLinks = 0;
+    for(var layer : network.getTransportLayers()) {
+      numberOfLinks += layer.getLinks().size();
+    }
+    return numberOfLinks;
+  }  
+  
+  /** Intern the strings of the parsed network when requested, reducing its heap footprint before it is written
+   * 
+   * @param network to intern strings of
+   * @param keyValueMap command line configuration information
+   * @throws PlanItException thrown if error
+   */
+  private static void internStrings(MacroscopicNetwork network, Map<String, String> keyValueMap) throws PlanItException {
+    if(OsmReaderConfigurationHelper.isInternStrings(keyValueMap)) {
+      try(var internStage = startStage(ConversionStageEvent.STAGE_INTERN, keyValueMap)){
+        new NetworkStringInterner().intern(network);
+        internStage.complete(getNumberOfNodes(network), getNumberOfLinks(network));
+      }
+    }
+  }
+
+  /** Read the network with the given reader
+   * 
+   * @param osmNetworkReader to use
+   * @param networkToPopulate the network the reader was created with, polled for progress while being populated
+   * @param keyValueMap command line configuration information
+   * @return parsed network
+   * @throws PlanItException thrown if error
+   */
+  private static MacroscopicNetwork readNetwork(
+      OsmNetworkReader osmNetworkReader, MacroscopicNetwork networkToPopulate, Map<String, String> keyValueMap) throws PlanItException {
+    MacroscopicNetwork network;
+    try(var readStage = startStage(
+        ConversionStageEvent.STAGE_READ, keyValueMap, () -> getNumberOfNodes(networkToPopulate) + getNumberOfLinks(networkToPopulate))){
+      network = osmNetworkReader.read();
+      readStage.complete(getNumberOfNodes(network), getNumberOfLinks(network));
+    }
+    logTimeSinceStart("Parsed network available");
+    return network;
+  }
+  
+  /** Write the network with the given writer
+   * 
+   * @param matsimNetworkWriter to use
+   * @param network to write
+   * @param keyValueMap command line configuration information
+   * @throws PlanItException thrown if error
+   */
+  private static void writeNetwork(MatsimNetworkWriter matsimNetworkWriter, MacroscopicNetwork network, Map<String, String> keyValueMap) throws PlanItException {
+    try(var writeStage = startStage(ConversionStageEvent.STAGE_WRITE, keyValueMap)){
+      matsimNetworkWriter.write(network);
+      writeStage.complete(getNumberOfNodes(network), getNumberOfLinks(network));
+    }
+  }
+
+  /** Verify the streamed conversion of the network is possible for the configured options. Streaming supports a single input source and no
+   * post-processing that reads the entire network back into memory (cleaning, Hilbert ordering, change sets, graph export and spatial index), which
+   * would defeat its purpose. Cleaning is therefore not applied by default when streaming, requesting it explicitly is rejected
+   * 
+   * @param keyValueMap command line configuration information
+   * @throws PlanItException thrown when streaming is not possible for the configured options
+   */
+  private static void verifyStreamingSupported(Map<String, String> keyValueMap) throws PlanItException {
+    if(OsmReaderConfigurationHelper.parseInputsources(keyValueMap).size() > 1) {
+      throw new PlanItException("Streaming is only supported for a single input source");
+    }
+    
+    List<String> unsupportedOptions = new ArrayList<>();
+    if(keyValueMap.containsKey(OsmNetworkReaderConfigurationHelper.CLEAN_NETWORK_KEY) && OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap)) {
+      unsupportedOptions.add("--clean yes");
+    }
+    if(MatsimWriterConfigurationHelper.isHilbertOrder(keyValueMap)) {
+      unsupportedOptions.add("--order hilbert");
+    }
+    if(MatsimWriterConfigurationHelper.parseBaseline(keyValueMap) != null) {
+      unsupportedOptions.add("--baseline");
+    }
+    if(MatsimWriterConfigurationHelper.isGraphExport(keyValueMap)) {
+      unsupportedOptions.add("--graphexport yes");
+    }
+    if(MatsimWriterConfigurationHelper.isSpatialIndex(keyValueMap)) {
+      unsupportedOptions.add("--spatialindex yes");
+    }
+    if(!unsupportedOptions.isEmpty()) {
+      throw new PlanItException(
+          "Streaming does not support post-processing that reads the entire network into memory, remove %s or run without --streaming", String.join(", ", unsupportedOptions));
+    }
+    LOGGER.info("Streaming network, the network is not cleaned");
+  }
+
+  /** Stream the network from the configured input to the MATSim network (and detailed geometry file) in the staging directory, instead of reading
+   * the entire network before writing it, see {@link StreamingNetworkConverter}
+   * 
+   * @param converter to stream with, created for the activated highway types and modes of the run
+   * @param readerSettings to extract the (tracked) input source from
+   * @param writerSettings to extract the location of the MATSim network and its detailed geometry from
+   * @param keyValueMap command line configuration information
+   * @param staging to write the network to, and spill to while streaming
+   * @throws PlanItException thrown if error
+   */
+  private static void streamNetwork(StreamingNetworkConverter converter,
+      OsmNetworkReaderSettings readerSettings, MatsimNetworkWriterSettings writerSettings, Map<String, String> keyValueMap, OutputStaging staging) throws PlanItException {
+    try(var streamStage = startStage(ConversionStageEvent.STAGE_STREAM, keyValueMap, converter::getNumberOfEntitiesProcessed)){
+      converter.convert(
+          readerSettings.getInputSource(),
+          staging.getDirectory().resolve(STREAMING_SPILL_DIRECTORY),
+          staging.stage(MatsimWriterConfigurationHelper.getNetworkFilePath(writerSettings, false)),
+          writerSettings.isGenerateDetailedLinkGeometryFile() ? staging.stage(MatsimWriterConfigurationHelper.getDetailedGeometryFilePath(writerSettings, false)) : null);
+      streamStage.complete(converter.getNumberOfNodesWritten(), converter.getNumberOfLinksWritten());
+    }
+    logTimeSinceStart("Streamed network available");
+  }
+
   /** Perform a network conversion based on the provided command line configuration
    * 
    * @param keyValueMap command line configuration information
@@ -145,10 +586,16 @@ public class PlanitAurinParserMain {
    */
   private static void executeNetworkConversion(Map<String, String> keyValueMap) throws PlanItException {
     
+    boolean streaming = OsmReaderConfigurationHelper.isStreaming(keyValueMap);
+    if(streaming) {
+      verifyStreamingSupported(keyValueMap);
+    }
+    
     String countryName = OsmReaderConfigurationHelper.getCountry(keyValueMap);
     
-    /* osm network reader */
-    var osmNetworkReader = OsmNetworkReaderFactory.create(countryName);
+    /* osm network reader, populating a network we hold on to so it can be polled for progress */
+    var networkToPopulate = new MacroscopicNetwork(IdGroupingToken.collectGlobalToken());
+    var osmNetworkReader = OsmNetworkReaderFactory.create(countryName, networkToPopulate);
     /* Matsim network writer */
     var matsimNetworkWriter = MatsimNetworkWriterFactory.create(
         MatsimWriterConfigurationHelper.MATSIM_OUTPUT_PATH.toAbsolutePath().toString(), countryName);     
@@ -159,13 +606,39 @@ public class PlanitAurinParserMain {
     /* configure */    
     configureReaderSettings(osmNetworkReader.getSettings(), keyValueMap);    
     configureWriterSettings(matsimNetworkWriter.getSettings(), keyValueMap);
-
-    /* perform conversion */
-    NetworkConverterFactory.create(osmNetworkReader, matsimNetworkWriter).convert();
     
-    /* when cleaned network is requested an additional cleaned network file is created */
-    if(OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap)) {
-      createCleanedNetwork(matsimNetworkWriter.getSettings());
+    /* streaming converter, rejecting modes it cannot map before any output is touched */
+    StreamingNetworkConverter streamingConverter = null;
+    if(streaming) {
+      streamingConverter = new StreamingNetworkConverter(
+          OsmNetworkLookupTables.compile(osmNetworkReader.getSettings(), keyValueMap), OsmReaderConfigurationHelper.parseBoundingBox(keyValueMap));
+    }
+
+    /* checkpoint to resume from and to update after each stage, outputs of each stage are staged until the stage completes */
+    String outputDirectory = matsimNetworkWriter.getSettings().getOutputDirectory();
+    var checkpoint = ConversionCheckpoint.open(Path.of(outputDirectory), keyValueMap);
+    var staging = OutputStaging.open(Path.of(outputDirectory));
+    Path baseline = preserveBaseline(Path.of(outputDirectory), keyValueMap);
+
+    try {
+      /* perform conversion */
+      if(!checkpoint.isCompleted(ConversionCheckpoint.STAGE_WRITTEN)) {
+        if(streaming) {
+          streamNetwork(streamingConverter, osmNetworkReader.getSettings(), matsimNetworkWriter.getSettings(), keyValueMap, staging);
+        }else {
+          var network = readNetwork(osmNetworkReader, networkToPopulate, keyValueMap);
+          internStrings(network, keyValueMap);
+          matsimNetworkWriter.getSettings().setOutputDirectory(staging.getDirectory().toString());
+          writeNetwork(matsimNetworkWriter, network, keyValueMap);
+          matsimNetworkWriter.getSettings().setOutputDirectory(outputDirectory);
+        }
+        checkpoint.complete(ConversionCheckpoint.STAGE_WRITTEN, staging.promote());
+      }
+      
+      /* simplify geometry, order, clean and create change sets when requested */
+      postProcessNetwork(matsimNetworkWriter.getSettings(), keyValueMap, baseline, checkpoint, staging);
+    }finally {
+      staging.discard();
     }
   }
 
@@ -176,6 +649,10 @@ public class PlanitAurinParserMain {
    */
   private static void executeIntermodalNetworkConversion(Map<String, String> keyValueMap) throws PlanItException {
     
+    if(OsmReaderConfigurationHelper.isStreaming(keyValueMap)) {
+      throw new PlanItException("Streaming is only supported for network-only conversions, i.e., without --ptinfra");
+    }
+    
     String countryName = OsmReaderConfigurationHelper.getCountry(keyValueMap);
     
     /* osm intermodal reader (network + zoning with PT infrastructure as transfer zones) */
@@ -191,57 +668,229 @@ public class PlanitAurinParserMain {
     configureReaderSettings(osmIntermodalReader.getSettings().getNetworkSettings(), keyValueMap);    
     configureWriterSettings(matsimIntermodalWriter.getSettings().getNetworkSettings(), keyValueMap);
 
-    /* perform conversion */
-    IntermodalConverterFactory.create(osmIntermodalReader, matsimIntermodalWriter).convert();
+    /* checkpoint to resume from and to update after each stage, outputs of each stage are staged until the stage completes */
+    var networkWriterSettings = matsimIntermodalWriter.getSettings().getNetworkSettings();
+    String outputDirectory = networkWriterSettings.getOutputDirectory();
+    var checkpoint = ConversionCheckpoint.open(Path.of(outputDirectory), keyValueMap);
+    var staging = OutputStaging.open(Path.of(outputDirectory));
+    Path baseline = preserveBaseline(Path.of(outputDirectory), keyValueMap);
+
+    try {
+      /* perform conversion */
+      if(!checkpoint.isCompleted(ConversionCheckpoint.STAGE_WRITTEN)) {
+        Pair<MacroscopicNetwork, Zoning> networkAndZoning;
+        try(var readStage = startStage(ConversionStageEvent.STAGE_READ_INTERMODAL, keyValueMap)){
+          networkAndZoning = osmIntermodalReader.read();
+          readStage.complete(getNumberOfNodes(networkAndZoning.first()), getNumberOfLinks(networkAndZoning.first()));
+        }
+        logTimeSinceStart("Parsed network and zoning available");
+        
+        internStrings(networkAndZoning.first(), keyValueMap);
+        
+        try(var writeStage = startStage(ConversionStageEvent.STAGE_WRITE, keyValueMap)){
+          networkWriterSettings.setOutputDirectory(staging.getDirectory().toString());
+          matsimIntermodalWriter.write(networkAndZoning.first(), networkAndZoning.second());
+          networkWriterSettings.setOutputDirectory(outputDirectory);
+          writeStage.complete(getNumberOfNodes(networkAndZoning.first()), getNumberOfLinks(networkAndZoning.first()));
+        }
+        checkpoint.complete(ConversionCheckpoint.STAGE_WRITTEN, staging.promote());
+      }
+      
+      /* simplify geometry, order, clean and create change sets when requested */
+      postProcessNetwork(networkWriterSettings, keyValueMap, baseline, checkpoint, staging);
+    }finally {
+      staging.discard();
+    }
+  }
+  
+  /** Perform the conversion matching the provided command line configuration
+   * 
+   * @param keyValueMap command line configuration information
+   * @throws PlanItException thrown when error
+   */
+  private static void executeConversion(Map<String, String> keyValueMap) throws PlanItException {
+    if(OsmReaderConfigurationHelper.isParsePublicTransportInfrastructure(keyValueMap)) {
+      /* intermodal conversion */
+      executeIntermodalNetworkConversion(keyValueMap);
+    }else {
+      /* regular network-only conversion */
+      executeNetworkConversion(keyValueMap);
+    }
+  }
+  
+  /** Run the conversion on a worker thread while progress is reported periodically. When the deadline passes, or the conversion is cancelled (via 
+   * the listener, or because the JVM is asked to shut down), the worker is interrupted and waited for (for at most the grace period) so that it 
+   * can discard its partial outputs
+   * 
+   * @param keyValueMap command line configuration information
+   * @param conversionProgress to report and cancel through
+   * @return exit code
+   * @throws Exception thrown when the conversion fails for any other reason than cancellation
+   */
+  private static int executeCancellableConversion(Map<String, String> keyValueMap, ConversionProgress conversionProgress) throws Exception {
+    Duration deadline = ExecutionConfigurationHelper.parseDeadline(keyValueMap);
+    Duration progressInterval = ExecutionConfigurationHelper.parseProgressInterval(keyValueMap);
+    long deadlineNanos = deadline != null ? System.nanoTime() + deadline.toNanos() : Long.MAX_VALUE;
     
-    /* when cleaned network is requested an additional cleaned network file is created */
-    if(OsmNetworkReaderConfigurationHelper.parseCleanNetwork(keyValueMap)) {
-      createCleanedNetwork(matsimIntermodalWriter.getSettings().getNetworkSettings());
+    ScheduledExecutorService progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "planit-progress");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ExecutorService conversionExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "planit-conversion"));
+    
+    /* termination of the JVM (e.g. SIGTERM by an orchestrator) cancels the conversion, so that partial outputs are still discarded */
+    Thread shutdownHook = new Thread(() -> {
+      conversionProgress.cancel("JVM shutdown");
+      conversionExecutor.shutdownNow();
+      try {
+        conversionExecutor.awaitTermination(CANCELLATION_GRACE_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+      }catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    
+    boolean deadlineExceeded = false;
+    try {
+      progressReporter.scheduleAtFixedRate(conversionProgress::report, progressInterval.toMillis(), progressInterval.toMillis(), TimeUnit.MILLISECONDS);
+      Future<?> conversion = conversionExecutor.submit(() -> {
+        executeConversion(keyValueMap);
+        return null;
+      });
+      
+      while(true) {
+        try {
+          conversion.get(Math.max(1, Math.min(CANCELLATION_POLL_INTERVAL.toNanos(), deadlineNanos - System.nanoTime())), TimeUnit.NANOSECONDS);
+          conversionProgress.report();
+          return EXIT_CODE_SUCCESS;
+        }catch(TimeoutException e) {
+          if(System.nanoTime() >= deadlineNanos && !conversionProgress.isCancelled()) {
+            deadlineExceeded = true;
+            conversionProgress.cancel(String.format("deadline of %s exceeded", deadline));
+          }
+          if(!conversionProgress.isCancelled()) {
+            continue;
+          }
+          
+          /* interrupt worker (and the threads it awaits) and give it time to discard its partial outputs */
+          conversionExecutor.shutdownNow();
+          if(!conversionExecutor.awaitTermination(CANCELLATION_GRACE_PERIOD.toMillis(), TimeUnit.MILLISECONDS)) {
+            LOGGER.severe(String.format("Conversion did not stop within %s after cancellation", CANCELLATION_GRACE_PERIOD));
+          }
+        }catch(ExecutionException e) {
+          if(!conversionProgress.isCancelled()) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          }
+        }
+        
+        LOGGER.severe(String.format("Conversion cancelled: %s", conversionProgress.getCancellationReason()));
+        return deadlineExceeded ? EXIT_CODE_DEADLINE_EXCEEDED : EXIT_CODE_CANCELLED;
+      }
+    }finally {
+      progressReporter.shutdownNow();
+      conversionExecutor.shutdownNow();
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      }catch(IllegalStateException e) {
+        /* JVM is already shutting down */
+      }
     }
   }
 
   /** Path from which application was invoked */
   public static final Path CURRENT_PATH = Path.of("");    
 
+  /** Directory within the staging directory nodes and ways are spilled to while streaming a network-only conversion */
+  private static final String STREAMING_SPILL_DIRECTORY = ".stream_spill";
+  
   /** Help key */
   public static final String ARGUMENT_HELP = "help";  
+  
+  /** Exit code of a completed run */
+  public static final int EXIT_CODE_SUCCESS = 0;
+  
+  /** Exit code of a failed run */
+  public static final int EXIT_CODE_FAILURE = 1;
+  
+  /** Exit code of a run cancelled because its deadline passed (as GNU timeout) */
+  public static final int EXIT_CODE_DEADLINE_EXCEEDED = 124;
+  
+  /** Exit code of a run that was cancelled otherwise */
+  public static final int EXIT_CODE_CANCELLED = 130;
+  
+  /** Time a cancelled conversion is given to stop and discard its partial outputs */
+  private static final Duration CANCELLATION_GRACE_PERIOD = Duration.ofSeconds(30);
+  
+  /** Interval at which the conversion is checked for cancellation */
+  private static final Duration CANCELLATION_POLL_INTERVAL = Duration.ofMillis(250);
+  
+  /** Progress of the conversion in execution, shared by all its stages and threads. Conversions are executed one at a time, see {@link #execute} */
+  private static volatile ConversionProgress progress = new ConversionProgress(null);
 
   /**
-   * Access point
+   * Programmatic access point. Executes a conversion configured by the provided arguments (see class documentation) and blocks until it completes, 
+   * fails, or is cancelled.
+   * <p>
+   * Not re-entrant: the progress of the conversion in execution (and the logging setup) is held per JVM, so concurrent calls are serialised, i.e.,
+   * a call blocks until the conversion of any other call has finished. Run separate JVMs to convert concurrently
    * 
    * @param args arguments provided
+   * @param listener to notify of progress, may be null. Can be used to cancel the conversion via {@link ConversionProgress#cancel(String)}
+   * @return exit code, i.e., {@link #EXIT_CODE_SUCCESS}, {@link #EXIT_CODE_FAILURE}, {@link #EXIT_CODE_DEADLINE_EXCEEDED}, or {@link #EXIT_CODE_CANCELLED} 
    */
-  public static void main(String[] args) {
+  public static synchronized int execute(String[] args, ConversionProgressListener listener) {
+    Recording recording = null;
+    AsyncRateLimitedLogHandler logHandler = null;
     try {
       
       /* logger + default Logging properties based on logging.properties file */
       LOGGER = Logging.createLogger(PlanitAurinParserMain.class);
+      
+      /* format and write log records off the conversion threads, rate limiting repeated warnings */
+      logHandler = AsyncRateLimitedLogHandler.install();
 
       /* arguments as key/value map */
       var keyValueMap = getKeyValueMap(args);
+      
+      /* flight recording when profiling is requested */
+      recording = ProfilingConfigurationHelper.startRecording(keyValueMap);
 
       /* when --help is present, print options */
       if (keyValueMap.containsKey(ARGUMENT_HELP)) {
 
         // TODO
         LOGGER.info("--help is not yet implemented, see Javadoc instead for available arguments");
-
-      } else {
-
-        if(OsmReaderConfigurationHelper.isParsePublicTransportInfrastructure(keyValueMap)) {
-          /* intermodal conversion */
-          executeIntermodalNetworkConversion(keyValueMap);
-        }else {
-          /* regular network-only conversion */
-          executeNetworkConversion(keyValueMap);
-        }        
+        return EXIT_CODE_SUCCESS;
       }
+      
+      progress = new ConversionProgress(listener);
+      return executeCancellableConversion(keyValueMap, progress);
     } catch (Exception e) {
       LOGGER.severe(e.getMessage());      
       e.printStackTrace();
       LOGGER.severe("Unable to execute parser, terminating");      
+      return EXIT_CODE_FAILURE;
+    } finally {
+      ProfilingConfigurationHelper.stopRecording(recording);
+      if(logHandler != null) {
+        logHandler.flush();
+      }
     }
+  }
 
+  /**
+   * Access point
+   * 
+   * @param args arguments provided
+   */
+  public static void main(String[] args) {
+    int exitCode = execute(args, null);
+    
+    /* failed and cancelled runs terminate explicitly with their exit code, this also ends any reader threads that did not stop in time */
+    if(exitCode != EXIT_CODE_SUCCESS) {
+      System.exit(exitCode);
+    }
   }
 
 }
@@ -0,0 +1,93 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.misc.StringUtils;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Helper methods to configure Java Flight Recorder profiling of a run based on user arguments provided for this wrapper.
+ *
+ * @author markr
+ *
+ */
+public class ProfilingConfigurationHelper {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(ProfilingConfigurationHelper.class.getCanonicalName());
+
+  //----------------------------------------------------
+  //--------PROFILE ------------------------------------
+  //----------------------------------------------------
+
+  /** Key reflecting the location of the flight recording file to create */
+  private static final String PROFILE_KEY = "profile";
+
+  /** Built-in JFR configuration to start from */
+  private static final String JFR_BASE_CONFIGURATION = "profile";
+
+  /** Threshold above which lock/park events are recorded */
+  private static final Duration LOCK_THRESHOLD = Duration.ofMillis(10);
+
+  /** Start a flight recording with allocation and lock profiling enabled when requested, the recording is dumped to the provided file when stopped
+   *
+   * @param keyValueMap to extract information from
+   * @return started recording, null when no profiling is requested
+   * @throws PlanItException thrown if error
+   */
+  public static Recording startRecording(final Map<String, String> keyValueMap) throws PlanItException {
+    PlanItException.throwIfNull(keyValueMap, "Configuration information null");
+
+    String profileValue = keyValueMap.get(PROFILE_KEY);
+    if(StringUtils.isNullOrBlank(profileValue)) {
+      if(keyValueMap.containsKey(PROFILE_KEY)) {
+        throw new PlanItException("--profile requires the path of the flight recording file to create");
+      }
+      return null;
+    }
+
+    try {
+      Recording recording = new Recording(Configuration.getConfiguration(JFR_BASE_CONFIGURATION));
+      recording.setName("planit-aurin-parser");
+      recording.setToDisk(true);
+      recording.setDestination(Path.of(profileValue).toAbsolutePath());
+
+      /* allocation profiling */
+      recording.enable("jdk.ObjectAllocationInNewTLAB").withStackTrace();
+      recording.enable("jdk.ObjectAllocationOutsideTLAB").withStackTrace();
+      /* lock profiling */
+      recording.enable("jdk.JavaMonitorEnter").withThreshold(LOCK_THRESHOLD).withStackTrace();
+      recording.enable("jdk.JavaMonitorWait").withThreshold(LOCK_THRESHOLD).withStackTrace();
+      recording.enable("jdk.ThreadPark").withThreshold(LOCK_THRESHOLD).withStackTrace();
+      /* conversion stages */
+      recording.enable(ConversionStageEvent.NAME);
+
+      recording.start();
+      LOGGER.info(String.format("Started flight recording, persisted to %s upon completion", recording.getDestination()));
+      return recording;
+    }catch(IOException | ParseException e) {
+      throw new PlanItException(String.format("Unable to start flight recording to %s", profileValue), e);
+    }
+  }
+
+  /** Stop the recording (if any), which dumps it to its destination
+   *
+   * @param recording to stop, may be null
+   */
+  public static void stopRecording(final Recording recording) {
+    if(recording == null) {
+      return;
+    }
+    recording.stop();
+    LOGGER.info(String.format("Persisted flight recording to %s", recording.getDestination()));
+    recording.close();
+  }
+}
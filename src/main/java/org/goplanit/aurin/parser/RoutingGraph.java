@@ -0,0 +1,455 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+/**
+ * Read only, memory mapped view of a routing graph file written by {@link RoutingGraphFileWriter}. Nodes and links are identified by their
+ * index, links are stored in compressed sparse row (CSR) form, i.e., the out links of node {@code n} are the links
+ * {@code [getFirstOutLink(n), getEndOutLink(n))}. Link properties are read directly from the mapped file, so opening a graph does not
+ * parse or copy anything and queries run on primitive arrays. Instances can be shared between threads.
+ * <p>
+ * File layout (little endian, each section starts at a multiple of 8 bytes):
+ * <ul>
+ * <li>header: magic (long), version (int), number of nodes (int), number of links (int), number of modes (int), reserved (long)</li>
+ * <li>offsets: int[nodes + 1], first out link of each node</li>
+ * <li>targets: int[links], to node of each link</li>
+ * <li>lengths: double[links], in meters</li>
+ * <li>free flow times: double[links], in seconds, infinite when the link has no positive free speed</li>
+ * <li>mode masks: int[links], bit i set when mode i is allowed on the link</li>
+ * <li>modes, node ids, link ids: string tables, each int[count + 1] byte offsets followed by the UTF-8 bytes</li>
+ * </ul>
+ *
+ * @author markr
+ *
+ */
+public class RoutingGraph {
+
+  /** magic number identifying a routing graph file ("PLANCSR" followed by a zero byte) */
+  public static final long MAGIC = 0x504C414E43535200L;
+
+  /** version of the file layout */
+  public static final int VERSION = 1;
+
+  /** size of the header in bytes */
+  public static final int HEADER_SIZE = 32;
+
+  /** maximum number of modes that fit in a mode mask */
+  public static final int MAX_MODES = Integer.SIZE;
+
+  /** mode mask that allows all modes */
+  public static final int ALL_MODES = -1;
+
+  /** first out link per node */
+  private final IntBuffer offsets;
+
+  /** to node per link */
+  private final IntBuffer targets;
+
+  /** length per link */
+  private final DoubleBuffer lengths;
+
+  /** free flow time per link */
+  private final DoubleBuffer freeFlowTimes;
+
+  /** allowed modes per link */
+  private final IntBuffer modeMasks;
+
+  /** modes by their bit */
+  private final List<String> modes;
+
+  /** node id table */
+  private final MappedStringTable nodeIds;
+
+  /** link id table */
+  private final MappedStringTable linkIds;
+
+  /** node index by id, created on first lookup */
+  private Map<String, Integer> nodeIndices;
+
+  /**
+   * Constructor
+   *
+   * @param offsets first out link per node
+   * @param targets to node per link
+   * @param lengths per link
+   * @param freeFlowTimes per link
+   * @param modeMasks per link
+   * @param modes by their bit
+   * @param nodeIds node id table
+   * @param linkIds link id table
+   */
+  private RoutingGraph(
+      IntBuffer offsets, IntBuffer targets, DoubleBuffer lengths, DoubleBuffer freeFlowTimes, IntBuffer modeMasks, List<String> modes, MappedStringTable nodeIds, MappedStringTable linkIds) {
+    this.offsets = offsets;
+    this.targets = targets;
+    this.lengths = lengths;
+    this.freeFlowTimes = freeFlowTimes;
+    this.modeMasks = modeMasks;
+    this.modes = modes;
+    this.nodeIds = nodeIds;
+    this.linkIds = linkIds;
+  }
+
+  /** Open a routing graph file by memory mapping it
+   *
+   * @param graphFile to open
+   * @return routing graph
+   * @throws PlanItException thrown if error, or when the file is not a (supported) routing graph file
+   */
+  public static RoutingGraph open(final Path graphFile) throws PlanItException {
+    try(var file = new MappedFile(graphFile)){
+      ByteBuffer header = file.map(HEADER_SIZE);
+      if(header.getLong(0) != MAGIC) {
+        throw new PlanItException("%s is not a routing graph file", graphFile);
+      }
+      if(header.getInt(8) != VERSION) {
+        throw new PlanItException("Routing graph file %s has version %d, only version %d is supported", graphFile, header.getInt(8), VERSION);
+      }
+      int numberOfNodes = header.getInt(12);
+      int numberOfLinks = header.getInt(16);
+      int numberOfModes = header.getInt(20);
+
+      IntBuffer offsets = file.mapInts(numberOfNodes + 1L);
+      IntBuffer targets = file.mapInts(numberOfLinks);
+      DoubleBuffer lengths = file.mapDoubles(numberOfLinks);
+      DoubleBuffer freeFlowTimes = file.mapDoubles(numberOfLinks);
+      IntBuffer modeMasks = file.mapInts(numberOfLinks);
+
+      MappedStringTable modeTable = file.mapStringTable(numberOfModes);
+      List<String> modes = new ArrayList<>(numberOfModes);
+      for(int bit = 0; bit < numberOfModes; ++bit) {
+        modes.add(modeTable.get(bit));
+      }
+      MappedStringTable nodeIds = file.mapStringTable(numberOfNodes);
+      MappedStringTable linkIds = file.mapStringTable(numberOfLinks);
+      return new RoutingGraph(offsets, targets, lengths, freeFlowTimes, modeMasks, Collections.unmodifiableList(modes), nodeIds, linkIds);
+    }catch(IOException | IndexOutOfBoundsException e) {
+      throw new PlanItException(String.format("Unable to open routing graph file %s", graphFile), e);
+    }
+  }
+
+  /** Number of nodes
+   *
+   * @return number of nodes
+   */
+  public int getNumberOfNodes() {
+    return offsets.limit() - 1;
+  }
+
+  /** Number of links
+   *
+   * @return number of links
+   */
+  public int getNumberOfLinks() {
+    return targets.limit();
+  }
+
+  /** First out link of a node
+   *
+   * @param node index
+   * @return index of its first out link
+   */
+  public int getFirstOutLink(int node) {
+    return offsets.get(node);
+  }
+
+  /** End (exclusive) of the out links of a node
+   *
+   * @param node index
+   * @return index after its last out link
+   */
+  public int getEndOutLink(int node) {
+    return offsets.get(node + 1);
+  }
+
+  /** Number of out links of a node
+   *
+   * @param node index
+   * @return out degree
+   */
+  public int getOutDegree(int node) {
+    return offsets.get(node + 1) - offsets.get(node);
+  }
+
+  /** From node of a link, found by binary search over the offsets
+   *
+   * @param link index
+   * @return from node index
+   */
+  public int getFromNode(int link) {
+    int low = 0;
+    int high = getNumberOfNodes() - 1;
+    while(low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if(offsets.get(middle) <= link) {
+        low = middle;
+      }else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  /** To node of a link
+   *
+   * @param link index
+   * @return to node index
+   */
+  public int getToNode(int link) {
+    return targets.get(link);
+  }
+
+  /** Length of a link
+   *
+   * @param link index
+   * @return length in meters
+   */
+  public double getLength(int link) {
+    return lengths.get(link);
+  }
+
+  /** Free flow time of a link
+   *
+   * @param link index
+   * @return free flow time in seconds, infinite when the link has no positive free speed
+   */
+  public double getFreeFlowTime(int link) {
+    return freeFlowTimes.get(link);
+  }
+
+  /** Modes allowed on a link
+   *
+   * @param link index
+   * @return mode mask
+   */
+  public int getModeMask(int link) {
+    return modeMasks.get(link);
+  }
+
+  /** Modes present in the graph, the position of each mode is its bit in the mode masks
+   *
+   * @return modes
+   */
+  public List<String> getModes() {
+    return modes;
+  }
+
+  /** Mode mask for the given MATSim modes, combine with {@link #ALL_MODES} to not restrict by mode
+   *
+   * @param modesToAllow MATSim modes
+   * @return mode mask, zero when none of the modes are present
+   */
+  public int getModeMask(String... modesToAllow) {
+    int mask = 0;
+    for(String mode : modesToAllow) {
+      int bit = modes.indexOf(mode);
+      if(bit >= 0) {
+        mask |= 1 << bit;
+      }
+    }
+    return mask;
+  }
+
+  /** Id of a node in the MATSim network
+   *
+   * @param node index
+   * @return node id
+   */
+  public String getNodeId(int node) {
+    return nodeIds.get(node);
+  }
+
+  /** Id of a link in the MATSim network
+   *
+   * @param link index
+   * @return link id
+   */
+  public String getLinkId(int link) {
+    return linkIds.get(link);
+  }
+
+  /** Index of a node by its MATSim id. The first lookup indexes all node ids
+   *
+   * @param nodeId to find
+   * @return node index, -1 when not present
+   */
+  public synchronized int getNodeIndex(String nodeId) {
+    if(nodeIndices == null) {
+      nodeIndices = nodeIds.createIndex();
+    }
+    return nodeIndices.getOrDefault(nodeId, -1);
+  }
+
+  /** Collect the nodes reachable from the source (breadth first) using only links that allow at least one of the modes in the mask
+   *
+   * @param source node index
+   * @param modeMask of allowed modes
+   * @return reachable nodes, including the source
+   */
+  public BitSet getReachableNodes(int source, int modeMask) {
+    BitSet visited = new BitSet(getNumberOfNodes());
+    int[] queue = new int[getNumberOfNodes()];
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = source;
+    visited.set(source);
+    while(head < tail) {
+      int node = queue[head++];
+      for(int link = offsets.get(node), end = offsets.get(node + 1); link < end; ++link) {
+        int toNode = targets.get(link);
+        if((modeMasks.get(link) & modeMask) != 0 && !visited.get(toNode)) {
+          visited.set(toNode);
+          queue[tail++] = toNode;
+        }
+      }
+    }
+    return visited;
+  }
+
+  /** Shortest path costs from the source to all nodes (Dijkstra) using only links that allow at least one of the modes in the mask
+   *
+   * @param source node index
+   * @param modeMask of allowed modes
+   * @param freeFlowTime when true the cost of a link is its free flow time, otherwise its length
+   * @param predecessorLinks when not null, of size number of nodes, populated with the last link on the shortest path to each node (-1 if none)
+   * @return cost per node, infinite when unreachable
+   */
+  public double[] getShortestPathCosts(int source, int modeMask, boolean freeFlowTime, int[] predecessorLinks) {
+    return dijkstra(source, -1, modeMask, freeFlowTime ? freeFlowTimes : lengths, predecessorLinks);
+  }
+
+  /** Shortest path cost from the source to the destination (Dijkstra, terminated once the destination is settled) using only links that allow
+   * at least one of the modes in the mask
+   *
+   * @param source node index
+   * @param destination node index
+   * @param modeMask of allowed modes
+   * @param freeFlowTime when true the cost of a link is its free flow time, otherwise its length
+   * @param predecessorLinks when not null, of size number of nodes, populated with the last link on the shortest path to each settled node (-1 if none)
+   * @return cost, infinite when unreachable
+   */
+  public double getShortestPathCost(int source, int destination, int modeMask, boolean freeFlowTime, int[] predecessorLinks) {
+    return dijkstra(source, destination, modeMask, freeFlowTime ? freeFlowTimes : lengths, predecessorLinks)[destination];
+  }
+
+  /** Dijkstra on an indexed binary heap of node indices
+   *
+   * @param source node index
+   * @param destination node index to terminate at, -1 for all nodes
+   * @param modeMask of allowed modes
+   * @param linkCosts per link
+   * @param predecessorLinks to populate, may be null
+   * @return cost per node
+   */
+  private double[] dijkstra(int source, int destination, int modeMask, DoubleBuffer linkCosts, int[] predecessorLinks) {
+    int numberOfNodes = getNumberOfNodes();
+    double[] costs = new double[numberOfNodes];
+    Arrays.fill(costs, Double.POSITIVE_INFINITY);
+    if(predecessorLinks != null) {
+      Arrays.fill(predecessorLinks, -1);
+    }
+
+    /* heap of nodes ordered by cost, heap positions of nodes: -1 not yet reached, -2 settled */
+    int[] heap = new int[numberOfNodes];
+    int[] heapPositions = new int[numberOfNodes];
+    Arrays.fill(heapPositions, -1);
+    int heapSize = 0;
+
+    costs[source] = 0;
+    heap[heapSize] = source;
+    heapPositions[source] = heapSize++;
+    while(heapSize > 0) {
+      int node = heap[0];
+      heapPositions[node] = -2;
+      if(--heapSize > 0) {
+        siftDown(heap, heapPositions, costs, heapSize, heap[heapSize]);
+      }
+      if(node == destination) {
+        break;
+      }
+
+      for(int link = offsets.get(node), end = offsets.get(node + 1); link < end; ++link) {
+        int toNode = targets.get(link);
+        if((modeMasks.get(link) & modeMask) == 0 || heapPositions[toNode] == -2) {
+          continue;
+        }
+        double cost = costs[node] + linkCosts.get(link);
+        if(cost < costs[toNode]) {
+          costs[toNode] = cost;
+          if(predecessorLinks != null) {
+            predecessorLinks[toNode] = link;
+          }
+          int position = heapPositions[toNode];
+          if(position == -1) {
+            position = heapSize++;
+          }
+          siftUp(heap, heapPositions, costs, position, toNode);
+        }
+      }
+    }
+    return costs;
+  }
+
+  /** Place node at the given heap position and move it up until the heap is ordered
+   *
+   * @param heap of nodes
+   * @param heapPositions of nodes
+   * @param costs of nodes
+   * @param position to start at
+   * @param node to place
+   */
+  private static void siftUp(int[] heap, int[] heapPositions, double[] costs, int position, int node) {
+    while(position > 0) {
+      int parent = (position - 1) >>> 1;
+      if(costs[heap[parent]] <= costs[node]) {
+        break;
+      }
+      heap[position] = heap[parent];
+      heapPositions[heap[position]] = position;
+      position = parent;
+    }
+    heap[position] = node;
+    heapPositions[node] = position;
+  }
+
+  /** Place node at the root of the heap and move it down until the heap is ordered
+   *
+   * @param heap of nodes
+   * @param heapPositions of nodes
+   * @param costs of nodes
+   * @param heapSize size of the heap
+   * @param node to place
+   */
+  private static void siftDown(int[] heap, int[] heapPositions, double[] costs, int heapSize, int node) {
+    int position = 0;
+    while(true) {
+      int child = 2 * position + 1;
+      if(child >= heapSize) {
+        break;
+      }
+      if(child + 1 < heapSize && costs[heap[child + 1]] < costs[heap[child]]) {
+        ++child;
+      }
+      if(costs[heap[child]] >= costs[node]) {
+        break;
+      }
+      heap[position] = heap[child];
+      heapPositions[heap[position]] = position;
+      position = child;
+    }
+    heap[position] = node;
+    heapPositions[node] = position;
+  }
+}
@@ -0,0 +1,107 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Persist a MATSim network as a binary routing graph in compressed sparse row form, such that downstream reachability and shortest path
+ * queries can memory map it via {@link RoutingGraph} rather than parse the network XML and rebuild its adjacency. Nodes are indexed in the
+ * order of the network (which retains the persisted order, e.g., Hilbert order), links are grouped by their from node. See {@link RoutingGraph}
+ * for the file layout.
+ *
+ * @author markr
+ *
+ */
+public class RoutingGraphFileWriter {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(RoutingGraphFileWriter.class.getCanonicalName());
+
+  /** Persist the network as routing graph
+   *
+   * @param network to persist
+   * @param graphFile to write to
+   * @return number of links written
+   * @throws PlanItException thrown if error
+   */
+  public long write(final Network network, final Path graphFile) throws PlanItException {
+    List<String> modes = new ArrayList<>(ModeAwareNetworkCleaner.collectModes(network));
+    if(modes.size() > RoutingGraph.MAX_MODES) {
+      throw new PlanItException("Routing graph supports at most %d modes, network has %d", RoutingGraph.MAX_MODES, modes.size());
+    }
+    Map<String, Integer> modeMasks = new HashMap<>();
+    for(int bit = 0; bit < modes.size(); ++bit) {
+      modeMasks.put(modes.get(bit), 1 << bit);
+    }
+
+    /* index nodes in network order and group links by from node */
+    List<String> nodeIds = new ArrayList<>(network.getNodes().size());
+    Map<Id<Node>, Integer> nodeIndices = new HashMap<>((int) (network.getNodes().size() / 0.75) + 1);
+    for(Node node : network.getNodes().values()) {
+      nodeIndices.put(node.getId(), nodeIds.size());
+      nodeIds.add(node.getId().toString());
+    }
+    List<Link> links = new ArrayList<>(network.getLinks().size());
+    int[] offsets = new int[nodeIds.size() + 1];
+    int nodeIndex = 0;
+    for(Node node : network.getNodes().values()) {
+      offsets[nodeIndex++] = links.size();
+      links.addAll(node.getOutLinks().values());
+    }
+    offsets[nodeIndex] = links.size();
+
+    try(var writer = new BinaryFileWriter(graphFile)){
+      writer.writeLong(RoutingGraph.MAGIC);
+      writer.writeInt(RoutingGraph.VERSION);
+      writer.writeInt(nodeIds.size());
+      writer.writeInt(links.size());
+      writer.writeInt(modes.size());
+      writer.writeLong(0);
+
+      for(int offset : offsets) {
+        writer.writeInt(offset);
+      }
+      writer.endSection();
+      for(Link link : links) {
+        writer.writeInt(nodeIndices.get(link.getToNode().getId()));
+      }
+      writer.endSection();
+      for(Link link : links) {
+        writer.writeDouble(link.getLength());
+      }
+      for(Link link : links) {
+        writer.writeDouble(link.getFreespeed() > 0 ? link.getLength() / link.getFreespeed() : Double.POSITIVE_INFINITY);
+      }
+      for(Link link : links) {
+        int modeMask = 0;
+        for(String mode : link.getAllowedModes()) {
+          modeMask |= modeMasks.get(mode);
+        }
+        writer.writeInt(modeMask);
+      }
+      writer.endSection();
+
+      writer.writeStringTable(modes);
+      writer.writeStringTable(nodeIds);
+      List<String> linkIds = new ArrayList<>(links.size());
+      links.forEach(link -> linkIds.add(link.getId().toString()));
+      writer.writeStringTable(linkIds);
+    }catch(IOException | ArithmeticException e) {
+      throw new PlanItException(String.format("Unable to write routing graph to %s", graphFile), e);
+    }
+
+    LOGGER.info(String.format("Persisted routing graph with %d nodes, %d links and modes [%s] to %s", nodeIds.size(), links.size(), String.join(",", modes), graphFile));
+    return links.size();
+  }
+}
@@ -0,0 +1,343 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.goplanit.utils.exceptions.PlanItException;
+
+/**
+ * Read only, memory mapped view of a spatial index file written by {@link SpatialIndexFileWriter}, to snap locations to the nodes and links of
+ * a MATSim network without building an index at load. Nodes and links are identified by their index, which coincides with their index in the
+ * {@link RoutingGraph} of the same network. Distances are Euclidean in the coordinate reference system of the network, distances to links are
+ * measured to their (detailed) geometry. Instances can be shared between threads.
+ * <p>
+ * File layout (little endian, each section starts at a multiple of 8 bytes):
+ * <ul>
+ * <li>header: magic (long), version (int), number of nodes (int), number of links (int), number of link coordinates (int), reserved (long)</li>
+ * <li>node coordinates: double[2 * nodes], x and y of each node</li>
+ * <li>link coordinate offsets: int[links + 1], first coordinate of each link geometry</li>
+ * <li>link coordinates: double[2 * link coordinates], x and y of the geometry of each link</li>
+ * <li>node tree and link tree: each number of levels and node size (int, int), level bounds (int[levels]), boxes (double[4 * entries]),
+ * indices (int[entries]), see {@link PackedRTree}</li>
+ * <li>node ids, link ids: string tables, each int[count + 1] byte offsets followed by the UTF-8 bytes</li>
+ * </ul>
+ *
+ * @author markr
+ *
+ */
+public class SpatialIndex {
+
+  /** magic number identifying a spatial index file ("PLANRTR" followed by a zero byte) */
+  public static final long MAGIC = 0x504C414E52545200L;
+
+  /** version of the file layout */
+  public static final int VERSION = 1;
+
+  /** size of the header in bytes */
+  public static final int HEADER_SIZE = 32;
+
+  /** x and y per node */
+  private final DoubleBuffer nodeCoordinates;
+
+  /** first coordinate per link */
+  private final IntBuffer linkCoordinateOffsets;
+
+  /** x and y per link geometry coordinate */
+  private final DoubleBuffer linkCoordinates;
+
+  /** tree over the nodes */
+  private final PackedRTree nodeTree;
+
+  /** tree over the link geometries */
+  private final PackedRTree linkTree;
+
+  /** node id table */
+  private final MappedStringTable nodeIds;
+
+  /** link id table */
+  private final MappedStringTable linkIds;
+
+  /** node index by id, created on first lookup */
+  private Map<String, Integer> nodeIndices;
+
+  /** link index by id, created on first lookup */
+  private Map<String, Integer> linkIndices;
+
+  /** Distance from location to segment
+   *
+   * @param x of location
+   * @param y of location
+   * @param x1 of segment start
+   * @param y1 of segment start
+   * @param x2 of segment end
+   * @param y2 of segment end
+   * @return distance
+   */
+  private static double segmentDistance(double x, double y, double x1, double y1, double x2, double y2) {
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double lengthSquared = dx * dx + dy * dy;
+    double fraction = lengthSquared > 0 ? Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared)) : 0;
+    double distanceX = x - (x1 + fraction * dx);
+    double distanceY = y - (y1 + fraction * dy);
+    return Math.sqrt(distanceX * distanceX + distanceY * distanceY);
+  }
+
+  /** Collect items of a tree within radius
+   *
+   * @param tree to search
+   * @param x of location
+   * @param y of location
+   * @param radius to search within
+   * @param itemDistance exact distance of an item
+   * @return items within radius
+   */
+  private static int[] withinRadius(PackedRTree tree, double x, double y, double radius, PackedRTree.ItemDistance itemDistance) {
+    int[][] result = {new int[16]};
+    int[] resultSize = {0};
+    tree.search(x - radius, y - radius, x + radius, y + radius, item -> {
+      if(itemDistance.distance(item, x, y) <= radius) {
+        if(resultSize[0] == result[0].length) {
+          result[0] = Arrays.copyOf(result[0], resultSize[0] * 2);
+        }
+        result[0][resultSize[0]++] = item;
+      }
+    });
+    return Arrays.copyOf(result[0], resultSize[0]);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nodeCoordinates x and y per node
+   * @param linkCoordinateOffsets first coordinate per link
+   * @param linkCoordinates x and y per link geometry coordinate
+   * @param nodeTree tree over the nodes
+   * @param linkTree tree over the link geometries
+   * @param nodeIds node id table
+   * @param linkIds link id table
+   */
+  private SpatialIndex(
+      DoubleBuffer nodeCoordinates, IntBuffer linkCoordinateOffsets, DoubleBuffer linkCoordinates, PackedRTree nodeTree, PackedRTree linkTree,
+      MappedStringTable nodeIds, MappedStringTable linkIds) {
+    this.nodeCoordinates = nodeCoordinates;
+    this.linkCoordinateOffsets = linkCoordinateOffsets;
+    this.linkCoordinates = linkCoordinates;
+    this.nodeTree = nodeTree;
+    this.linkTree = linkTree;
+    this.nodeIds = nodeIds;
+    this.linkIds = linkIds;
+  }
+
+  /** Open a spatial index file by memory mapping it
+   *
+   * @param indexFile to open
+   * @return spatial index
+   * @throws PlanItException thrown if error, or when the file is not a (supported) spatial index file
+   */
+  public static SpatialIndex open(final Path indexFile) throws PlanItException {
+    try(var file = new MappedFile(indexFile)){
+      ByteBuffer header = file.map(HEADER_SIZE);
+      if(header.getLong(0) != MAGIC) {
+        throw new PlanItException("%s is not a spatial index file", indexFile);
+      }
+      if(header.getInt(8) != VERSION) {
+        throw new PlanItException("Spatial index file %s has version %d, only version %d is supported", indexFile, header.getInt(8), VERSION);
+      }
+      int numberOfNodes = header.getInt(12);
+      int numberOfLinks = header.getInt(16);
+      int numberOfLinkCoordinates = header.getInt(20);
+
+      DoubleBuffer nodeCoordinates = file.mapDoubles(2L * numberOfNodes);
+      IntBuffer linkCoordinateOffsets = file.mapInts(numberOfLinks + 1L);
+      DoubleBuffer linkCoordinates = file.mapDoubles(2L * numberOfLinkCoordinates);
+      PackedRTree nodeTree = PackedRTree.map(file);
+      PackedRTree linkTree = PackedRTree.map(file);
+      MappedStringTable nodeIds = file.mapStringTable(numberOfNodes);
+      MappedStringTable linkIds = file.mapStringTable(numberOfLinks);
+      return new SpatialIndex(nodeCoordinates, linkCoordinateOffsets, linkCoordinates, nodeTree, linkTree, nodeIds, linkIds);
+    }catch(IOException | IndexOutOfBoundsException e) {
+      throw new PlanItException(String.format("Unable to open spatial index file %s", indexFile), e);
+    }
+  }
+
+  /** Number of nodes
+   *
+   * @return number of nodes
+   */
+  public int getNumberOfNodes() {
+    return nodeCoordinates.limit() / 2;
+  }
+
+  /** Number of links
+   *
+   * @return number of links
+   */
+  public int getNumberOfLinks() {
+    return linkCoordinateOffsets.limit() - 1;
+  }
+
+  /** X coordinate of a node
+   *
+   * @param node index
+   * @return x
+   */
+  public double getNodeX(int node) {
+    return nodeCoordinates.get(2 * node);
+  }
+
+  /** Y coordinate of a node
+   *
+   * @param node index
+   * @return y
+   */
+  public double getNodeY(int node) {
+    return nodeCoordinates.get(2 * node + 1);
+  }
+
+  /** Id of a node in the MATSim network
+   *
+   * @param node index
+   * @return node id
+   */
+  public String getNodeId(int node) {
+    return nodeIds.get(node);
+  }
+
+  /** Id of a link in the MATSim network
+   *
+   * @param link index
+   * @return link id
+   */
+  public String getLinkId(int link) {
+    return linkIds.get(link);
+  }
+
+  /** Index of a node by its MATSim id. The first lookup indexes all node ids
+   *
+   * @param nodeId to find
+   * @return node index, -1 when not present
+   */
+  public synchronized int getNodeIndex(String nodeId) {
+    if(nodeIndices == null) {
+      nodeIndices = nodeIds.createIndex();
+    }
+    return nodeIndices.getOrDefault(nodeId, -1);
+  }
+
+  /** Index of a link by its MATSim id. The first lookup indexes all link ids
+   *
+   * @param linkId to find
+   * @return link index, -1 when not present
+   */
+  public synchronized int getLinkIndex(String linkId) {
+    if(linkIndices == null) {
+      linkIndices = linkIds.createIndex();
+    }
+    return linkIndices.getOrDefault(linkId, -1);
+  }
+
+  /** Distance from location to a node
+   *
+   * @param node index
+   * @param x of location
+   * @param y of location
+   * @return distance
+   */
+  public double getDistanceToNode(int node, double x, double y) {
+    double dx = x - getNodeX(node);
+    double dy = y - getNodeY(node);
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** Distance from location to the geometry of a link
+   *
+   * @param link index
+   * @param x of location
+   * @param y of location
+   * @return distance
+   */
+  public double getDistanceToLink(int link, double x, double y) {
+    int start = linkCoordinateOffsets.get(link);
+    int end = linkCoordinateOffsets.get(link + 1);
+    double distance = segmentDistance(x, y, linkCoordinates.get(2 * start), linkCoordinates.get(2 * start + 1), linkCoordinates.get(2 * start), linkCoordinates.get(2 * start + 1));
+    for(int coordinate = start + 1; coordinate < end; ++coordinate) {
+      distance = Math.min(distance, segmentDistance(x, y,
+          linkCoordinates.get(2 * coordinate - 2), linkCoordinates.get(2 * coordinate - 1), linkCoordinates.get(2 * coordinate), linkCoordinates.get(2 * coordinate + 1)));
+    }
+    return distance;
+  }
+
+  /** Find the nearest node
+   *
+   * @param x of location
+   * @param y of location
+   * @return nearest node, -1 when there are no nodes
+   */
+  public int getNearestNode(double x, double y) {
+    int[] nearest = getNearestNodes(x, y, 1, Double.POSITIVE_INFINITY);
+    return nearest.length > 0 ? nearest[0] : -1;
+  }
+
+  /** Find the k nearest nodes within a maximum distance
+   *
+   * @param x of location
+   * @param y of location
+   * @param k maximum number of nodes
+   * @param maxDistance beyond which nodes are ignored
+   * @return nearest nodes in order of increasing distance
+   */
+  public int[] getNearestNodes(double x, double y, int k, double maxDistance) {
+    return nodeTree.nearest(x, y, k, maxDistance, this::getDistanceToNode);
+  }
+
+  /** Find all nodes within a radius
+   *
+   * @param x of location
+   * @param y of location
+   * @param radius to search within
+   * @return nodes within radius (unordered)
+   */
+  public int[] getNodesWithinRadius(double x, double y, double radius) {
+    return withinRadius(nodeTree, x, y, radius, this::getDistanceToNode);
+  }
+
+  /** Find the nearest link
+   *
+   * @param x of location
+   * @param y of location
+   * @return nearest link, -1 when there are no links
+   */
+  public int getNearestLink(double x, double y) {
+    int[] nearest = getNearestLinks(x, y, 1, Double.POSITIVE_INFINITY);
+    return nearest.length > 0 ? nearest[0] : -1;
+  }
+
+  /** Find the k nearest links within a maximum distance
+   *
+   * @param x of location
+   * @param y of location
+   * @param k maximum number of links
+   * @param maxDistance beyond which links are ignored
+   * @return nearest links in order of increasing distance
+   */
+  public int[] getNearestLinks(double x, double y, int k, double maxDistance) {
+    return linkTree.nearest(x, y, k, maxDistance, this::getDistanceToLink);
+  }
+
+  /** Find all links within a radius
+   *
+   * @param x of location
+   * @param y of location
+   * @param radius to search within
+   * @return links within radius (unordered)
+   */
+  public int[] getLinksWithinRadius(double x, double y, double radius) {
+    return withinRadius(linkTree, x, y, radius, this::getDistanceToLink);
+  }
+}
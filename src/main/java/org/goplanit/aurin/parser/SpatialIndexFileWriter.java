@@ -0,0 +1,127 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.exceptions.PlanItException;
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Persist packed Hilbert R-trees over the nodes and link geometries of a MATSim network, such that downstream tools can memory map them via
+ * {@link SpatialIndex} to snap locations to the network without building an index at load. Nodes and links are indexed in the same order as
+ * by {@link RoutingGraphFileWriter}, i.e., nodes in network order and links grouped by their from node. Links are indexed by their detailed
+ * geometry when available, and by the straight line between their end nodes otherwise. See {@link SpatialIndex} for the file layout.
+ *
+ * @author markr
+ *
+ */
+public class SpatialIndexFileWriter {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(SpatialIndexFileWriter.class.getCanonicalName());
+
+  /** maximum number of children per tree entry */
+  public static final int NODE_SIZE = 16;
+
+  /** Persist the spatial index of the network
+   *
+   * @param network to index
+   * @param linkGeometries detailed geometry by link id, links absent are indexed by the straight line between their end nodes
+   * @param indexFile to write to
+   * @return number of nodes and links indexed
+   * @throws PlanItException thrown if error
+   */
+  public long write(final Network network, final Map<String, Coordinate[]> linkGeometries, final Path indexFile) throws PlanItException {
+    PlanItException.throwIfNull(network, "Network null");
+    Map<String, Coordinate[]> geometries = linkGeometries != null ? linkGeometries : Collections.emptyMap();
+
+    /* nodes in network order, links grouped by from node */
+    List<Node> nodes = new ArrayList<>(network.getNodes().values());
+    double[] nodeBoxes = new double[4 * nodes.size()];
+    List<Link> links = new ArrayList<>(network.getLinks().size());
+    for(int nodeIndex = 0; nodeIndex < nodes.size(); ++nodeIndex) {
+      Node node = nodes.get(nodeIndex);
+      nodeBoxes[4 * nodeIndex] = nodeBoxes[4 * nodeIndex + 2] = node.getCoord().getX();
+      nodeBoxes[4 * nodeIndex + 1] = nodeBoxes[4 * nodeIndex + 3] = node.getCoord().getY();
+      links.addAll(node.getOutLinks().values());
+    }
+
+    List<Coordinate[]> linkCoordinates = new ArrayList<>(links.size());
+    double[] linkBoxes = new double[4 * links.size()];
+    int numberOfLinkCoordinates = 0;
+    int numberOfDetailedGeometries = 0;
+    for(int linkIndex = 0; linkIndex < links.size(); ++linkIndex) {
+      Link link = links.get(linkIndex);
+      Coordinate[] coordinates = geometries.get(link.getId().toString());
+      if(coordinates != null && coordinates.length > 0) {
+        ++numberOfDetailedGeometries;
+      }else {
+        coordinates = new Coordinate[] {
+            new Coordinate(link.getFromNode().getCoord().getX(), link.getFromNode().getCoord().getY()),
+            new Coordinate(link.getToNode().getCoord().getX(), link.getToNode().getCoord().getY())};
+      }
+      linkCoordinates.add(coordinates);
+      numberOfLinkCoordinates = Math.addExact(numberOfLinkCoordinates, coordinates.length);
+
+      double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+      for(Coordinate coordinate : coordinates) {
+        box[0] = Math.min(box[0], coordinate.x);
+        box[1] = Math.min(box[1], coordinate.y);
+        box[2] = Math.max(box[2], coordinate.x);
+        box[3] = Math.max(box[3], coordinate.y);
+      }
+      System.arraycopy(box, 0, linkBoxes, 4 * linkIndex, 4);
+    }
+
+    try(var writer = new BinaryFileWriter(indexFile)){
+      writer.writeLong(SpatialIndex.MAGIC);
+      writer.writeInt(SpatialIndex.VERSION);
+      writer.writeInt(nodes.size());
+      writer.writeInt(links.size());
+      writer.writeInt(numberOfLinkCoordinates);
+      writer.writeLong(0);
+
+      for(Node node : nodes) {
+        writer.writeDouble(node.getCoord().getX());
+        writer.writeDouble(node.getCoord().getY());
+      }
+      int offset = 0;
+      writer.writeInt(offset);
+      for(Coordinate[] coordinates : linkCoordinates) {
+        offset += coordinates.length;
+        writer.writeInt(offset);
+      }
+      writer.endSection();
+      for(Coordinate[] coordinates : linkCoordinates) {
+        for(Coordinate coordinate : coordinates) {
+          writer.writeDouble(coordinate.x);
+          writer.writeDouble(coordinate.y);
+        }
+      }
+
+      PackedRTree.pack(nodeBoxes, NODE_SIZE).write(writer);
+      PackedRTree.pack(linkBoxes, NODE_SIZE).write(writer);
+
+      List<String> nodeIds = new ArrayList<>(nodes.size());
+      nodes.forEach(node -> nodeIds.add(node.getId().toString()));
+      writer.writeStringTable(nodeIds);
+      List<String> linkIds = new ArrayList<>(links.size());
+      links.forEach(link -> linkIds.add(link.getId().toString()));
+      writer.writeStringTable(linkIds);
+    }catch(IOException | ArithmeticException e) {
+      throw new PlanItException(String.format("Unable to write spatial index to %s", indexFile), e);
+    }
+
+    LOGGER.info(String.format("Persisted spatial index of %d nodes and %d links (%d with detailed geometry) to %s",
+        nodes.size(), links.size(), numberOfDetailedGeometries, indexFile));
+    return (long) nodes.size() + links.size();
+  }
+}
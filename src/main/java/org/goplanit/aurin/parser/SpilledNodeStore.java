@@ -0,0 +1,602 @@
+package org.goplanit.aurin.parser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact store of OSM node coordinates for streaming conversions, spilled to a file rather than held on the heap. Nodes are appended while
+ * reading, after which the store is finished: sorted by id when the input was not (bounded by sorting fixed size runs and merging at most a fixed
+ * number of runs at a time, in multiple passes when there are more) and memory mapped, so lookups by id are a binary search over the mapped file and the heap footprint does not depend on the number of nodes.
+ * A mapped byte of flags per node records how ways reference the node.
+ * <p>
+ * Each node occupies 16 bytes: id (long), longitude and latitude in fixed point with 7 decimals (int, int), matching the precision of OSM.
+ * Ids may be negative, as in files edited with JOSM, and may be duplicated, in which case the first node added with an id is retained.
+ *
+ * @author markr
+ *
+ */
+public class SpilledNodeStore implements AutoCloseable {
+
+  /** flag of a node referenced by a way */
+  public static final int REFERENCED = 1;
+
+  /** flag of a node that starts or ends a link, i.e., the end of a way or a node shared by ways */
+  public static final int LINK_NODE = 2;
+
+  /** largest supported number of nodes sorted in memory per run */
+  public static final int MAX_NODES_PER_RUN = 1 << 20;
+
+  /** bytes per node */
+  private static final int RECORD_SIZE = 16;
+
+  /** fixed point scale of coordinates */
+  private static final double FIXED_POINT_SCALE = 1e7;
+
+  /** largest supported number of runs merged at a time, bounding the merge buffers to this many times {@link #BUFFER_SIZE} */
+  public static final int MAX_RUNS_PER_MERGE = 64;
+
+  /** log2 of the number of nodes per mapped segment */
+  private static final int SEGMENT_SHIFT = 26;
+
+  /** log2 of the number of flags per mapped segment */
+  private static final int FLAG_SEGMENT_SHIFT = 30;
+
+  /** log2 of {@link #MAX_NODES_PER_RUN}, sort keys combine the id with the position in the run in this many low bits */
+  private static final int RUN_SHIFT = 20;
+
+  /** ids must lie within [-ID_LIMIT, ID_LIMIT) to be combined with the position in the run in a sort key */
+  private static final long ID_LIMIT = 1L << (Long.SIZE - 1 - RUN_SHIFT);
+
+  /** size of the buffers used to write, and to read runs while merging */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** file of the node records */
+  private final Path nodeFile;
+
+  /** file of the node flags */
+  private final Path flagFile;
+
+  /** number of nodes sorted in memory per run when the input is not sorted */
+  private final int maxNodesPerRun;
+
+  /** number of runs merged at a time when the input is not sorted */
+  private final int maxRunsPerMerge;
+
+  /** channel appended to until finished */
+  private FileChannel nodeChannel;
+
+  /** buffer of records not yet appended */
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+  /** number of nodes */
+  private long size = 0;
+
+  /** id of the last appended node */
+  private long lastId = Long.MIN_VALUE;
+
+  /** whether nodes were appended in strictly increasing id order */
+  private boolean sorted = true;
+
+  /** mapped node records once finished */
+  private MappedByteBuffer[] nodeSegments;
+
+  /** mapped flags once finished */
+  private MappedByteBuffer[] flagSegments;
+
+  /** Reader of a sorted run while merging
+   */
+  private static class RunReader {
+
+    /** channel to read from */
+    private final FileChannel channel;
+
+    /** buffered records */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** position of the next unbuffered record */
+    private long position;
+
+    /** end of the run */
+    private final long end;
+
+    /**
+     * Constructor
+     *
+     * @param channel to read from
+     * @param start of the run
+     * @param end of the run
+     * @throws IOException thrown if error
+     */
+    RunReader(FileChannel channel, long start, long end) throws IOException {
+      this.channel = channel;
+      this.position = start;
+      this.end = end;
+      buffer.limit(0);
+      fill();
+    }
+
+    /** Buffer the next records when all buffered records are consumed
+     *
+     * @throws IOException thrown if error
+     */
+    private void fill() throws IOException {
+      if(buffer.hasRemaining() || position >= end) {
+        return;
+      }
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      while(buffer.hasRemaining()) {
+        int read = channel.read(buffer, position);
+        if(read < 0) {
+          throw new IOException("Node spill run truncated");
+        }
+        position += read;
+      }
+      buffer.flip();
+    }
+
+    /** Verify if records remain
+     *
+     * @return true when a current record exists
+     */
+    boolean hasCurrent() {
+      return buffer.hasRemaining();
+    }
+
+    /** Id of the current record
+     *
+     * @return id
+     */
+    long currentId() {
+      return buffer.getLong(buffer.position());
+    }
+
+    /** Move the current record to the output and advance
+     *
+     * @param output to move to
+     * @throws IOException thrown if error
+     */
+    void moveTo(ByteBuffer output) throws IOException {
+      output.putLong(buffer.getLong()).putLong(buffer.getLong());
+      fill();
+    }
+
+    /** Skip the current record
+     *
+     * @throws IOException thrown if error
+     */
+    void skip() throws IOException {
+      buffer.position(buffer.position() + RECORD_SIZE);
+      fill();
+    }
+  }
+
+  /** Write the buffered records to a channel
+   *
+   * @param buffer to write
+   * @param channel to write to
+   * @throws IOException thrown if error
+   */
+  private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+    buffer.flip();
+    while(buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** Verify if the current record of a run precedes the current record of another run, by id and for equal ids by run, such that the first of
+   * duplicate ids is merged
+   *
+   * @param readers of the runs
+   * @param run to verify
+   * @param otherRun to compare to
+   * @return true when preceding, false otherwise
+   */
+  private static boolean precedes(RunReader[] readers, int run, int otherRun) {
+    long id = readers[run].currentId();
+    long otherId = readers[otherRun].currentId();
+    return id < otherId || (id == otherId && run < otherRun);
+  }
+
+  /** Restore the heap order after adding a run at the given position
+   *
+   * @param readers of the runs
+   * @param heap of run indices
+   * @param position added to
+   */
+  private static void siftUp(RunReader[] readers, int[] heap, int position) {
+    int run = heap[position];
+    while(position > 0) {
+      int parent = (position - 1) >>> 1;
+      if(!precedes(readers, run, heap[parent])) {
+        break;
+      }
+      heap[position] = heap[parent];
+      position = parent;
+    }
+    heap[position] = run;
+  }
+
+  /** Restore the heap order after the current id of the top run changed
+   *
+   * @param readers of the runs
+   * @param heap of run indices
+   * @param heapSize number of runs in the heap
+   */
+  private static void siftDown(RunReader[] readers, int[] heap, int heapSize) {
+    if(heapSize == 0) {
+      return;
+    }
+    int run = heap[0];
+    int position = 0;
+    while(true) {
+      int child = 2 * position + 1;
+      if(child >= heapSize) {
+        break;
+      }
+      if(child + 1 < heapSize && precedes(readers, heap[child + 1], heap[child])) {
+        ++child;
+      }
+      if(!precedes(readers, heap[child], run)) {
+        break;
+      }
+      heap[position] = heap[child];
+      position = child;
+    }
+    heap[position] = run;
+  }
+
+  /** Merge consecutive sorted runs into a single sorted run appended to the output, keeping the first of duplicate ids
+   *
+   * @param runs channel holding the runs
+   * @param runOffsets start of each run in bytes, followed by the end of the last run
+   * @param firstRun first run to merge
+   * @param endRun run following the last run to merge
+   * @param output to append the merged run to
+   * @return number of merged nodes
+   * @throws IOException thrown if error
+   */
+  private static long mergeRuns(FileChannel runs, long[] runOffsets, int firstRun, int endRun, FileChannel output) throws IOException {
+    int numberOfRuns = endRun - firstRun;
+    RunReader[] readers = new RunReader[numberOfRuns];
+    for(int runIndex = 0; runIndex < numberOfRuns; ++runIndex) {
+      readers[runIndex] = new RunReader(runs, runOffsets[firstRun + runIndex], runOffsets[firstRun + runIndex + 1]);
+    }
+    /* binary heap of the runs with records remaining, ordered by their current id */
+    int[] heap = new int[numberOfRuns];
+    int heapSize = 0;
+    for(int runIndex = 0; runIndex < numberOfRuns; ++runIndex) {
+      if(readers[runIndex].hasCurrent()) {
+        heap[heapSize] = runIndex;
+        siftUp(readers, heap, heapSize++);
+      }
+    }
+    ByteBuffer merged = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    long mergedSize = 0;
+    long previousId = Long.MIN_VALUE;
+    while(heapSize > 0) {
+      RunReader next = readers[heap[0]];
+      if(next.currentId() != previousId) {
+        previousId = next.currentId();
+        if(!merged.hasRemaining()) {
+          drain(merged, output);
+        }
+        next.moveTo(merged);
+        ++mergedSize;
+      }else {
+        next.skip();
+      }
+      if(!next.hasCurrent()) {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(readers, heap, heapSize);
+    }
+    drain(merged, output);
+    return mergedSize;
+  }
+
+  /** Sort the node file by id, dropping duplicate ids, by sorting runs of nodes in memory and merging the runs, at most
+   * {@link #maxRunsPerMerge} at a time such that the merge buffers do not grow with the number of runs. When there are more runs, consecutive
+   * runs are merged into longer runs in intermediate passes until they can be merged at once
+   *
+   * @throws IOException thrown if error
+   */
+  private void sortNodeFile() throws IOException {
+    Path runFile = nodeFile.resolveSibling(nodeFile.getFileName() + ".runs");
+    Path passFile = nodeFile.resolveSibling(nodeFile.getFileName() + ".pass");
+    int runSize = (int) Math.min(maxNodesPerRun, size);
+    int numberOfRuns = (int) ((size + runSize - 1) / runSize);
+    long[] runOffsets = new long[numberOfRuns + 1];
+    long[] keys = new long[runSize];
+    ByteBuffer run = ByteBuffer.allocate(runSize * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer sortedRun = ByteBuffer.allocate(runSize * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    try(var input = FileChannel.open(nodeFile, StandardOpenOption.READ);
+        var output = FileChannel.open(runFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+      for(int runIndex = 0; runIndex < numberOfRuns; ++runIndex) {
+        run.clear();
+        run.limit((int) Math.min(runSize, size - (long) runIndex * runSize) * RECORD_SIZE);
+        while(run.hasRemaining()) {
+          if(input.read(run) < 0) {
+            throw new IOException(String.format("Node spill file %s truncated", nodeFile));
+          }
+        }
+        /* sort keys combining (signed) id and position within the run, such that the first of duplicate ids precedes */
+        int records = run.limit() / RECORD_SIZE;
+        for(int record = 0; record < records; ++record) {
+          long id = run.getLong(record * RECORD_SIZE);
+          if(id < -ID_LIMIT || id >= ID_LIMIT) {
+            throw new IOException(String.format("Node id %d out of range for sorting", id));
+          }
+          keys[record] = (id << RUN_SHIFT) | record;
+        }
+        Arrays.sort(keys, 0, records);
+        sortedRun.clear();
+        for(int record = 0; record < records; ++record) {
+          int source = (int) (keys[record] & ((1 << RUN_SHIFT) - 1)) * RECORD_SIZE;
+          sortedRun.putLong(run.getLong(source)).putLong(run.getLong(source + Long.BYTES));
+        }
+        sortedRun.flip();
+        while(sortedRun.hasRemaining()) {
+          output.write(sortedRun);
+        }
+        runOffsets[runIndex + 1] = runOffsets[runIndex] + (long) records * RECORD_SIZE;
+      }
+    }catch(IOException e) {
+      Files.deleteIfExists(runFile);
+      throw e;
+    }
+    /* release the run buffers before merging */
+    keys = null;
+    run = null;
+    sortedRun = null;
+
+    try {
+      /* intermediate passes merging consecutive runs, preserving the order of duplicate ids across runs */
+      while(numberOfRuns > maxRunsPerMerge) {
+        long[] passOffsets = new long[(numberOfRuns + maxRunsPerMerge - 1) / maxRunsPerMerge + 1];
+        try(var runs = FileChannel.open(runFile, StandardOpenOption.READ);
+            var output = FileChannel.open(passFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+          for(int passRun = 0; passRun < passOffsets.length - 1; ++passRun) {
+            int firstRun = passRun * maxRunsPerMerge;
+            long mergedSize = mergeRuns(runs, runOffsets, firstRun, Math.min(firstRun + maxRunsPerMerge, numberOfRuns), output);
+            passOffsets[passRun + 1] = passOffsets[passRun] + mergedSize * RECORD_SIZE;
+          }
+        }
+        Files.move(passFile, runFile, StandardCopyOption.REPLACE_EXISTING);
+        runOffsets = passOffsets;
+        numberOfRuns = passOffsets.length - 1;
+      }
+
+      /* final merge of the remaining runs */
+      try(var runs = FileChannel.open(runFile, StandardOpenOption.READ);
+          var output = FileChannel.open(nodeFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+        size = mergeRuns(runs, runOffsets, 0, numberOfRuns, output);
+      }
+    }finally {
+      Files.deleteIfExists(passFile);
+      Files.deleteIfExists(runFile);
+    }
+  }
+
+  /** Mapped buffer of a node record
+   *
+   * @param index of node
+   * @return segment containing the record
+   */
+  private MappedByteBuffer segment(long index) {
+    return nodeSegments[(int) (index >>> SEGMENT_SHIFT)];
+  }
+
+  /** Offset of a node record within its segment
+   *
+   * @param index of node
+   * @return offset in bytes
+   */
+  private static int offset(long index) {
+    return (int) (index & ((1L << SEGMENT_SHIFT) - 1)) * RECORD_SIZE;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory to spill to
+   * @throws IOException thrown if error
+   */
+  public SpilledNodeStore(final Path directory) throws IOException {
+    this(directory, MAX_NODES_PER_RUN, MAX_RUNS_PER_MERGE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory to spill to
+   * @param maxNodesPerRun number of nodes sorted in memory per run when the input is not sorted, limited to {@link #MAX_NODES_PER_RUN}
+   * @throws IOException thrown if error
+   */
+  public SpilledNodeStore(final Path directory, int maxNodesPerRun) throws IOException {
+    this(directory, maxNodesPerRun, MAX_RUNS_PER_MERGE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory to spill to
+   * @param maxNodesPerRun number of nodes sorted in memory per run when the input is not sorted, limited to {@link #MAX_NODES_PER_RUN}
+   * @param maxRunsPerMerge number of runs merged at a time when the input is not sorted, at least 2 and limited to {@link #MAX_RUNS_PER_MERGE}
+   * @throws IOException thrown if error
+   */
+  public SpilledNodeStore(final Path directory, int maxNodesPerRun, int maxRunsPerMerge) throws IOException {
+    this.maxNodesPerRun = Math.max(1, Math.min(maxNodesPerRun, MAX_NODES_PER_RUN));
+    this.maxRunsPerMerge = Math.max(2, Math.min(maxRunsPerMerge, MAX_RUNS_PER_MERGE));
+    Files.createDirectories(directory);
+    this.nodeFile = directory.resolve("nodes.bin");
+    this.flagFile = directory.resolve("nodes.flags");
+    this.nodeChannel = FileChannel.open(nodeFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /** Append a node
+   *
+   * @param id of the node
+   * @param longitude of the node
+   * @param latitude of the node
+   * @throws IOException thrown if error
+   */
+  public void add(long id, double longitude, double latitude) throws IOException {
+    if(nodeChannel == null) {
+      throw new IOException("Node store finished, nodes can no longer be added");
+    }
+    if(!writeBuffer.hasRemaining()) {
+      drain(writeBuffer, nodeChannel);
+    }
+    writeBuffer.putLong(id);
+    writeBuffer.putInt((int) Math.round(longitude * FIXED_POINT_SCALE));
+    writeBuffer.putInt((int) Math.round(latitude * FIXED_POINT_SCALE));
+    sorted &= id > lastId;
+    lastId = id;
+    ++size;
+  }
+
+  /** Verify if finished
+   *
+   * @return true when finished, false when nodes can still be added
+   */
+  public boolean isFinished() {
+    return nodeChannel == null;
+  }
+
+  /** Finish adding nodes, sorting and mapping the store
+   *
+   * @throws IOException thrown if error
+   */
+  public void finish() throws IOException {
+    if(isFinished()) {
+      return;
+    }
+    drain(writeBuffer, nodeChannel);
+    nodeChannel.close();
+    nodeChannel = null;
+    if(!sorted) {
+      sortNodeFile();
+    }
+
+    try(var channel = FileChannel.open(nodeFile, StandardOpenOption.READ)){
+      nodeSegments = new MappedByteBuffer[(int) ((size + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+      for(int segment = 0; segment < nodeSegments.length; ++segment) {
+        long start = ((long) segment << SEGMENT_SHIFT) * RECORD_SIZE;
+        nodeSegments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size * RECORD_SIZE - start, (1L << SEGMENT_SHIFT) * RECORD_SIZE));
+        nodeSegments[segment].order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    try(var file = new RandomAccessFile(flagFile.toFile(), "rw")){
+      file.setLength(size);
+      flagSegments = new MappedByteBuffer[(int) ((size + (1L << FLAG_SEGMENT_SHIFT) - 1) >>> FLAG_SEGMENT_SHIFT)];
+      for(int segment = 0; segment < flagSegments.length; ++segment) {
+        long start = (long) segment << FLAG_SEGMENT_SHIFT;
+        flagSegments[segment] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start, Math.min(size - start, 1L << FLAG_SEGMENT_SHIFT));
+      }
+    }
+  }
+
+  /** Number of nodes, after finishing excluding duplicates
+   *
+   * @return number of nodes
+   */
+  public long size() {
+    return size;
+  }
+
+  /** Index of a node, only available once finished
+   *
+   * @param id of the node
+   * @return index, -1 when absent
+   */
+  public long indexOf(long id) {
+    long low = 0;
+    long high = size - 1;
+    while(low <= high) {
+      long middle = (low + high) >>> 1;
+      long middleId = getId(middle);
+      if(middleId < id) {
+        low = middle + 1;
+      }else if(middleId > id) {
+        high = middle - 1;
+      }else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /** Id of a node
+   *
+   * @param index of node
+   * @return id
+   */
+  public long getId(long index) {
+    return segment(index).getLong(offset(index));
+  }
+
+  /** Longitude of a node
+   *
+   * @param index of node
+   * @return longitude
+   */
+  public double getLongitude(long index) {
+    return segment(index).getInt(offset(index) + Long.BYTES) / FIXED_POINT_SCALE;
+  }
+
+  /** Latitude of a node
+   *
+   * @param index of node
+   * @return latitude
+   */
+  public double getLatitude(long index) {
+    return segment(index).getInt(offset(index) + Long.BYTES + Integer.BYTES) / FIXED_POINT_SCALE;
+  }
+
+  /** Flags of a node
+   *
+   * @param index of node
+   * @return flags
+   */
+  public int getFlags(long index) {
+    return flagSegments[(int) (index >>> FLAG_SEGMENT_SHIFT)].get((int) (index & ((1L << FLAG_SEGMENT_SHIFT) - 1)));
+  }
+
+  /** Add flags to a node
+   *
+   * @param index of node
+   * @param flags to add
+   */
+  public void addFlags(long index, int flags) {
+    MappedByteBuffer segment = flagSegments[(int) (index >>> FLAG_SEGMENT_SHIFT)];
+    int offset = (int) (index & ((1L << FLAG_SEGMENT_SHIFT) - 1));
+    segment.put(offset, (byte) (segment.get(offset) | flags));
+  }
+
+  /** Release the store and remove its files
+   *
+   * @throws IOException thrown if error
+   */
+  @Override
+  public void close() throws IOException {
+    if(nodeChannel != null) {
+      nodeChannel.close();
+      nodeChannel = null;
+    }
+    nodeSegments = null;
+    flagSegments = null;
+    Files.deleteIfExists(nodeFile);
+    Files.deleteIfExists(flagFile);
+  }
+}
@@ -0,0 +1,647 @@
+package org.goplanit.aurin.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.goplanit.osm.tags.OsmHighwayTags;
+import org.goplanit.osm.tags.OsmRoadModeTags;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.osm4j.core.access.OsmHandler;
+import de.topobyte.osm4j.core.access.OsmInputException;
+import de.topobyte.osm4j.core.access.OsmReader;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmTag;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.pbf.seq.PbfReader;
+import de.topobyte.osm4j.xml.dynsax.OsmXmlReader;
+
+/**
+ * Network-only conversion of an OSM input to a MATSim network in a single streaming pass, with a heap footprint that does not depend on the size
+ * of the input. Rather than building the entire PLANit network in memory before writing it, nodes are spilled to a memory mapped
+ * {@link SpilledNodeStore} and ways of activated highway types, classified via the {@link OsmNetworkLookupTables} of the run, are resolved
+ * against it and spilled to a file. Once the input is consumed, the nodes that start or end a link (way ends and nodes shared by ways) and the
+ * links, i.e., ways split at those nodes in each permitted direction, are written by the incremental {@link MatsimNetworkXmlWriter}.
+ * <p>
+ * Only highways are converted, of the types in {@link OsmNetworkReaderConfigurationHelper#FINE_OSM_HIGHWAY_TYPES} to which every fidelity
+ * restricts the activated types, railways are not. OSM mode motorcar maps to MATSim mode "car", bus to "pt", activating any other (road or
+ * rail) mode is rejected. Links receive the highway type defaults of the lookup tables, refined by the oneway, maxspeed and lanes tags of their
+ * way. The access, vehicle, motor_vehicle and motorcar tags (car), respectively the access, vehicle, motor_vehicle, psv and bus tags (pt) of a
+ * way, the most specific present tag taking precedence, can deny, but not add, modes allowed by its highway type. Other tags interpreted by the PLANit reader (service types, conditional restrictions, turn lanes etc.) are not.
+ * Coordinates are written in WGS84 (x is longitude, y is latitude), recorded in the coordinateReferenceSystem attribute of the network, and
+ * lengths are great circle distances in meters. All nodes must precede all ways in the input, as is the case for OSM files, but need not be
+ * sorted by id.
+ *
+ * @author markr
+ *
+ */
+public class StreamingNetworkConverter {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(StreamingNetworkConverter.class.getCanonicalName());
+
+  /** MATSim mode of road modes */
+  public static final String MATSIM_CAR_MODE = "car";
+
+  /** MATSim mode of public transport modes */
+  public static final String MATSIM_PT_MODE = "pt";
+
+  /** coordinate reference system of the written network */
+  public static final String COORDINATE_REFERENCE_SYSTEM = "EPSG:4326";
+
+  /** network attribute holding the coordinate reference system, as read by MATSim */
+  private static final String COORDINATE_REFERENCE_SYSTEM_ATTRIBUTE = "coordinateReferenceSystem";
+
+  /** bit of MATSim mode car in a mode mask */
+  private static final int CAR_MODE_BIT = 1;
+
+  /** bit of MATSim mode pt in a mode mask */
+  private static final int PT_MODE_BIT = 2;
+
+  /** MATSim modes by mode mask */
+  private static final List<Set<String>> MATSIM_MODES_BY_MASK = List.of(
+      Set.of(), Set.of(MATSIM_CAR_MODE), Set.of(MATSIM_PT_MODE), new TreeSet<>(Set.of(MATSIM_CAR_MODE, MATSIM_PT_MODE)));
+
+  /** access tag values denying access, all others grant access */
+  private static final Set<String> ACCESS_DENIED_VALUES = Set.of("no", "private", "agricultural", "forestry", "emergency", "military");
+
+  /** mean earth radius in meters */
+  private static final double EARTH_RADIUS = 6371008.8;
+
+  /** capacity period of the written links in seconds, capacities are per hour */
+  private static final double CAPACITY_PERIOD = 3600;
+
+  /** MATSim default effective cell size in meters */
+  private static final double EFFECTIVE_CELL_SIZE = 7.5;
+
+  /** MATSim default effective lane width in meters */
+  private static final double EFFECTIVE_LANE_WIDTH = 3.75;
+
+  /** attribute of a link holding the OSM way it originates from */
+  private static final String ORIGID_ATTRIBUTE = "origid";
+
+  /** way may be traversed in both directions */
+  private static final byte DIRECTION_BOTH = 0;
+
+  /** way may only be traversed in the direction of its nodes */
+  private static final byte DIRECTION_FORWARD = 1;
+
+  /** way may only be traversed against the direction of its nodes */
+  private static final byte DIRECTION_BACKWARD = -1;
+
+  /** number of entities between verifying if the conversion is interrupted */
+  private static final int INTERRUPT_CHECK_INTERVAL = 1 << 16;
+
+  /** lookup tables of the run */
+  private final OsmNetworkLookupTables lookupTables;
+
+  /** bounding box (x is longitude, y is latitude) nodes must lie within, null when unrestricted */
+  private final Envelope boundingBox;
+
+  /** MATSim mode mask by highway type code */
+  private final int[] matsimModeMaskByHighwayType;
+
+  /** number of entities read and links written so far */
+  private volatile long entitiesProcessed = 0;
+
+  /** number of nodes written */
+  private long numberOfNodesWritten = 0;
+
+  /** number of links written */
+  private long numberOfLinksWritten = 0;
+
+  /**
+   * Handler spilling the nodes and the ways of activated highway types of the input
+   */
+  private class SpillingHandler implements OsmHandler {
+
+    /** node store to spill to */
+    private final SpilledNodeStore nodeStore;
+
+    /** way spill file to write to */
+    private final DataOutputStream wayOutput;
+
+    /** node indices of the current way, reused */
+    private long[] wayNodeIndices = new long[256];
+
+    /** number of ways spilled */
+    private long numberOfWays = 0;
+
+    /** Verify if the conversion is interrupted, at regular intervals
+     *
+     * @throws InterruptedIOException thrown if interrupted
+     */
+    private void throwIfInterrupted() throws InterruptedIOException {
+      if((++entitiesProcessed % INTERRUPT_CHECK_INTERVAL) == 0 && Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException("Streaming conversion interrupted");
+      }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param nodeStore to spill nodes to
+     * @param wayOutput to spill ways to
+     */
+    SpillingHandler(SpilledNodeStore nodeStore, DataOutputStream wayOutput) {
+      this.nodeStore = nodeStore;
+      this.wayOutput = wayOutput;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmBounds bounds) throws IOException {
+      /* not used */
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmNode node) throws IOException {
+      throwIfInterrupted();
+      if(nodeStore.isFinished()) {
+        throw new IOException(String.format("Node %d found after ways, streaming requires all nodes to precede all ways in the input", node.getId()));
+      }
+      if(boundingBox == null || boundingBox.contains(node.getLongitude(), node.getLatitude())) {
+        nodeStore.add(node.getId(), node.getLongitude(), node.getLatitude());
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmWay way) throws IOException {
+      throwIfInterrupted();
+      nodeStore.finish();
+
+      String highwayType = null;
+      String oneway = null;
+      String maxspeed = null;
+      String lanes = null;
+      boolean roundabout = false;
+      String access = null;
+      String vehicle = null;
+      String motorVehicle = null;
+      String motorcar = null;
+      String psv = null;
+      String bus = null;
+      for(int tagIndex = 0; tagIndex < way.getNumberOfTags(); ++tagIndex) {
+        OsmTag tag = way.getTag(tagIndex);
+        switch (tag.getKey()) {
+          case "highway": highwayType = tag.getValue(); break;
+          case "oneway": oneway = tag.getValue(); break;
+          case "maxspeed": maxspeed = tag.getValue(); break;
+          case "lanes": lanes = tag.getValue(); break;
+          case "junction": roundabout = "roundabout".equals(tag.getValue()); break;
+          case "access": access = tag.getValue(); break;
+          case "vehicle": vehicle = tag.getValue(); break;
+          case "motor_vehicle": motorVehicle = tag.getValue(); break;
+          case "motorcar": motorcar = tag.getValue(); break;
+          case "psv": psv = tag.getValue(); break;
+          case "bus": bus = tag.getValue(); break;
+          case "area":
+            if("yes".equals(tag.getValue())) {
+              return;
+            }
+            break;
+          default:
+        }
+      }
+      int highwayTypeCode = lookupTables.classifyHighwayType(highwayType);
+      if(highwayTypeCode == OsmNetworkLookupTables.UNKNOWN) {
+        return;
+      }
+      int modeMask = matsimModeMaskByHighwayType[highwayTypeCode];
+      if(isAccessDenied(motorcar, motorVehicle, vehicle, access)) {
+        modeMask &= ~CAR_MODE_BIT;
+      }
+      if(isAccessDenied(bus, psv, motorVehicle, vehicle, access)) {
+        modeMask &= ~PT_MODE_BIT;
+      }
+      if(modeMask == 0) {
+        return;
+      }
+
+      /* resolve nodes, -1 for nodes absent from the store (outside the extract or bounding box), dropping repeated consecutive nodes */
+      int numberOfNodes = 0;
+      if(wayNodeIndices.length < way.getNumberOfNodes()) {
+        wayNodeIndices = new long[way.getNumberOfNodes()];
+      }
+      for(int position = 0; position < way.getNumberOfNodes(); ++position) {
+        long nodeIndex = nodeStore.indexOf(way.getNodeId(position));
+        if(numberOfNodes == 0 || nodeIndex != wayNodeIndices[numberOfNodes - 1] || nodeIndex < 0) {
+          wayNodeIndices[numberOfNodes++] = nodeIndex;
+        }
+      }
+
+      /* ends of the way and of each resolved part are link nodes, as are nodes referenced more than once */
+      for(int position = 0; position < numberOfNodes; ++position) {
+        long nodeIndex = wayNodeIndices[position];
+        if(nodeIndex < 0) {
+          continue;
+        }
+        boolean end = position == 0 || position == numberOfNodes - 1 || wayNodeIndices[position - 1] < 0 || wayNodeIndices[position + 1] < 0;
+        boolean shared = (nodeStore.getFlags(nodeIndex) & SpilledNodeStore.REFERENCED) != 0;
+        nodeStore.addFlags(nodeIndex, SpilledNodeStore.REFERENCED | (end || shared ? SpilledNodeStore.LINK_NODE : 0));
+      }
+      /* closed ways are split halfway, such that they do not result in links from a node to itself */
+      if(numberOfNodes > 2 && wayNodeIndices[0] >= 0 && wayNodeIndices[0] == wayNodeIndices[numberOfNodes - 1] && wayNodeIndices[numberOfNodes / 2] >= 0) {
+        nodeStore.addFlags(wayNodeIndices[numberOfNodes / 2], SpilledNodeStore.LINK_NODE);
+      }
+
+      byte direction = parseDirection(oneway, roundabout || OsmHighwayTags.MOTORWAY.equals(highwayType));
+      double speedLimitKmh = parseSpeedLimitKmh(maxspeed, lookupTables.getDefaultSpeedLimitKmh(highwayTypeCode));
+      double directionalLanes = lookupTables.getDefaultDirectionalLanes(highwayTypeCode);
+      if(lanes != null) {
+        try {
+          double totalLanes = Double.parseDouble(lanes.trim());
+          if(totalLanes > 0) {
+            directionalLanes = direction == DIRECTION_BOTH ? Math.max(1, totalLanes / 2) : totalLanes;
+          }
+        }catch(NumberFormatException e) {
+          /* default applies */
+        }
+      }
+
+      wayOutput.writeLong(way.getId());
+      wayOutput.writeByte(highwayTypeCode);
+      wayOutput.writeByte(modeMask);
+      wayOutput.writeByte(direction);
+      wayOutput.writeDouble(speedLimitKmh);
+      wayOutput.writeDouble(directionalLanes);
+      wayOutput.writeInt(numberOfNodes);
+      for(int position = 0; position < numberOfNodes; ++position) {
+        wayOutput.writeLong(wayNodeIndices[position]);
+      }
+      ++numberOfWays;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(OsmRelation relation) throws IOException {
+      throwIfInterrupted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void complete() throws IOException {
+      nodeStore.finish();
+    }
+  }
+
+  /** Bit of the MATSim mode of an OSM mode in a mode mask, only motorcar (car) and bus (pt) are supported since the access tags of a way are
+   * only interpreted for these modes
+   *
+   * @param osmMode to map
+   * @return MATSim mode bit, 0 when unsupported
+   */
+  private static int toMatsimModeBit(String osmMode) {
+    if(OsmRoadModeTags.MOTOR_CAR.equals(osmMode)) {
+      return CAR_MODE_BIT;
+    }
+    return OsmRoadModeTags.BUS.equals(osmMode) ? PT_MODE_BIT : 0;
+  }
+
+  /** Verify if access is denied by the most specific access tag present
+   *
+   * @param accessValues values of the access tags applicable to a mode, most specific first, absent tags are null
+   * @return true when the most specific present tag denies access, false otherwise (including when none is present)
+   */
+  private static boolean isAccessDenied(String... accessValues) {
+    for(String accessValue : accessValues) {
+      if(accessValue != null) {
+        return ACCESS_DENIED_VALUES.contains(accessValue.trim());
+      }
+    }
+    return false;
+  }
+
+  /** Parse the direction(s) a way may be traversed in
+   *
+   * @param oneway value of the oneway tag, may be null
+   * @param impliedOneway whether the way is oneway unless tagged otherwise (motorways, roundabouts)
+   * @return direction
+   */
+  private static byte parseDirection(String oneway, boolean impliedOneway) {
+    if(oneway == null) {
+      return impliedOneway ? DIRECTION_FORWARD : DIRECTION_BOTH;
+    }
+    switch (oneway) {
+      case "yes":
+      case "true":
+      case "1":
+        return DIRECTION_FORWARD;
+      case "-1":
+      case "reverse":
+        return DIRECTION_BACKWARD;
+      case "no":
+      case "false":
+      case "0":
+        return DIRECTION_BOTH;
+      default:
+        return impliedOneway ? DIRECTION_FORWARD : DIRECTION_BOTH;
+    }
+  }
+
+  /** Parse the speed limit of a way, e.g., "50", "30 mph", "50;70" (first applies)
+   *
+   * @param maxspeed value of the maxspeed tag, may be null
+   * @param defaultSpeedLimitKmh to use when absent or not numeric (e.g. "none", "signals")
+   * @return speed limit in km/h
+   */
+  private static double parseSpeedLimitKmh(String maxspeed, double defaultSpeedLimitKmh) {
+    if(maxspeed == null) {
+      return defaultSpeedLimitKmh;
+    }
+    String value = maxspeed.split(";")[0].trim();
+    double factor = 1;
+    if(value.endsWith("mph")) {
+      factor = 1.609344;
+      value = value.substring(0, value.length() - 3).trim();
+    }else if(value.endsWith("km/h")) {
+      value = value.substring(0, value.length() - 4).trim();
+    }
+    try {
+      double speedLimit = Double.parseDouble(value) * factor;
+      return speedLimit > 0 ? speedLimit : defaultSpeedLimitKmh;
+    }catch(NumberFormatException e) {
+      return defaultSpeedLimitKmh;
+    }
+  }
+
+  /** Great circle distance between two nodes
+   *
+   * @param nodeStore containing the nodes
+   * @param from node index
+   * @param to node index
+   * @return distance in meters
+   */
+  private static double distance(SpilledNodeStore nodeStore, long from, long to) {
+    double fromLatitude = Math.toRadians(nodeStore.getLatitude(from));
+    double toLatitude = Math.toRadians(nodeStore.getLatitude(to));
+    double sinHalfLatitude = Math.sin((toLatitude - fromLatitude) / 2);
+    double sinHalfLongitude = Math.sin(Math.toRadians(nodeStore.getLongitude(to) - nodeStore.getLongitude(from)) / 2);
+    double haversine = sinHalfLatitude * sinHalfLatitude + Math.cos(fromLatitude) * Math.cos(toLatitude) * sinHalfLongitude * sinHalfLongitude;
+    return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(haversine)));
+  }
+
+  /** Create the reader of an input, PBF when the location ends with ".pbf", OSM XML otherwise
+   *
+   * @param inputSource location of the input
+   * @param input stream of the input
+   * @return reader
+   */
+  static OsmReader createReader(URL inputSource, InputStream input) {
+    if(inputSource.getPath().toLowerCase().endsWith(".pbf")) {
+      return new PbfReader(input, false);
+    }
+    return new OsmXmlReader(input, false);
+  }
+
+  /** Write the links of a way, i.e., its parts between link nodes in each permitted direction
+   *
+   * @param nodeStore to resolve nodes with
+   * @param wayInput to read the way from
+   * @param wayNodeIndices buffer of node indices, may be replaced when too small
+   * @param writer to write links to
+   * @param geometryWriter to write link geometries to, may be null
+   * @return buffer of node indices
+   * @throws IOException thrown if error
+   */
+  private long[] writeWayLinks(SpilledNodeStore nodeStore, DataInputStream wayInput, long[] wayNodeIndices, MatsimNetworkXmlWriter writer,
+      BufferedWriter geometryWriter) throws IOException {
+    long wayId = wayInput.readLong();
+    int highwayTypeCode = wayInput.readByte();
+    int modeMask = wayInput.readByte();
+    byte direction = wayInput.readByte();
+    double freespeed = wayInput.readDouble() / 3.6;
+    double directionalLanes = wayInput.readDouble();
+    int numberOfNodes = wayInput.readInt();
+    if(wayNodeIndices.length < numberOfNodes) {
+      wayNodeIndices = new long[numberOfNodes];
+    }
+    for(int position = 0; position < numberOfNodes; ++position) {
+      wayNodeIndices[position] = wayInput.readLong();
+    }
+
+    double capacity = directionalLanes * lookupTables.getDefaultCapacityPerLane(highwayTypeCode);
+    Set<String> modes = MATSIM_MODES_BY_MASK.get(modeMask);
+    Map<String, Object> attributes = Map.of(ORIGID_ATTRIBUTE, String.valueOf(wayId));
+    int start = -1;
+    double length = 0;
+    for(int position = 0; position < numberOfNodes; ++position) {
+      long nodeIndex = wayNodeIndices[position];
+      if(nodeIndex < 0) {
+        start = -1;
+        continue;
+      }
+      if(start < 0) {
+        start = position;
+        length = 0;
+        continue;
+      }
+      length += distance(nodeStore, wayNodeIndices[position - 1], nodeIndex);
+      if((nodeStore.getFlags(nodeIndex) & SpilledNodeStore.LINK_NODE) == 0) {
+        continue;
+      }
+
+      String fromNodeId = Long.toString(nodeStore.getId(wayNodeIndices[start]));
+      String toNodeId = Long.toString(nodeStore.getId(nodeIndex));
+      if(!fromNodeId.equals(toNodeId)) {
+        if(direction != DIRECTION_BACKWARD) {
+          String linkId = Long.toString(numberOfLinksWritten++);
+          writer.writeLink(linkId, fromNodeId, toNodeId, length, freespeed, capacity, directionalLanes, modes, attributes);
+          writeGeometry(nodeStore, wayNodeIndices, start, position, linkId, geometryWriter);
+        }
+        if(direction != DIRECTION_FORWARD) {
+          String linkId = Long.toString(numberOfLinksWritten++);
+          writer.writeLink(linkId, toNodeId, fromNodeId, length, freespeed, capacity, directionalLanes, modes, attributes);
+          writeGeometry(nodeStore, wayNodeIndices, position, start, linkId, geometryWriter);
+        }
+      }
+      start = position;
+      length = 0;
+    }
+    return wayNodeIndices;
+  }
+
+  /** Write the geometry of a link as WKT line string
+   *
+   * @param nodeStore to resolve nodes with
+   * @param wayNodeIndices node indices of the way
+   * @param from first position of the link in the way
+   * @param to last position of the link in the way, before first when against the direction of the way
+   * @param linkId of the link
+   * @param geometryWriter to write to, may be null
+   * @throws IOException thrown if error
+   */
+  private static void writeGeometry(SpilledNodeStore nodeStore, long[] wayNodeIndices, int from, int to, String linkId,
+      BufferedWriter geometryWriter) throws IOException {
+    if(geometryWriter == null) {
+      return;
+    }
+    geometryWriter.write(linkId);
+    geometryWriter.write("\tLINESTRING (");
+    int step = to >= from ? 1 : -1;
+    for(int position = from;; position += step) {
+      geometryWriter.write(Double.toString(nodeStore.getLongitude(wayNodeIndices[position])));
+      geometryWriter.write(' ');
+      geometryWriter.write(Double.toString(nodeStore.getLatitude(wayNodeIndices[position])));
+      if(position == to) {
+        break;
+      }
+      geometryWriter.write(", ");
+    }
+    geometryWriter.write(')');
+    geometryWriter.newLine();
+  }
+
+  /**
+   * Constructor
+   *
+   * @param lookupTables compiled for the run
+   * @param boundingBox nodes must lie within (x is longitude, y is latitude), may be null
+   * @throws PlanItException thrown if error, or when a mode other than motorcar and bus is activated
+   */
+  public StreamingNetworkConverter(final OsmNetworkLookupTables lookupTables, final Envelope boundingBox) throws PlanItException {
+    PlanItException.throwIfNull(lookupTables, "Lookup tables null");
+    for(int modeCode = 0; modeCode < lookupTables.getNumberOfModes(); ++modeCode) {
+      String osmMode = lookupTables.getMode(modeCode);
+      if(lookupTables.isModeActivated(modeCode) && toMatsimModeBit(osmMode) == 0) {
+        throw new PlanItException("Streaming only supports OSM modes %s and %s, deactivate mode %s (or railways) or run without --streaming",
+            OsmRoadModeTags.MOTOR_CAR, OsmRoadModeTags.BUS, osmMode);
+      }
+    }
+    this.lookupTables = lookupTables;
+    this.boundingBox = boundingBox;
+    this.matsimModeMaskByHighwayType = new int[lookupTables.getNumberOfHighwayTypes()];
+    for(int highwayTypeCode = 0; highwayTypeCode < lookupTables.getNumberOfHighwayTypes(); ++highwayTypeCode) {
+      long allowedModes = lookupTables.isHighwayTypeActivated(highwayTypeCode) ? lookupTables.getAllowedModes(highwayTypeCode) : 0;
+      for(int modeCode = 0; modeCode < lookupTables.getNumberOfModes(); ++modeCode) {
+        if((allowedModes & (1L << modeCode)) != 0) {
+          matsimModeMaskByHighwayType[highwayTypeCode] |= toMatsimModeBit(lookupTables.getMode(modeCode));
+        }
+      }
+    }
+  }
+
+  /** Convert the input to a MATSim network (and detailed geometry file)
+   *
+   * @param inputSource to read
+   * @param spillDirectory to spill nodes and ways to, removed afterwards
+   * @param networkFile to write the MATSim network to
+   * @param geometryFile to write the detailed link geometry to, may be null
+   * @throws PlanItException thrown if error
+   */
+  public void convert(final URL inputSource, final Path spillDirectory, final Path networkFile, final Path geometryFile) throws PlanItException {
+    PlanItException.throwIfNull(inputSource, "Input source null");
+    PlanItException.throwIfNull(spillDirectory, "Spill directory null");
+    PlanItException.throwIfNull(networkFile, "Network file null");
+
+    Path wayFile = spillDirectory.resolve("ways.bin");
+    try(var nodeStore = new SpilledNodeStore(spillDirectory)){
+
+      /* single pass over the input, spilling nodes and ways */
+      long numberOfWays;
+      try(var wayOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(wayFile), 1 << 16));
+          InputStream input = new BufferedInputStream(inputSource.openStream(), 1 << 16)){
+        var handler = new SpillingHandler(nodeStore, wayOutput);
+        OsmReader reader = createReader(inputSource, input);
+        reader.setHandler(handler);
+        reader.read();
+        numberOfWays = handler.numberOfWays;
+      }
+      LOGGER.info(String.format("Spilled %d nodes and %d ways of activated highway types from %s", nodeStore.size(), numberOfWays, inputSource));
+
+      /* link nodes in store order, then links way by way */
+      try(var writer = new MatsimNetworkXmlWriter(networkFile, null, Map.of(COORDINATE_REFERENCE_SYSTEM_ATTRIBUTE, COORDINATE_REFERENCE_SYSTEM));
+          BufferedWriter geometryWriter = geometryFile != null ? Files.newBufferedWriter(geometryFile, StandardCharsets.UTF_8) : null;
+          var wayInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(wayFile), 1 << 16))){
+        writer.startNodes();
+        for(long nodeIndex = 0; nodeIndex < nodeStore.size(); ++nodeIndex) {
+          if((nodeStore.getFlags(nodeIndex) & SpilledNodeStore.LINK_NODE) != 0) {
+            writer.writeNode(Long.toString(nodeStore.getId(nodeIndex)), nodeStore.getLongitude(nodeIndex), nodeStore.getLatitude(nodeIndex), null);
+            ++numberOfNodesWritten;
+          }
+        }
+        writer.endNodes();
+
+        writer.startLinks(CAPACITY_PERIOD, EFFECTIVE_CELL_SIZE, EFFECTIVE_LANE_WIDTH);
+        if(geometryWriter != null) {
+          geometryWriter.write("Id\tGeometry");
+          geometryWriter.newLine();
+        }
+        long[] wayNodeIndices = new long[256];
+        for(long way = 0; way < numberOfWays; ++way) {
+          if((++entitiesProcessed % INTERRUPT_CHECK_INTERVAL) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Streaming conversion interrupted");
+          }
+          wayNodeIndices = writeWayLinks(nodeStore, wayInput, wayNodeIndices, writer, geometryWriter);
+        }
+        writer.endLinks();
+      }
+    }catch(IOException | OsmInputException e) {
+      throw new PlanItException(String.format("Unable to stream %s to MATSim network %s", inputSource, networkFile), e);
+    }finally {
+      try {
+        Files.deleteIfExists(wayFile);
+        Files.deleteIfExists(spillDirectory);
+      }catch(IOException e) {
+        LOGGER.warning(String.format("Unable to remove spill directory %s", spillDirectory));
+      }
+    }
+
+    LOGGER.info(String.format("Streamed MATSim network with %d nodes and %d links to %s", numberOfNodesWritten, numberOfLinksWritten, networkFile));
+  }
+
+  /** Number of entities read and links written so far, may be polled concurrently
+   *
+   * @return number of entities processed
+   */
+  public long getNumberOfEntitiesProcessed() {
+    return entitiesProcessed;
+  }
+
+  /** Number of nodes written
+   *
+   * @return number of nodes
+   */
+  public long getNumberOfNodesWritten() {
+    return numberOfNodesWritten;
+  }
+
+  /** Number of links written
+   *
+   * @return number of links
+   */
+  public long getNumberOfLinksWritten() {
+    return numberOfLinksWritten;
+  }
+}
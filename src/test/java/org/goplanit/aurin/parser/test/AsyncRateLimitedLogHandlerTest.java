@@ -0,0 +1,154 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.stream.Collectors;
+
+import org.goplanit.aurin.parser.AsyncRateLimitedLogHandler;
+import org.junit.Test;
+
+/**
+ * Test rate limiting warnings per message template and never dropping info (or higher) records when the buffer is full
+ *
+ * @author markr
+ *
+ */
+public class AsyncRateLimitedLogHandlerTest {
+
+  /**
+   * Handler collecting the messages it is passed, waiting for a latch before accepting records
+   */
+  private static class CollectingHandler extends Handler {
+
+    /** collected messages */
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+    /** latch to wait for before accepting records */
+    private final CountDownLatch release;
+
+    /**
+     * Constructor
+     *
+     * @param release latch to wait for before accepting records
+     */
+    private CollectingHandler(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+      try {
+        release.await();
+      }catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      messages.add(record.getMessage());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** Create a record
+   *
+   * @param level of the record
+   * @param message of the record
+   * @return record
+   */
+  private static LogRecord createRecord(Level level, String message) {
+    var record = new LogRecord(level, message);
+    record.setLoggerName(AsyncRateLimitedLogHandlerTest.class.getCanonicalName());
+    return record;
+  }
+
+  /**
+   * Warnings differing only in their numbers share a template, beyond the burst they are suppressed and summarised with their count on flush.
+   * Warnings of other templates and info records are not affected
+   */
+  @Test
+  public void templateSuppressionTest() {
+    var collector = new CollectingHandler(new CountDownLatch(0));
+    var handler = new AsyncRateLimitedLogHandler(List.of(collector), 100, 2, 60);
+    try {
+      for(int index = 0; index < 5; ++index) {
+        handler.publish(createRecord(Level.WARNING, String.format("Link %d has no length of %.1f m", index, index * 1.5)));
+      }
+      handler.publish(createRecord(Level.WARNING, "Node 7 is dangling"));
+      for(int index = 0; index < 5; ++index) {
+        handler.publish(createRecord(Level.INFO, String.format("Parsed %d ways", index)));
+      }
+      handler.flush();
+
+      List<String> messages = new ArrayList<>(collector.messages);
+      assertEquals(2, messages.stream().filter(message -> message.startsWith("Link ")).count());
+      assertTrue(messages.contains("Node 7 is dangling"));
+      assertEquals(5, messages.stream().filter(message -> message.startsWith("Parsed ")).count());
+
+      List<String> summaries = messages.stream().filter(message -> message.contains("similar suppressed")).collect(Collectors.toList());
+      assertEquals(List.of("3 similar suppressed so far: Link # has no length of # m"), summaries);
+
+      /* burst remains used up after flush, a second flush only reports what was suppressed since */
+      handler.publish(createRecord(Level.WARNING, "Link 9 has no length of 0.0 m"));
+      handler.flush();
+      assertEquals("1 similar suppressed so far: Link # has no length of # m", collector.messages.get(collector.messages.size() - 1));
+      handler.flush();
+      assertEquals(summaries.size() + 1, collector.messages.stream().filter(message -> message.contains("similar suppressed")).count());
+    }finally {
+      handler.close();
+    }
+  }
+
+  /**
+   * With a full buffer info records wait for space rather than being dropped, records below info are dropped and reported
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void fullBufferTest() throws Exception {
+    var release = new CountDownLatch(1);
+    var collector = new CollectingHandler(release);
+    var handler = new AsyncRateLimitedLogHandler(List.of(collector), 1, 10, 60);
+    try {
+      /* dispatcher blocks on the first record, the second fills the buffer so the fine record is dropped and the next info record waits */
+      var logging = new Thread(() -> {
+        handler.publish(createRecord(Level.INFO, "info 0"));
+        handler.publish(createRecord(Level.INFO, "info 1"));
+        handler.publish(createRecord(Level.FINE, "fine 0"));
+        for(int index = 2; index < 10; ++index) {
+          handler.publish(createRecord(Level.INFO, "info " + index));
+        }
+      });
+      logging.start();
+      logging.join(200);
+      assertTrue(logging.isAlive());
+
+      release.countDown();
+      logging.join(TimeUnit.SECONDS.toMillis(5));
+      handler.flush();
+
+      List<String> messages = new ArrayList<>(collector.messages);
+      for(int index = 0; index < 10; ++index) {
+        assertTrue(messages.contains("info " + index));
+      }
+      assertFalse(messages.contains("fine 0"));
+      assertTrue(messages.contains("1 log records dropped, logging buffer was full"));
+    }finally {
+      handler.close();
+    }
+  }
+}
@@ -1,9 +1,28 @@
 package org.goplanit.aurin.parser.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.goplanit.aurin.parser.PlanitAurinParserMain;
+import org.goplanit.aurin.parser.StreamingNetworkConverter;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 
 /**
@@ -162,5 +181,158 @@ public class AurinParserWrapperTest {
     }
   }    
 
+  /** Run a streamed network-only conversion into a temporary output directory and parse the written MATSim network
+   *
+   * @param input to convert
+   * @param additionalArgs arguments in addition to input, streaming and output
+   * @return parsed network
+   * @throws Exception thrown if error
+   */
+  private static Document convertStreamed(String input, String... additionalArgs) throws Exception {
+    Path outputDirectory = Files.createTempDirectory("training_streamed");
+    try {
+      List<String> args = new ArrayList<>(List.of("--input", input, "--streaming", "wgs84", "--output", outputDirectory.toString()));
+      args.addAll(List.of(additionalArgs));
+      assertEquals(PlanitAurinParserMain.EXIT_CODE_SUCCESS, PlanitAurinParserMain.execute(args.toArray(new String[0]), null));
+
+      Path networkFile = outputDirectory.resolve("network.xml");
+      assertTrue(Files.isRegularFile(networkFile));
+      /* streamed networks are not cleaned by default */
+      assertFalse(Files.exists(outputDirectory.resolve("network_cleaned.xml")));
+      var documentBuilderFactory = DocumentBuilderFactory.newInstance();
+      /* do not fetch the MATSim DTD */
+      documentBuilderFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+      return documentBuilderFactory.newDocumentBuilder().parse(networkFile.toFile());
+    }finally {
+      try(var paths = Files.walk(outputDirectory)){
+        for(Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  /** Collect the value of an attribute of all elements with the given tag name
+   *
+   * @param network parsed MATSim network
+   * @param tagName of the elements
+   * @param attribute to collect
+   * @return values in order of appearance
+   */
+  private static List<String> collectAttribute(Document network, String tagName, String attribute) {
+    List<String> values = new ArrayList<>();
+    NodeList elements = network.getElementsByTagName(tagName);
+    for(int index = 0; index < elements.getLength(); ++index) {
+      values.add(((Element) elements.item(index)).getAttribute(attribute));
+    }
+    return values;
+  }
+
+  /**
+   * Test a streamed network-only conversion of a local file: all five ways of the fixture are activated at fine fidelity, ways are split where they
+   * meet, node 7 only shapes way 104, and way 103 is oneway, resulting in 6 nodes and 13 car links in WGS84
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void osmNetworkStreamingConversionLocalFileTest() throws Exception {
+    // Run with settings, equivalent to: 
+    // java -jar planit-aurin-parser-<version>.jar --input "src/test/resources/osm/training.osm" --streaming wgs84 --fidelity fine --output <temporary directory>
+    Document network = convertStreamed("src/test/resources/osm/training.osm", "--fidelity", "fine");
+
+    assertEquals(Set.of("1", "2", "3", "4", "5", "6"), new HashSet<>(collectAttribute(network, "node", "id")));
+    assertEquals(13, network.getElementsByTagName("link").getLength());
+    assertEquals(Set.of("car"), new HashSet<>(collectAttribute(network, "link", "modes")));
+    List<String> fromNodes = collectAttribute(network, "link", "from");
+    List<String> toNodes = collectAttribute(network, "link", "to");
+    Set<String> nodePairs = new HashSet<>();
+    for(int index = 0; index < fromNodes.size(); ++index) {
+      nodePairs.add(fromNodes.get(index) + "-" + toNodes.get(index));
+    }
+    assertEquals(Set.of("1-2", "2-1", "2-3", "3-2", "4-5", "5-4", "5-6", "6-5", "1-4", "2-5", "5-2", "6-3", "3-6"), nodePairs);
+
+    Element crs = (Element) network.getElementsByTagName("attribute").item(0);
+    assertEquals("coordinateReferenceSystem", crs.getAttribute("name"));
+    assertEquals(StreamingNetworkConverter.COORDINATE_REFERENCE_SYSTEM, crs.getTextContent().trim());
+  }
+
+  /**
+   * Test that access tags of a way deny the modes they restrict in a streamed conversion, while they cannot add modes
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void osmNetworkStreamingConversionAccessTagsTest() throws Exception {
+    Path input = Files.createTempFile("access", ".osm");
+    try {
+      Files.writeString(input, String.join("\n",
+          "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+          "<osm version=\"0.6\">",
+          "  <node id=\"-1\" lat=\"-33.8890\" lon=\"151.1860\"/>",
+          "  <node id=\"-2\" lat=\"-33.8890\" lon=\"151.1880\"/>",
+          "  <node id=\"-3\" lat=\"-33.8870\" lon=\"151.1860\"/>",
+          "  <node id=\"-4\" lat=\"-33.8870\" lon=\"151.1880\"/>",
+          "  <node id=\"-5\" lat=\"-33.8880\" lon=\"151.1900\"/>",
+          "  <way id=\"-101\"><nd ref=\"-1\"/><nd ref=\"-2\"/><tag k=\"highway\" v=\"primary\"/><tag k=\"oneway\" v=\"yes\"/></way>",
+          "  <way id=\"-102\"><nd ref=\"-2\"/><nd ref=\"-4\"/><tag k=\"highway\" v=\"primary\"/><tag k=\"oneway\" v=\"yes\"/>"
+              + "<tag k=\"motor_vehicle\" v=\"no\"/><tag k=\"bus\" v=\"yes\"/></way>",
+          "  <way id=\"-103\"><nd ref=\"-4\"/><nd ref=\"-3\"/><tag k=\"highway\" v=\"primary\"/><tag k=\"oneway\" v=\"yes\"/>"
+              + "<tag k=\"access\" v=\"private\"/></way>",
+          "  <way id=\"-104\"><nd ref=\"-2\"/><nd ref=\"-5\"/><tag k=\"highway\" v=\"primary\"/><tag k=\"oneway\" v=\"yes\"/>"
+              + "<tag k=\"access\" v=\"no\"/><tag k=\"motorcar\" v=\"destination\"/></way>",
+          "</osm>"));
+
+      // Run with settings, equivalent to: 
+      // java -jar planit-aurin-parser-<version>.jar --input <access.osm> --streaming wgs84 --addmode bus --output <temporary directory>
+      Document network = convertStreamed(input.toString(), "--addmode", "bus");
+
+      Map<String, String> modesByWay = new HashMap<>();
+      NodeList links = network.getElementsByTagName("link");
+      for(int index = 0; index < links.getLength(); ++index) {
+        Element link = (Element) links.item(index);
+        modesByWay.put(link.getElementsByTagName("attribute").item(0).getTextContent().trim(), link.getAttribute("modes"));
+      }
+      assertEquals(Map.of("-101", "car,pt", "-102", "pt", "-104", "car"), modesByWay);
+    }finally {
+      Files.delete(input);
+    }
+  }
+
+  /**
+   * Test that streaming without explicitly opting into WGS84 output is rejected
+   */
+  @Test
+  public void osmNetworkStreamingConversionRequiresWgs84Test() {
+    assertEquals(PlanitAurinParserMain.EXIT_CODE_FAILURE, PlanitAurinParserMain.execute(
+        new String[]{"--input", "src/test/resources/osm/training.osm", "--streaming", "yes", "--output", "./output/training_streamed"}, null));
+  }
+
+  /**
+   * Test that streaming is rejected, before any output is written, when combined with post-processing that reads the entire network into memory
+   * or with modes other than motorcar and bus, which it cannot map
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void osmNetworkStreamingConversionUnsupportedOptionsTest() throws Exception {
+    List<List<String>> unsupportedOptions = List.of(
+        List.of("--clean", "yes"), List.of("--order", "hilbert"), List.of("--graphexport", "yes"), List.of("--spatialindex", "yes"),
+        List.of("--rail", "yes"), List.of("--addmode", "bicycle"));
+    Path outputDirectory = Files.createTempDirectory("training_streamed");
+    try {
+      for(List<String> unsupportedOption : unsupportedOptions) {
+        List<String> args = new ArrayList<>(List.of(
+            "--input", "src/test/resources/osm/training.osm", "--streaming", "wgs84", "--output", outputDirectory.toString()));
+        args.addAll(unsupportedOption);
+        assertEquals(PlanitAurinParserMain.EXIT_CODE_FAILURE, PlanitAurinParserMain.execute(args.toArray(new String[0]), null));
+        try(var files = Files.list(outputDirectory)){
+          assertEquals(0, files.count());
+        }
+      }
+    }finally {
+      Files.delete(outputDirectory);
+    }
+  }
+
 }
 
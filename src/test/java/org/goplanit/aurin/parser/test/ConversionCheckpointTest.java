@@ -0,0 +1,116 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import org.goplanit.aurin.parser.ConversionCheckpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test validating checkpointed stages against their outputs and removing outdated outputs
+ *
+ * @author markr
+ *
+ */
+public class ConversionCheckpointTest {
+
+  /** configuration of a resumed run */
+  private static final Map<String, String> RESUME = Map.of("output", "matsim", ConversionCheckpoint.RESUME_KEY, "yes");
+
+  /** output directory */
+  private Path directory;
+
+  /** Write an output file
+   *
+   * @param fileName of the output
+   * @param content of the output
+   * @throws Exception thrown if error
+   */
+  private void writeOutput(String fileName, String content) throws Exception {
+    Files.writeString(directory.resolve(fileName), content, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Create the output directory
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("checkpoint");
+  }
+
+  /**
+   * Remove the outputs and their directory
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeDirectory() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * A completed stage remains valid when resumed with unchanged outputs, an output rewritten with the same size is detected by its modification
+   * time
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void sameSizeModificationTest() throws Exception {
+    writeOutput("network.xml", "<network/>");
+    ConversionCheckpoint.open(directory, RESUME).complete(ConversionCheckpoint.STAGE_WRITTEN, List.of("network.xml"));
+    assertTrue(ConversionCheckpoint.open(directory, RESUME).isCompleted(ConversionCheckpoint.STAGE_WRITTEN));
+
+    Path network = directory.resolve("network.xml");
+    FileTime modified = Files.getLastModifiedTime(network);
+    writeOutput("network.xml", "<nodes/>  ");
+    Files.setLastModifiedTime(network, FileTime.fromMillis(modified.toMillis() + 2000));
+    assertFalse(ConversionCheckpoint.open(directory, RESUME).isCompleted(ConversionCheckpoint.STAGE_WRITTEN));
+  }
+
+  /**
+   * Starting without resuming removes the outputs recorded by the existing checkpoint, leaving other files alone. Completing an earlier stage
+   * removes the outputs of the later stages it invalidates, except for outputs the earlier stages wrote themselves
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void removeOutdatedOutputsTest() throws Exception {
+    writeOutput("network.xml", "<network/>");
+    writeOutput("network_cleaned.xml", "<network/>");
+    writeOutput("graph.bin", "graph");
+    writeOutput("notes.txt", "not an output");
+    var checkpoint = ConversionCheckpoint.open(directory, RESUME);
+    checkpoint.complete(ConversionCheckpoint.STAGE_WRITTEN, List.of("network.xml"));
+    checkpoint.complete(ConversionCheckpoint.STAGE_CLEANED, List.of("network_cleaned.xml"));
+    checkpoint.complete(ConversionCheckpoint.STAGE_GRAPH_EXPORTED, List.of("graph.bin"));
+
+    /* rewriting the ordered network invalidates the cleaned network and graph, not the written network it replaced */
+    writeOutput("network.xml", "<network></network>");
+    checkpoint.complete(ConversionCheckpoint.STAGE_ORDERED, List.of("network.xml"));
+    assertTrue(Files.exists(directory.resolve("network.xml")));
+    assertFalse(Files.exists(directory.resolve("network_cleaned.xml")));
+    assertFalse(Files.exists(directory.resolve("graph.bin")));
+    assertTrue(ConversionCheckpoint.open(directory, RESUME).isCompleted(ConversionCheckpoint.STAGE_WRITTEN));
+
+    ConversionCheckpoint.open(directory, Map.of("output", "matsim"));
+    assertFalse(Files.exists(directory.resolve("network.xml")));
+    assertFalse(Files.exists(directory.resolve(ConversionCheckpoint.CHECKPOINT_FILE_NAME)));
+    assertTrue(Files.exists(directory.resolve("notes.txt")));
+  }
+}
@@ -0,0 +1,146 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.goplanit.aurin.parser.ConversionStageEvent;
+import org.goplanit.aurin.parser.ProfilingConfigurationHelper;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Test recording conversion stages as flight recorder events, whether they complete or fail, and parsing the --profile option
+ *
+ * @author markr
+ *
+ */
+public class ConversionStageEventTest {
+
+  /** directory holding the recordings */
+  private Path directory;
+
+  /** Collect the conversion stage events of a recording
+   *
+   * @param recordingFile to read
+   * @return conversion stage events in recorded order
+   * @throws IOException thrown if error
+   */
+  private static List<RecordedEvent> readStageEvents(Path recordingFile) throws IOException {
+    List<RecordedEvent> stageEvents = new ArrayList<>();
+    for(RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+      if(event.getEventType().getName().equals(ConversionStageEvent.NAME)) {
+        stageEvents.add(event);
+      }
+    }
+    stageEvents.sort((first, second) -> first.getStartTime().compareTo(second.getStartTime()));
+    return stageEvents;
+  }
+
+  /**
+   * Create the directory holding the recordings
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("profile");
+  }
+
+  /**
+   * Remove the recordings and their directory
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeDirectory() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * A completed stage is committed with its entity counts, a stage that throws before completing is committed as well, flagged as failed
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void completedAndFailedStageTest() throws Exception {
+    Path recordingFile = directory.resolve("stages.jfr");
+    try(var recording = new Recording()){
+      recording.enable(ConversionStageEvent.NAME);
+      recording.start();
+
+      try(var stage = ConversionStageEvent.start(ConversionStageEvent.STAGE_READ, "input.osm.pbf", null, "coarse")){
+        stage.complete(12, 34);
+      }
+      try(var stage = ConversionStageEvent.start(ConversionStageEvent.STAGE_WRITE, "input.osm.pbf", null, "coarse")){
+        throw new IOException("disk full");
+      }catch(IOException e) {
+        /* expected */
+      }
+
+      recording.stop();
+      recording.dump(recordingFile);
+    }
+
+    List<RecordedEvent> stageEvents = readStageEvents(recordingFile);
+    assertEquals(2, stageEvents.size());
+    assertEquals(ConversionStageEvent.STAGE_READ, stageEvents.get(0).getString("stage"));
+    assertFalse(stageEvents.get(0).getBoolean("failed"));
+    assertEquals(12, stageEvents.get(0).getLong("numberOfNodes"));
+    assertEquals(34, stageEvents.get(0).getLong("numberOfLinks"));
+    assertEquals("coarse", stageEvents.get(0).getString("fidelity"));
+    assertEquals(ConversionStageEvent.STAGE_WRITE, stageEvents.get(1).getString("stage"));
+    assertTrue(stageEvents.get(1).getBoolean("failed"));
+  }
+
+  /**
+   * No recording is started without --profile, --profile without a path is rejected, --profile with a path records the conversion stages to
+   * that path once stopped
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void profileOptionTest() throws Exception {
+    assertNull(ProfilingConfigurationHelper.startRecording(Map.of()));
+    try {
+      ProfilingConfigurationHelper.startRecording(Map.of("profile", " "));
+      fail("--profile without a path accepted");
+    }catch(PlanItException e) {
+      /* expected */
+    }
+
+    Path recordingFile = directory.resolve("run.jfr");
+    var recording = ProfilingConfigurationHelper.startRecording(Map.of("profile", recordingFile.toString()));
+    try(var stage = ConversionStageEvent.start(ConversionStageEvent.STAGE_CLEAN, "input.osm", "150,-34,151,-33", "fine")){
+      stage.complete(1, 2);
+    }
+    ProfilingConfigurationHelper.stopRecording(recording);
+
+    assertTrue(Files.exists(recordingFile));
+    List<RecordedEvent> stageEvents = readStageEvents(recordingFile);
+    assertEquals(1, stageEvents.size());
+    assertEquals(ConversionStageEvent.STAGE_CLEAN, stageEvents.get(0).getString("stage"));
+    assertEquals("150,-34,151,-33", stageEvents.get(0).getString("boundingBox"));
+    assertFalse(stageEvents.get(0).getBoolean("failed"));
+  }
+}
@@ -0,0 +1,125 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.goplanit.aurin.parser.DetailedGeometryFileWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Test streaming the detailed geometry file, i.e., dropping and renaming links and simplifying their geometry
+ *
+ * @author markr
+ *
+ */
+public class DetailedGeometryFileWriterTest {
+
+  /** header of the source geometry file */
+  private static final String HEADER = "Id\tGeometry";
+
+  /** directory to write to */
+  private Path directory;
+
+  /** source geometry file */
+  private Path sourceFile;
+
+  /**
+   * Write the source geometry file, one link with a collinear intermediate point, one with a relevant intermediate point and one with a quoted
+   * comma separated geometry
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void writeSource() throws Exception {
+    directory = Files.createTempDirectory("geometry");
+    sourceFile = directory.resolve("network_geometry.csv");
+    Files.write(sourceFile, List.of(
+        HEADER,
+        "1\tLINESTRING (0 0, 50 0.1, 100 0)",
+        "2\tLINESTRING (0 0, 50 40, 100 0)",
+        "3,\"LINESTRING (0 0, 50 0.1, 100 0)\""), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Remove the written files
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeFiles() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Without a tolerance lines are copied as is, only the link ids are mapped and dropped
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void copyWithoutSimplificationTest() throws Exception {
+    var writer = new DetailedGeometryFileWriter(0);
+    assertFalse(writer.isSimplify());
+
+    Path targetFile = directory.resolve("network_cleaned_geometry.csv");
+    long numberOfLinks = writer.write(sourceFile, targetFile, linkId -> linkId.equals("2") ? null : "c" + linkId);
+
+    assertEquals(2, numberOfLinks);
+    assertEquals(List.of(
+        HEADER,
+        "c1\tLINESTRING (0 0, 50 0.1, 100 0)",
+        "c3,\"LINESTRING (0 0, 50 0.1, 100 0)\""), Files.readAllLines(targetFile, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * With a tolerance, intermediate points within the tolerance are removed, others are retained, quoting is preserved
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void simplifyTest() throws Exception {
+    var writer = new DetailedGeometryFileWriter(1);
+    assertTrue(writer.isSimplify());
+
+    Path targetFile = directory.resolve("network_geometry_simplified.csv");
+    long numberOfLinks = writer.write(sourceFile, targetFile, linkId -> linkId);
+    assertEquals(3, numberOfLinks);
+
+    List<String> lines = Files.readAllLines(targetFile, StandardCharsets.UTF_8);
+    assertEquals(HEADER, lines.get(0));
+    assertTrue(lines.get(3).startsWith("3,\"") && lines.get(3).endsWith("\""));
+
+    Map<String, Coordinate[]> coordinates = writer.readCoordinates(targetFile, linkId -> true);
+    assertEquals(3, coordinates.size());
+    assertEquals(2, coordinates.get("1").length);
+    assertEquals(3, coordinates.get("2").length);
+    assertEquals(2, coordinates.get("3").length);
+    assertEquals(100, coordinates.get("3")[1].x, 0);
+  }
+
+  /**
+   * Reading coordinates only reads the links passing the filter
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void readFilteredCoordinatesTest() throws Exception {
+    Map<String, Coordinate[]> coordinates = new DetailedGeometryFileWriter(0).readCoordinates(sourceFile, linkId -> linkId.equals("2"));
+    assertEquals(1, coordinates.size());
+    assertEquals(40, coordinates.get("2")[1].y, 0);
+  }
+}
@@ -0,0 +1,207 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.goplanit.aurin.parser.test.MatsimTestNetworks.addLink;
+import static org.goplanit.aurin.parser.test.MatsimTestNetworks.addNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.goplanit.aurin.parser.HilbertNetworkOrdering;
+import org.goplanit.aurin.parser.MatsimNetworkXmlWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+
+/**
+ * Test ordering a MATSim network along a Hilbert curve, compacting its ids and reading the written network back, including the incremental network
+ * writer it is written with
+ *
+ * @author markr
+ *
+ */
+public class HilbertNetworkOrderingTest {
+
+  /** network file to write to */
+  private Path networkFile;
+
+  /** Network with a node in each corner of its bounding box, added in an order different from the Hilbert order, connected in both directions
+   *
+   * @return network
+   */
+  private static Network createSquareNetwork() {
+    Network network = NetworkUtils.createNetwork();
+    network.setName("square");
+    network.getAttributes().putAttribute("coordinateReferenceSystem", "EPSG:28355");
+    Node lowerRight = addNode(network, "lr", 100, 0);
+    Node upperRight = addNode(network, "ur", 100, 100);
+    Node lowerLeft = addNode(network, "ll", 0, 0);
+    Node upperLeft = addNode(network, "ul", 0, 100);
+    lowerLeft.getAttributes().putAttribute("origid", "1");
+    addLink(network, "ll-lr", lowerLeft, lowerRight, Set.of("car"));
+    addLink(network, "lr-ll", lowerRight, lowerLeft, Set.of("car"));
+    addLink(network, "ur-ul", upperRight, upperLeft, Set.of("car"));
+    addLink(network, "ul-ll", upperLeft, lowerLeft, Set.of("car")).getAttributes().putAttribute("origid", "10");
+    addLink(network, "ll-ul", lowerLeft, upperLeft, Set.of("car"));
+    return network;
+  }
+
+  /** Read the written network
+   *
+   * @return network
+   */
+  private Network readNetwork() {
+    Network network = NetworkUtils.createNetwork();
+    new MatsimNetworkReader(network).readFile(networkFile.toString());
+    return network;
+  }
+
+  /**
+   * Create the file to write to
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createFile() throws Exception {
+    networkFile = Files.createTempFile("network", ".xml");
+  }
+
+  /**
+   * Remove the written file
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeFile() throws Exception {
+    Files.deleteIfExists(networkFile);
+  }
+
+  /**
+   * The first 4^k positions along the curve cover the 2^k by 2^k cells in the corner of the grid, each position adjacent to the previous one
+   */
+  @Test
+  public void curveOrderTest() {
+    int cellsPerDimension = 16;
+    long[][] cellByIndex = new long[cellsPerDimension * cellsPerDimension][];
+    for(long x = 0; x < cellsPerDimension; ++x) {
+      for(long y = 0; y < cellsPerDimension; ++y) {
+        cellByIndex[(int) HilbertNetworkOrdering.hilbertIndex(x, y)] = new long[] {x, y};
+      }
+    }
+    for(int index = 1; index < cellByIndex.length; ++index) {
+      long distance = Math.abs(cellByIndex[index][0] - cellByIndex[index - 1][0]) + Math.abs(cellByIndex[index][1] - cellByIndex[index - 1][1]);
+      assertEquals(1, distance);
+    }
+  }
+
+  /**
+   * Nodes are ordered along the curve, i.e., lower left, upper left, upper right, lower right, and links grouped by from node in that order,
+   * within each group ordered by to node
+   */
+  @Test
+  public void orderTest() {
+    var ordering = new HilbertNetworkOrdering(createSquareNetwork());
+
+    List<String> nodeIds = new ArrayList<>();
+    ordering.getOrderedNodes().forEach(node -> nodeIds.add(node.getId().toString()));
+    assertEquals(List.of("ll", "ul", "ur", "lr"), nodeIds);
+
+    List<String> linkIds = new ArrayList<>();
+    ordering.getOrderedLinks().forEach(link -> linkIds.add(link.getId().toString()));
+    assertEquals(List.of("ll-ul", "ll-lr", "ul-ll", "ur-ul", "lr-ll"), linkIds);
+  }
+
+  /**
+   * Compacted ids are dense integers in the written order, the returned mapping covers all links, and the network read back references the
+   * compacted ids consistently
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void compactIdsTest() throws Exception {
+    Map<String, String> linkIdMapping = new HilbertNetworkOrdering(createSquareNetwork()).write(networkFile, true);
+    assertEquals(Map.of("ll-ul", "0", "ll-lr", "1", "ul-ll", "2", "ur-ul", "3", "lr-ll", "4"), linkIdMapping);
+
+    Network network = readNetwork();
+    assertEquals(4, network.getNodes().size());
+    assertEquals(new Coord(0, 0), network.getNodes().get(Id.createNodeId("0")).getCoord());
+    assertEquals(new Coord(0, 100), network.getNodes().get(Id.createNodeId("1")).getCoord());
+    assertEquals(new Coord(100, 100), network.getNodes().get(Id.createNodeId("2")).getCoord());
+    assertEquals(new Coord(100, 0), network.getNodes().get(Id.createNodeId("3")).getCoord());
+
+    Link lowerLeftToLowerRight = network.getLinks().get(Id.createLinkId("1"));
+    assertEquals("0", lowerLeftToLowerRight.getFromNode().getId().toString());
+    assertEquals("3", lowerLeftToLowerRight.getToNode().getId().toString());
+    assertEquals("10", network.getLinks().get(Id.createLinkId("2")).getAttributes().getAttribute("origid"));
+  }
+
+  /**
+   * Writing without compaction and reading the network back retains ids, link properties, attributes, the network name and its coordinate
+   * reference system
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void roundTripTest() throws Exception {
+    Network original = createSquareNetwork();
+    new HilbertNetworkOrdering(original).write(networkFile, false);
+
+    Network network = readNetwork();
+    assertEquals("square", network.getName());
+    assertEquals("EPSG:28355", network.getAttributes().getAttribute("coordinateReferenceSystem"));
+    assertEquals(original.getNodes().keySet(), network.getNodes().keySet());
+    assertEquals(original.getLinks().keySet(), network.getLinks().keySet());
+    assertEquals("1", network.getNodes().get(Id.createNodeId("ll")).getAttributes().getAttribute("origid"));
+
+    Set<String> checkedLinks = new HashSet<>();
+    for(Link link : network.getLinks().values()) {
+      Link originalLink = original.getLinks().get(link.getId());
+      assertEquals(originalLink.getFromNode().getId(), link.getFromNode().getId());
+      assertEquals(originalLink.getToNode().getId(), link.getToNode().getId());
+      assertEquals(originalLink.getLength(), link.getLength(), 0);
+      assertEquals(originalLink.getFreespeed(), link.getFreespeed(), 0);
+      assertEquals(originalLink.getCapacity(), link.getCapacity(), 0);
+      assertEquals(originalLink.getNumberOfLanes(), link.getNumberOfLanes(), 0);
+      assertEquals(originalLink.getAllowedModes(), link.getAllowedModes());
+      checkedLinks.add(link.getId().toString());
+    }
+    assertEquals(5, checkedLinks.size());
+  }
+
+  /**
+   * A writer closed before its links section ended, e.g., because writing failed, does not complete the network, such that the truncated file is
+   * not mistaken for a valid network
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void incompleteWriteTest() throws Exception {
+    try(var writer = new MatsimNetworkXmlWriter(networkFile)){
+      writer.startNodes();
+      writer.writeNode("a", 0, 0, null);
+    }
+    assertFalse(Files.readString(networkFile).contains("</network>"));
+
+    try(var writer = new MatsimNetworkXmlWriter(networkFile)){
+      writer.startNodes();
+      writer.endNodes();
+      writer.startLinks(3600, 7.5, 3.75);
+      writer.endLinks();
+    }
+    assertTrue(Files.readString(networkFile).contains("</network>"));
+  }
+}
@@ -0,0 +1,187 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.goplanit.aurin.parser.MappedPbfFileScanner;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test validating the fileblock structure of a PBF file, using synthetic fileblocks (blob contents are not inspected by the scan)
+ *
+ * @author markr
+ *
+ */
+public class MappedPbfFileScannerTest {
+
+  /** file to scan */
+  private Path pbfFile;
+
+  /** Append a fileblock, i.e., BlobHeader size, BlobHeader and blob
+   *
+   * @param output to append to
+   * @param type of the fileblock
+   * @param dataSize of the blob
+   * @throws Exception thrown if error
+   */
+  private static void writeFileBlock(DataOutputStream output, String type, int dataSize) throws Exception {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+    header.write((1 << 3) | 2);
+    header.write(typeBytes.length);
+    header.write(typeBytes);
+    header.write(3 << 3);
+    for(int value = dataSize; ; value >>>= 7) {
+      if(value < 0x80) {
+        header.write(value);
+        break;
+      }
+      header.write((value & 0x7F) | 0x80);
+    }
+    output.writeInt(header.size());
+    header.writeTo(output);
+    output.write(new byte[dataSize]);
+  }
+
+  /** Synthetic PBF file content, a header fileblock followed by the given number of data fileblocks
+   *
+   * @param numberOfDataBlocks to add
+   * @return content
+   * @throws Exception thrown if error
+   */
+  private static byte[] createPbf(int numberOfDataBlocks) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(var output = new DataOutputStream(bytes)){
+      writeFileBlock(output, "OSMHeader", 20);
+      for(int block = 0; block < numberOfDataBlocks; ++block) {
+        writeFileBlock(output, "OSMData", 200 + block);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Scan the content, expecting it to be rejected
+   *
+   * @param content to scan
+   * @throws Exception thrown if error other than the expected rejection
+   */
+  private void assertRejected(byte[] content) throws Exception {
+    Files.write(pbfFile, content);
+    try {
+      new MappedPbfFileScanner(pbfFile).scan();
+      fail("invalid PBF file accepted");
+    }catch(PlanItException e) {
+      /* expected, rather than a runtime exception */
+    }
+  }
+
+  /**
+   * Create the file to scan
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createFile() throws Exception {
+    pbfFile = Files.createTempFile("scan", ".osm.pbf");
+  }
+
+  /**
+   * Remove the file to scan
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeFile() throws Exception {
+    Files.deleteIfExists(pbfFile);
+  }
+
+  /**
+   * A valid file is scanned into its fileblocks, whose offsets express how many fileblocks a number of consumed bytes covers
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void scanValidFileTest() throws Exception {
+    byte[] content = createPbf(3);
+    Files.write(pbfFile, content);
+    assertTrue(MappedPbfFileScanner.isLocalPbfFile(pbfFile.toString()));
+
+    var scanner = new MappedPbfFileScanner(pbfFile);
+    scanner.scan();
+    assertEquals(4, scanner.getNumberOfFileBlocks());
+    assertEquals(content.length, scanner.getFileSize());
+    assertEquals(0, scanner.getNumberOfFileBlocks(10));
+    assertEquals(4, scanner.getNumberOfFileBlocks(content.length));
+  }
+
+  /**
+   * Files truncated within a blob, within a BlobHeader or within a varint of a BlobHeader are rejected
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void rejectTruncatedFileTest() throws Exception {
+    byte[] content = createPbf(2);
+    assertRejected(Arrays.copyOf(content, content.length - 1));
+    /* BlobHeader size of the first fileblock, followed by part of its BlobHeader only */
+    assertRejected(Arrays.copyOf(content, 8));
+
+    /* unterminated varint: BlobHeader of 3 bytes ending in a continuation byte */
+    assertRejected(new byte[] {0, 0, 0, 3, (byte) ((3 << 3)), (byte) 0x80, (byte) 0x80});
+  }
+
+  /**
+   * Files that do not start with an OSMHeader fileblock are rejected
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void rejectMissingOsmHeaderTest() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(var output = new DataOutputStream(bytes)){
+      writeFileBlock(output, "OSMData", 10);
+    }
+    assertRejected(bytes.toByteArray());
+  }
+
+  /**
+   * The input source serves the file from its mapping, byte by byte, in bulk and with skips, also when opened again, without scanning first
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void mappedInputSourceTest() throws Exception {
+    byte[] content = createPbf(5);
+    Files.write(pbfFile, content);
+    var inputSource = new MappedPbfFileScanner(pbfFile).createInputSource();
+    assertEquals(pbfFile.toUri().toURL(), inputSource);
+
+    try(InputStream input = inputSource.openStream()){
+      assertArrayEquals(content, input.readAllBytes());
+      assertEquals(-1, input.read());
+    }
+    try(InputStream input = inputSource.openStream()){
+      assertEquals(content.length, input.available());
+      assertEquals(content[0] & 0xFF, input.read());
+      assertEquals(100, input.skip(100));
+      byte[] bytes = new byte[10];
+      assertEquals(10, input.read(bytes));
+      assertArrayEquals(Arrays.copyOfRange(content, 101, 111), bytes);
+      assertEquals(content.length - 111, input.skip(Long.MAX_VALUE));
+      assertEquals(-1, input.read(bytes));
+    }
+  }
+}
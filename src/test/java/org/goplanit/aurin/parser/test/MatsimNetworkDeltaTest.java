@@ -0,0 +1,172 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.goplanit.aurin.parser.MatsimNetworkDelta;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Test creating change sets between a baseline and a new MATSim network and applying them to the baseline
+ *
+ * @author markr
+ *
+ */
+public class MatsimNetworkDeltaTest {
+
+  /** OSM ways of the baseline, way id followed by its OSM node ids */
+  private static final List<long[]> BASELINE_WAYS = List.of(new long[] {101, 1, 2, 3}, new long[] {102, 3, 4, 5});
+
+  /** directory to write to */
+  private Path directory;
+
+  /** Create a network the way a conversion would, ids are assigned sequentially in order of the ways, nodes and links carry their OSM origin
+   *
+   * @param ways OSM way id followed by its OSM node ids
+   * @return network with a link per way segment
+   */
+  private static Network createNetwork(List<long[]> ways) {
+    Network network = NetworkUtils.createNetwork();
+    Map<Long, Node> nodesByOsmId = new HashMap<>();
+    int linkId = 0;
+    for(long[] way : ways) {
+      Node previous = null;
+      for(int index = 1; index < way.length; ++index) {
+        long osmNodeId = way[index];
+        Node node = nodesByOsmId.get(osmNodeId);
+        if(node == null) {
+          node = network.getFactory().createNode(Id.createNodeId(String.valueOf(nodesByOsmId.size())), new Coord(osmNodeId * 100, (osmNodeId % 3) * 50));
+          node.getAttributes().putAttribute("origid", String.valueOf(osmNodeId));
+          network.addNode(node);
+          nodesByOsmId.put(osmNodeId, node);
+        }
+        if(previous != null) {
+          Link link = network.getFactory().createLink(Id.createLinkId(String.valueOf(linkId++)), previous, node);
+          link.setLength(100);
+          link.setFreespeed(13.9);
+          link.setCapacity(1800);
+          link.setNumberOfLanes(1);
+          link.setAllowedModes(Set.of("car"));
+          link.getAttributes().putAttribute("origid", String.valueOf(way[0]));
+          network.addLink(link);
+        }
+        previous = node;
+      }
+    }
+    return network;
+  }
+
+  /** Count the occurrences of an element in a (compressed) change set
+   *
+   * @param deltaFile to count in
+   * @param element to count
+   * @return number of occurrences
+   * @throws Exception thrown if error
+   */
+  private static int countElements(Path deltaFile, String element) throws Exception {
+    try(InputStream inputStream = new GZIPInputStream(Files.newInputStream(deltaFile))){
+      String content = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+      return content.split("<" + element + "[ />]", -1).length - 1;
+    }
+  }
+
+  /**
+   * Create the directory to write to
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("delta");
+  }
+
+  /**
+   * Remove the written files
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeFiles() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * A way added in front of the baseline renumbers every entity, the change set only puts the added entities and renames the others, applying it
+   * reproduces the new network
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void addedWayTest() throws Exception {
+    Network baseline = createNetwork(BASELINE_WAYS);
+    Network network = createNetwork(List.of(new long[] {100, 6, 7, 1}, BASELINE_WAYS.get(0), BASELINE_WAYS.get(1)));
+    assertFalse(MatsimNetworkDelta.isEquivalent(baseline, network));
+
+    Path deltaFile = directory.resolve("network_delta.xml.gz");
+    long numberOfChanges = new MatsimNetworkDelta(baseline, network).write(deltaFile, "network.xml", "digest");
+
+    /* nodes 6, 7 and the two links of way 100 */
+    assertEquals(4, numberOfChanges);
+    assertEquals(2, countElements(deltaFile, "node"));
+    assertEquals(2, countElements(deltaFile, "link"));
+    assertEquals(0, countElements(deltaFile, "removeNode"));
+    assertEquals(0, countElements(deltaFile, "removeLink"));
+    assertEquals(baseline.getNodes().size(), countElements(deltaFile, "renameNode"));
+    assertEquals(baseline.getLinks().size(), countElements(deltaFile, "renameLink"));
+
+    Network patched = createNetwork(BASELINE_WAYS);
+    MatsimNetworkDelta.apply(patched, deltaFile, null);
+    assertTrue(MatsimNetworkDelta.isEquivalent(patched, network));
+  }
+
+  /**
+   * A removed way and a modified link are recorded as removals and a put, applying the change set reproduces the new network
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void removedWayAndModifiedLinkTest() throws Exception {
+    Network baseline = createNetwork(BASELINE_WAYS);
+    Network network = createNetwork(List.of(BASELINE_WAYS.get(0)));
+    network.getLinks().get(Id.createLinkId("1")).setFreespeed(8.3);
+
+    Path deltaFile = directory.resolve("network_delta.xml.gz");
+    long numberOfChanges = new MatsimNetworkDelta(baseline, network).write(deltaFile, "network.xml", "digest");
+
+    /* nodes 4, 5 and the two links of way 102 removed, one link modified */
+    assertEquals(5, numberOfChanges);
+    assertEquals(2, countElements(deltaFile, "removeNode"));
+    assertEquals(2, countElements(deltaFile, "removeLink"));
+    assertEquals(0, countElements(deltaFile, "node"));
+    assertEquals(1, countElements(deltaFile, "link"));
+    assertEquals(0, countElements(deltaFile, "renameNode") + countElements(deltaFile, "renameLink"));
+
+    Network patched = createNetwork(BASELINE_WAYS);
+    MatsimNetworkDelta.apply(patched, deltaFile, null);
+    assertTrue(MatsimNetworkDelta.isEquivalent(patched, network));
+  }
+}
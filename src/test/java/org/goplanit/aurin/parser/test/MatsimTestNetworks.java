@@ -0,0 +1,71 @@
+package org.goplanit.aurin.parser.test;
+
+import java.util.Set;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Fixture methods to build small MATSim networks in tests. Links have a capacity of 1000 and a single lane
+ *
+ * @author markr
+ *
+ */
+public final class MatsimTestNetworks {
+
+  /** Add a node to the network
+   *
+   * @param network to add to
+   * @param id of the node
+   * @param x coordinate
+   * @param y coordinate
+   * @return created node
+   */
+  public static Node addNode(Network network, String id, double x, double y) {
+    Node node = network.getFactory().createNode(Id.createNodeId(id), new Coord(x, y));
+    network.addNode(node);
+    return node;
+  }
+
+  /** Add a link with a length of 100 and a free speed of 10 to the network
+   *
+   * @param network to add to
+   * @param id of the link
+   * @param from node
+   * @param to node
+   * @param modes allowed on the link
+   * @return created link
+   */
+  public static Link addLink(Network network, String id, Node from, Node to, Set<String> modes) {
+    return addLink(network, id, from, to, 100, 10, modes);
+  }
+
+  /** Add a link to the network
+   *
+   * @param network to add to
+   * @param id of the link
+   * @param from node
+   * @param to node
+   * @param length of the link
+   * @param freespeed of the link
+   * @param modes allowed on the link
+   * @return created link
+   */
+  public static Link addLink(Network network, String id, Node from, Node to, double length, double freespeed, Set<String> modes) {
+    Link link = network.getFactory().createLink(Id.createLinkId(id), from, to);
+    link.setLength(length);
+    link.setFreespeed(freespeed);
+    link.setCapacity(1000);
+    link.setNumberOfLanes(1);
+    link.setAllowedModes(modes);
+    network.addLink(link);
+    return link;
+  }
+
+  /** Not instantiable */
+  private MatsimTestNetworks() {
+  }
+}
@@ -0,0 +1,83 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.goplanit.aurin.parser.test.MatsimTestNetworks.addLink;
+import static org.goplanit.aurin.parser.test.MatsimTestNetworks.addNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.goplanit.aurin.parser.ModeAwareNetworkCleaner;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Test cleaning a MATSim network per mode
+ *
+ * @author markr
+ *
+ */
+public class ModeAwareNetworkCleanerTest {
+
+  /**
+   * A car and pt link leading to a node from which only pt can return is a dead end for car but not for pt, so only car is to be
+   * removed from it. A car-only dead end is to be removed together with its dangling node
+   */
+  @Test
+  public void cleanCarDeadEndNextToPtReachableLinkTest() {
+    Network network = NetworkUtils.createNetwork();
+    Node a = addNode(network, "a", 0, 0);
+    Node b = addNode(network, "b", 100, 0);
+    Node c = addNode(network, "c", 100, 100);
+    Node d = addNode(network, "d", 200, 100);
+    Node e = addNode(network, "e", 0, 100);
+
+    /* strongly connected for car and pt */
+    addLink(network, "ab", a, b, Set.of("car", "pt"));
+    addLink(network, "ba", b, a, Set.of("car", "pt"));
+    addLink(network, "bc", b, c, Set.of("car", "pt"));
+    addLink(network, "cb", c, b, Set.of("car", "pt"));
+    /* dead end for car, pt can return to c */
+    addLink(network, "cd", c, d, Set.of("car", "pt"));
+    addLink(network, "dc", d, c, Set.of("pt"));
+    /* car-only dead end */
+    addLink(network, "ae", a, e, Set.of("car"));
+
+    new ModeAwareNetworkCleaner(network).run();
+
+    assertEquals(Set.of("car", "pt"), network.getLinks().get(Id.createLinkId("bc")).getAllowedModes());
+    assertEquals(Set.of("pt"), network.getLinks().get(Id.createLinkId("cd")).getAllowedModes());
+    assertEquals(Set.of("pt"), network.getLinks().get(Id.createLinkId("dc")).getAllowedModes());
+    assertFalse(network.getLinks().containsKey(Id.createLinkId("ae")));
+    assertEquals(6, network.getLinks().size());
+
+    assertTrue(network.getNodes().containsKey(Id.createNodeId("d")));
+    assertFalse(network.getNodes().containsKey(Id.createNodeId("e")));
+    assertEquals(4, network.getNodes().size());
+  }
+
+  /**
+   * Modes not listed for cleaning are left untouched, even on links unreachable for them
+   */
+  @Test
+  public void cleanSelectedModesOnlyTest() {
+    Network network = NetworkUtils.createNetwork();
+    Node a = addNode(network, "a", 0, 0);
+    Node b = addNode(network, "b", 100, 0);
+    Node c = addNode(network, "c", 200, 0);
+
+    addLink(network, "ab", a, b, Set.of("car", "pt"));
+    addLink(network, "ba", b, a, Set.of("car", "pt"));
+    addLink(network, "bc", b, c, Set.of("car", "pt"));
+
+    new ModeAwareNetworkCleaner(network).run(Set.of("car"));
+
+    assertEquals(Set.of("pt"), network.getLinks().get(Id.createLinkId("bc")).getAllowedModes());
+    assertEquals(Set.of("car", "pt"), network.getLinks().get(Id.createLinkId("ab")).getAllowedModes());
+    assertEquals(3, network.getNodes().size());
+  }
+}
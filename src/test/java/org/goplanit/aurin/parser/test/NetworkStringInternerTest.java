@@ -0,0 +1,56 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.goplanit.aurin.parser.NetworkStringInterner;
+import org.junit.Test;
+
+/**
+ * Test deduplicating network strings through the bounded canonicalisation table
+ *
+ * @author markr
+ *
+ */
+public class NetworkStringInternerTest {
+
+  /**
+   * Two equal names that are distinct instances end up as the same instance
+   */
+  @SuppressWarnings("StringOperationCanBeSimplified")
+  @Test
+  public void equalNamesShareInstanceTest() {
+    var interner = new NetworkStringInterner();
+    String name = new String("Parramatta Road");
+    String equalName = new String("Parramatta Road");
+    assertNotSame(name, equalName);
+
+    assertSame(name, interner.canonicalise(name));
+    assertSame(name, interner.canonicalise(equalName));
+    assertSame(name, interner.canonicalise(name));
+    assertEquals(1, interner.getNumberOfDeduplicatedStrings());
+    /* string overhead plus 15 characters padded to 16 */
+    assertEquals(40 + 16, interner.getNumberOfDeduplicatedBytes());
+    assertNull(interner.canonicalise(null));
+  }
+
+  /**
+   * Once the table is full, new values are returned as is rather than tracked
+   */
+  @SuppressWarnings("StringOperationCanBeSimplified")
+  @Test
+  public void boundedTableTest() {
+    var interner = new NetworkStringInterner(1);
+    String first = new String("101");
+    assertSame(first, interner.canonicalise(first));
+    assertSame(first, interner.canonicalise(new String("101")));
+
+    String second = new String("102");
+    String equalSecond = new String("102");
+    assertSame(second, interner.canonicalise(second));
+    assertSame(equalSecond, interner.canonicalise(equalSecond));
+    assertEquals(1, interner.getNumberOfDeduplicatedStrings());
+  }
+}
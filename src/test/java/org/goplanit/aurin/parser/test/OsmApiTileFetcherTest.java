@@ -0,0 +1,330 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.goplanit.aurin.parser.OsmApiTileFetcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test fetching an OSM API bounding box as tiles against a local stand-in of the OSM API serving the training fixture. Like the OSM API, the
+ * stand-in responds with the nodes within the requested bounding box, the ways referencing them and all nodes of those ways, so entities are
+ * duplicated between adjacent tiles
+ *
+ * @author markr
+ *
+ */
+public class OsmApiTileFetcherTest {
+
+  /** bounding box of the training fixture */
+  private static final String FIXTURE_BOUNDING_BOX = "151.1850,-33.8900,151.1910,-33.8860";
+
+  /** fixture the stand-in serves from */
+  private Document fixture;
+
+  /** local stand-in of the OSM API */
+  private HttpServer server;
+
+  /** number of requests received */
+  private final AtomicInteger requests = new AtomicInteger();
+
+  /** number of requests still to fail with HTTP 503 */
+  private final AtomicInteger failuresToServe = new AtomicInteger();
+
+  /** requested bounding boxes wider than this (in degrees) are rejected with HTTP 400 */
+  private volatile double maxServedWidth = Double.POSITIVE_INFINITY;
+
+  /** body of the HTTP 400 response to rejected bounding boxes */
+  private volatile String rejectionMessage = "You requested too many nodes (limit is 50000). Either request a smaller area, or use planet.osm";
+
+  /** Respond to a map request with the fixture entities within its bounding box
+   *
+   * @param exchange to respond to
+   * @throws IOException thrown if error
+   */
+  private void handleMapRequest(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    String query = exchange.getRequestURI().getRawQuery();
+    String[] ordinates = query.substring(query.indexOf("bbox=") + 5).split("&")[0].split(",");
+    double minLongitude = Double.parseDouble(ordinates[0]);
+    double minLatitude = Double.parseDouble(ordinates[1]);
+    double maxLongitude = Double.parseDouble(ordinates[2]);
+    double maxLatitude = Double.parseDouble(ordinates[3]);
+
+    int status = 200;
+    StringBuilder response = new StringBuilder();
+    if(failuresToServe.getAndDecrement() > 0) {
+      status = 503;
+      response.append("Service Unavailable");
+    }else if(maxLongitude - minLongitude > maxServedWidth) {
+      status = 400;
+      response.append(rejectionMessage);
+    }else {
+      Set<String> nodeIds = new LinkedHashSet<>();
+      NodeList nodes = fixture.getElementsByTagName("node");
+      for(int index = 0; index < nodes.getLength(); ++index) {
+        Element node = (Element) nodes.item(index);
+        double longitude = Double.parseDouble(node.getAttribute("lon"));
+        double latitude = Double.parseDouble(node.getAttribute("lat"));
+        if(longitude >= minLongitude && longitude <= maxLongitude && latitude >= minLatitude && latitude <= maxLatitude) {
+          nodeIds.add(node.getAttribute("id"));
+        }
+      }
+      List<Element> ways = new ArrayList<>();
+      NodeList allWays = fixture.getElementsByTagName("way");
+      for(int index = 0; index < allWays.getLength(); ++index) {
+        Element way = (Element) allWays.item(index);
+        NodeList references = way.getElementsByTagName("nd");
+        boolean selected = false;
+        for(int reference = 0; reference < references.getLength(); ++reference) {
+          selected |= nodeIds.contains(((Element) references.item(reference)).getAttribute("ref"));
+        }
+        if(selected) {
+          ways.add(way);
+          for(int reference = 0; reference < references.getLength(); ++reference) {
+            nodeIds.add(((Element) references.item(reference)).getAttribute("ref"));
+          }
+        }
+      }
+
+      response.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm version=\"0.6\" generator=\"stand-in\">\n");
+      for(int index = 0; index < nodes.getLength(); ++index) {
+        Element node = (Element) nodes.item(index);
+        if(nodeIds.contains(node.getAttribute("id"))) {
+          response.append(String.format(" <node id=\"%s\" lat=\"%s\" lon=\"%s\"/>\n", node.getAttribute("id"), node.getAttribute("lat"), node.getAttribute("lon")));
+        }
+      }
+      for(Element way : ways) {
+        response.append(String.format(" <way id=\"%s\">\n", way.getAttribute("id")));
+        NodeList references = way.getElementsByTagName("nd");
+        for(int reference = 0; reference < references.getLength(); ++reference) {
+          response.append(String.format("  <nd ref=\"%s\"/>\n", ((Element) references.item(reference)).getAttribute("ref")));
+        }
+        NodeList tags = way.getElementsByTagName("tag");
+        for(int tag = 0; tag < tags.getLength(); ++tag) {
+          Element tagElement = (Element) tags.item(tag);
+          response.append(String.format("  <tag k=\"%s\" v=\"%s\"/>\n", tagElement.getAttribute("k"), tagElement.getAttribute("v")));
+        }
+        response.append(" </way>\n");
+      }
+      response.append("</osm>\n");
+    }
+
+    byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, body.length);
+    try(OutputStream output = exchange.getResponseBody()){
+      output.write(body);
+    }
+  }
+
+  /** Collect the ids of the top level entities of the given type in order of appearance, failing on duplicates
+   *
+   * @param merged document
+   * @param entityType to collect
+   * @return ids
+   */
+  private static List<String> collectIds(Document merged, String entityType) {
+    List<String> ids = new ArrayList<>();
+    NodeList entities = merged.getDocumentElement().getChildNodes();
+    for(int index = 0; index < entities.getLength(); ++index) {
+      if(entities.item(index) instanceof Element && ((Element) entities.item(index)).getTagName().equals(entityType)) {
+        ids.add(((Element) entities.item(index)).getAttribute("id"));
+      }
+    }
+    assertEquals(String.format("duplicate %s in merged tiles", entityType), ids.size(), new HashSet<>(ids).size());
+    return ids;
+  }
+
+  /** Count the temporary directories of OSM API tiles
+   *
+   * @return number of tile directories
+   * @throws IOException thrown if error
+   */
+  private static long countTileDirectories() throws IOException {
+    try(var paths = Files.list(Path.of(System.getProperty("java.io.tmpdir")))){
+      return paths.filter(path -> path.getFileName().toString().startsWith("planit_osm_tiles_")).count();
+    }
+  }
+
+  /** Fetch the fixture bounding box via the reader input source of a fetcher and parse the merged result
+   *
+   * @param fetcher to use
+   * @return merged document
+   * @throws Exception thrown if error
+   */
+  private static Document readMerged(OsmApiTileFetcher fetcher) throws Exception {
+    try(InputStream mergedInput = fetcher.createInputSource().openStream()){
+      ByteArrayOutputStream merged = new ByteArrayOutputStream();
+      mergedInput.transferTo(merged);
+      return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(merged.toByteArray()));
+    }
+  }
+
+  /** Verify the merged document contains each fixture entity exactly once, with all nodes preceding all ways
+   *
+   * @param merged document to verify
+   */
+  private void assertMergedFixture(Document merged) {
+    assertEquals(Set.of("1", "2", "3", "4", "5", "6", "7"), new HashSet<>(collectIds(merged, "node")));
+    assertEquals(Set.of("101", "102", "103", "104", "105"), new HashSet<>(collectIds(merged, "way")));
+    NodeList children = merged.getDocumentElement().getChildNodes();
+    boolean wayEncountered = false;
+    for(int index = 0; index < children.getLength(); ++index) {
+      if(children.item(index) instanceof Element) {
+        String tagName = ((Element) children.item(index)).getTagName();
+        wayEncountered |= tagName.equals("way");
+        assertFalse("node after way in merged tiles", wayEncountered && tagName.equals("node"));
+      }
+    }
+    /* ways are copied including their node references and tags */
+    assertEquals(13, merged.getElementsByTagName("nd").getLength());
+    assertEquals(9, merged.getElementsByTagName("tag").getLength());
+  }
+
+  /**
+   * Start the stand-in
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void startServer() throws Exception {
+    fixture = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+        OsmApiTileFetcherTest.class.getResourceAsStream("/osm/training.osm"));
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/0.6/map", this::handleMapRequest);
+    server.start();
+  }
+
+  /**
+   * Stop the stand-in
+   */
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  /** Location of a map request for the given bounding box on the stand-in
+   *
+   * @param boundingBox in the form minlon,minlat,maxlon,maxlat
+   * @return url
+   */
+  private String createMapUrl(String boundingBox) {
+    return String.format("http://127.0.0.1:%d/api/0.6/map?bbox=%s", server.getAddress().getPort(), boundingBox);
+  }
+
+  /**
+   * Test which input sources are recognised as OSM API bounding box requests
+   */
+  @Test
+  public void recogniseOsmApiBoundingBoxUrlTest() {
+    assertTrue(OsmApiTileFetcher.isOsmApiBoundingBoxUrl("https://api.openstreetmap.org/api/0.6/map?bbox=13.465661,52.504055,13.469817,52.506204"));
+    assertTrue(OsmApiTileFetcher.isOsmApiBoundingBoxUrl(createMapUrl(FIXTURE_BOUNDING_BOX)));
+    assertFalse(OsmApiTileFetcher.isOsmApiBoundingBoxUrl("https://api.openstreetmap.org/api/0.6/map?bbox=13.47,52.50,13.46,52.51"));
+    assertFalse(OsmApiTileFetcher.isOsmApiBoundingBoxUrl("https://download.geofabrik.de/australia-oceania/australia-latest.osm.pbf"));
+    assertFalse(OsmApiTileFetcher.isOsmApiBoundingBoxUrl("src/test/resources/osm/training.osm"));
+  }
+
+  /**
+   * Test fetching the fixture as six concurrently fetched tiles, where the first request fails transiently, entities shared by tiles must be
+   * merged once
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void fetchTilesWithRetryTest() throws Exception {
+    failuresToServe.set(1);
+    long existingTileDirectories = countTileDirectories();
+    var fetcher = new OsmApiTileFetcher(createMapUrl(FIXTURE_BOUNDING_BOX), 0.002, 3, 3, Duration.ofMillis(10));
+    assertEquals(6, fetcher.getTiles().size());
+
+    assertMergedFixture(readMerged(fetcher));
+    assertEquals(7, requests.get());
+
+    /* the tiles are removed once merged, reading the input source again fetches them anew */
+    assertEquals(existingTileDirectories, countTileDirectories());
+    assertMergedFixture(readMerged(fetcher));
+    assertEquals(13, requests.get());
+    assertEquals(existingTileDirectories, countTileDirectories());
+  }
+
+  /**
+   * Test that tiles rejected by the API as too large are split into quadrants
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void splitRejectedTilesTest() throws Exception {
+    maxServedWidth = 0.0025;
+    var fetcher = new OsmApiTileFetcher(createMapUrl(FIXTURE_BOUNDING_BOX), 0.005, 2, 1, Duration.ofMillis(10));
+    assertEquals(2, fetcher.getTiles().size());
+
+    assertMergedFixture(readMerged(fetcher));
+    /* two rejected tiles, each split into four quadrants */
+    assertEquals(10, requests.get());
+  }
+
+  /**
+   * Test that tiles rejected by the API with HTTP 400 for another reason than their size fail the input without being split or retried
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void failRejectedTilesNotTooLargeTest() throws Exception {
+    maxServedWidth = 0.0025;
+    rejectionMessage = "The latitudes must be between -90 and 90, longitudes between -180 and 180 and the minima must be less than the maxima.";
+    var fetcher = new OsmApiTileFetcher(createMapUrl(FIXTURE_BOUNDING_BOX), 0.01, 1, 3, Duration.ofMillis(10));
+    try {
+      readMerged(fetcher);
+      throw new AssertionError("input of rejected tiles should not be readable");
+    }catch(IOException e) {
+      assertEquals(1, requests.get());
+    }
+  }
+
+  /**
+   * Test that a tile failing on every attempt fails the input, rather than providing an incomplete input
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void failAfterMaxAttemptsTest() throws Exception {
+    failuresToServe.set(Integer.MAX_VALUE);
+    long existingTileDirectories = countTileDirectories();
+    var fetcher = new OsmApiTileFetcher(createMapUrl(FIXTURE_BOUNDING_BOX), 0.01, 1, 2, Duration.ofMillis(10));
+    try {
+      readMerged(fetcher);
+      throw new AssertionError("input of failing tiles should not be readable");
+    }catch(IOException e) {
+      assertEquals(2, requests.get());
+      assertEquals(existingTileDirectories, countTileDirectories());
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.goplanit.aurin.parser.OsmInputMerger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Test merging two overlapping OSM extracts into a single input, deduplicating entities by OSM id and joining ways clipped at the border of
+ * the extracts
+ *
+ * @author markr
+ *
+ */
+public class OsmInputMergerTest {
+
+  /** western extract, nodes 1-4, clipped ways 100 and 105, its own way 101 */
+  private static final String WESTERN_EXTRACT = "<?xml version='1.0' encoding='UTF-8'?><osm version='0.6'>"
+      + "<node id='1' lat='-35.0' lon='148.0'/><node id='2' lat='-35.0' lon='148.1'><tag k='highway' v='traffic_signals'/></node>"
+      + "<node id='3' lat='-35.0' lon='148.2'/><node id='4' lat='-35.0' lon='148.3'/>"
+      + "<way id='100'><nd ref='1'/><nd ref='2'/><nd ref='3'/><nd ref='4'/><tag k='highway' v='primary'/><tag k='name' v='Murray Valley Hwy'/></way>"
+      + "<way id='101'><nd ref='1'/><nd ref='2'/><tag k='highway' v='residential'/></way>"
+      + "<way id='103'><nd ref='3'/><nd ref='4'/><tag k='highway' v='tertiary'/></way>"
+      + "<way id='105'><nd ref='4'/><nd ref='3'/><nd ref='2'/><tag k='highway' v='secondary'/></way>"
+      + "<relation id='200'><member type='way' ref='100' role=''/><tag k='type' v='route'/></relation>"
+      + "</osm>";
+
+  /** eastern extract, nodes 3-7, clipped ways 100 and 105, its own way 102 */
+  private static final String EASTERN_EXTRACT = "<?xml version='1.0' encoding='UTF-8'?><osm version='0.6'>"
+      + "<node id='3' lat='-35.0' lon='148.2'/><node id='4' lat='-35.0' lon='148.3'/><node id='5' lat='-35.0' lon='148.4'/>"
+      + "<node id='6' lat='-35.0' lon='148.5'/><node id='7' lat='-35.1' lon='148.5'/>"
+      + "<way id='100'><nd ref='3'/><nd ref='4'/><nd ref='5'/><nd ref='6'/><tag k='highway' v='primary'/><tag k='name' v='Murray Valley Hwy'/></way>"
+      + "<way id='102'><nd ref='6'/><nd ref='7'/><tag k='highway' v='residential'/></way>"
+      + "<way id='103'><nd ref='3'/><nd ref='4'/><tag k='highway' v='tertiary'/></way>"
+      + "<way id='105'><nd ref='6'/><nd ref='5'/><nd ref='4'/><tag k='highway' v='secondary'/></way>"
+      + "<relation id='200'><member type='way' ref='100' role=''/><tag k='type' v='route'/></relation>"
+      + "<relation id='201'><member type='node' ref='7' role='stop'/><tag k='type' v='route'/></relation>"
+      + "</osm>";
+
+  /** directory holding the extracts */
+  private Path directory;
+
+  /** Read the merged input of a merger
+   *
+   * @param merger to read from
+   * @return merged document
+   * @throws Exception thrown if error
+   */
+  private static Document readMerged(OsmInputMerger merger) throws Exception {
+    try(InputStream mergedInput = merger.createInputSource().openStream()){
+      ByteArrayOutputStream merged = new ByteArrayOutputStream();
+      mergedInput.transferTo(merged);
+      return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(merged.toByteArray()));
+    }
+  }
+
+  /** Collect the ids of all entities of a type in document order
+   *
+   * @param merged document
+   * @param entityType to collect
+   * @return ids
+   */
+  private static List<String> collectIds(Document merged, String entityType) {
+    List<String> ids = new ArrayList<>();
+    NodeList entities = merged.getElementsByTagName(entityType);
+    for(int index = 0; index < entities.getLength(); ++index) {
+      ids.add(((Element) entities.item(index)).getAttribute("id"));
+    }
+    return ids;
+  }
+
+  /** Collect the node references of a way
+   *
+   * @param merged document
+   * @param wayId of the way
+   * @return node references in way order
+   */
+  private static List<String> collectWayNodes(Document merged, String wayId) {
+    NodeList ways = merged.getElementsByTagName("way");
+    for(int index = 0; index < ways.getLength(); ++index) {
+      Element way = (Element) ways.item(index);
+      if(way.getAttribute("id").equals(wayId)) {
+        List<String> nodeIds = new ArrayList<>();
+        NodeList nodeReferences = way.getElementsByTagName("nd");
+        for(int reference = 0; reference < nodeReferences.getLength(); ++reference) {
+          nodeIds.add(((Element) nodeReferences.item(reference)).getAttribute("ref"));
+        }
+        return nodeIds;
+      }
+    }
+    throw new AssertionError(String.format("way %s missing", wayId));
+  }
+
+  /** Write an extract to the test directory
+   *
+   * @param fileName of the extract
+   * @param content of the extract
+   * @return location of the extract
+   * @throws IOException thrown if error
+   */
+  private URL writeExtract(String fileName, String content) throws IOException {
+    return Files.writeString(directory.resolve(fileName), content, StandardCharsets.UTF_8).toUri().toURL();
+  }
+
+  /**
+   * Create the directory holding the extracts
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("merge");
+  }
+
+  /**
+   * Remove the extracts and their directory
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeDirectory() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Entities present in both extracts are merged once, ways clipped at the border are joined whichever extract holds their start, and all
+   * nodes precede all ways which precede all relations. Opening the input again merges the extracts anew
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void mergeOverlappingExtractsTest() throws Exception {
+    var merger = new OsmInputMerger(List.of(writeExtract("west.osm", WESTERN_EXTRACT), writeExtract("east.osm", EASTERN_EXTRACT)));
+    for(int access = 0; access < 2; ++access) {
+      Document merged = readMerged(merger);
+
+      List<String> nodeIds = collectIds(merged, "node");
+      nodeIds.sort(null);
+      assertEquals(List.of("1", "2", "3", "4", "5", "6", "7"), nodeIds);
+      List<String> wayIds = collectIds(merged, "way");
+      wayIds.sort(null);
+      assertEquals(List.of("100", "101", "102", "103", "105"), wayIds);
+      List<String> relationIds = collectIds(merged, "relation");
+      relationIds.sort(null);
+      assertEquals(List.of("200", "201"), relationIds);
+
+      assertEquals(List.of("1", "2", "3", "4", "5", "6"), collectWayNodes(merged, "100"));
+      assertEquals(List.of("6", "5", "4", "3", "2"), collectWayNodes(merged, "105"));
+      assertEquals(List.of("3", "4"), collectWayNodes(merged, "103"));
+      /* tags of nodes, ways (two on way 100) and relations are retained, relation members as well */
+      assertEquals(1 + 2 + 1 + 1 + 1 + 1 + 1 + 1, merged.getElementsByTagName("tag").getLength());
+      assertEquals(2, merged.getElementsByTagName("member").getLength());
+
+      NodeList children = merged.getDocumentElement().getChildNodes();
+      int lastTypeOrder = 0;
+      for(int index = 0; index < children.getLength(); ++index) {
+        if(children.item(index) instanceof Element) {
+          int typeOrder = List.of("node", "way", "relation").indexOf(((Element) children.item(index)).getTagName());
+          assertFalse("entity types out of order in merged input", typeOrder < lastTypeOrder);
+          lastTypeOrder = typeOrder;
+        }
+      }
+    }
+  }
+
+  /**
+   * An extract that cannot be decoded fails reading the merged input rather than ending it early, without waiting for the other extracts
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void failUndecodableExtractTest() throws Exception {
+    var merger = new OsmInputMerger(
+        List.of(writeExtract("west.osm", WESTERN_EXTRACT), writeExtract("east.osm", EASTERN_EXTRACT.substring(0, EASTERN_EXTRACT.indexOf("<way")))));
+    try {
+      readMerged(merger);
+      fail("undecodable extract merged");
+    }catch(IOException e) {
+      /* expected */
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package org.goplanit.aurin.parser.test;
+
+import java.io.BufferedWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.goplanit.aurin.parser.OsmNetworkLookupTables;
+import org.goplanit.aurin.parser.OsmNetworkReaderConfigurationHelper;
+import org.goplanit.aurin.parser.StreamingNetworkConverter;
+import org.goplanit.network.MacroscopicNetwork;
+import org.goplanit.osm.converter.network.OsmNetworkReaderFactory;
+import org.goplanit.osm.converter.network.OsmNetworkReaderSettings;
+import org.goplanit.osm.tags.OsmRailModeTags;
+import org.goplanit.osm.tags.OsmRoadModeTags;
+import org.goplanit.utils.id.IdGroupingToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark of per-way classification and default assignment: querying the resolved PLANit reader settings of a run versus the
+ * {@link OsmNetworkLookupTables} compiled from those same settings. Besides the lookups in isolation, the reading paths themselves are compared on
+ * an extract of the same mix of ways: the regular PLANit reader, which classifies via its settings, versus the {@link StreamingNetworkConverter},
+ * which classifies via the tables (and writes the MATSim network as well). Not a unit test, run via {@link #main(String[])} from the test
+ * classpath, e.g.,
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.goplanit.aurin.parser.test.OsmNetworkLookupTablesBenchmark
+ *
+ * @author markr
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OsmNetworkLookupTablesBenchmark {
+
+  /** number of ways per benchmark invocation */
+  private static final int NUMBER_OF_WAYS = 4096;
+
+  /** configuration of the run, fine fidelity with bus and bicycle activated on top of the default road modes */
+  private static final Map<String, String> KEY_VALUE_MAP = Map.of(
+      "fidelity", "fine",
+      OsmNetworkReaderConfigurationHelper.ACTIVATE_MODE_KEY, OsmRoadModeTags.BUS + "," + OsmRoadModeTags.BICYCLE);
+
+  /** highway types of the ways, also containing types that are not activated or not supported */
+  private String[] wayHighwayTypes;
+
+  /** mode to verify per way */
+  private String[] wayModes;
+
+  /** resolved reader settings of the run */
+  private OsmNetworkReaderSettings settings;
+
+  /** tables compiled from the settings */
+  private OsmNetworkLookupTables tables;
+
+  /** directory holding the extract and the outputs of the streaming conversion */
+  private Path directory;
+
+  /** extract of the ways */
+  private URL extract;
+
+  /** Write an OSM extract of the ways, each way connecting four nodes along a row, consecutive ways sharing their end node
+   *
+   * @param extractFile to write to
+   * @throws Exception thrown if error
+   */
+  private void writeExtract(Path extractFile) throws Exception {
+    try(BufferedWriter writer = Files.newBufferedWriter(extractFile, StandardCharsets.UTF_8)){
+      writer.write("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n");
+      long numberOfNodes = 3L * NUMBER_OF_WAYS + 1;
+      for(long nodeId = 1; nodeId <= numberOfNodes; ++nodeId) {
+        writer.write(String.format("<node id='%d' lat='%.7f' lon='%.7f'/>\n", nodeId, -33.8 - (nodeId / 300) * 1e-3, 151.0 + (nodeId % 300) * 1e-3));
+      }
+      for(int index = 0; index < NUMBER_OF_WAYS; ++index) {
+        writer.write(String.format("<way id='%d'>", index + 1));
+        for(long nodeId = 3L * index + 1; nodeId <= 3L * index + 4; ++nodeId) {
+          writer.write(String.format("<nd ref='%d'/>", nodeId));
+        }
+        writer.write(String.format("<tag k='highway' v='%s'/></way>\n", wayHighwayTypes[index]));
+      }
+      writer.write("</osm>\n");
+    }
+  }
+
+  /**
+   * Resolve the reader settings as the regular conversion does, compile the tables from them and create a random mix of ways whose tag values
+   * are distinct string instances, as when parsed
+   *
+   * @throws Exception thrown if error
+   */
+  @Setup
+  public void setup() throws Exception {
+    settings = OsmNetworkReaderFactory.create("Australia", new MacroscopicNetwork(IdGroupingToken.collectGlobalToken())).getSettings();
+    OsmNetworkReaderConfigurationHelper.restrictToDefaultRoadModes(settings);
+    OsmNetworkReaderConfigurationHelper.parseRailActivation(settings, KEY_VALUE_MAP);
+    OsmNetworkReaderConfigurationHelper.parseNetworkFidelity(settings, KEY_VALUE_MAP);
+    OsmNetworkReaderConfigurationHelper.parseModes(settings, KEY_VALUE_MAP);
+    tables = OsmNetworkLookupTables.compile(settings, KEY_VALUE_MAP);
+
+    List<String> wayTypes = new ArrayList<>(OsmNetworkReaderConfigurationHelper.FINE_OSM_HIGHWAY_TYPES);
+    wayTypes.addAll(List.of("footway", "cycleway", "path", "track", "steps"));
+    List<String> modes = List.of(OsmRoadModeTags.MOTOR_CAR, OsmRoadModeTags.BUS, OsmRoadModeTags.BICYCLE, OsmRailModeTags.TRAIN, OsmRailModeTags.TRAM);
+    var random = new Random(42);
+    wayHighwayTypes = new String[NUMBER_OF_WAYS];
+    wayModes = new String[NUMBER_OF_WAYS];
+    for(int index = 0; index < NUMBER_OF_WAYS; ++index) {
+      wayHighwayTypes[index] = new String(wayTypes.get(random.nextInt(wayTypes.size())));
+      wayModes[index] = new String(modes.get(random.nextInt(modes.size())));
+    }
+
+    directory = Files.createTempDirectory("lookup_benchmark");
+    Path extractFile = directory.resolve("ways.osm");
+    writeExtract(extractFile);
+    extract = extractFile.toUri().toURL();
+  }
+
+  /**
+   * Remove the extract, the outputs of the streaming conversion and their directory
+   *
+   * @throws Exception thrown if error
+   */
+  @TearDown
+  public void removeDirectory() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Classify ways and assign defaults by querying the reader settings
+   *
+   * @param blackhole to consume results
+   */
+  @Benchmark
+  public void settingsLookups(Blackhole blackhole) {
+    var highwaySettings = settings.getHighwaySettings();
+    for(int index = 0; index < NUMBER_OF_WAYS; ++index) {
+      String highwayType = wayHighwayTypes[index];
+      if(!highwaySettings.isOsmHighwayTypeActivated(highwayType)) {
+        continue;
+      }
+      String mode = wayModes[index];
+      blackhole.consume(highwaySettings.getDefaultSpeedLimitByOsmHighwayType(highwayType));
+      blackhole.consume(settings.getDefaultDirectionalLanesByHighwayType(highwayType));
+      blackhole.consume(highwaySettings.hasMappedPlanitMode(mode) && highwaySettings.collectAllowedOsmHighwayModes(highwayType).contains(mode));
+    }
+  }
+
+  /**
+   * Classify ways and assign defaults using the compiled tables
+   *
+   * @param blackhole to consume results
+   */
+  @Benchmark
+  public void compiledTables(Blackhole blackhole) {
+    for(int index = 0; index < NUMBER_OF_WAYS; ++index) {
+      int highwayTypeCode = tables.classifyHighwayType(wayHighwayTypes[index]);
+      if(highwayTypeCode == OsmNetworkLookupTables.UNKNOWN) {
+        continue;
+      }
+      int modeCode = tables.getModeCode(wayModes[index]);
+      blackhole.consume(tables.getDefaultSpeedLimitKmh(highwayTypeCode));
+      blackhole.consume(tables.getDefaultDirectionalLanes(highwayTypeCode));
+      blackhole.consume(modeCode != OsmNetworkLookupTables.UNKNOWN && tables.isModeAllowed(highwayTypeCode, modeCode));
+    }
+  }
+
+  /**
+   * Read the extract with the regular PLANit reader, configured as the regular conversion does
+   *
+   * @param blackhole to consume results
+   * @throws Exception thrown if error
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void regularReader(Blackhole blackhole) throws Exception {
+    var reader = OsmNetworkReaderFactory.create("Australia", new MacroscopicNetwork(IdGroupingToken.collectGlobalToken()));
+    var readerSettings = reader.getSettings();
+    OsmNetworkReaderConfigurationHelper.restrictToDefaultRoadModes(readerSettings);
+    OsmNetworkReaderConfigurationHelper.parseRailActivation(readerSettings, KEY_VALUE_MAP);
+    OsmNetworkReaderConfigurationHelper.parseNetworkFidelity(readerSettings, KEY_VALUE_MAP);
+    OsmNetworkReaderConfigurationHelper.parseModes(readerSettings, KEY_VALUE_MAP);
+    readerSettings.setInputSource(extract);
+    blackhole.consume(reader.read());
+  }
+
+  /**
+   * Convert the extract with the streaming converter, classifying via the compiled tables
+   *
+   * @param blackhole to consume results
+   * @throws Exception thrown if error
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void streamingConverter(Blackhole blackhole) throws Exception {
+    var converter = new StreamingNetworkConverter(tables, null);
+    converter.convert(extract, directory.resolve("spill"), directory.resolve("network.xml"), null);
+    blackhole.consume(converter.getNumberOfLinksWritten());
+  }
+
+  /**
+   * Run the benchmark
+   *
+   * @param args not used
+   * @throws Exception thrown if error
+   */
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder().include(OsmNetworkLookupTablesBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,169 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.goplanit.aurin.parser.OsmNetworkLookupTables;
+import org.goplanit.aurin.parser.OsmNetworkReaderConfigurationHelper;
+import org.goplanit.network.MacroscopicNetwork;
+import org.goplanit.osm.converter.network.OsmNetworkReaderFactory;
+import org.goplanit.osm.converter.network.OsmNetworkReaderSettings;
+import org.goplanit.osm.tags.OsmHighwayTags;
+import org.goplanit.osm.tags.OsmRailModeTags;
+import org.goplanit.osm.tags.OsmRoadModeTags;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.id.IdGroupingToken;
+import org.junit.Test;
+
+/**
+ * Test compiling the lookup tables from the resolved reader settings of a run
+ *
+ * @author markr
+ *
+ */
+public class OsmNetworkLookupTablesTest {
+
+  /** Resolve the reader settings for the given configuration as the network conversion does
+   *
+   * @param keyValueMap configuration of the run
+   * @return resolved settings
+   * @throws PlanItException thrown if error
+   */
+  private static OsmNetworkReaderSettings resolveSettings(Map<String, String> keyValueMap) throws PlanItException {
+    var settings = OsmNetworkReaderFactory.create("Australia", new MacroscopicNetwork(IdGroupingToken.collectGlobalToken())).getSettings();
+    OsmNetworkReaderConfigurationHelper.restrictToDefaultRoadModes(settings);
+    OsmNetworkReaderConfigurationHelper.parseRailActivation(settings, keyValueMap);
+    OsmNetworkReaderConfigurationHelper.parseNetworkFidelity(settings, keyValueMap);
+    OsmNetworkReaderConfigurationHelper.parseModes(settings, keyValueMap);
+    return settings;
+  }
+
+  /**
+   * Only the highway types of the chosen fidelity are activated, with the speed limits and lanes of the settings, while unknown and unsupported
+   * highway types are not classified
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void highwayTypeActivationTest() throws Exception {
+    Map<String, String> keyValueMap = Map.of("fidelity", "medium");
+    var settings = resolveSettings(keyValueMap);
+    var tables = OsmNetworkLookupTables.compile(settings, keyValueMap);
+
+    assertEquals(OsmNetworkReaderConfigurationHelper.FINE_OSM_HIGHWAY_TYPES.size(), tables.getNumberOfHighwayTypes());
+    for(String highwayType : OsmNetworkReaderConfigurationHelper.FINE_OSM_HIGHWAY_TYPES) {
+      int code = tables.getHighwayTypeCode(highwayType);
+      assertEquals(highwayType, tables.getHighwayType(code));
+      boolean activated = settings.getHighwaySettings().isOsmHighwayTypeActivated(highwayType);
+      assertEquals(activated, tables.isHighwayTypeActivated(code));
+      assertEquals(activated ? code : OsmNetworkLookupTables.UNKNOWN, tables.classifyHighwayType(highwayType));
+      if(activated) {
+        assertEquals(settings.getHighwaySettings().getDefaultSpeedLimitByOsmHighwayType(highwayType), tables.getDefaultSpeedLimitKmh(code), 0);
+        assertEquals(settings.getDefaultDirectionalLanesByHighwayType(highwayType), tables.getDefaultDirectionalLanes(code));
+        assertEquals(OsmNetworkLookupTables.CAPACITY_PER_LANE_BY_HIGHWAY_TYPE.getOrDefault(
+            highwayType, OsmNetworkLookupTables.DEFAULT_CAPACITY_PER_LANE), tables.getDefaultCapacityPerLane(code), 0);
+      }
+    }
+
+    /* medium fidelity */
+    assertTrue(tables.classifyHighwayType(OsmHighwayTags.SECONDARY) != OsmNetworkLookupTables.UNKNOWN);
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.classifyHighwayType(OsmHighwayTags.RESIDENTIAL));
+    /* not supported or not a highway type, distinct instance as when parsed */
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.classifyHighwayType("footway"));
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.classifyHighwayType(new String("not_a_highway")));
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.classifyHighwayType(null));
+    assertEquals(tables.getHighwayTypeCode(OsmHighwayTags.PRIMARY), tables.classifyHighwayType(new String(OsmHighwayTags.PRIMARY)));
+  }
+
+  /**
+   * Allowed modes per highway type match the settings restricted to the activated modes: road modes activated via addmode, rail modes only when
+   * the rail parser is active, unknown modes have no code
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void allowedModesTest() throws Exception {
+    Map<String, String> keyValueMap = Map.of(
+        "fidelity", "fine",
+        OsmNetworkReaderConfigurationHelper.ACTIVATE_MODE_KEY, OsmRoadModeTags.BUS);
+    var settings = resolveSettings(keyValueMap);
+    var tables = OsmNetworkLookupTables.compile(settings, keyValueMap);
+
+    int carCode = tables.getModeCode(OsmRoadModeTags.MOTOR_CAR);
+    int busCode = tables.getModeCode(OsmRoadModeTags.BUS);
+    int trainCode = tables.getModeCode(OsmRailModeTags.TRAIN);
+    assertTrue(tables.isModeActivated(carCode));
+    assertTrue(tables.isModeActivated(busCode));
+    assertFalse(tables.isModeActivated(trainCode));
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.getModeCode(OsmRoadModeTags.BICYCLE));
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.getModeCode("hovercraft"));
+
+    long activatedModesMask = (1L << carCode) | (1L << busCode);
+    for(String highwayType : OsmNetworkReaderConfigurationHelper.FINE_OSM_HIGHWAY_TYPES) {
+      int code = tables.classifyHighwayType(highwayType);
+      if(code == OsmNetworkLookupTables.UNKNOWN) {
+        continue;
+      }
+      long allowedModes = tables.getAllowedModes(code);
+      assertEquals(0, allowedModes & ~activatedModesMask);
+      var settingsAllowedModes = settings.getHighwaySettings().collectAllowedOsmHighwayModes(highwayType);
+      for(String mode : List.of(OsmRoadModeTags.MOTOR_CAR, OsmRoadModeTags.BUS)) {
+        assertEquals(highwayType + ":" + mode, settingsAllowedModes.contains(mode), tables.isModeAllowed(code, tables.getModeCode(mode)));
+      }
+    }
+    assertTrue(tables.isModeAllowed(tables.classifyHighwayType(OsmHighwayTags.PRIMARY), carCode));
+  }
+
+  /**
+   * With the rail parser active, the default rail modes are activated alongside the default road mode
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void railActivationTest() throws Exception {
+    Map<String, String> keyValueMap = Map.of("rail", "yes");
+    var tables = OsmNetworkLookupTables.compile(resolveSettings(keyValueMap), keyValueMap);
+    for(String railMode : OsmNetworkReaderConfigurationHelper.DEFAULT_OSM_RAIL_MODES) {
+      assertTrue(tables.isModeActivated(tables.getModeCode(railMode)));
+    }
+    assertTrue(tables.isModeActivated(tables.getModeCode(OsmRoadModeTags.MOTOR_CAR)));
+    /* road modes not activated via addmode are not known */
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.getModeCode(OsmRoadModeTags.BUS));
+  }
+
+  /**
+   * Activating unknown highway types or modes is rejected, allowed modes that are unknown or not activated are ignored
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void unknownTagsTest() throws Exception {
+    var tables = new OsmNetworkLookupTables(
+        List.of(OsmHighwayTags.PRIMARY, OsmHighwayTags.SECONDARY), List.of(OsmRoadModeTags.MOTOR_CAR, OsmRoadModeTags.BUS));
+    tables.activateMode(OsmRoadModeTags.MOTOR_CAR);
+    tables.activateHighwayType(OsmHighwayTags.PRIMARY, 80, 2, 1800, Set.of(OsmRoadModeTags.MOTOR_CAR, OsmRoadModeTags.BUS, "hovercraft"));
+
+    int primaryCode = tables.classifyHighwayType(OsmHighwayTags.PRIMARY);
+    assertEquals(1L << tables.getModeCode(OsmRoadModeTags.MOTOR_CAR), tables.getAllowedModes(primaryCode));
+    assertEquals(OsmNetworkLookupTables.UNKNOWN, tables.classifyHighwayType(OsmHighwayTags.SECONDARY));
+
+    try {
+      tables.activateMode("hovercraft");
+      fail("unknown mode activated");
+    }catch(PlanItException e) {
+      /* expected */
+    }
+    try {
+      tables.activateHighwayType("footway", 5, 1, 100, Set.of(OsmRoadModeTags.MOTOR_CAR));
+      fail("unknown highway type activated");
+    }catch(PlanItException e) {
+      /* expected */
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.goplanit.aurin.parser.test.MatsimTestNetworks.addLink;
+import static org.goplanit.aurin.parser.test.MatsimTestNetworks.addNode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.goplanit.aurin.parser.RoutingGraph;
+import org.goplanit.aurin.parser.RoutingGraphFileWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Test writing a MATSim network as routing graph, reopening it and querying it, against a small hand-computed graph:
+ *
+ * <pre>
+ *   a --100/10s car--> b --400/20s car--> d      e (isolated)
+ *   a --300/10s car--> c                  ^
+ *   b --100/20s car,pt--> c --50/5s pt----+
+ * </pre>
+ *
+ * Nodes d and e have no out links.
+ *
+ * @author markr
+ *
+ */
+public class RoutingGraphTest {
+
+  /** out links (by id) of each node (by id) */
+  private static final Map<String, Set<String>> OUT_LINKS = Map.of(
+      "a", Set.of("ab", "ac"),
+      "b", Set.of("bc", "bd"),
+      "c", Set.of("cd"),
+      "d", Set.of(),
+      "e", Set.of());
+
+  /** the network */
+  private Network network;
+
+  /** directory to write to */
+  private Path directory;
+
+  /** the graph written from the network and reopened */
+  private RoutingGraph graph;
+
+  /** Index of a node by id
+   *
+   * @param nodeId to find
+   * @return index
+   */
+  private int node(String nodeId) {
+    int node = graph.getNodeIndex(nodeId);
+    assertTrue(nodeId, node >= 0);
+    return node;
+  }
+
+  /**
+   * Create the network, write it and reopen it
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void writeGraph() throws Exception {
+    network = NetworkUtils.createNetwork();
+    Node d = addNode(network, "d", 200, 0);
+    Node a = addNode(network, "a", 0, 0);
+    Node e = addNode(network, "e", 300, 300);
+    Node b = addNode(network, "b", 100, 0);
+    Node c = addNode(network, "c", 100, 100);
+    addLink(network, "ab", a, b, 100, 10, Set.of("car"));
+    addLink(network, "ac", a, c, 300, 30, Set.of("car"));
+    addLink(network, "bc", b, c, 100, 5, Set.of("car", "pt"));
+    addLink(network, "cd", c, d, 50, 10, Set.of("pt"));
+    addLink(network, "bd", b, d, 400, 20, Set.of("car"));
+    assertEquals(5, network.getNodes().size());
+    assertTrue(network.getNodes().containsKey(e.getId()));
+
+    directory = Files.createTempDirectory("graph");
+    Path graphFile = directory.resolve("network_graph.bin");
+    new RoutingGraphFileWriter().write(network, graphFile);
+    graph = RoutingGraph.open(graphFile);
+  }
+
+  /**
+   * Remove the written files
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeFiles() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Offsets and targets of the reopened graph reproduce the out links of every node, also around nodes without out links, and the from node of
+   * each link is found from the offsets
+   */
+  @Test
+  public void csrTest() {
+    assertEquals(5, graph.getNumberOfNodes());
+    assertEquals(5, graph.getNumberOfLinks());
+    assertEquals(0, graph.getFirstOutLink(0));
+    assertEquals(graph.getNumberOfLinks(), graph.getEndOutLink(graph.getNumberOfNodes() - 1));
+
+    for(int node = 0; node < graph.getNumberOfNodes(); ++node) {
+      String nodeId = graph.getNodeId(node);
+      assertEquals(node, graph.getNodeIndex(nodeId));
+      assertTrue(graph.getFirstOutLink(node) <= graph.getEndOutLink(node));
+      assertEquals(OUT_LINKS.get(nodeId).size(), graph.getOutDegree(node));
+
+      Set<String> outLinks = new HashSet<>();
+      for(int link = graph.getFirstOutLink(node); link < graph.getEndOutLink(node); ++link) {
+        String linkId = graph.getLinkId(link);
+        outLinks.add(linkId);
+        assertEquals(node, graph.getFromNode(link));
+        Link matsimLink = network.getLinks().get(Id.createLinkId(linkId));
+        assertEquals(matsimLink.getToNode().getId().toString(), graph.getNodeId(graph.getToNode(link)));
+        assertEquals(matsimLink.getLength(), graph.getLength(link), 0);
+        assertEquals(matsimLink.getLength() / matsimLink.getFreespeed(), graph.getFreeFlowTime(link), 1e-9);
+      }
+      assertEquals(OUT_LINKS.get(nodeId), outLinks);
+    }
+    assertEquals(-1, graph.getNodeIndex("unknown"));
+  }
+
+  /**
+   * Reachability per mode: car cannot use c-d, pt cannot leave a, nothing reaches e
+   */
+  @Test
+  public void reachabilityTest() {
+    int carMask = graph.getModeMask("car");
+    int ptMask = graph.getModeMask("pt");
+    assertEquals(0, graph.getModeMask("bike"));
+
+    BitSet carFromA = graph.getReachableNodes(node("a"), carMask);
+    assertEquals(4, carFromA.cardinality());
+    assertTrue(carFromA.get(node("d")));
+    assertEquals(false, carFromA.get(node("e")));
+
+    assertEquals(1, graph.getReachableNodes(node("a"), ptMask).cardinality());
+    BitSet ptFromB = graph.getReachableNodes(node("b"), ptMask);
+    assertEquals(3, ptFromB.cardinality());
+    assertTrue(ptFromB.get(node("d")));
+
+    assertEquals(1, graph.getReachableNodes(node("d"), RoutingGraph.ALL_MODES).cardinality());
+  }
+
+  /**
+   * Shortest path costs by length and free flow time, with and without mode restriction, and the predecessor links of the paths
+   */
+  @Test
+  public void shortestPathTest() {
+    int carMask = graph.getModeMask("car");
+    int a = node("a");
+
+    double[] carLengths = graph.getShortestPathCosts(a, carMask, false, null);
+    assertEquals(0, carLengths[a], 0);
+    assertEquals(100, carLengths[node("b")], 0);
+    assertEquals(200, carLengths[node("c")], 0);
+    assertEquals(500, carLengths[node("d")], 0);
+    assertEquals(Double.POSITIVE_INFINITY, carLengths[node("e")], 0);
+
+    int[] predecessorLinks = new int[graph.getNumberOfNodes()];
+    assertEquals(250, graph.getShortestPathCost(a, node("d"), RoutingGraph.ALL_MODES, false, predecessorLinks), 0);
+    assertEquals("cd", graph.getLinkId(predecessorLinks[node("d")]));
+    assertEquals("bc", graph.getLinkId(predecessorLinks[node("c")]));
+    assertEquals("ab", graph.getLinkId(predecessorLinks[node("b")]));
+    assertEquals(-1, predecessorLinks[a]);
+
+    double[] carTimes = graph.getShortestPathCosts(a, carMask, true, null);
+    assertEquals(10, carTimes[node("c")], 1e-9);
+    assertEquals(30, carTimes[node("d")], 1e-9);
+    assertEquals(15, graph.getShortestPathCost(a, node("d"), RoutingGraph.ALL_MODES, true, null), 1e-9);
+    assertEquals(Double.POSITIVE_INFINITY, graph.getShortestPathCost(a, node("e"), RoutingGraph.ALL_MODES, true, null), 0);
+  }
+}
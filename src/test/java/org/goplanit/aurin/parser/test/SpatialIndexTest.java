@@ -0,0 +1,242 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.goplanit.aurin.parser.SpatialIndex;
+import org.goplanit.aurin.parser.SpatialIndexFileWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Test the nearest and within radius queries of the spatial index (and its packed R-trees) against brute force, including empty and single item
+ * trees
+ *
+ * @author markr
+ *
+ */
+public class SpatialIndexTest {
+
+  /** directory to write to */
+  private Path directory;
+
+  /** Create a random network of the given size, with links between consecutive nodes in both directions
+   *
+   * @param numberOfNodes to create
+   * @param random to use
+   * @return network
+   */
+  private static Network createNetwork(int numberOfNodes, Random random) {
+    Network network = NetworkUtils.createNetwork();
+    Node previous = null;
+    for(int index = 0; index < numberOfNodes; ++index) {
+      Node node = network.getFactory().createNode(Id.createNodeId("n" + index), new Coord(random.nextDouble() * 1000, random.nextDouble() * 1000));
+      network.addNode(node);
+      if(previous != null) {
+        network.addLink(network.getFactory().createLink(Id.createLinkId("l" + index), previous, node));
+        network.addLink(network.getFactory().createLink(Id.createLinkId("r" + index), node, previous));
+      }
+      previous = node;
+    }
+    return network;
+  }
+
+  /** Distance from a location to a segment
+   *
+   * @param x of location
+   * @param y of location
+   * @param from start of segment
+   * @param to end of segment
+   * @return distance
+   */
+  private static double segmentDistance(double x, double y, Coordinate from, Coordinate to) {
+    double dx = to.x - from.x;
+    double dy = to.y - from.y;
+    double lengthSquared = dx * dx + dy * dy;
+    double fraction = lengthSquared > 0 ? Math.max(0, Math.min(1, ((x - from.x) * dx + (y - from.y) * dy) / lengthSquared)) : 0;
+    return Math.hypot(x - (from.x + fraction * dx), y - (from.y + fraction * dy));
+  }
+
+  /** Brute force distance from a location to a link
+   *
+   * @param link to compute distance to
+   * @param geometries detailed geometries by link id
+   * @param x of location
+   * @param y of location
+   * @return distance
+   */
+  private static double linkDistance(Link link, Map<String, Coordinate[]> geometries, double x, double y) {
+    Coordinate[] coordinates = geometries.getOrDefault(link.getId().toString(), new Coordinate[] {
+        new Coordinate(link.getFromNode().getCoord().getX(), link.getFromNode().getCoord().getY()),
+        new Coordinate(link.getToNode().getCoord().getX(), link.getToNode().getCoord().getY())});
+    double distance = Double.POSITIVE_INFINITY;
+    for(int index = 1; index < coordinates.length; ++index) {
+      distance = Math.min(distance, segmentDistance(x, y, coordinates[index - 1], coordinates[index]));
+    }
+    return distance;
+  }
+
+  /** Write the spatial index of the network and open it
+   *
+   * @param network to index
+   * @param geometries detailed geometries by link id
+   * @return opened index
+   * @throws Exception thrown if error
+   */
+  private SpatialIndex writeIndex(Network network, Map<String, Coordinate[]> geometries) throws Exception {
+    Path indexFile = Files.createTempFile(directory, "network_spatial", ".bin");
+    new SpatialIndexFileWriter().write(network, geometries, indexFile);
+    return SpatialIndex.open(indexFile);
+  }
+
+  /** Sorted distances of the given items
+   *
+   * @param items to collect distances of
+   * @param distances all distances by item
+   * @return sorted distances
+   */
+  private static double[] sortedDistances(int[] items, double[] distances) {
+    return Arrays.stream(items).mapToDouble(item -> distances[item]).sorted().toArray();
+  }
+
+  /**
+   * Create the directory to write to
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("spatial");
+  }
+
+  /**
+   * Remove the written files
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeFiles() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Nearest k and within radius nodes and links of a network spanning multiple tree levels match brute force, also with a detailed link geometry
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void bruteForceTest() throws Exception {
+    var random = new Random(7);
+    Network network = createNetwork(500, random);
+    Map<String, Coordinate[]> geometries = Map.of("l10", new Coordinate[] {
+        new Coordinate(network.getLinks().get(Id.createLinkId("l10")).getFromNode().getCoord().getX(), 0), new Coordinate(500, 500), new Coordinate(1000, 0)});
+    SpatialIndex index = writeIndex(network, geometries);
+    assertEquals(500, index.getNumberOfNodes());
+    assertEquals(998, index.getNumberOfLinks());
+
+    for(int query = 0; query < 50; ++query) {
+      double x = random.nextDouble() * 1200 - 100;
+      double y = random.nextDouble() * 1200 - 100;
+      double radius = random.nextDouble() * 150;
+
+      double[] nodeDistances = new double[index.getNumberOfNodes()];
+      List<Integer> nodesWithinRadius = new ArrayList<>();
+      for(Node node : network.getNodes().values()) {
+        int item = index.getNodeIndex(node.getId().toString());
+        nodeDistances[item] = Math.hypot(x - node.getCoord().getX(), y - node.getCoord().getY());
+        if(nodeDistances[item] <= radius) {
+          nodesWithinRadius.add(item);
+        }
+      }
+      double[] sortedNodeDistances = Arrays.stream(nodeDistances).sorted().toArray();
+      assertArrayEquals(Arrays.copyOf(sortedNodeDistances, 5), sortedDistances(index.getNearestNodes(x, y, 5, Double.POSITIVE_INFINITY), nodeDistances), 1e-9);
+      assertEquals(sortedNodeDistances[0], nodeDistances[index.getNearestNode(x, y)], 1e-9);
+      assertArrayEquals(nodesWithinRadius.stream().mapToInt(Integer::intValue).sorted().toArray(),
+          Arrays.stream(index.getNodesWithinRadius(x, y, radius)).sorted().toArray());
+      assertEquals(nodesWithinRadius.size(), index.getNearestNodes(x, y, Integer.MAX_VALUE, radius).length);
+
+      double[] linkDistances = new double[index.getNumberOfLinks()];
+      List<Integer> linksWithinRadius = new ArrayList<>();
+      for(Link link : network.getLinks().values()) {
+        int item = index.getLinkIndex(link.getId().toString());
+        linkDistances[item] = linkDistance(link, geometries, x, y);
+        assertEquals(linkDistances[item], index.getDistanceToLink(item, x, y), 1e-9);
+        if(linkDistances[item] <= radius) {
+          linksWithinRadius.add(item);
+        }
+      }
+      double[] sortedLinkDistances = Arrays.stream(linkDistances).sorted().toArray();
+      assertArrayEquals(Arrays.copyOf(sortedLinkDistances, 8), sortedDistances(index.getNearestLinks(x, y, 8, Double.POSITIVE_INFINITY), linkDistances), 1e-9);
+      assertEquals(sortedLinkDistances[0], linkDistances[index.getNearestLink(x, y)], 1e-9);
+      assertArrayEquals(linksWithinRadius.stream().mapToInt(Integer::intValue).sorted().toArray(),
+          Arrays.stream(index.getLinksWithinRadius(x, y, radius)).sorted().toArray());
+    }
+  }
+
+  /**
+   * An empty network yields empty trees, queries find nothing
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void emptyTreeTest() throws Exception {
+    SpatialIndex index = writeIndex(NetworkUtils.createNetwork(), null);
+    assertEquals(0, index.getNumberOfNodes());
+    assertEquals(0, index.getNumberOfLinks());
+    assertEquals(-1, index.getNearestNode(0, 0));
+    assertEquals(-1, index.getNearestLink(0, 0));
+    assertEquals(0, index.getNearestNodes(0, 0, 3, Double.POSITIVE_INFINITY).length);
+    assertEquals(0, index.getNodesWithinRadius(0, 0, 1000).length);
+    assertEquals(0, index.getLinksWithinRadius(0, 0, 1000).length);
+  }
+
+  /**
+   * A single node and a single link yield single item trees, found regardless of the distance unless beyond the maximum distance or radius
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void singleItemTreeTest() throws Exception {
+    Network network = NetworkUtils.createNetwork();
+    Node node = network.getFactory().createNode(Id.createNodeId("a"), new Coord(10, 20));
+    network.addNode(node);
+    SpatialIndex index = writeIndex(network, null);
+    assertEquals(0, index.getNearestNode(500, 500));
+    assertArrayEquals(new int[] {0}, index.getNearestNodes(500, 500, 3, Double.POSITIVE_INFINITY));
+    assertEquals(0, index.getNearestNodes(500, 500, 3, 10).length);
+    assertArrayEquals(new int[] {0}, index.getNodesWithinRadius(13, 24, 5));
+    assertEquals(0, index.getNodesWithinRadius(13, 24, 4.9).length);
+    assertEquals(-1, index.getNearestLink(0, 0));
+
+    Node other = network.getFactory().createNode(Id.createNodeId("b"), new Coord(110, 20));
+    network.addNode(other);
+    network.addLink(network.getFactory().createLink(Id.createLinkId("ab"), node, other));
+    index = writeIndex(network, null);
+    assertEquals(1, index.getNumberOfLinks());
+    assertEquals(0, index.getNearestLink(60, 500));
+    assertEquals(480, index.getDistanceToLink(0, 60, 500), 1e-9);
+    assertArrayEquals(new int[] {0}, index.getLinksWithinRadius(60, 25, 5));
+    assertEquals("ab", index.getLinkId(index.getNearestLink(0, 0)));
+  }
+}
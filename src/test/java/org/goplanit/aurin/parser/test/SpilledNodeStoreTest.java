@@ -0,0 +1,196 @@
+package org.goplanit.aurin.parser.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.goplanit.aurin.parser.SpilledNodeStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test spilling nodes to the node store, sorting them when added out of order, and looking them up by id
+ *
+ * @author markr
+ *
+ */
+public class SpilledNodeStoreTest {
+
+  /** directory to spill to */
+  private Path directory;
+
+  /** Verify the store contains exactly the expected nodes, in id order
+   *
+   * @param store to verify
+   * @param expected coordinates (longitude, latitude) by id
+   */
+  private static void assertNodes(SpilledNodeStore store, Map<Long, double[]> expected) {
+    var sortedExpected = new TreeMap<>(expected);
+    assertEquals(sortedExpected.size(), store.size());
+    long index = 0;
+    for(var entry : sortedExpected.entrySet()) {
+      assertEquals(entry.getKey().longValue(), store.getId(index));
+      assertEquals(index, store.indexOf(entry.getKey()));
+      assertEquals(entry.getValue()[0], store.getLongitude(index), 1e-7);
+      assertEquals(entry.getValue()[1], store.getLatitude(index), 1e-7);
+      ++index;
+    }
+  }
+
+  /**
+   * Create the directory to spill to
+   *
+   * @throws Exception thrown if error
+   */
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("spill");
+  }
+
+  /**
+   * Remove the spill directory, the store removes its own files
+   *
+   * @throws Exception thrown if error
+   */
+  @After
+  public void removeDirectory() throws Exception {
+    try(var files = Files.list(directory)){
+      for(Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Nodes added in id order are found by id without sorting, ids absent from the store are not
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void sortedInputTest() throws Exception {
+    Map<Long, double[]> nodes = new LinkedHashMap<>();
+    try(var store = new SpilledNodeStore(directory)){
+      for(long id = 10; id < 1000; id += 10) {
+        double[] coordinate = {151.1 + id * 1e-5, -33.8 - id * 1e-5};
+        nodes.put(id, coordinate);
+        store.add(id, coordinate[0], coordinate[1]);
+      }
+      store.finish();
+      assertTrue(store.isFinished());
+      assertNodes(store, nodes);
+      assertEquals(-1, store.indexOf(15));
+      assertEquals(-1, store.indexOf(0));
+      assertEquals(-1, store.indexOf(1000));
+      try {
+        store.add(2000, 0, 0);
+        fail("node added to finished store");
+      }catch(IOException e) {
+        /* expected */
+      }
+    }
+  }
+
+  /**
+   * Nodes added out of order, including negative (JOSM) ids and duplicate ids within and across sorted runs, are sorted by signed id, keeping
+   * the first node added with each id
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void unsortedNegativeAndDuplicateIdsTest() throws Exception {
+    long[] ids = {5, -3, 12, -3, 0, -1000000000000L, 7, 5, 12, -1, 6000000000000L, -1};
+    Map<Long, double[]> firstNodes = new LinkedHashMap<>();
+    /* runs of three nodes, such that duplicates occur within runs as well as across runs */
+    try(var store = new SpilledNodeStore(directory, 3)){
+      for(int index = 0; index < ids.length; ++index) {
+        double[] coordinate = {-180 + index * 12.3456789, -85 + index * 7.6543219};
+        firstNodes.putIfAbsent(ids[index], coordinate);
+        store.add(ids[index], coordinate[0], coordinate[1]);
+      }
+      assertEquals(ids.length, store.size());
+      store.finish();
+      assertNodes(store, firstNodes);
+      assertEquals(-1, store.indexOf(-2));
+      assertEquals(-1, store.indexOf(Long.MIN_VALUE));
+      assertEquals(-1, store.indexOf(Long.MAX_VALUE));
+    }
+  }
+
+  /**
+   * With more runs than are merged at a time, runs are merged in multiple passes, still keeping the first node added with each id when
+   * duplicates end up in different intermediate runs, without leaving intermediate files behind
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void multiPassMergeTest() throws Exception {
+    Map<Long, double[]> firstNodes = new LinkedHashMap<>();
+    /* runs of three nodes merged two at a time, 334 runs require eight intermediate passes before the final merge */
+    try(var store = new SpilledNodeStore(directory, 3, 2)){
+      for(int index = 0; index < 1000; ++index) {
+        long id = (index * 7919L) % 601 - 300;
+        double[] coordinate = {-180 + index * 0.3456789, -85 + index * 0.1543219};
+        firstNodes.putIfAbsent(id, coordinate);
+        store.add(id, coordinate[0], coordinate[1]);
+      }
+      store.finish();
+      assertNodes(store, firstNodes);
+      try(var files = Files.list(directory)){
+        assertEquals(2, files.count());
+      }
+    }
+  }
+
+  /**
+   * Flags of a node are combined and kept per node
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void flagsTest() throws Exception {
+    try(var store = new SpilledNodeStore(directory)){
+      store.add(2, 1, 1);
+      store.add(-4, 2, 2);
+      store.add(9, 3, 3);
+      store.finish();
+      long index = store.indexOf(2);
+      store.addFlags(index, SpilledNodeStore.REFERENCED);
+      store.addFlags(index, SpilledNodeStore.LINK_NODE);
+      store.addFlags(store.indexOf(9), SpilledNodeStore.REFERENCED);
+      assertEquals(SpilledNodeStore.REFERENCED | SpilledNodeStore.LINK_NODE, store.getFlags(index));
+      assertEquals(0, store.getFlags(store.indexOf(-4)));
+      assertEquals(SpilledNodeStore.REFERENCED, store.getFlags(store.indexOf(9)));
+    }
+  }
+
+  /**
+   * An empty store finds nothing, ids beyond the sortable range are rejected when sorting is required
+   *
+   * @throws Exception thrown if error
+   */
+  @Test
+  public void emptyAndOutOfRangeTest() throws Exception {
+    try(var store = new SpilledNodeStore(directory)){
+      store.finish();
+      assertEquals(0, store.size());
+      assertEquals(-1, store.indexOf(1));
+    }
+    try(var store = new SpilledNodeStore(directory)){
+      store.add(Long.MAX_VALUE, 0, 0);
+      store.add(1, 0, 0);
+      store.finish();
+      fail("out of range id sorted");
+    }catch(IOException e) {
+      /* expected */
+    }
+  }
+}